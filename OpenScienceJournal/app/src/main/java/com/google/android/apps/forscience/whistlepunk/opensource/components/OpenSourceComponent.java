@@ -18,6 +18,7 @@ package com.google.android.apps.forscience.whistlepunk.opensource.components;
 
 import com.google.android.apps.forscience.whistlepunk.WhistlePunkApplication;
 import com.google.android.apps.forscience.whistlepunk.modules.ContextModule;
+import com.google.android.apps.forscience.whistlepunk.modules.DerivedSensorModule;
 import com.google.android.apps.forscience.whistlepunk.modules.InputDeviceModule;
 import com.google.android.apps.forscience.whistlepunk.modules.NativeBleDiscovererModule;
 import com.google.android.apps.forscience.whistlepunk.modules.ScalarInputDiscoveryModule;
@@ -30,7 +31,7 @@ import dagger.Component;
 
 @Component(modules = {FeatureDiscoveryModule.class, FeedbackModule.class, UsageTrackerModule.class,
         NativeBleDiscovererModule.class, InputDeviceModule.class, ScalarInputDiscoveryModule.class,
-        ContextModule.class, PerfTrackerModule.class})
+        ContextModule.class, PerfTrackerModule.class, DerivedSensorModule.class})
 public interface OpenSourceComponent {
     void inject(WhistlePunkApplication app);
 }
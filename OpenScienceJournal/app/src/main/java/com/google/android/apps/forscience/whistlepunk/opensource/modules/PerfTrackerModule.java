@@ -72,6 +72,40 @@ public class PerfTrackerModule {
             public void watchForMemoryLeak(Object object) {
 
             }
+
+            @Override
+            public void recordQueueStats(String queueName, int capacity, int highWaterMark,
+                    long dropCount) {
+
+            }
+
+            @Override
+            public void recordTimeToFirstSample(String sensorId, long millis) {
+
+            }
+
+            @Override
+            public void recordAudioCaptureStats(double samplesPerSecond,
+                    long droppedBufferCount) {
+
+            }
+
+            @Override
+            public void recordPreTriggerBufferBytes(long bytes) {
+
+            }
+
+            @Override
+            public void recordBleConnectionStats(long connectMillis, int connectAttempts,
+                    double notificationsPerSecond) {
+
+            }
+
+            @Override
+            public void recordExperimentCacheStats(int capacity, int hitCount, int missCount,
+                    int evictionCount) {
+
+            }
         };
     }
 }
@@ -19,6 +19,7 @@ package com.google.android.apps.forscience.whistlepunk.filemetadata;
 import android.support.annotation.NonNull;
 import android.test.InstrumentationTestCase;
 
+import com.google.android.apps.forscience.whistlepunk.RecordingPerfTracker;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciGadgetInfo;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
@@ -27,6 +28,8 @@ import com.google.android.apps.forscience.whistlepunk.metadata.Version;
 import com.google.protobuf.nano.MessageNano;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Tests for the ExperimentCache class.
@@ -120,8 +123,9 @@ public class ExperimentCacheTest extends InstrumentationTestCase {
 
     public void testExperimentWithChanges() {
         Experiment experiment = Experiment.newExperiment(10, "exp_localId", 0);
+        // Long write delay, so that the write is still pending when checked.
         ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
-                getFailureFailsListener(), 0);
+                getFailureFailsListener(), 100_000);
         cache.createNewExperiment(experiment);
         assertTrue(cache.needsWrite());
 
@@ -142,6 +146,26 @@ public class ExperimentCacheTest extends InstrumentationTestCase {
         assertNull(cache.getActiveExperimentForTests());
     }
 
+    public void testWritesExperimentAsItWasWhenUpdated() {
+        Experiment experiment = Experiment.newExperiment(10, "exp_localId", 0);
+        // Long write delay, so that only the explicit write happens.
+        ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
+                getFailureFailsListener(), 100_000);
+        cache.createNewExperiment(experiment);
+        experiment.setTitle("Saved");
+        cache.updateExperiment(experiment, experiment.snapshot());
+
+        // Changes made after the snapshot, as the UI keeps doing while the writer runs, wait
+        // for the next update.
+        experiment.setTitle("Not saved yet");
+        cache.writeActiveExperimentFile();
+        cache.loadActiveExperimentFromFile(experiment.getExperimentOverview());
+        assertEquals("Saved", cache.getActiveExperimentForTests().getTitle());
+
+        // Clean up.
+        cache.deleteExperiment("exp_localId");
+    }
+
     public void testChangingExperimentWritesOldOne() {
         ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
                 getFailureFailsListener(), 0);
@@ -161,9 +185,70 @@ public class ExperimentCacheTest extends InstrumentationTestCase {
         assertEquals(cache.getActiveExperimentForTests().getTitle(), "Title");
     }
 
+    public void testSwitchingRecentExperimentsDoesNotWrite() {
+        // Long write delay, so that nothing is written by the timer during the test.
+        ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
+                getFailureFailsListener(), 100_000, 2);
+        List<String> stats = new ArrayList<>();
+        cache.setPerfTracker(new RecordingPerfTracker(new ArrayList<>()) {
+            @Override
+            public void recordExperimentCacheStats(int capacity, int hitCount, int missCount,
+                    int evictionCount) {
+                stats.add(capacity + " " + hitCount + " " + missCount + " " + evictionCount);
+            }
+        });
+        ExperimentCache.deleteRecursive(getExperimentDirectory("exp_firstId"));
+        ExperimentCache.deleteRecursive(getExperimentDirectory("exp_secondId"));
+        ExperimentCache.deleteRecursive(getExperimentDirectory("exp_thirdId"));
+
+        Experiment first = Experiment.newExperiment(10, "exp_firstId", 0);
+        Experiment second = Experiment.newExperiment(20, "exp_secondId", 0);
+        cache.createNewExperiment(first);
+        cache.createNewExperiment(second);
+        first.setTitle("First");
+        cache.updateExperiment(first);
+
+        assertSame(second, cache.getExperiment(second.getExperimentOverview()));
+        assertSame(first, cache.getExperiment(first.getExperimentOverview()));
+        assertEquals("2 2 0 0", stats.get(stats.size() - 1));
+        assertEquals(0, getExperimentFile("exp_firstId").length());
+        assertEquals(0, getExperimentFile("exp_secondId").length());
+
+        // The least recently used experiment is written when it is evicted...
+        cache.createNewExperiment(Experiment.newExperiment(30, "exp_thirdId", 0));
+        assertEquals("2 2 0 1", stats.get(stats.size() - 1));
+        assertEquals(0, getExperimentFile("exp_firstId").length());
+        assertTrue(getExperimentFile("exp_secondId").length() > 0);
+
+        // ...and read back in when it is next needed, evicting the next one.
+        Experiment reloaded = cache.getExperiment(second.getExperimentOverview());
+        assertEquals(20, reloaded.getCreationTimeMs());
+        assertEquals("2 2 1 2", stats.get(stats.size() - 1));
+        assertTrue(getExperimentFile("exp_firstId").length() > 0);
+
+        assertTrue(cache.needsWrite());
+        cache.saveImmediately();
+        assertFalse(cache.needsWrite());
+        assertTrue(getExperimentFile("exp_thirdId").length() > 0);
+
+        cache.deleteExperiment("exp_firstId");
+        cache.deleteExperiment("exp_secondId");
+        cache.deleteExperiment("exp_thirdId");
+    }
+
+    private File getExperimentFile(String experimentId) {
+        return new File(getExperimentDirectory(experimentId), FileMetadataManager.EXPERIMENT_FILE);
+    }
+
+    private File getExperimentDirectory(String experimentId) {
+        return new File(getInstrumentation().getContext().getFilesDir() + "/experiments/"
+                + experimentId);
+    }
+
     public void testUpgradeStartsWriteTimer() {
+        // Long write delay, so that the write is still pending when checked.
         ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
-                getFailureFailsListener(), 0);
+                getFailureFailsListener(), 100_000);
         GoosciExperiment.Experiment proto = createExperimentProto();
         proto.fileVersion.version = 0;
         proto.fileVersion.minorVersion = 0;
@@ -268,6 +353,38 @@ public class ExperimentCacheTest extends InstrumentationTestCase {
         assertEquals(1, mFailureCount);
     }
 
+    public void testUpgradesFrom1To2() {
+        ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
+                getFailureFailsListener(), 0);
+        GoosciExperiment.Experiment proto = createExperimentProto();
+        proto.fileVersion.version = 1;
+        proto.fileVersion.minorVersion = 1;
+        proto.fileVersion.platformVersion = 2;
+        cache.upgradeExperimentVersionIfNeeded(proto, new GoosciUserMetadata.ExperimentOverview(),
+                2, 0, 2);
+        assertEquals(2, proto.fileVersion.version);
+        assertEquals(0, proto.fileVersion.minorVersion);
+        assertTrue(cache.needsWrite());
+    }
+
+    public void testNewerMajorVersionIsNotLoaded() {
+        ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
+                getFailureExpectedListener(), 0);
+        ExperimentCache.deleteRecursive(getExperimentDirectory("exp_newerId"));
+        GoosciExperiment.Experiment proto = createExperimentProto();
+        proto.fileVersion.version = ExperimentCache.VERSION + 1;
+        GoosciUserMetadata.ExperimentOverview overview =
+                new GoosciUserMetadata.ExperimentOverview();
+        overview.experimentId = "exp_newerId";
+        assertTrue(getExperimentFile("exp_newerId").getParentFile().mkdirs());
+        assertTrue(new ProtoFileHelper<GoosciExperiment.Experiment>().writeToFile(
+                getExperimentFile("exp_newerId"), proto));
+
+        cache.loadActiveExperimentFromFile(overview);
+        assertNull(cache.getActiveExperimentForTests());
+        assertEquals(1, mFailureCount);
+    }
+
     public void testPlatformVersion1To2() {
         // From 1.1.1 to 1.1.2, we index the trials within the experiment.
         ExperimentCache cache = new ExperimentCache(getInstrumentation().getContext(),
@@ -56,4 +56,9 @@ public interface BleClient {
     String getFirstDeviceAddress();
 
     void setMaxNoDevices(int maxNoDevices);
+
+    /**
+     * @return the manager that keeps this client's sensor devices connected
+     */
+    BleConnectionManager getConnectionManager();
 }
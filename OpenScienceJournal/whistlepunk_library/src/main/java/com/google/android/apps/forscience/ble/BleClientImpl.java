@@ -28,6 +28,10 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.google.android.apps.forscience.whistlepunk.CurrentTimeClock;
+import com.google.android.apps.forscience.whistlepunk.WhistlePunkApplication;
+import com.google.android.apps.forscience.whistlepunk.sensors.SystemScheduler;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -44,6 +48,7 @@ public class BleClientImpl implements BleClient {
 
     private final Context context;
     private final List<BleFlow> flows;
+    private BleConnectionManager connectionManager;
 
     // service state changes
     private final ServiceConnection serviceConnection = new ServiceConnection() {
@@ -85,6 +90,9 @@ public class BleClientImpl implements BleClient {
         for (BleFlow flow : flows) {
             flow.close();
         }
+        if (connectionManager != null) {
+            connectionManager.disconnectAll();
+        }
         if (bleService != null) {
             context.unbindService(serviceConnection);
         }
@@ -221,4 +229,15 @@ public class BleClientImpl implements BleClient {
     public void setMaxNoDevices(int maxNoDevices) {
         bleService.setMaxNoDevices(maxNoDevices <= 0 ? 1 : maxNoDevices);
     }
+
+    @Override
+    public BleConnectionManager getConnectionManager() {
+        if (connectionManager == null) {
+            connectionManager = new BleConnectionManager(context, this, new SystemScheduler(),
+                    new CurrentTimeClock());
+            connectionManager.setPerfTracker(
+                    WhistlePunkApplication.maybeGetPerfTrackerProvider(context));
+        }
+        return connectionManager;
+    }
 }
@@ -0,0 +1,505 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.ArrayMap;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.google.android.apps.forscience.javalib.Delay;
+import com.google.android.apps.forscience.javalib.Scheduler;
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps several BLE devices connected at once.
+ *
+ * Each device moves through its own states (connecting, discovering services, ready), sharing a
+ * {@link GattOperationQueue} so that a slow or absent device doesn't hold up the others.  If a
+ * connection fails or drops, it is retried with exponential backoff until
+ * {@link #disconnect(String)} is called.
+ *
+ * Each device has one listener, and all calls are made on the main thread.
+ */
+public class BleConnectionManager {
+    private static final String TAG = "BleConnectionManager";
+
+    public interface DeviceListener {
+        /**
+         * The device is connected and its services have been discovered.  Called again after
+         * each reconnection.
+         */
+        void onReady(String address);
+
+        /**
+         * The connection failed or dropped; it will be retried.
+         */
+        void onConnectionLost(String address);
+
+        void onNotification(String address, UUID characteristic, int flags, byte[] value);
+
+        /**
+         * A value asked for with {@link #readCharacteristic} has arrived.
+         */
+        void onCharacteristicRead(String address, UUID characteristic, int flags, byte[] value);
+    }
+
+    public enum State {CONNECTING, DISCOVERING, READY, WAITING_TO_RETRY, DISCONNECTED}
+
+    /**
+     * Connection timing and notification throughput for one device.
+     */
+    public static class Stats {
+        private final long mConnectMillis;
+        private final int mConnectAttempts;
+        private final long mNotificationCount;
+        private final double mNotificationsPerSecond;
+
+        Stats(long connectMillis, int connectAttempts, long notificationCount,
+                double notificationsPerSecond) {
+            mConnectMillis = connectMillis;
+            mConnectAttempts = connectAttempts;
+            mNotificationCount = notificationCount;
+            mNotificationsPerSecond = notificationsPerSecond;
+        }
+
+        /**
+         * @return how long the most recent connection took from the first attempt until the
+         * device was ready, or -1 if it has never been ready.
+         */
+        public long getConnectMillis() {
+            return mConnectMillis;
+        }
+
+        /**
+         * @return how many attempts the most recent connection took
+         */
+        public int getConnectAttempts() {
+            return mConnectAttempts;
+        }
+
+        /**
+         * @return notifications received since the device was last ready
+         */
+        public long getNotificationCount() {
+            return mNotificationCount;
+        }
+
+        public double getNotificationsPerSecond() {
+            return mNotificationsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{connectMillis=" + mConnectMillis + ", attempts=" + mConnectAttempts
+                    + ", notifications=" + mNotificationCount + ", perSecond="
+                    + mNotificationsPerSecond + "}";
+        }
+    }
+
+    static final Delay CONNECT_TIMEOUT = Delay.seconds(10);
+    static final Delay OPERATION_TIMEOUT = Delay.seconds(5);
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    // Some platforms, such as ChromeOS, only make services available a little after discovery
+    // reports success, so look again a few times before giving up on a required service.
+    private static final Delay SERVICES_RETRY_DELAY = Delay.millis(500);
+
+    private final Context mContext;
+    private final BleClient mClient;
+    private final Scheduler mScheduler;
+    private final Clock mClock;
+    private final GattOperationQueue mQueue;
+    private final Map<String, DeviceConnection> mDevices = new ArrayMap<>();
+    private PerfTrackerProvider mPerfTracker;
+
+    public BleConnectionManager(Context context, BleClient client, Scheduler scheduler,
+            Clock clock) {
+        mContext = context;
+        mClient = client;
+        mScheduler = scheduler;
+        mClock = clock;
+        mQueue = new GattOperationQueue(scheduler, 1);
+    }
+
+    public void setPerfTracker(PerfTrackerProvider perfTracker) {
+        mPerfTracker = perfTracker;
+    }
+
+    /**
+     * Connects to {@code address}, and keeps it connected until {@link #disconnect(String)}.
+     */
+    public void connect(String address, DeviceListener listener) {
+        connect(address, null, listener);
+    }
+
+    /**
+     * Like {@link #connect(String, DeviceListener)}, but the device is only ready once
+     * {@code serviceId} has been found, or found to be missing after a few retries.
+     */
+    public void connect(String address, UUID serviceId, DeviceListener listener) {
+        DeviceConnection device = mDevices.get(address);
+        if (device != null) {
+            device.mListener = listener;
+            if (device.mState == State.READY) {
+                listener.onReady(address);
+            }
+            return;
+        }
+        device = new DeviceConnection(address, serviceId, listener);
+        mDevices.put(address, device);
+        MyBleService.getBroadcastManager(mContext).registerReceiver(device.mReceiver,
+                BleEvents.createIntentFilter(address));
+        device.attempt();
+    }
+
+    public void disconnect(String address) {
+        DeviceConnection device = mDevices.remove(address);
+        if (device == null) {
+            return;
+        }
+        MyBleService.getBroadcastManager(mContext).unregisterReceiver(device.mReceiver);
+        mScheduler.unschedule(device.mRetry);
+        mScheduler.unschedule(device.mRediscoverServices);
+        mQueue.cancelAll(address);
+        if (device.mState == State.READY) {
+            device.reportStats();
+        }
+        device.mState = State.DISCONNECTED;
+        mClient.disconnectDevice(address);
+    }
+
+    public void disconnectAll() {
+        for (String address : new ArrayList<>(mDevices.keySet())) {
+            disconnect(address);
+        }
+    }
+
+    /**
+     * Runs {@code operation} once the device's earlier operations are done.
+     */
+    public void submit(String address, GattOperationQueue.Operation operation) {
+        mQueue.submit(address, operation, OPERATION_TIMEOUT);
+    }
+
+    /**
+     * Tells the manager that the operation submitted for {@code address} has been answered.
+     */
+    public void complete(String address) {
+        mQueue.complete(address);
+    }
+
+    /**
+     * @return true if the connected device offers {@code characteristicId} in {@code serviceId}
+     */
+    public boolean hasCharacteristic(String address, UUID serviceId, UUID characteristicId) {
+        return findCharacteristic(address, serviceId, characteristicId) != null;
+    }
+
+    /**
+     * Reads a characteristic; the value goes to {@link DeviceListener#onCharacteristicRead}.
+     */
+    public void readCharacteristic(final String address, UUID serviceId,
+            UUID characteristicId) {
+        submitForCharacteristic(address, serviceId, characteristicId, true,
+                characteristic -> mClient.readValue(address, characteristic));
+    }
+
+    public void writeCharacteristic(final String address, UUID serviceId, UUID characteristicId,
+            final byte[] value) {
+        submitForCharacteristic(address, serviceId, characteristicId, true,
+                characteristic -> mClient.writeValue(address, characteristic, value));
+    }
+
+    public void setNotificationsEnabled(final String address, UUID serviceId,
+            UUID characteristicId, final boolean enabled) {
+        // Android answers this at once, rather than with an event.
+        submitForCharacteristic(address, serviceId, characteristicId, false, characteristic -> {
+            boolean changed = enabled ? mClient.enableNotifications(address, characteristic)
+                    : mClient.disableNotifications(address, characteristic);
+            if (!changed) {
+                if (Log.isLoggable(TAG, Log.WARN)) {
+                    Log.w(TAG, address + " could not change notifications for "
+                            + characteristic.getUuid());
+                }
+            }
+        });
+    }
+
+    private interface CharacteristicAction {
+        void start(BluetoothGattCharacteristic characteristic);
+    }
+
+    /**
+     * @param answered whether the device answers {@code action} with an event, which completes
+     *                 the operation; otherwise it is complete as soon as it starts.
+     */
+    private void submitForCharacteristic(final String address, final UUID serviceId,
+            final UUID characteristicId, final boolean answered,
+            final CharacteristicAction action) {
+        submit(address, new GattOperationQueue.Operation() {
+            @Override
+            public void start() {
+                BluetoothGattCharacteristic characteristic =
+                        findCharacteristic(address, serviceId, characteristicId);
+                if (characteristic == null) {
+                    if (Log.isLoggable(TAG, Log.WARN)) {
+                        Log.w(TAG, address + " has no characteristic " + characteristicId);
+                    }
+                    mQueue.complete(address);
+                    return;
+                }
+                action.start(characteristic);
+                if (!answered) {
+                    mQueue.complete(address);
+                }
+            }
+
+            @Override
+            public void onTimeout() {
+                DeviceConnection device = mDevices.get(address);
+                if (device != null && device.mState == State.READY) {
+                    device.fail("operation timed out");
+                }
+            }
+        });
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(String address, UUID serviceId,
+            UUID characteristicId) {
+        BluetoothGattService service = mClient.getService(address, serviceId);
+        return service == null ? null : service.getCharacteristic(characteristicId);
+    }
+
+    @VisibleForTesting
+    boolean hasOutstandingOperation(String address) {
+        return mQueue.hasOutstanding(address);
+    }
+
+    public State getState(String address) {
+        DeviceConnection device = mDevices.get(address);
+        return device == null ? State.DISCONNECTED : device.mState;
+    }
+
+    /**
+     * @return connection statistics for {@code address}, or null if it isn't managed
+     */
+    public Stats getStats(String address) {
+        DeviceConnection device = mDevices.get(address);
+        return device == null ? null : device.getStats();
+    }
+
+    private class DeviceConnection {
+        private final String mAddress;
+        private final UUID mServiceId;
+        private DeviceListener mListener;
+        private State mState = State.DISCONNECTED;
+
+        private long mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+        private int mAttempts = 0;
+        private long mFirstAttemptMillis;
+        private long mConnectMillis = -1;
+        private int mConnectAttempts = 0;
+        private long mReadyAtMillis;
+        private long mNotificationCount = 0;
+        private int mServiceRetriesLeft = 0;
+
+        private final Runnable mRetry = new Runnable() {
+            @Override
+            public void run() {
+                attempt();
+            }
+        };
+
+        private final Runnable mRediscoverServices = new Runnable() {
+            @Override
+            public void run() {
+                MyBleService.sendServiceDiscoveryIntent(mContext, mAddress, mServiceRetriesLeft);
+            }
+        };
+
+        private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onEvent(intent);
+            }
+        };
+
+        DeviceConnection(String address, UUID serviceId, DeviceListener listener) {
+            mAddress = address;
+            mServiceId = serviceId;
+            mListener = listener;
+        }
+
+        void attempt() {
+            if (mAttempts == 0) {
+                mFirstAttemptMillis = mClock.getNow();
+            }
+            mAttempts++;
+            mState = State.CONNECTING;
+            mQueue.submitConnect(mAddress, new GattOperationQueue.Operation() {
+                @Override
+                public void start() {
+                    if (!mClient.connectToAddress(mAddress)) {
+                        fail("cannot connect");
+                    }
+                }
+
+                @Override
+                public void onTimeout() {
+                    fail("connection timed out");
+                }
+            }, CONNECT_TIMEOUT);
+        }
+
+        private void discoverServices() {
+            mState = State.DISCOVERING;
+            mQueue.submit(mAddress, new GattOperationQueue.Operation() {
+                @Override
+                public void start() {
+                    mClient.findServices(mAddress);
+                }
+
+                @Override
+                public void onTimeout() {
+                    fail("service discovery timed out");
+                }
+            }, OPERATION_TIMEOUT);
+        }
+
+        private void onEvent(Intent intent) {
+            String action = intent.getAction();
+            if (BleEvents.CHAR_CHANGED.equals(action)) {
+                if (mState == State.READY) {
+                    mNotificationCount++;
+                    mListener.onNotification(mAddress,
+                            UUID.fromString(intent.getStringExtra(MyBleService.UUID)),
+                            intent.getIntExtra(MyBleService.FLAGS, 0),
+                            intent.getByteArrayExtra(MyBleService.DATA));
+                }
+            } else if (BleEvents.GATT_CONNECT.equals(action)) {
+                if (mState == State.CONNECTING) {
+                    mQueue.complete(mAddress);
+                    discoverServices();
+                }
+            } else if (BleEvents.SERVICES_OK.equals(action)) {
+                if (mState == State.DISCOVERING) {
+                    int retriesLeft = intent.getIntExtra(MyBleService.INT_PARAM, 0);
+                    if (mServiceId != null && mClient.getService(mAddress, mServiceId) == null
+                            && retriesLeft > 0) {
+                        mServiceRetriesLeft = retriesLeft - 1;
+                        mScheduler.unschedule(mRediscoverServices);
+                        mScheduler.schedule(SERVICES_RETRY_DELAY, mRediscoverServices);
+                        return;
+                    }
+                    mQueue.complete(mAddress);
+                    onReady();
+                }
+            } else if (BleEvents.READ_CHAR_OK.equals(action)) {
+                if (mState == State.READY) {
+                    mQueue.complete(mAddress);
+                    mListener.onCharacteristicRead(mAddress,
+                            UUID.fromString(intent.getStringExtra(MyBleService.UUID)),
+                            intent.getIntExtra(MyBleService.FLAGS, 0),
+                            intent.getByteArrayExtra(MyBleService.DATA));
+                }
+            } else if (BleEvents.WRITE_CHAR_OK.equals(action)
+                    || BleEvents.WRITE_DESC_OK.equals(action)) {
+                if (mState == State.READY) {
+                    mQueue.complete(mAddress);
+                }
+            } else if (BleEvents.GATT_CONNECT_FAIL.equals(action)
+                    || BleEvents.GATT_DISCONNECT.equals(action)
+                    || BleEvents.SERVICES_FAIL.equals(action)
+                    || BleEvents.READ_CHAR_FAIL.equals(action)
+                    || BleEvents.WRITE_CHAR_FAIL.equals(action)
+                    || BleEvents.WRITE_DESC_FAIL.equals(action)) {
+                if (mState != State.WAITING_TO_RETRY) {
+                    fail(action);
+                }
+            }
+        }
+
+        private void onReady() {
+            mState = State.READY;
+            long now = mClock.getNow();
+            mConnectMillis = now - mFirstAttemptMillis;
+            mConnectAttempts = mAttempts;
+            mReadyAtMillis = now;
+            mNotificationCount = 0;
+            mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+            if (Log.isLoggable(TAG, Log.INFO)) {
+                Log.i(TAG, mAddress + " ready after " + mAttempts + " attempt(s), "
+                        + mConnectMillis + "ms");
+            }
+            mAttempts = 0;
+            mListener.onReady(mAddress);
+        }
+
+        private void fail(String reason) {
+            boolean wasReady = mState == State.READY;
+            if (wasReady) {
+                if (Log.isLoggable(TAG, Log.INFO)) {
+                    Log.i(TAG, mAddress + " lost: " + getStats());
+                }
+                reportStats();
+            } else if (Log.isLoggable(TAG, Log.INFO)) {
+                Log.i(TAG, mAddress + " attempt " + mAttempts + " failed: " + reason);
+            }
+            // Make sure the stack isn't still trying to connect before the next device gets a
+            // turn, and drop anything queued for the old connection.
+            mClient.disconnectDevice(mAddress);
+            mQueue.cancelAll(mAddress);
+            mState = State.WAITING_TO_RETRY;
+            mScheduler.unschedule(mRediscoverServices);
+            mScheduler.unschedule(mRetry);
+            mScheduler.schedule(Delay.millis(mBackoffMillis), mRetry);
+            mBackoffMillis = Math.min(mBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+            mListener.onConnectionLost(mAddress);
+        }
+
+        Stats getStats() {
+            double perSecond = 0;
+            if (mState == State.READY) {
+                long elapsed = mClock.getNow() - mReadyAtMillis;
+                perSecond = elapsed <= 0 ? 0 : mNotificationCount * 1000.0 / elapsed;
+            }
+            return new Stats(mConnectMillis, mConnectAttempts, mNotificationCount, perSecond);
+        }
+
+        /**
+         * Reports the connection that is ending to the perf tracker, if there is one.
+         */
+        void reportStats() {
+            if (mPerfTracker != null) {
+                Stats stats = getStats();
+                mPerfTracker.recordBleConnectionStats(stats.getConnectMillis(),
+                        stats.getConnectAttempts(), stats.getNotificationsPerSecond());
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import com.google.android.apps.forscience.javalib.Delay;
+import com.google.android.apps.forscience.javalib.Scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs GATT operations for any number of devices.
+ *
+ * Android only allows one outstanding GATT operation per device, so each device's operations run
+ * one at a time, in order; operations for different devices run side by side.  Connection
+ * attempts are further limited across all devices, since the Bluetooth stack handles them one at a
+ * time anyway, and a device that doesn't answer would otherwise hold up everyone queued behind it
+ * until the stack gives up.  Devices waiting for a slot are served in turn.
+ *
+ * Every operation has a timeout, so a device that stops answering only stalls itself.
+ */
+public class GattOperationQueue {
+    public interface Operation {
+        /**
+         * Starts the operation.  When the device answers, call {@link #complete(String)}.
+         */
+        void start();
+
+        /**
+         * Called if the device did not answer in time.  The device's next operation, if any, is
+         * started after this returns.
+         */
+        void onTimeout();
+    }
+
+    private class Entry {
+        final String mAddress;
+        final Operation mOperation;
+        final Delay mTimeout;
+        final boolean mIsConnect;
+        final Runnable mTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onTimedOut(Entry.this);
+            }
+        };
+
+        Entry(String address, Operation operation, Delay timeout, boolean isConnect) {
+            mAddress = address;
+            mOperation = operation;
+            mTimeout = timeout;
+            mIsConnect = isConnect;
+        }
+    }
+
+    private final Scheduler mScheduler;
+    private final int mMaxConnecting;
+
+    // In the order devices should next be served.
+    private final LinkedHashMap<String, ArrayDeque<Entry>> mQueues = new LinkedHashMap<>();
+    private final Map<String, Entry> mOutstanding = new HashMap<>();
+    private int mConnecting = 0;
+    private boolean mDispatching = false;
+    private boolean mDispatchAgain = false;
+
+    /**
+     * @param maxConnecting how many devices may be connecting at once
+     */
+    public GattOperationQueue(Scheduler scheduler, int maxConnecting) {
+        mScheduler = scheduler;
+        mMaxConnecting = maxConnecting;
+    }
+
+    public void submit(String address, Operation operation, Delay timeout) {
+        enqueue(new Entry(address, operation, timeout, false));
+    }
+
+    /**
+     * Like {@link #submit}, but also waits for one of the limited connection slots.
+     */
+    public void submitConnect(String address, Operation operation, Delay timeout) {
+        enqueue(new Entry(address, operation, timeout, true));
+    }
+
+    /**
+     * Marks the outstanding operation for {@code address} as finished, and starts the next.
+     */
+    public void complete(String address) {
+        Entry entry = mOutstanding.remove(address);
+        if (entry == null) {
+            return;
+        }
+        release(entry);
+        dispatch();
+    }
+
+    /**
+     * Drops all of {@code address}'s operations.  An outstanding one gives up its slot at once,
+     * even though the device may still answer it; callers should disconnect the device.
+     */
+    public void cancelAll(String address) {
+        mQueues.remove(address);
+        Entry entry = mOutstanding.remove(address);
+        if (entry != null) {
+            release(entry);
+        }
+        dispatch();
+    }
+
+    public boolean hasOutstanding(String address) {
+        return mOutstanding.containsKey(address);
+    }
+
+    private void enqueue(Entry entry) {
+        ArrayDeque<Entry> queue = mQueues.get(entry.mAddress);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            mQueues.put(entry.mAddress, queue);
+        }
+        queue.add(entry);
+        dispatch();
+    }
+
+    private void onTimedOut(Entry entry) {
+        if (mOutstanding.get(entry.mAddress) != entry) {
+            return;
+        }
+        mOutstanding.remove(entry.mAddress);
+        release(entry);
+        entry.mOperation.onTimeout();
+        dispatch();
+    }
+
+    private void release(Entry entry) {
+        mScheduler.unschedule(entry.mTimeoutRunnable);
+        if (entry.mIsConnect) {
+            mConnecting--;
+        }
+    }
+
+    private void dispatch() {
+        // Operations may complete, or queue more operations, as they start.
+        if (mDispatching) {
+            mDispatchAgain = true;
+            return;
+        }
+        mDispatching = true;
+        try {
+            do {
+                mDispatchAgain = false;
+                dispatchOnce();
+            } while (mDispatchAgain);
+        } finally {
+            mDispatching = false;
+        }
+    }
+
+    private void dispatchOnce() {
+        List<String> addresses = new ArrayList<>(mQueues.keySet());
+        for (String address : addresses) {
+            ArrayDeque<Entry> queue = mQueues.get(address);
+            if (queue == null || mOutstanding.containsKey(address)) {
+                continue;
+            }
+            Entry next = queue.peek();
+            if (next.mIsConnect && mConnecting >= mMaxConnecting) {
+                continue;
+            }
+            queue.poll();
+            // Whoever was just served goes to the back of the line.
+            mQueues.remove(address);
+            if (!queue.isEmpty()) {
+                mQueues.put(address, queue);
+            }
+            start(next);
+        }
+    }
+
+    private void start(Entry entry) {
+        mOutstanding.put(entry.mAddress, entry);
+        if (entry.mIsConnect) {
+            mConnecting++;
+        }
+        mScheduler.schedule(entry.mTimeout, entry.mTimeoutRunnable);
+        entry.mOperation.start();
+    }
+}
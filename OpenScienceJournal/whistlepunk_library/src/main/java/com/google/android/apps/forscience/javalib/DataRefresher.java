@@ -21,6 +21,11 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
 /**
  * A data refresher which publishes the last known data value when streaming.
+ *
+ * New values are published as soon as they are set.  The periodic refresh only repeats the last
+ * value if nothing has been published for a whole refresh period, so that sensors that set values
+ * often don't get extra points.  Otherwise it waits for the rest of the period after the latest
+ * value, so the last value is repeated one period after it was set rather than up to two.
  */
 public class DataRefresher extends Refresher {
     private static final int SENSOR_REFRESH_RATE = 100;  // Refresh rate in ms.
@@ -29,6 +34,9 @@ public class DataRefresher extends Refresher {
     protected boolean streaming = false;
     private double mValue;
     private Clock mClock;
+    private final int mRefreshRateMillis;
+    private boolean mValueChanged = false;
+    private long mLastPublishedMillis;
 
     public DataRefresher(Scheduler scheduler, Clock clock) {
         this(scheduler, clock, SENSOR_REFRESH_RATE);
@@ -37,6 +45,7 @@ public class DataRefresher extends Refresher {
     public DataRefresher(Scheduler scheduler, Clock clock, int sensorRefreshRateMillis) {
         super(scheduler, Delay.millis(sensorRefreshRateMillis));
         mClock = clock;
+        mRefreshRateMillis = sensorRefreshRateMillis;
     }
 
     public void setStreamConsumer(StreamConsumer consumer) {
@@ -46,6 +55,7 @@ public class DataRefresher extends Refresher {
     public void startStreaming() {
         if (!streaming) {
             streaming = true;
+            mValueChanged = true;
             refresh();
         }
     }
@@ -57,6 +67,7 @@ public class DataRefresher extends Refresher {
     public void setValue(double value) {
         if (value != mValue) {
             mValue = value;
+            mValueChanged = true;
             refresh();
         }
     }
@@ -69,8 +80,21 @@ public class DataRefresher extends Refresher {
     protected boolean doRefresh() {
         if (streaming && streamConsumer != null) {
             long now = mClock.getNow();
-            streamConsumer.addData(now, getValue(now));
+            if (mValueChanged || now - mLastPublishedMillis >= mRefreshRateMillis) {
+                mValueChanged = false;
+                mLastPublishedMillis = now;
+                streamConsumer.addData(now, getValue(now));
+            }
         }
         return streaming;
     }
+
+    @Override
+    protected Delay getNextDelay() {
+        long sincePublished = mClock.getNow() - mLastPublishedMillis;
+        if (sincePublished <= 0 || sincePublished >= mRefreshRateMillis) {
+            return super.getNextDelay();
+        }
+        return Delay.millis(mRefreshRateMillis - sincePublished);
+    }
 }
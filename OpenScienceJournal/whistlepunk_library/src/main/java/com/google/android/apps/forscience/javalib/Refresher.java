@@ -16,6 +16,11 @@
 
 package com.google.android.apps.forscience.javalib;
 
+/**
+ * Calls {@link #doRefresh()} on every {@link #refresh()}, and again after a delay for as long as
+ * doRefresh asks.  At most one refresh is scheduled at a time, however often refresh() is called,
+ * so frequent callers cost no scheduler work.
+ */
 public abstract class Refresher {
     private final Scheduler mScheduler;
 
@@ -38,10 +43,18 @@ public abstract class Refresher {
         final boolean rescheduleWouldBeUseful = doRefresh();
         if (rescheduleWouldBeUseful && !mRefreshScheduled) {
             mRefreshScheduled = true;
-            mScheduler.schedule(mDelay, mRefreshRunnable);
+            mScheduler.schedule(getNextDelay(), mRefreshRunnable);
         }
     }
 
+    /**
+     * @return how long to wait before the next scheduled refresh.  By default this is the delay
+     * given to the constructor; override to wait only for what is left of a period under way.
+     */
+    protected Delay getNextDelay() {
+        return mDelay;
+    }
+
     /**
      * Does the scheduler-specific work of refreshing
      *
@@ -126,6 +126,8 @@ public class AppSingleton {
                     Executors.newSingleThreadExecutor(),
                     new SimpleMetaDataManager(mApplicationContext), getDefaultClock(),
                     getExternalSensorProviders(), getSensorConnector());
+            mDataController.setPerfTracker(
+                    WhistlePunkApplication.maybeGetPerfTrackerProvider(mApplicationContext));
         }
         return mDataController;
     }
@@ -166,7 +168,9 @@ public class AppSingleton {
 
     public RecorderController getRecorderController() {
         if (mRecorderController == null) {
-            mRecorderController = new RecorderControllerImpl(mApplicationContext);
+            // The trigger thread lives as long as this app-wide controller.
+            mRecorderController = new RecorderControllerImpl(mApplicationContext,
+                    Executors.newSingleThreadExecutor());
         }
         return mRecorderController;
     }
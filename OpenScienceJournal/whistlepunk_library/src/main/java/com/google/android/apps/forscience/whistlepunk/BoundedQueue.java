@@ -0,0 +1,230 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.os.Looper;
+
+import com.google.android.apps.forscience.javalib.Consumer;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * A bounded hand-off between a producer thread and a consumer running on {@code executor}.
+ *
+ * Items are delivered to the consumer in order.  At most one drain task is outstanding on the
+ * executor at a time, so a burst of items costs a single post rather than one per item.  When
+ * the queue is full, the {@link OverflowPolicy} decides what happens to the producer.
+ */
+public class BoundedQueue<T> {
+    public enum OverflowPolicy {
+        /**
+         * The producer waits until the consumer makes room.  Nothing is ever dropped.  Must not be
+         * used when the producer can run on the consumer's executor.
+         */
+        BLOCK,
+
+        /**
+         * Like {@link #BLOCK}, except that a producer on the main thread never waits, so sensor
+         * callbacks delivered on the main looper can't stall the UI.  When the queue is full, an
+         * item offered on the main thread is dropped instead, and counted in the drop count.
+         */
+        BLOCK_OFF_MAIN_THREAD,
+
+        /**
+         * The oldest waiting item is evicted to make room.  Appropriate for display, where only
+         * recent data matters.
+         */
+        DROP_OLDEST
+    }
+
+    private final String mName;
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+    private final Executor mExecutor;
+    private final Consumer<T> mConsumer;
+    private final Object mLock = new Object();
+    private final ArrayDeque<T> mItems;
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private boolean mDrainScheduled = false;
+    private int mHighWaterMark = 0;
+    private long mDropCount = 0;
+    private int mReportedHighWaterMark = 0;
+    private long mReportedDropCount = 0;
+    private PerfTrackerProvider mPerfTracker;
+
+    public BoundedQueue(String name, int capacity, OverflowPolicy policy, Executor executor,
+            Consumer<T> consumer) {
+        Preconditions.checkArgument(capacity > 0);
+        mName = name;
+        mCapacity = capacity;
+        mPolicy = policy;
+        mExecutor = executor;
+        mConsumer = consumer;
+        mItems = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * If set, the high-water mark and drop count are reported to {@code perfTracker} whenever the
+     * queue drains after either has changed.
+     */
+    public void setPerfTracker(PerfTrackerProvider perfTracker) {
+        mPerfTracker = perfTracker;
+    }
+
+    /**
+     * Adds {@code item} to the queue, applying the overflow policy if it is full.
+     *
+     * @return the item evicted to make room, {@code item} itself if it was dropped, or null if
+     * nothing was dropped.  Callers that pool their items should release it.
+     */
+    public T offer(T item) {
+        T evicted = null;
+        synchronized (mLock) {
+            if (mItems.size() >= mCapacity) {
+                if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+                    evicted = mItems.poll();
+                    mDropCount++;
+                } else if (mPolicy == OverflowPolicy.BLOCK || !isOnMainThread()) {
+                    waitForSpace();
+                } else {
+                    mDropCount++;
+                    return item;
+                }
+            }
+            mItems.add(item);
+            if (mItems.size() > mHighWaterMark) {
+                mHighWaterMark = mItems.size();
+            }
+            if (mDrainScheduled) {
+                return evicted;
+            }
+            mDrainScheduled = true;
+        }
+        mExecutor.execute(mDrain);
+        return evicted;
+    }
+
+    private static boolean isOnMainThread() {
+        Looper mainLooper = Looper.getMainLooper();
+        return mainLooper != null && mainLooper.getThread() == Thread.currentThread();
+    }
+
+    // Must hold mLock
+    private void waitForSpace() {
+        while (mItems.size() >= mCapacity) {
+            try {
+                mLock.wait();
+            } catch (InterruptedException e) {
+                // Never drop: go over capacity rather than lose the item.
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            T next;
+            synchronized (mLock) {
+                next = mItems.poll();
+                if (next == null) {
+                    mDrainScheduled = false;
+                    break;
+                }
+                mLock.notifyAll();
+            }
+            mConsumer.take(next);
+        }
+        maybeReportStats();
+    }
+
+    private void maybeReportStats() {
+        PerfTrackerProvider perfTracker = mPerfTracker;
+        if (perfTracker == null) {
+            return;
+        }
+        int highWaterMark;
+        long dropCount;
+        synchronized (mLock) {
+            if (mHighWaterMark == mReportedHighWaterMark && mDropCount == mReportedDropCount) {
+                return;
+            }
+            highWaterMark = mReportedHighWaterMark = mHighWaterMark;
+            dropCount = mReportedDropCount = mDropCount;
+        }
+        perfTracker.recordQueueStats(mName, mCapacity, highWaterMark, dropCount);
+    }
+
+    /**
+     * Discards any items that have not yet been delivered, returning them so pooled items can be
+     * released.
+     */
+    public ArrayDeque<T> clear() {
+        synchronized (mLock) {
+            ArrayDeque<T> discarded = new ArrayDeque<>(mItems);
+            mItems.clear();
+            mLock.notifyAll();
+            return discarded;
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    public int size() {
+        synchronized (mLock) {
+            return mItems.size();
+        }
+    }
+
+    /**
+     * @return the largest number of items that have been waiting at once.
+     */
+    public int getHighWaterMark() {
+        synchronized (mLock) {
+            return mHighWaterMark;
+        }
+    }
+
+    /**
+     * @return the number of items evicted by {@link OverflowPolicy#DROP_OLDEST}, or dropped from
+     * the main thread by {@link OverflowPolicy#BLOCK_OFF_MAIN_THREAD}.
+     */
+    public long getDropCount() {
+        synchronized (mLock) {
+            return mDropCount;
+        }
+    }
+}
@@ -61,6 +61,26 @@ public interface DataController {
 
     void saveImmediately(MaybeConsumer<Success> onSuccess);
 
+    /**
+     * Saves immediately, and leaves every experiment file complete without its journal.  Call
+     * this when the app goes into the background.
+     */
+    void compactExperimentFiles(MaybeConsumer<Success> onSuccess);
+
+    /**
+     * Reads the whole of each of trials, on the metadata thread, so that showing them afterwards
+     * doesn't read files on the UI thread.
+     */
+    void loadTrials(List<Trial> trials, MaybeConsumer<Success> onSuccess);
+
+    /**
+     * Starts moving any experiments left in the database by an older version of the app into
+     * files, unless that is already done or underway, and reports its progress on the UI thread.
+     * Reads of experiments wait for the migration, so screens that list experiments use this to
+     * show progress instead of an empty list.
+     */
+    void migrateExperimentsInBackground(MetaDataManager.MigrationProgressListener listener);
+
     String generateNewLabelId();
 
     /**
@@ -25,20 +25,25 @@ import com.google.android.apps.forscience.whistlepunk.api.scalarinput.InputDevic
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentSnapshot;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
 import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Range;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -49,6 +54,12 @@ import io.reactivex.schedulers.Schedulers;
 
 public class DataControllerImpl implements DataController, RecordingDataController {
     private static final String TAG = "DataControllerImpl";
+
+    /**
+     * How many scalar readings may wait for the sensor data thread before producers block.
+     */
+    public static final int DEFAULT_SCALAR_WRITE_QUEUE_CAPACITY = 4096;
+
     private final SensorDatabase mSensorDatabase;
     private final Executor mUiThread;
     private final Executor mMetaDataThread;
@@ -58,13 +69,31 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     private Map<String, FailureListener> mSensorFailureListeners = new HashMap<>();
     private final Map<String, SensorProvider> mProviderMap;
     private long mPrevLabelTimestamp = 0;
+    // The experiment instance handed out for each ID, so that callers share one.  Which
+    // experiments stay in memory is decided by the metadata manager's cache (for files, the LRU in
+    // ExperimentCache), so these references are weak and dropped once it lets go.
     private Map<String, WeakReference<Experiment>> mCachedExperiments = new HashMap<>();
     private ConnectableSensor.Connector mConnector;
+    private final BoundedQueue<PendingReading> mScalarWriteQueue;
 
     public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
             Executor metaDataThread, Executor sensorDataThread, MetaDataManager metaDataManager,
             Clock clock, Map<String, SensorProvider> providerMap,
             ConnectableSensor.Connector connector) {
+        this(sensorDatabase, uiThread, metaDataThread, sensorDataThread, metaDataManager, clock,
+                providerMap, connector, DEFAULT_SCALAR_WRITE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param scalarWriteQueueCapacity how many scalar readings may be waiting to be stored before
+     *                                 {@link #addScalarReading} blocks the caller.  Callers on
+     *                                 the main thread are never blocked: their readings are
+     *                                 dropped instead, and counted in the queue's drop count.
+     */
+    public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
+            Executor metaDataThread, Executor sensorDataThread, MetaDataManager metaDataManager,
+            Clock clock, Map<String, SensorProvider> providerMap,
+            ConnectableSensor.Connector connector, int scalarWriteQueueCapacity) {
         mSensorDatabase = sensorDatabase;
         mUiThread = uiThread;
         mMetaDataThread = metaDataThread;
@@ -73,6 +102,26 @@ public class DataControllerImpl implements DataController, RecordingDataControll
         mClock = clock;
         mProviderMap = providerMap;
         mConnector = connector;
+        mScalarWriteQueue = new BoundedQueue<>("scalar_writes", scalarWriteQueueCapacity,
+                BoundedQueue.OverflowPolicy.BLOCK_OFF_MAIN_THREAD, sensorDataThread,
+                new Consumer<PendingReading>() {
+                    @Override
+                    public void take(PendingReading reading) {
+                        storeScalarReading(reading);
+                    }
+                });
+    }
+
+    /**
+     * Reports the high-water mark of the scalar write queue to {@code perfTracker}.
+     */
+    public void setPerfTracker(PerfTrackerProvider perfTracker) {
+        mScalarWriteQueue.setPerfTracker(perfTracker);
+    }
+
+    @VisibleForTesting
+    public BoundedQueue<?> getScalarWriteQueue() {
+        return mScalarWriteQueue;
     }
 
     public void replaceSensorInExperiment(final String experimentId, final String oldSensorId,
@@ -82,6 +131,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                     @Override
                     public void take(final Experiment experiment) {
                         replaceIdInLayouts(experiment, oldSensorId, newSensorId);
+                        final ExperimentSnapshot snapshot = experiment.snapshot();
                         background(mMetaDataThread, onSuccess,
                                 new Callable<Success>() {
                                     @Override
@@ -90,7 +140,8 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                                                 experimentId);
                                         mMetaDataManager.addSensorToExperiment(newSensorId,
                                                 experimentId);
-                                        mMetaDataManager.updateExperiment(experiment);
+                                        mMetaDataManager.updateExperiment(experiment,
+                                                snapshot);
                                         return Success.SUCCESS;
                                     }
                                 });
@@ -124,22 +175,36 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     @Override
     public void addScalarReading(final String sensorId, final int resolutionTier,
             final long timestampMillis, final double value) {
-        mSensorDataThread.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    mSensorDatabase.addScalarReading(sensorId, resolutionTier, timestampMillis,
-                            value);
-                } catch (final Exception e) {
-                    mUiThread.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            notifyFailureListener(sensorId, e);
-                        }
-                    });
+        mScalarWriteQueue.offer(
+                new PendingReading(sensorId, resolutionTier, timestampMillis, value));
+    }
+
+    private void storeScalarReading(final PendingReading reading) {
+        try {
+            mSensorDatabase.addScalarReading(reading.sensorId, reading.resolutionTier,
+                    reading.timestampMillis, reading.value);
+        } catch (final Exception e) {
+            mUiThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyFailureListener(reading.sensorId, e);
                 }
-            }
-        });
+            });
+        }
+    }
+
+    private static class PendingReading {
+        final String sensorId;
+        final int resolutionTier;
+        final long timestampMillis;
+        final double value;
+
+        PendingReading(String sensorId, int resolutionTier, long timestampMillis, double value) {
+            this.sensorId = sensorId;
+            this.resolutionTier = resolutionTier;
+            this.timestampMillis = timestampMillis;
+            this.value = value;
+        }
     }
 
     private void notifyFailureListener(String sensorId, Exception e) {
@@ -187,8 +252,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                 new Consumer<Experiment>() {
                     @Override
                     public void take(Experiment experiment) {
-                        mCachedExperiments.put(experiment.getExperimentId(),
-                                new WeakReference<>(experiment));
+                        cacheExperiment(experiment);
                         onSuccess.success(experiment);
                     }
                 });
@@ -201,6 +265,16 @@ public class DataControllerImpl implements DataController, RecordingDataControll
         });
     }
 
+    private void cacheExperiment(Experiment experiment) {
+        Iterator<WeakReference<Experiment>> iter = mCachedExperiments.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().get() == null) {
+                iter.remove();
+            }
+        }
+        mCachedExperiments.put(experiment.getExperimentId(), new WeakReference<>(experiment));
+    }
+
     @Override
     public void deleteExperiment(final Experiment experiment,
                                  final MaybeConsumer<Success> onSuccess) {
@@ -237,7 +311,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                 new Consumer<Experiment>() {
                     @Override
                     public void take(Experiment experiment) {
-                        mCachedExperiments.put(experimentId, new WeakReference<>(experiment));
+                        cacheExperiment(experiment);
                         onSuccess.success(experiment);
                     }
                 });
@@ -273,6 +347,32 @@ public class DataControllerImpl implements DataController, RecordingDataControll
         });
     }
 
+    @Override
+    public void compactExperimentFiles(MaybeConsumer<Success> onSuccess) {
+        background(mMetaDataThread, onSuccess, () -> {
+            mMetaDataManager.compactExperimentFiles();
+            return Success.SUCCESS;
+        });
+    }
+
+    @Override
+    public void migrateExperimentsInBackground(
+            MetaDataManager.MigrationProgressListener listener) {
+        mMetaDataManager.migrateExperimentsInBackground((migratedCount, totalCount) ->
+                mUiThread.execute(() -> listener.onMigrationProgress(migratedCount, totalCount)));
+    }
+
+    @Override
+    public void loadTrials(List<Trial> trials, MaybeConsumer<Success> onSuccess) {
+        List<Trial> toLoad = new ArrayList<>(trials);
+        background(mMetaDataThread, onSuccess, () -> {
+            for (Trial trial : toLoad) {
+                trial.load();
+            }
+            return Success.SUCCESS;
+        });
+    }
+
     @Override
     public void updateExperiment(Experiment experiment, MaybeConsumer<Success> onSuccess) {
         if (!mCachedExperiments.containsKey(experiment.getExperimentId())) {
@@ -288,8 +388,10 @@ public class DataControllerImpl implements DataController, RecordingDataControll
 
         // Every time we update the experiment, we can update its last used time.
         experiment.setLastUsedTime(mClock.getNow());
+        // Writes happen on other threads, while the experiment may keep changing on this one.
+        ExperimentSnapshot snapshot = experiment.snapshot();
         background(mMetaDataThread, onSuccess, () -> {
-            mMetaDataManager.updateExperiment(experiment);
+            mMetaDataManager.updateExperiment(experiment, snapshot);
             return Success.SUCCESS;
         });
     }
@@ -340,7 +442,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                         return;
                     }
                 }
-                mCachedExperiments.put(lastUsed.getExperimentId(), new WeakReference<>(lastUsed));
+                cacheExperiment(lastUsed);
                 onSuccess.success(lastUsed);
             }
 
@@ -410,13 +512,15 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                     @Override
                     public void take(final Experiment experiment) {
                         replaceIdInLayouts(experiment, sensorId, "");
+                        final ExperimentSnapshot snapshot = experiment.snapshot();
                         background(mMetaDataThread, onSuccess,
                                 new Callable<Success>() {
                                     @Override
                                     public Success call() throws Exception {
                                         mMetaDataManager.removeSensorFromExperiment(sensorId,
                                                 experimentId);
-                                        mMetaDataManager.updateExperiment(experiment);
+                                        mMetaDataManager.updateExperiment(experiment,
+                                                snapshot);
                                         return Success.SUCCESS;
                                     }
                                 });
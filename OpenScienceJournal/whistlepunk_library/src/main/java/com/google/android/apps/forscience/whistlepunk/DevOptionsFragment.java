@@ -41,6 +41,7 @@ public class DevOptionsFragment extends PreferenceFragment {
     public static final String KEY_DEV_SONIFICATION_TYPES = "enable_dev_sonification_types";
     public static final String KEY_AMBIENT_TEMPERATURE_SENSOR = "enable_ambient_temp_sensor";
     private static final String KEY_PERF_DEBUG_SCREEN = "show_perf_tracker_debug";
+    private static final String KEY_LONG_RUN_RECORDING = "long_run_recording";
 
     public static DevOptionsFragment newInstance() {
         return new DevOptionsFragment();
@@ -124,6 +125,10 @@ public class DevOptionsFragment extends PreferenceFragment {
         return getBoolean(KEY_AMBIENT_TEMPERATURE_SENSOR, false, context);
     }
 
+    public static boolean isLongRunRecordingEnabled(Context context) {
+        return getBoolean(KEY_LONG_RUN_RECORDING, false, context);
+    }
+
     private static boolean getBoolean(String key, boolean defaultBool, Context context) {
         if (!isDebugVersion()) {
             return defaultBool;
@@ -30,12 +30,14 @@ import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.support.v4.util.ArrayMap;
 import android.util.Log;
 
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarResampler;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.Range;
 
@@ -44,8 +46,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
 import io.reactivex.Observer;
 import io.reactivex.Single;
 import io.reactivex.disposables.Disposable;
@@ -56,7 +61,7 @@ import io.reactivex.subjects.PublishSubject;
 /**
  * Service for exporting trial data with different options.
  * Can be bound for status updates using {@link #bind(Context)}.
- * Export trial data using {@link #exportTrial(Context, String, String, boolean, String[])}
+ * Export trial data using {@link #exportTrial(Context, String, String, boolean, String[], boolean)}
  */
 public class ExportService extends Service {
     private static final String TAG = "ExportService";
@@ -72,6 +77,21 @@ public class ExportService extends Service {
             "com.google.android.apps.forscience.whistlepunk.extra.RELATIVE_TIME";
     private static final String EXTRA_SENSOR_IDS =
             "com.google.android.apps.forscience.whistlepunk.extra.SENSOR_IDS";
+    private static final String EXTRA_RESAMPLE =
+            "com.google.android.apps.forscience.whistlepunk.extra.RESAMPLE";
+
+    /**
+     * Grid spacing used when resampling and no sensor's stats give its data rate.
+     */
+    @VisibleForTesting
+    static final long FALLBACK_RESAMPLE_INTERVAL_MILLIS = 10;
+
+    /**
+     * The shortest time a resampled row may wait for a slower sensor's next reading before that
+     * sensor's cell is left empty.
+     */
+    @VisibleForTesting
+    static final long MIN_RESAMPLE_LOOKAHEAD_MILLIS = 1000;
 
     private static final String ACTION_CLEAN_OLD_FILES =
             "com.google.android.apps.forscience.whistlepunk.action.CLEAN_OLD_FILES";
@@ -127,15 +147,20 @@ public class ExportService extends Service {
      * Starts this service to perform action export trial with the given parameters. If
      * the service is already performing a task this action will be queued.
      *
+     * @param resample if true and there is more than one sensor, the sensors' values are
+     *                 interpolated onto evenly spaced rows, as far apart as the fastest sensor's
+     *                 readings; otherwise there is a row for each distinct timestamp, holding
+     *                 only the values recorded at that time.
      */
     public static void exportTrial(Context context, String experimentId, String trialId,
-            boolean relativeTime, String[] sensorIds) {
+            boolean relativeTime, String[] sensorIds, boolean resample) {
         Intent intent = new Intent(context, ExportService.class);
         intent.setAction(ACTION_EXPORT_TRIAL);
         intent.putExtra(EXTRA_EXPERIMENT_ID, experimentId);
         intent.putExtra(EXTRA_TRIAL_ID, trialId);
         intent.putExtra(EXTRA_RELATIVE_TIME, relativeTime);
         intent.putExtra(EXTRA_SENSOR_IDS, sensorIds);
+        intent.putExtra(EXTRA_RESAMPLE, resample);
         context.startService(intent);
     }
 
@@ -157,7 +182,9 @@ public class ExportService extends Service {
                 final String trialId = intent.getStringExtra(EXTRA_TRIAL_ID);
                 final boolean relativeTime = intent.getBooleanExtra(EXTRA_RELATIVE_TIME, false);
                 final String[] sensorIds = intent.getStringArrayExtra(EXTRA_SENSOR_IDS);
-                handleActionExportTrial(experimentId, trialId, relativeTime, sensorIds, startId);
+                final boolean resample = intent.getBooleanExtra(EXTRA_RESAMPLE, false);
+                handleActionExportTrial(experimentId, trialId, relativeTime, sensorIds,
+                        resample, startId);
             } else if (ACTION_CLEAN_OLD_FILES.equals(action)) {
                 handleCleanOldFiles(startId);
             }
@@ -281,7 +308,7 @@ public class ExportService extends Service {
      * parameters.
      */
     private void handleActionExportTrial(String experimentId, String trialId, boolean relativeTime,
-            String[] sensorIds, int startId) {
+            String[] sensorIds, boolean resample, int startId) {
         // Blocking gets OK: this is already background threaded.
         DataController dc = getDataController().blockingGet();
         Experiment experiment = RxDataController.getExperimentById(dc, experimentId).blockingGet();
@@ -289,16 +316,72 @@ public class ExportService extends Service {
 
         String fileName = makeExportFilename(experiment.getDisplayTitle(this),
                 trial.getTitle(this));
-        // Start observing sensor data from here, while grouping them into timestamp equal rows.
-        // Then write the rows out.
+        // Start observing sensor data from here, while grouping them into rows, either on a
+        // fixed grid or by equal timestamps.  Then write the rows out.
         Range<Long> range = Range.closed(trial.getFirstTimestamp(), trial.getLastTimestamp());
+        ObservableTransformer<ScalarReading, ScalarResampler.Row> toRows;
+        if (resample && sensorIds.length > 1) {
+            List<TrialStats> stats = new ArrayList<>();
+            for (String sensorId : sensorIds) {
+                stats.add(trial.getStatsForSensor(sensorId));
+            }
+            toRows = ScalarResampler.onGrid(sensorIds, trial.getFirstTimestamp(),
+                    chooseResampleIntervalMillis(stats), ScalarResampler.Interpolation.LINEAR,
+                    chooseResampleLookaheadMillis(stats));
+        } else {
+            // A single sensor already has one value per row.
+            toRows = ScalarResampler.atEachTimestamp(sensorIds);
+        }
         dc.createScalarObservable(sensorIds, TimeRange.oldest(range), 0 /* resolution tier */)
+                .compose(toRows)
                 .doOnComplete(() -> stopSelf(startId))
                 .observeOn(Schedulers.io())
                 .subscribe(new TrialDataWriter(trialId, fileName, relativeTime, sensorIds,
                         trial.getFirstTimestamp(), trial.getLastTimestamp()));
     }
 
+    /**
+     * @return the mean time between the fastest sensor's readings, so that resampling keeps all
+     *         of its detail, or {@link #FALLBACK_RESAMPLE_INTERVAL_MILLIS} if no stats give a rate.
+     */
+    @VisibleForTesting
+    static long chooseResampleIntervalMillis(List<TrialStats> stats) {
+        long interval = Long.MAX_VALUE;
+        for (TrialStats sensorStats : stats) {
+            double meanInterval = getMeanIntervalMillis(sensorStats);
+            if (meanInterval > 0) {
+                interval = Math.min(interval, Math.max(1, Math.round(meanInterval)));
+            }
+        }
+        return interval == Long.MAX_VALUE ? FALLBACK_RESAMPLE_INTERVAL_MILLIS : interval;
+    }
+
+    /**
+     * @return how long a row should wait for a sensor's next reading: twice the slowest sensor's
+     *         mean interval, so that ordinary gaps are interpolated across, but at least
+     *         {@link #MIN_RESAMPLE_LOOKAHEAD_MILLIS}.
+     */
+    @VisibleForTesting
+    static long chooseResampleLookaheadMillis(List<TrialStats> stats) {
+        long lookahead = MIN_RESAMPLE_LOOKAHEAD_MILLIS;
+        for (TrialStats sensorStats : stats) {
+            lookahead = Math.max(lookahead, Math.round(2 * getMeanIntervalMillis(sensorStats)));
+        }
+        return lookahead;
+    }
+
+    private static double getMeanIntervalMillis(TrialStats stats) {
+        if (stats == null || !stats.hasStat(GoosciTrial.SensorStat.TOTAL_DURATION)
+                || !stats.hasStat(GoosciTrial.SensorStat.NUM_DATA_POINTS)) {
+            return -1;
+        }
+        double points = stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, 0);
+        if (points < 2) {
+            return -1;
+        }
+        return stats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, 0) / (points - 1);
+    }
+
     private Single<DataController> getDataController() {
         return DataService.bind(this).map(AppSingleton::getDataController);
     }
@@ -365,14 +448,12 @@ public class ExportService extends Service {
                 });
     }
 
-    private class TrialDataWriter implements Observer<ScalarReading> {
+    private class TrialDataWriter implements Observer<ScalarResampler.Row> {
 
         private final long mFirstTimeStamp;
         private final long mLastTimeStamp;
-        private long mCurrentTimestamp = -1;
         private long mFirstTimeStampWritten = -1;
 
-        private ArrayMap<String, Double> mCurrentRow = new ArrayMap<>();
         private OutputStreamWriter mOutputStreamWriter;
         private final String mFileName;
         private final boolean mRelativeTime;
@@ -430,21 +511,13 @@ public class ExportService extends Service {
         }
 
         @Override
-        public void onNext(ScalarReading scalarReading) {
-            // Check if we have a different timestamp than the current row.
-            if (scalarReading.getCollectedTimeMillis() != mCurrentTimestamp) {
-                if (mCurrentRow != null && mCurrentTimestamp != -1) {
-                    writeRow();
-                }
-                mCurrentRow.clear();
+        public void onNext(ScalarResampler.Row row) {
+            long timestamp = row.getTimestampMillis();
+            if (mFirstTimeStampWritten == -1) {
+                mFirstTimeStampWritten = timestamp;
             }
-            // If not, just add to current row.
-            mCurrentRow.put(scalarReading.getSensorTag(), scalarReading.getValue());
-            if (mCurrentTimestamp == -1) {
-                mFirstTimeStampWritten = scalarReading.getCollectedTimeMillis();
-            }
-            mCurrentTimestamp = scalarReading.getCollectedTimeMillis();
-            int progress = (int) (((mCurrentTimestamp - mFirstTimeStamp) /
+            writeRow(row);
+            int progress = (int) (((timestamp - mFirstTimeStamp) /
                     (double) (mLastTimeStamp - mFirstTimeStamp)) * 100);
             updateProgress(new ExportProgress(mTrialId, ExportProgress.EXPORTING, progress));
         }
@@ -458,27 +531,21 @@ public class ExportService extends Service {
 
         @Override
         public void onComplete() {
-            // Write the last row if necessary.
-            if (!mCurrentRow.isEmpty()) {
-                writeRow();
-            }
-
             // End writing stream.
             closeStreamIfNecessary();
             updateProgress(ExportProgress.getComplete(mTrialId, getFileUri(mFileName)));
         }
 
-        private void writeRow() {
-            // If so, if current row, then write it out (the old one)!
+        private void writeRow(ScalarResampler.Row row) {
             try {
                 if (mOutputStreamWriter == null) {
                     onError(new IllegalStateException("Output stream closed."));
                 }
-                mOutputStreamWriter.write(getTimestampString(mCurrentTimestamp));
+                mOutputStreamWriter.write(getTimestampString(row.getTimestampMillis()));
                 for (int index = 0, length = mSensorIds.length; index < length; ++index) {
                     String value = "";
-                    if (mCurrentRow.containsKey(mSensorIds[index])) {
-                        value = Double.toString(mCurrentRow.get(mSensorIds[index]));
+                    if (row.hasValue(index)) {
+                        value = Double.toString(row.getValue(index));
                     }
                     mOutputStreamWriter.write(",");
                     mOutputStreamWriter.write(value);
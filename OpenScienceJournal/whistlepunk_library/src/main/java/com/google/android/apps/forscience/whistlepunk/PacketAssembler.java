@@ -22,8 +22,9 @@ import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
 
-import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 public class PacketAssembler {
     private static final String TAG = "PacketAssembler";
@@ -31,9 +32,14 @@ public class PacketAssembler {
     private final Clock mDefaultClock;
     private final Listener mListener;
 
-    private final ByteArrayOutputStream mPacketStream = new ByteArrayOutputStream();
+    // The message being assembled.  Grows to fit the largest message seen, and is then reused.
+    private byte[] mMessage = new byte[64];
+    private int mMessageLength = 0;
 
-    private long mTimeSkew = -1;
+    // Reused for each message, to avoid allocating a new one per reading.
+    private final GoosciSensor.SensorData mSensorData = new GoosciSensor.SensorData();
+
+    private final TimestampReconciler mReconciler = new TimestampReconciler();
 
     private static float DIGITAL_HIGH = 1023f;
     private static float DIGITAL_LOW = 0f;
@@ -60,13 +66,10 @@ public class PacketAssembler {
     }
 
     private void parse() {
-        byte[] bs = mPacketStream.toByteArray();
-        mPacketStream.reset();
-
-        GoosciSensor.SensorData sensorData;
+        GoosciSensor.SensorData sensorData = mSensorData;
 
         try {
-            sensorData = GoosciSensor.SensorData.parseFrom(bs);
+            MessageNano.mergeFrom(sensorData.clear(), mMessage, 0, mMessageLength);
         } catch (InvalidProtocolBufferNanoException e) {
             raiseError(e.getLocalizedMessage());
             if(Log.isLoggable(TAG, Log.DEBUG)) {
@@ -114,25 +117,67 @@ public class PacketAssembler {
         }
 
         long relativeTime = sensorData.timestampKey;
+        long arrivalTime = mDefaultClock.getNow();
+        int[] offsets = sensorData.extraTimestampOffsets;
+        float[] values = sensorData.extraValues;
+        boolean extrasMatch = offsets.length == values.length;
+
+        // Every reading in the message arrived at once, so the latest bounds the clock offset
+        // best; observe them all before mapping any.
+        mReconciler.observe(relativeTime, arrivalTime);
+        if (extrasMatch) {
+            for (int offset : offsets) {
+                mReconciler.observe(relativeTime + unsigned(offset), arrivalTime);
+            }
+        }
+        mListener.onDataParsed(mReconciler.toClockMillis(relativeTime), data);
 
-        if (mTimeSkew == -1) {
-            // Haven't seen a value yet. Let's calculate the time skew assuming no
-            // delay.
-            mTimeSkew = mDefaultClock.getNow() - relativeTime;
+        if (!extrasMatch) {
+            raiseError("Unable to read data from external sensor");
+            if(Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Sensor data has " + offsets.length + " extra timestamps but "
+                        + values.length + " extra values");
+            }
+            return;
+        }
+        boolean isDigital = sensorPin.hasDigitalPin();
+        for (int i = 0; i < offsets.length; i++) {
+            double extraData = isDigital ? booleanToDigital(values[i] != 0) : values[i];
+            mListener.onDataParsed(
+                    mReconciler.toClockMillis(relativeTime + unsigned(offsets[i])), extraData);
         }
+    }
 
-        mListener.onDataParsed(relativeTime + mTimeSkew, data);
+    // Offsets are unsigned on the wire.
+    private static long unsigned(int offset) {
+        return offset & 0xffffffffL;
+    }
 
+    /**
+     * @return how far off, in milliseconds, timestamps from the device may be, or
+     * {@link TimestampReconciler#NO_ESTIMATE}
+     */
+    public double getTimestampErrorEstimateMillis() {
+        return mReconciler.getErrorEstimateMillis();
     }
 
     public void append(byte[] packet) {
         int length = (int) packet[0];
         boolean isLast = packet[1] == 1;
 
-        mPacketStream.write(packet, 2, length);
+        if (mMessageLength + length > mMessage.length) {
+            mMessage = Arrays.copyOf(mMessage,
+                    Math.max(mMessage.length * 2, mMessageLength + length));
+        }
+        System.arraycopy(packet, 2, mMessage, mMessageLength, length);
+        mMessageLength += length;
 
         if (isLast) {
-            parse();
+            try {
+                parse();
+            } finally {
+                mMessageLength = 0;
+            }
         }
     }
 }
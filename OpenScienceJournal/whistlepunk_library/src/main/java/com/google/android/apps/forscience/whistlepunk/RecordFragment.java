@@ -175,6 +175,7 @@ public class RecordFragment extends Fragment implements Handler.Callback,
     // the decibel sensor before the permission to use microphone is granted
     // in Android M.
     private SensorCardPresenter mDecibelSensorCardPresenter;
+    private String mDecibelSensorId;
 
     private Handler mHandler;
     private FeatureDiscoveryProvider mFeatureDiscoveryProvider;
@@ -238,19 +239,20 @@ public class RecordFragment extends Fragment implements Handler.Callback,
             return;
         }
         if (newState == PermissionUtils.GRANTED) {
-            startSensorCardObserving(mDecibelSensorCardPresenter, DecibelSensor.ID,
+            startSensorCardObserving(mDecibelSensorCardPresenter, mDecibelSensorId,
                     mRecordingStatus.getValue());
         } else if (newState == PermissionUtils.DENIED) {
             // If the sensor can't be loaded, still show it as selected on the card
             // so the user understands that they wanted this sensor but can't use it.
-            mDecibelSensorCardPresenter.setConnectingUI(DecibelSensor.ID, true,
+            mDecibelSensorCardPresenter.setConnectingUI(mDecibelSensorId, true,
                     getActivity().getApplicationContext(), true);
         } else {
-            mDecibelSensorCardPresenter.setConnectingUI(DecibelSensor.ID, true,
+            mDecibelSensorCardPresenter.setConnectingUI(mDecibelSensorId, true,
                     getActivity().getApplicationContext(), false);
         }
         // in either case, we have our answer.  Stop waiting for it.
         mDecibelSensorCardPresenter = null;
+        mDecibelSensorId = null;
         updateAvailableSensors();
     }
 
@@ -662,14 +664,19 @@ public class RecordFragment extends Fragment implements Handler.Callback,
                     mSensorCardAdapter.getUsedColors()));
         }
         // Create a sensorData card for each initial source tag, or at minimum one if no source
-        // tags are saved in the bundle.
-        for (int i = 0; i < layouts.size(); i++) {
-            GoosciSensorLayout.SensorLayout layout = layouts.get(i);
-            final SensorCardPresenter sensorCardPresenter = createSensorCardPresenter(layout, rc);
-            sensorCardPresenter.setInitialSourceTagToSelect(layout.sensorId);
-            sensorCardPresenters.add(sensorCardPresenter);
-            tryStartObserving(sensorCardPresenter, layout.sensorId, status);
-        }
+        // tags are saved in the bundle.  The cards' sensors are connected together once all the
+        // cards are set up.
+        final List<GoosciSensorLayout.SensorLayout> cardLayouts = layouts;
+        rc.startObservingAll(() -> {
+            for (int i = 0; i < cardLayouts.size(); i++) {
+                GoosciSensorLayout.SensorLayout layout = cardLayouts.get(i);
+                final SensorCardPresenter sensorCardPresenter =
+                        createSensorCardPresenter(layout, rc);
+                sensorCardPresenter.setInitialSourceTagToSelect(layout.sensorId);
+                sensorCardPresenters.add(sensorCardPresenter);
+                tryStartObserving(sensorCardPresenter, layout.sensorId, status);
+            }
+        }, mSensorRegistry);
 
         int activeCardIndex = 0;
         if (mInitialActiveCardIndex != -1 &&
@@ -892,11 +899,12 @@ public class RecordFragment extends Fragment implements Handler.Callback,
 
     private void tryStartObserving(SensorCardPresenter sensorCardPresenter, String sensorId,
             RecordingStatus status) {
-        if (TextUtils.equals(sensorId, DecibelSensor.ID) && mDecibelSensorCardPresenter == null &&
+        if (DecibelSensor.isDecibelSensor(sensorId) && mDecibelSensorCardPresenter == null &&
                 !PermissionUtils.hasPermission(getActivity(),
                         PermissionUtils.REQUEST_RECORD_AUDIO)) {
             mDecibelSensorCardPresenter = sensorCardPresenter;
-            sensorCardPresenter.setConnectingUI(DecibelSensor.ID, true,
+            mDecibelSensorId = sensorId;
+            sensorCardPresenter.setConnectingUI(sensorId, true,
                     getActivity().getApplicationContext(), true);
             PermissionUtils.tryRequestingPermission(getActivity(),
                     PermissionUtils.REQUEST_RECORD_AUDIO,
@@ -932,16 +940,15 @@ public class RecordFragment extends Fragment implements Handler.Callback,
                 mSensorCardAdapter.getSensorCardPresenters();
 
         // Available Sensors includes only sensors that are not being observed.
-        // Check if a card wants to show the decibel sensor but permission was denied.
+        // Check if a card wants to show a decibel sensor but permission was denied.
         // Remove this from the list of available sensors so the decibel sensor icon doesn't show
         // up in other cards.
         // TODO: Extend this to work for any sensor that doesn't have the permission granted.
         // See b/27439593
-        if (availableSensors.contains(DecibelSensor.ID)) {
-            for (SensorCardPresenter presenter : sensorCardPresenters) {
-                if (TextUtils.equals(presenter.getSelectedSensorId(), DecibelSensor.ID)) {
-                    availableSensors.remove(DecibelSensor.ID);
-                }
+        for (SensorCardPresenter presenter : sensorCardPresenters) {
+            String selectedId = presenter.getSelectedSensorId();
+            if (DecibelSensor.isDecibelSensor(selectedId)) {
+                availableSensors.remove(selectedId);
             }
         }
         for (SensorCardPresenter presenter : sensorCardPresenters) {
@@ -26,6 +26,7 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSnapshotValue;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.android.apps.forscience.whistlepunk.wireapi.TransportableSensorOptions;
 import com.google.common.base.Supplier;
 
@@ -87,6 +88,26 @@ public interface RecorderController {
             SensorObserver observer, SensorStatusListener listener,
             TransportableSensorOptions initialOptions, SensorRegistry sensorRegistry);
 
+    /**
+     * Like {@link #startObserving}, but {@code consumer} gets every value the sensor records, on
+     * the sensor's thread, instead of the values shown on screen, which are skipped when the UI
+     * thread falls behind.  For consumers that compute from the data, rather than show it.
+     *
+     * @return observerId: should be passed to stopObserving.
+     */
+    String startStreaming(String sensorId, StreamConsumer consumer,
+            SensorStatusListener listener, SensorRegistry sensorRegistry);
+
+    /**
+     * Starts observing several sensors together.
+     *
+     * {@code startObservingCalls} should call {@link #startObserving} for each sensor.  The
+     * recorders those calls need are created right away, but they only start connecting once
+     * {@code startObservingCalls} returns, external sensors first, so that slow connections are
+     * under way while the rest are set up.
+     */
+    void startObservingAll(Runnable startObservingCalls, SensorRegistry sensorRegistry);
+
     /**
      * @param observerId the observerId returned from the corresponding call to startObserving
      */
@@ -18,6 +18,7 @@ package com.google.android.apps.forscience.whistlepunk;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
@@ -44,12 +45,16 @@ import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTrigg
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerLabelValue;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSnapshotValue;
 import com.google.android.apps.forscience.whistlepunk.metadata.TriggerHelper;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.PreTriggerBuffer;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorChoice;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamingRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensors.SystemScheduler;
 import com.google.android.apps.forscience.whistlepunk.wireapi.RecordingMetadata;
@@ -58,6 +63,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -67,6 +73,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
@@ -74,6 +82,7 @@ import io.reactivex.MaybeSource;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
 
 /**
  * Keeps track of:
@@ -97,6 +106,17 @@ public class RecorderControllerImpl implements RecorderController {
     // To disable delayed stop, comment out the above line, and uncomment this one.
     private static final Delay DEFAULT_STOP_DELAY = Delay.ZERO;
 
+    /**
+     * How long each segment of a long-running recording lasts, when long-run recording is enabled
+     * in the developer options.
+     */
+    public static final long DEFAULT_SEGMENT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Segment length meaning that a recording is kept as a single trial, however long it runs.
+     */
+    public static final long NO_SEGMENTS = 0;
+
     private DataController mDataController;
     private final Scheduler mScheduler;
     private final Clock mClock;
@@ -129,18 +149,38 @@ public class RecorderControllerImpl implements RecorderController {
     /**
      * The latest recorded value for each sensor
      */
-    private Map<String, BehaviorSubject<ScalarReading>> mLatestValues = new HashMap<>();
+    private Map<String, LatestReading> mLatestValues = new HashMap<>();
+
+    private final Executor mTriggerExecutor;
+    private final Executor mUiThreadExecutor;
+    private Map<String, TriggerEvaluator> mTriggerEvaluators = new HashMap<>();
 
-    public RecorderControllerImpl(Context context) {
-        this(context, AppSingleton.getInstance(context).getDataController());
+    // Sensors whose recorders wait for the current startObservingAll call to end, or null.
+    private List<String> mBatchedSensorIds = null;
+    private PerfTrackerProvider mPerfTracker;
+    private long mSegmentMillis = NO_SEGMENTS;
+    private final Runnable mRollOverSegment = this::rollOverSegment;
+
+    /**
+     * @param triggerExecutor where sensor triggers are evaluated.  It is owned by the caller,
+     *                        which should reuse it rather than make one per controller.
+     */
+    public RecorderControllerImpl(Context context, Executor triggerExecutor) {
+        this(context, AppSingleton.getInstance(context).getDataController(), triggerExecutor);
     }
 
-    private RecorderControllerImpl(Context context, DataController dataController) {
+    private RecorderControllerImpl(Context context, DataController dataController,
+            Executor triggerExecutor) {
         this(context,
                 AppSingleton.getInstance(context).getSensorEnvironment(),
                 new RecorderListenerRegistry(), productionConnectionSupplier(context),
                 dataController, new SystemScheduler(), DEFAULT_STOP_DELAY,
-                AppSingleton.getInstance(context).getSensorAppearanceProvider());
+                AppSingleton.getInstance(context).getSensorAppearanceProvider(),
+                triggerExecutor, AppSingleton.getUiThreadExecutor());
+        setPerfTracker(WhistlePunkApplication.maybeGetPerfTrackerProvider(context));
+        if (DevOptionsFragment.isLongRunRecordingEnabled(context)) {
+            setSegmentMillis(DEFAULT_SEGMENT_MILLIS);
+        }
     }
 
     // TODO: use builder?
@@ -153,6 +193,20 @@ public class RecorderControllerImpl implements RecorderController {
             RecorderListenerRegistry listenerRegistry,
             Supplier<RecorderServiceConnection> connectionSupplier, DataController dataController,
             Scheduler scheduler, Delay stopDelay, SensorAppearanceProvider appearanceProvider) {
+        this(context, sensorEnvironment, listenerRegistry, connectionSupplier, dataController,
+                scheduler, stopDelay, appearanceProvider, MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param triggerExecutor where sensor triggers are evaluated
+     * @param uiThreadExecutor where the actions of fired triggers are taken
+     */
+    private RecorderControllerImpl(final Context context, SensorEnvironment sensorEnvironment,
+            RecorderListenerRegistry listenerRegistry,
+            Supplier<RecorderServiceConnection> connectionSupplier, DataController dataController,
+            Scheduler scheduler, Delay stopDelay, SensorAppearanceProvider appearanceProvider,
+            Executor triggerExecutor, Executor uiThreadExecutor) {
         mContext = context;
         mSensorEnvironment = sensorEnvironment;
         mRegistry = listenerRegistry;
@@ -162,6 +216,8 @@ public class RecorderControllerImpl implements RecorderController {
         mStopDelay = stopDelay;
         mAppearanceProvider = appearanceProvider;
         mClock = new CurrentTimeClock();
+        mTriggerExecutor = triggerExecutor;
+        mUiThreadExecutor = uiThreadExecutor;
     }
 
     @NonNull
@@ -179,29 +235,134 @@ public class RecorderControllerImpl implements RecorderController {
             final TransportableSensorOptions initialOptions, SensorRegistry sensorRegistry) {
         // Put the observer and listener in the registry by sensorId.
         String observerId = mRegistry.putListeners(sensorId, observer, listener);
+        startRecorder(sensorId, activeTriggers, initialOptions, sensorRegistry);
+        return observerId;
+    }
+
+    @Override
+    public String startStreaming(String sensorId, StreamConsumer consumer,
+            SensorStatusListener listener, SensorRegistry sensorRegistry) {
+        String observerId = mRegistry.putStreamListeners(sensorId, consumer, listener);
+        startRecorder(sensorId, Collections.<SensorTrigger>emptyList(),
+                new TransportableSensorOptions(new HashMap<String, String>()), sensorRegistry);
+        return observerId;
+    }
+
+    private void startRecorder(final String sensorId, final List<SensorTrigger> activeTriggers,
+            final TransportableSensorOptions initialOptions, final SensorRegistry sensorRegistry) {
         StatefulRecorder sr = mRecorders.get(sensorId);
         if (sr != null) {
             RecorderControllerImpl.this.startObserving(sr);
             addServiceObserverIfNeeded(sensorId, activeTriggers, sensorRegistry);
         } else {
+            final SensorObserver routingObserver = timeFirstSample(sensorId,
+                    mRegistry.makeObserverForRecorder(sensorId));
             sensorRegistry.withSensorChoice(TAG, sensorId, new Consumer<SensorChoice>() {
                 @Override
                 public void take(SensorChoice sensor) {
                     final SensorRecorder recorder = sensor.createRecorder(mContext,
-                            mRegistry.makeObserverForRecorder(sensorId), mRegistry,
-                            mSensorEnvironment);
+                            routingObserver, mRegistry, mSensorEnvironment);
                     recorder.applyOptions(new ReadableTransportableSensorOptions(initialOptions));
+                    if (recorder instanceof StreamingRecorder) {
+                        ((StreamingRecorder) recorder).setStreamConsumer(
+                                mRegistry.makeStreamConsumerForRecorder(sensorId));
+                    }
                     StatefulRecorder newStatefulRecorder = new StatefulRecorder(recorder,
                             mScheduler, mStopDelay);
                     mRecorders.put(sensorId, newStatefulRecorder);
 
                     // TODO: can we avoid passing sensorRegistry so deep?
                     addServiceObserverIfNeeded(sensorId, activeTriggers, sensorRegistry);
-                    RecorderControllerImpl.this.startObserving(newStatefulRecorder);
+                    if (mBatchedSensorIds != null) {
+                        mBatchedSensorIds.add(sensorId);
+                    } else {
+                        RecorderControllerImpl.this.startObserving(newStatefulRecorder);
+                    }
                 }
             });
         }
-        return observerId;
+    }
+
+    @Override
+    public void startObservingAll(Runnable startObservingCalls, SensorRegistry sensorRegistry) {
+        if (mBatchedSensorIds != null) {
+            // Already inside a batch, which will start these too.
+            startObservingCalls.run();
+            return;
+        }
+        List<String> batch = new ArrayList<>();
+        mBatchedSensorIds = batch;
+        try {
+            startObservingCalls.run();
+        } finally {
+            mBatchedSensorIds = null;
+        }
+
+        // External sensors take longest to connect, so start them first.
+        List<String> builtIn = sensorRegistry.getBuiltInSources();
+        for (String sensorId : batch) {
+            if (!builtIn.contains(sensorId)) {
+                startBatchedRecorder(sensorId);
+            }
+        }
+        for (String sensorId : batch) {
+            if (builtIn.contains(sensorId)) {
+                startBatchedRecorder(sensorId);
+            }
+        }
+    }
+
+    private void startBatchedRecorder(String sensorId) {
+        StatefulRecorder recorder = mRecorders.get(sensorId);
+        // Skip sensors that lost all their observers (other than our own) during the batch.
+        if (recorder != null && mRegistry.countListeners(sensorId) > 1) {
+            startObserving(recorder);
+        }
+    }
+
+    /**
+     * Wraps {@code observer} so that the time from now to the first reading is reported to the
+     * perf tracker, if there is one.
+     */
+    private SensorObserver timeFirstSample(final String sensorId,
+            final SensorObserver observer) {
+        final PerfTrackerProvider perfTracker = mPerfTracker;
+        if (perfTracker == null) {
+            return observer;
+        }
+        final long requestedAt = mSensorEnvironment.getDefaultClock().getNow();
+        return new SensorObserver() {
+            private boolean mSeenFirst = false;
+
+            @Override
+            public void onNewData(long timestamp, Bundle data) {
+                if (!mSeenFirst) {
+                    mSeenFirst = true;
+                    perfTracker.recordTimeToFirstSample(sensorId,
+                            mSensorEnvironment.getDefaultClock().getNow() - requestedAt);
+                }
+                observer.onNewData(timestamp, data);
+            }
+        };
+    }
+
+    @VisibleForTesting
+    public void setPerfTracker(PerfTrackerProvider perfTracker) {
+        mPerfTracker = perfTracker;
+    }
+
+    /**
+     * Makes recordings that last longer than {@code segmentMillis} roll over into a new trial
+     * every {@code segmentMillis}, each with its own stats and zoom tiers, and each saved as soon
+     * as it ends.  This keeps memory flat during recordings that run for days, and means that a
+     * crash loses at most the current segment.
+     *
+     * @param segmentMillis the length of each segment, or {@link #NO_SEGMENTS}.  Takes effect at
+     *                      the next recording.
+     */
+    @VisibleForTesting
+    public void setSegmentMillis(long segmentMillis) {
+        mSegmentMillis = segmentMillis;
     }
 
     @Override
@@ -215,10 +376,15 @@ public class RecorderControllerImpl implements RecorderController {
     private void addServiceObserverIfNeeded(final String sensorId,
             final List<SensorTrigger> activeTriggers, SensorRegistry sensorRegistry) {
         if (!mLatestValues.containsKey(sensorId)) {
-            mLatestValues.put(sensorId, BehaviorSubject.<ScalarReading>create());
+            mLatestValues.put(sensorId, new LatestReading());
         }
 
         if (!mServiceObservers.containsKey(sensorId)) {
+            final LatestReading latest = mLatestValues.get(sensorId);
+            final TriggerEvaluator evaluator = activeTriggers.isEmpty() ? null
+                    : new TriggerEvaluator(activeTriggers, mTriggerExecutor, mUiThreadExecutor,
+                            (trigger, timestamp) -> fireSensorTrigger(trigger, timestamp,
+                                    sensorRegistry));
             String serviceObserverId = mRegistry.putListeners(sensorId,
                     (timestamp, data) -> {
                         if (!ScalarSensor.hasValue(data)) {
@@ -227,19 +393,26 @@ public class RecorderControllerImpl implements RecorderController {
                         double value = ScalarSensor.getValue(data);
 
                         // Remember latest value
-                        mLatestValues.get(sensorId).onNext(new ScalarReading(timestamp, value));
+                        latest.set(timestamp, value);
 
-                        // Fire triggers.
-                        for (SensorTrigger trigger : activeTriggers) {
-                            if (!isRecording() && trigger.shouldTriggerOnlyWhenRecording()) {
-                                continue;
-                            }
-                            if (trigger.isTriggered(value)) {
-                                fireSensorTrigger(trigger, timestamp, sensorRegistry);
-                            }
+                        // Triggers are evaluated off this thread; only fired ones come back.
+                        if (evaluator != null) {
+                            evaluator.addSample(timestamp, value, isRecording());
                         }
                     }, null);
             mServiceObservers.put(sensorId, serviceObserverId);
+            if (evaluator != null) {
+                mTriggerEvaluators.put(sensorId, evaluator);
+            }
+        }
+    }
+
+    private void removeServiceObserver(String sensorId) {
+        String serviceObserverId = mServiceObservers.remove(sensorId);
+        mRegistry.remove(sensorId, serviceObserverId);
+        TriggerEvaluator evaluator = mTriggerEvaluators.remove(sensorId);
+        if (evaluator != null) {
+            evaluator.stop();
         }
     }
 
@@ -262,7 +435,8 @@ public class RecorderControllerImpl implements RecorderController {
                     listener.onRequestStartRecording();
                 }
                 // TODO: test this subscribe
-                startRecording(new Intent(mContext, MainActivity.class)).subscribe(
+                startRecording(new Intent(mContext, MainActivity.class),
+                        timestamp - PreTriggerBuffer.DEFAULT_WINDOW_MILLIS).subscribe(
                         LoggingConsumer.observe(TAG, "start recording with trigger"));
                 WhistlePunkApplication.getUsageTracker(mContext).trackEvent(
                         TrackerConstants.CATEGORY_RUNS,
@@ -378,8 +552,7 @@ public class RecorderControllerImpl implements RecorderController {
         String observerId = mServiceObservers.get(sensorId);
         if (!TextUtils.isEmpty(observerId)) {
             // Remove the old serviceObserver and add a new one with no triggers.
-            mServiceObservers.remove(sensorId);
-            mRegistry.remove(sensorId, observerId);
+            removeServiceObserver(sensorId);
             addServiceObserverIfNeeded(sensorId, Collections.<SensorTrigger>emptyList(),
                     sensorRegistry);
         }
@@ -395,6 +568,17 @@ public class RecorderControllerImpl implements RecorderController {
         return mSensorEnvironment.getDefaultClock().getNow();
     }
 
+    /**
+     * @return the memory held by running sensors for data from before a trigger starts recording.
+     */
+    private long getPreTriggerBufferBytes() {
+        long bytes = 0;
+        for (StatefulRecorder recorder : mRecorders.values()) {
+            bytes += recorder.getBufferedBytes();
+        }
+        return bytes;
+    }
+
     @Override
     public void stopObserving(String sensorId, String observerId) {
         mRegistry.remove(sensorId, observerId);
@@ -417,9 +601,7 @@ public class RecorderControllerImpl implements RecorderController {
             if (!r.isRecording()) {
                 // If it was not recording, we can also remove our service-level observers.
                 if (mServiceObservers.containsKey(sensorId)) {
-                    String serviceObserverId = mServiceObservers.get(sensorId);
-                    mRegistry.remove(sensorId, serviceObserverId);
-                    mServiceObservers.remove(sensorId);
+                    removeServiceObserver(sensorId);
                     mLatestValues.remove(sensorId);
                 }
             }
@@ -498,6 +680,15 @@ public class RecorderControllerImpl implements RecorderController {
 
     @Override
     public Completable startRecording(final Intent resumeIntent) {
+        return startRecording(resumeIntent, PreTriggerBuffer.NONE);
+    }
+
+    /**
+     * @param preTriggerMillis the time from which to include data that sensors kept while
+     *                         observing, or {@link PreTriggerBuffer#NONE}.  The trial starts at
+     *                         the earliest such data.
+     */
+    private Completable startRecording(final Intent resumeIntent, final long preTriggerMillis) {
         if (isRecording() || mRecordingStateChangeInProgress) {
             return Completable.complete();
         }
@@ -526,7 +717,18 @@ public class RecorderControllerImpl implements RecorderController {
                     public void take(
                             final IRecorderService recorderService) throws RemoteException {
                         final DataController dataController = mDataController;
-                        final long creationTimeMs = mClock.getNow();
+                        long startTimeMs = mClock.getNow();
+                        if (preTriggerMillis != PreTriggerBuffer.NONE) {
+                            for (StatefulRecorder recorder : mRecorders.values()) {
+                                startTimeMs = Math.min(startTimeMs,
+                                        recorder.getEarliestBufferedMillis(preTriggerMillis));
+                            }
+                            if (mPerfTracker != null) {
+                                mPerfTracker.recordPreTriggerBufferBytes(
+                                        getPreTriggerBufferBytes());
+                            }
+                        }
+                        final long creationTimeMs = startTimeMs;
                         List<GoosciSensorLayout.SensorLayout> layouts = buildSensorLayouts();
 
                         Trial trial = Trial.newTrial(creationTimeMs, layouts.toArray(
@@ -549,10 +751,12 @@ public class RecorderControllerImpl implements RecorderController {
                                                 recording.getExperimentName(), resumeIntent);
 
                                         for (StatefulRecorder recorder : mRecorders.values()) {
-                                            recorder.startRecording(recording.getRunId());
+                                            recorder.startRecordingFrom(recording.getRunId(),
+                                                    preTriggerMillis);
                                         }
                                         setRecording(recording);
                                         mRecordingStateChangeInProgress = false;
+                                        scheduleSegmentRollOver();
                                         emitter.onComplete();
                                     }
 
@@ -571,6 +775,64 @@ public class RecorderControllerImpl implements RecorderController {
         );
     }
 
+    private void scheduleSegmentRollOver() {
+        if (mSegmentMillis != NO_SEGMENTS && isRecording()) {
+            mScheduler.schedule(Delay.millis(mSegmentMillis), mRollOverSegment);
+        }
+    }
+
+    private void unscheduleSegmentRollOver() {
+        if (mSegmentMillis != NO_SEGMENTS) {
+            mScheduler.unschedule(mRollOverSegment);
+        }
+    }
+
+    /**
+     * Ends the current segment of a long-running recording, saves it, and goes on recording
+     * into a new trial.  Sensors keep running throughout.
+     */
+    private void rollOverSegment() {
+        if (!isRecording() || mRecordingStateChangeInProgress) {
+            return;
+        }
+        for (StatefulRecorder recorder : mRecorders.values()) {
+            if (!recorder.hasRecordedData()) {
+                // An empty segment would not be a valid trial; give the sensors more time.
+                scheduleSegmentRollOver();
+                return;
+            }
+        }
+        final Experiment experiment = getSelectedExperiment();
+        Trial finished = experiment.getTrial(mCurrentTrialId);
+        long boundaryMs = mClock.getNow();
+        List<GoosciSensorLayout.SensorLayout> layouts = buildSensorLayouts();
+        if (layouts.size() > 0) {
+            finished.setSensorLayouts(layouts);
+        }
+        finished.setRecordingEndTime(boundaryMs);
+
+        Trial next = Trial.newTrial(boundaryMs, finished.getSensorLayouts().toArray(
+                new GoosciSensorLayout.SensorLayout[0]), mAppearanceProvider, mContext);
+        for (StatefulRecorder recorder : mRecorders.values()) {
+            recorder.rollOver(finished, next.getTrialId());
+        }
+        mCurrentTrialId = next.getTrialId();
+        experiment.addTrial(next);
+        setRecording(new RecordingMetadata(boundaryMs, mCurrentTrialId,
+                experiment.getDisplayTitle(mContext)));
+
+        // Checkpoint: the finished segment reaches disk now, rather than when recording stops.
+        mDataController.updateExperiment(experiment.getExperimentId(),
+                new LoggingConsumer<Success>(TAG, "roll over segment") {
+                    @Override
+                    public void success(Success value) {
+                        mDataController.saveImmediately(
+                                LoggingConsumer.<Success>expectSuccess(TAG, "save segment"));
+                    }
+                });
+        scheduleSegmentRollOver();
+    }
+
     private RecordingMetadata getRecording() {
         return mRecordingStatus.getValue().currentRecording;
     }
@@ -613,6 +875,7 @@ public class RecorderControllerImpl implements RecorderController {
             }
         }
         mRecordingStateChangeInProgress = true;
+        unscheduleSegmentRollOver();
         final boolean activityInForeground = mActivityInForeground;
 
         return Completable.create(emitter ->
@@ -706,12 +969,12 @@ public class RecorderControllerImpl implements RecorderController {
 
     private MaybeSource<GoosciSnapshotValue.SnapshotLabelValue.SensorSnapshot> makeSnapshot(
             String sensorId, SensorRegistry sensorRegistry) throws Exception {
-        BehaviorSubject<ScalarReading> subject = mLatestValues.get(sensorId);
-        if (subject == null) {
+        LatestReading latest = mLatestValues.get(sensorId);
+        if (latest == null) {
             return Maybe.empty();
         }
         final GoosciSensorSpec.SensorSpec spec = getSensorSpec(sensorId, sensorRegistry);
-        return subject.firstElement().map(value -> generateSnapshot(spec, value));
+        return latest.get().map(value -> generateSnapshot(spec, value));
     }
 
     private GoosciSnapshotValue.SnapshotLabelValue buildSnapshotLabelValue(
@@ -750,6 +1013,7 @@ public class RecorderControllerImpl implements RecorderController {
             return;
         }
         mCurrentTrialId = "";
+        unscheduleSegmentRollOver();
         for (StatefulRecorder recorder : mRecorders.values()) {
             // No trial to update, since we are not saving this.
             recorder.stopRecording(null);
@@ -882,4 +1146,32 @@ public class RecorderControllerImpl implements RecorderController {
             }
         };
     }
+
+    /**
+     * The most recent value of one sensor.  Updating it does not allocate unless a snapshot is
+     * waiting for the first value.
+     */
+    private static class LatestReading {
+        private final PublishSubject<ScalarReading> mWaiting = PublishSubject.create();
+        private boolean mHasValue = false;
+        private long mTimestamp;
+        private double mValue;
+
+        void set(long timestamp, double value) {
+            mTimestamp = timestamp;
+            mValue = value;
+            mHasValue = true;
+            if (mWaiting.hasObservers()) {
+                mWaiting.onNext(new ScalarReading(timestamp, value));
+            }
+        }
+
+        /**
+         * @return the latest value, or the next one if there is none yet.
+         */
+        Maybe<ScalarReading> get() {
+            return Maybe.defer(() -> mHasValue ? Maybe.just(new ScalarReading(mTimestamp, mValue))
+                    : mWaiting.firstElement());
+        }
+    }
 }
@@ -20,14 +20,10 @@ import android.os.Bundle;
 
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -38,20 +34,37 @@ import java.util.Map;
  * recorders so that recorders don't have to care about UI elements coming and going.
  *
  * These methods should all only be called on the service's main thread.
+ *
+ * Each sensor's listeners are kept in an array that is replaced, never changed, when listeners
+ * are added or removed.  Routing a reading is then a loop over that array with no allocation,
+ * and listeners may add or remove listeners while being called.
  */
 public class RecorderListenerRegistry implements SensorStatusListener {
-    private Multimap<String, ListenerSet> mListeners = HashMultimap.create();
+    private static final ListenerSet[] NO_LISTENERS = new ListenerSet[0];
+
+    private Map<String, SensorListeners> mListeners = new HashMap<>();
+
+    /**
+     * The listeners for one sensor.  Kept after the last listener is removed, so that observers
+     * made by {@link #makeObserverForRecorder} never need to look it up again.
+     */
+    private static class SensorListeners {
+        public volatile ListenerSet[] sets = NO_LISTENERS;
+    }
 
     private static class ListenerSet {
         public final String observerId;
         public final SensorStatusListener statusListener;
+        // Exactly one of these is non-null.
         public final SensorObserver observer;
+        public final StreamConsumer streamConsumer;
 
         private ListenerSet(String observerId, SensorStatusListener statusListener,
-                SensorObserver observer) {
+                SensorObserver observer, StreamConsumer streamConsumer) {
             this.observerId = observerId;
             this.statusListener = statusListener;
             this.observer = observer;
+            this.streamConsumer = streamConsumer;
         }
     }
 
@@ -63,9 +76,10 @@ public class RecorderListenerRegistry implements SensorStatusListener {
     public void onSourceStatus(String id, @Status int status) {
         mCurrentStatus.put(id, status);
         mCurrentErrors.put(id, false);
-        for (ListenerSet set : mListeners.get(id)) {
-            if (set.statusListener != null) {
-                set.statusListener.onSourceStatus(id, status);
+        ListenerSet[] sets = currentListeners(id);
+        for (int i = 0; i < sets.length; i++) {
+            if (sets[i].statusListener != null) {
+                sets[i].statusListener.onSourceStatus(id, status);
             }
         }
     }
@@ -73,13 +87,12 @@ public class RecorderListenerRegistry implements SensorStatusListener {
     @Override
     public void onSourceError(String id, @Error int error, String errorMessage) {
         mCurrentErrors.put(id, true);
-        // Since onSourceError can call a disconnect and remove a listener, need to keep this safe
-        // for concurrent modification by copying it elsewhere.
-        List<ListenerSet> listenerList = new ArrayList<>();
-        listenerList.addAll(mListeners.get(id));
-        for (ListenerSet set : listenerList) {
-            if (set.statusListener != null) {
-                set.statusListener.onSourceError(id, error, errorMessage);
+        // onSourceError can call a disconnect and remove a listener, which replaces the array
+        // rather than changing this one.
+        ListenerSet[] sets = currentListeners(id);
+        for (int i = 0; i < sets.length; i++) {
+            if (sets[i].statusListener != null) {
+                sets[i].statusListener.onSourceError(id, error, errorMessage);
             }
         }
     }
@@ -105,9 +118,28 @@ public class RecorderListenerRegistry implements SensorStatusListener {
 
     public String putListeners(String sensorId, SensorObserver observer,
             SensorStatusListener listener) {
+        return putListenerSet(sensorId, listener, observer, null);
+    }
+
+    /**
+     * Like {@link #putListeners}, but {@code consumer} gets every value the sensor records, on the
+     * sensor's thread, rather than the values shown on screen.  Only sensors whose recorder is a
+     * {@link com.google.android.apps.forscience.whistlepunk.sensorapi.StreamingRecorder} given
+     * {@link #makeStreamConsumerForRecorder} deliver anything to it.
+     */
+    public String putStreamListeners(String sensorId, StreamConsumer consumer,
+            SensorStatusListener listener) {
+        return putListenerSet(sensorId, listener, null, consumer);
+    }
+
+    private String putListenerSet(String sensorId, SensorStatusListener listener,
+            SensorObserver observer, StreamConsumer consumer) {
         String observerId = sensorId + (++mObserverCount);
 
-        mListeners.put(sensorId, new ListenerSet(observerId, listener, observer));
+        SensorListeners listeners = getListeners(sensorId);
+        ListenerSet[] sets = Arrays.copyOf(listeners.sets, listeners.sets.length + 1);
+        sets[sets.length - 1] = new ListenerSet(observerId, listener, observer, consumer);
+        listeners.sets = sets;
 
         Integer status = mCurrentStatus.get(sensorId);
         if (status != null && listener != null) {
@@ -117,14 +149,19 @@ public class RecorderListenerRegistry implements SensorStatusListener {
     }
 
     public void remove(String sensorId, String observerId) {
-        Collection<ListenerSet> sensorListeners = mListeners.get(sensorId);
-        Iterator<ListenerSet> iterator = sensorListeners.iterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().observerId.equals(observerId)) {
-                iterator.remove();
+        SensorListeners listeners = getListeners(sensorId);
+        ListenerSet[] sets = listeners.sets;
+        int kept = 0;
+        ListenerSet[] remaining = new ListenerSet[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+            if (!sets[i].observerId.equals(observerId)) {
+                remaining[kept++] = sets[i];
             }
         }
-        if (sensorListeners.isEmpty()) {
+        if (kept < sets.length) {
+            listeners.sets = kept == 0 ? NO_LISTENERS : Arrays.copyOf(remaining, kept);
+        }
+        if (kept == 0) {
             // Then we've just removed the last listener for this sensorID.
             // Remove the status and errors state too.
             if (mCurrentErrors.containsKey(sensorId)) {
@@ -134,11 +171,25 @@ public class RecorderListenerRegistry implements SensorStatusListener {
     }
 
     public int countListeners(String sensorId) {
-        Collection<ListenerSet> sensorListeners = mListeners.get(sensorId);
-        if (sensorListeners == null) {
+        SensorListeners listeners = mListeners.get(sensorId);
+        if (listeners == null) {
             return 0;
         }
-        return sensorListeners.size();
+        return listeners.sets.length;
+    }
+
+    private ListenerSet[] currentListeners(String sensorId) {
+        SensorListeners listeners = mListeners.get(sensorId);
+        return listeners == null ? NO_LISTENERS : listeners.sets;
+    }
+
+    private SensorListeners getListeners(String sensorId) {
+        SensorListeners listeners = mListeners.get(sensorId);
+        if (listeners == null) {
+            listeners = new SensorListeners();
+            mListeners.put(sensorId, listeners);
+        }
+        return listeners;
     }
 
     /**
@@ -146,12 +197,37 @@ public class RecorderListenerRegistry implements SensorStatusListener {
      * any, for the given sensor.
      */
     public SensorObserver makeObserverForRecorder(final String sensorId) {
+        final SensorListeners listeners = getListeners(sensorId);
         return new SensorObserver() {
             @Override
             public void onNewData(long timestamp, Bundle bundle) {
-                for (ListenerSet set : mListeners.get(sensorId)) {
-                    set.observer.onNewData(timestamp, bundle);
+                ListenerSet[] sets = listeners.sets;
+                for (int i = 0; i < sets.length; i++) {
+                    if (sets[i].observer != null) {
+                        sets[i].observer.onNewData(timestamp, bundle);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a new StreamConsumer that routes every recorded value to the consumers added with
+     * {@link #putStreamListeners} for the given sensor.  Unlike everything else here, the returned
+     * consumer may be called on any thread, since it only reads the current array of listeners.
+     */
+    public StreamConsumer makeStreamConsumerForRecorder(final String sensorId) {
+        final SensorListeners listeners = getListeners(sensorId);
+        return new StreamConsumer() {
+            @Override
+            public boolean addData(long timestampMillis, double value) {
+                ListenerSet[] sets = listeners.sets;
+                for (int i = 0; i < sets.length; i++) {
+                    if (sets[i].streamConsumer != null) {
+                        sets[i].streamConsumer.addData(timestampMillis, value);
+                    }
                 }
+                return true;
             }
         };
     }
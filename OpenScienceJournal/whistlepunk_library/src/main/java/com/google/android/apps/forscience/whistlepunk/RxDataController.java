@@ -21,6 +21,9 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.LabelListHolder;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 
+import java.util.Collections;
+import java.util.List;
+
 import io.reactivex.Completable;
 import io.reactivex.Single;
 
@@ -50,8 +53,21 @@ public class RxDataController {
         return MaybeConsumers.buildSingle(mc -> dc.createExperiment(mc));
     }
 
+    /**
+     * @return a {@link Single} of the trial, which is read in full on the metadata thread first.
+     */
     public static Single<Trial> getTrial(DataController dc, String experimentId, String trialId) {
-        return getExperimentById(dc, experimentId).map(experiment -> experiment.getTrial(trialId));
+        return getExperimentById(dc, experimentId).flatMap(experiment -> {
+            Trial trial = experiment.getTrial(trialId);
+            return loadTrials(dc, Collections.singletonList(trial)).toSingleDefault(trial);
+        });
+    }
+
+    /**
+     * @return a {@link Completable} that completes when the trials have been read in full.
+     */
+    public static Completable loadTrials(DataController dc, List<Trial> trials) {
+        return MaybeConsumers.buildCompleteable(mc -> dc.loadTrials(trials, mc));
     }
 
     public static Completable addTrialLabel(Label label, DataController dc, Experiment experiment,
@@ -172,6 +172,24 @@ public class SensorAppearanceProviderImpl implements SensorAppearanceProvider {
                         SensorAnimationBehavior.TYPE_RELATIVE_SCALE),
                 BuiltInSensorAppearance.DEFAULT_POINTS_AFTER_DECIMAL, DecibelSensor.ID));
 
+        putAppearance(DecibelSensor.PEAK_ID, BuiltInSensorAppearance.create(R.string.decibel_peak,
+                R.drawable.ic_sensor_decibels_white_24dp, R.string.decibel_units,
+                R.string.sensor_desc_short_decibel, R.string.sensor_desc_first_paragraph_decibel,
+                R.string.sensor_desc_second_paragraph_decibel, R.drawable.learnmore_sound,
+                new SensorAnimationBehavior(R.drawable.decibel_level_drawable,
+                        SensorAnimationBehavior.TYPE_RELATIVE_SCALE),
+                BuiltInSensorAppearance.DEFAULT_POINTS_AFTER_DECIMAL, DecibelSensor.PEAK_ID));
+
+        putAppearance(DecibelSensor.A_WEIGHTED_ID, BuiltInSensorAppearance.create(
+                R.string.decibel_a_weighted, R.drawable.ic_sensor_decibels_white_24dp,
+                R.string.decibel_units, R.string.sensor_desc_short_decibel,
+                R.string.sensor_desc_first_paragraph_decibel,
+                R.string.sensor_desc_second_paragraph_decibel, R.drawable.learnmore_sound,
+                new SensorAnimationBehavior(R.drawable.decibel_level_drawable,
+                        SensorAnimationBehavior.TYPE_RELATIVE_SCALE),
+                BuiltInSensorAppearance.DEFAULT_POINTS_AFTER_DECIMAL,
+                DecibelSensor.A_WEIGHTED_ID));
+
         putAppearance(BarometerSensor.ID, BuiltInSensorAppearance.create(R.string.barometer,
                 R.drawable.ic_sensor_barometer_white_24dp, R.string.barometer_units,
                 R.string.sensor_desc_short_barometer,
@@ -150,9 +150,10 @@ public class SensorCardPresenter {
 
     // The sensor ID ordering.
     private static final String[] SENSOR_ID_ORDER = {AmbientLightSensor.ID, DecibelSensor.ID,
-            LinearAccelerometerSensor.ID, AccelerometerSensor.Axis.X.getSensorId(),
-            AccelerometerSensor.Axis.Y.getSensorId(), AccelerometerSensor.Axis.Z.getSensorId(),
-            BarometerSensor.ID, CompassSensor.ID, MagneticStrengthSensor.ID};
+            DecibelSensor.PEAK_ID, DecibelSensor.A_WEIGHTED_ID, LinearAccelerometerSensor.ID,
+            AccelerometerSensor.Axis.X.getSensorId(), AccelerometerSensor.Axis.Y.getSensorId(),
+            AccelerometerSensor.Axis.Z.getSensorId(), BarometerSensor.ID, CompassSensor.ID,
+            MagneticStrengthSensor.ID};
 
     // Update the back data textview every .25 seconds maximum.
     private static final int MAX_TEXT_UPDATE_TIME_MS = 250;
@@ -206,6 +206,9 @@ public class SensorRegistry {
             addBuiltInSensor(new AmbientLightSensor());
         }
         addBuiltInSensor(new DecibelSensor());
+        addBuiltInSensor(new DecibelSensor(DecibelSensor.PEAK_ID, DecibelSensor.Output.PEAK));
+        addBuiltInSensor(new DecibelSensor(DecibelSensor.A_WEIGHTED_ID,
+                DecibelSensor.Output.A_WEIGHTED_RMS));
 
         if (AccelerometerSensor.isAccelerometerAvailable(available)) {
             addBuiltInSensor(new AccelerometerSensor(AccelerometerSensor.Axis.X));
@@ -22,7 +22,10 @@ import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.javalib.Scheduler;
 import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.PreTriggerBuffer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.PreTriggerRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SegmentedRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 
 public class StatefulRecorder {
@@ -88,6 +91,37 @@ public class StatefulRecorder {
         mRecording = true;
     }
 
+    /**
+     * Starts recording, including any data the recorder kept from {@code sinceMillis} onward.
+     * Recorders that keep no data just start recording.
+     */
+    public void startRecordingFrom(String runId, long sinceMillis) {
+        if (mRecorder instanceof PreTriggerRecorder) {
+            ((PreTriggerRecorder) mRecorder).startRecordingFrom(runId, sinceMillis);
+        } else {
+            mRecorder.startRecording(runId);
+        }
+        mRecording = true;
+    }
+
+    /**
+     * @return the timestamp of the earliest data kept at or after {@code sinceMillis}, or
+     * {@link PreTriggerBuffer#NONE}
+     */
+    public long getEarliestBufferedMillis(long sinceMillis) {
+        if (mRecorder instanceof PreTriggerRecorder) {
+            return ((PreTriggerRecorder) mRecorder).getEarliestBufferedMillis(sinceMillis);
+        }
+        return PreTriggerBuffer.NONE;
+    }
+
+    public long getBufferedBytes() {
+        if (mRecorder instanceof PreTriggerRecorder) {
+            return ((PreTriggerRecorder) mRecorder).getBufferedBytes();
+        }
+        return 0;
+    }
+
 
     void stopRecording(Trial trialToUpdate) {
         mRecorder.stopRecording(trialToUpdate);
@@ -95,6 +129,20 @@ public class StatefulRecorder {
         maybeStopObserving();
     }
 
+    /**
+     * Saves the current segment of a long recording to {@code finishedSegment} and goes on
+     * recording into {@code nextRunId}.  Unlike stopping and starting, this never lets the sensor
+     * stop in between, and recorders that support it lose no readings at the boundary.
+     */
+    void rollOver(Trial finishedSegment, String nextRunId) {
+        if (mRecorder instanceof SegmentedRecorder) {
+            ((SegmentedRecorder) mRecorder).rollOverRecording(finishedSegment, nextRunId);
+        } else {
+            mRecorder.stopRecording(finishedSegment);
+            mRecorder.startRecording(nextRunId);
+        }
+    }
+
     // The spec for SensorRecorder says that once you stopObserving, the recorder should
     // shut down.  Unless we decide to change that (and retrofit all current sensors to that
     // new design), we should only _actually_ call stopObserving once we're no longer
@@ -121,6 +121,10 @@ public class StatsAccumulator {
     private double mMax;
     private double mSum;
 
+    // The low-order bits lost from mSum so far (Kahan summation), so that the average of a long
+    // recording does not drift as the sum grows much larger than each value.
+    private double mSumError;
+
     private long mStartTimestamp = RecordingMetadata.NOT_RECORDING;
     private long mLatestTimestamp = RecordingMetadata.NOT_RECORDING;
     private int mStatSize;
@@ -137,6 +141,7 @@ public class StatsAccumulator {
         mMin = Double.MAX_VALUE;
         mMax = -Double.MAX_VALUE;
         mSum = 0;
+        mSumError = 0;
         mStartTimestamp = RecordingMetadata.NOT_RECORDING;
         mLatestTimestamp = RecordingMetadata.NOT_RECORDING;
         mStatSize = 0;
@@ -156,16 +161,24 @@ public class StatsAccumulator {
             mMin = value;
             mMax = value;
             mSum = value;
+            mSumError = 0;
         } else {
             if (value > mMax) {
                 mMax = value;
             } else if (value < mMin) {
                 mMin = value;
             }
-            mSum = mSum + value;
+            addToSum(value);
         }
     }
 
+    private void addToSum(double value) {
+        double corrected = value - mSumError;
+        double newSum = mSum + corrected;
+        mSumError = (newSum - mSum) - corrected;
+        mSum = newSum;
+    }
+
     private double getAverage() {
         return mSum / mStatSize;
     }
@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+/**
+ * Maps timestamps from an external device's clock onto the phone's {@link Clock}, following the
+ * device clock as it drifts.
+ *
+ * Each reading gives an upper bound on the offset between the clocks: it cannot have arrived
+ * before it was taken, so (arrival time - device time) is the offset plus some delivery latency.
+ * Within each window of device time, the reading with the smallest such value (the least delayed)
+ * is kept; a line fitted through the kept readings of recent windows estimates both the offset
+ * and the drift.
+ */
+public class TimestampReconciler {
+    /**
+     * Returned by {@link #getErrorEstimateMillis()} before there is enough data for an estimate.
+     */
+    public static final double NO_ESTIMATE = -1;
+
+    static final long DEFAULT_WINDOW_MILLIS = 10 * 1000;
+    static final int DEFAULT_WINDOW_COUNT = 60;
+
+    private final long mWindowMillis;
+
+    // Least-delayed reading of each finished window, oldest first, as a ring.
+    private final long[] mPointDeviceMillis;
+    private final long[] mPointOffsetMillis;
+    private int mPointCount = 0;
+    private int mNextPoint = 0;
+
+    private boolean mStarted = false;
+    private long mWindowStartMillis;
+    private long mWindowMinDeviceMillis;
+    private long mWindowMinOffsetMillis;
+
+    // The fitted line: offset = mIntercept + mSlope * (deviceMillis - mOriginMillis).  Until two
+    // windows have finished, the slope is 0 and the intercept is the smallest offset seen.
+    private long mOriginMillis;
+    private double mIntercept;
+    private double mSlope = 0;
+    private double mErrorEstimateMillis = NO_ESTIMATE;
+
+    private long mLastDeviceMillis;
+    private long mLastResultMillis;
+
+    public TimestampReconciler() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_WINDOW_COUNT);
+    }
+
+    /**
+     * @param windowMillis how much device time each kept reading represents.  Should be long
+     *                     enough that at least one reading in each window is delivered promptly.
+     * @param windowCount  how many windows the fitted line covers
+     */
+    public TimestampReconciler(long windowMillis, int windowCount) {
+        mWindowMillis = windowMillis;
+        mPointDeviceMillis = new long[windowCount];
+        mPointOffsetMillis = new long[windowCount];
+    }
+
+    /**
+     * Observes and maps a single reading.
+     *
+     * @see #observe(long, long)
+     * @see #toClockMillis(long)
+     */
+    public long toClockMillis(long deviceMillis, long arrivalMillis) {
+        observe(deviceMillis, arrivalMillis);
+        return toClockMillis(deviceMillis);
+    }
+
+    /**
+     * Updates the estimate with a reading.  When several readings arrive together, observing them
+     * all before mapping any lets the most recent one correct the earlier ones.
+     *
+     * @param deviceMillis  when the reading was taken, by the device's clock
+     * @param arrivalMillis when the reading arrived, by the phone's clock
+     */
+    public void observe(long deviceMillis, long arrivalMillis) {
+        long offset = arrivalMillis - deviceMillis;
+        if (!mStarted) {
+            mStarted = true;
+            mOriginMillis = deviceMillis;
+            mIntercept = offset;
+            startWindow(deviceMillis, offset);
+            mLastDeviceMillis = deviceMillis;
+            mLastResultMillis = Long.MIN_VALUE;
+            return;
+        }
+
+        if (deviceMillis - mWindowStartMillis >= mWindowMillis) {
+            addPoint(mWindowMinDeviceMillis, mWindowMinOffsetMillis);
+            startWindow(deviceMillis, offset);
+        } else if (offset < mWindowMinOffsetMillis) {
+            mWindowMinDeviceMillis = deviceMillis;
+            mWindowMinOffsetMillis = offset;
+        }
+        // No reading can arrive earlier than the true offset allows, so if this one beats the
+        // line, the line is too high.
+        double predicted = predictOffset(deviceMillis);
+        if (offset < predicted) {
+            mIntercept -= predicted - offset;
+        }
+    }
+
+    /**
+     * @param deviceMillis when a reading was taken, by the device's clock.  At least one reading
+     *                     must have been observed.
+     * @return when the reading was taken, by the phone's clock.  Results never go backwards while
+     * device times go forwards.
+     */
+    public long toClockMillis(long deviceMillis) {
+        long result = deviceMillis + Math.round(predictOffset(deviceMillis));
+        if (deviceMillis > mLastDeviceMillis && result <= mLastResultMillis) {
+            // The line moved down since the last reading.
+            result = mLastResultMillis + 1;
+        }
+        mLastDeviceMillis = deviceMillis;
+        mLastResultMillis = result;
+        return result;
+    }
+
+    /**
+     * @return the root-mean-square distance, in milliseconds, of the kept readings from the
+     * fitted line, or {@link #NO_ESTIMATE}.  This grows with jitter in delivery latency and with
+     * drift that is not steady.
+     */
+    public double getErrorEstimateMillis() {
+        return mErrorEstimateMillis;
+    }
+
+    /**
+     * @return how fast the device clock loses time against the phone's, in parts per million
+     */
+    public double getDriftPpm() {
+        return mSlope * 1e6;
+    }
+
+    public void reset() {
+        mStarted = false;
+        mPointCount = 0;
+        mNextPoint = 0;
+        mSlope = 0;
+        mErrorEstimateMillis = NO_ESTIMATE;
+    }
+
+    private double predictOffset(long deviceMillis) {
+        return mIntercept + mSlope * (deviceMillis - mOriginMillis);
+    }
+
+    private void startWindow(long deviceMillis, long offset) {
+        mWindowStartMillis = deviceMillis;
+        mWindowMinDeviceMillis = deviceMillis;
+        mWindowMinOffsetMillis = offset;
+    }
+
+    private void addPoint(long deviceMillis, long offset) {
+        mPointDeviceMillis[mNextPoint] = deviceMillis;
+        mPointOffsetMillis[mNextPoint] = offset;
+        mNextPoint = (mNextPoint + 1) % mPointDeviceMillis.length;
+        if (mPointCount < mPointDeviceMillis.length) {
+            mPointCount++;
+        }
+        if (mPointCount >= 2) {
+            fitLine();
+        }
+    }
+
+    // Least-squares fit through the kept points.
+    private void fitLine() {
+        mOriginMillis = mPointDeviceMillis[oldestPoint()];
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < mPointCount; i++) {
+            sumX += mPointDeviceMillis[i] - mOriginMillis;
+            sumY += mPointOffsetMillis[i];
+        }
+        double meanX = sumX / mPointCount;
+        double meanY = sumY / mPointCount;
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < mPointCount; i++) {
+            double dx = mPointDeviceMillis[i] - mOriginMillis - meanX;
+            covariance += dx * (mPointOffsetMillis[i] - meanY);
+            variance += dx * dx;
+        }
+        mSlope = variance == 0 ? 0 : covariance / variance;
+        mIntercept = meanY - mSlope * meanX;
+
+        double squaredError = 0;
+        for (int i = 0; i < mPointCount; i++) {
+            double residual = mPointOffsetMillis[i] - predictOffset(mPointDeviceMillis[i]);
+            squaredError += residual * residual;
+        }
+        mErrorEstimateMillis = Math.sqrt(squaredError / mPointCount);
+    }
+
+    private int oldestPoint() {
+        return mPointCount < mPointDeviceMillis.length ? 0 : mNextPoint;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation
+        .TriggerInformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Evaluates one sensor's triggers against its samples.
+ *
+ * Samples are handed off cheaply with {@link #addSample}, and evaluated on a background executor;
+ * only triggers that fire are posted to the UI executor.  Thresholds are kept sorted by trigger
+ * type, so each sample only looks at the triggers whose thresholds lie between the previous and
+ * the new value, plus any triggers that are waiting to re-arm after firing with hysteresis.
+ */
+public class TriggerEvaluator {
+    public interface FiredListener {
+        /**
+         * Called on the UI executor for each trigger that fires, after its last used time has
+         * been updated.
+         */
+        void onTriggerFired(SensorTrigger trigger, long timestampMillis);
+    }
+
+    /**
+     * How many samples may wait for evaluation before the oldest are dropped.
+     */
+    @VisibleForTesting
+    static final int PENDING_CAPACITY = 256;
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final Executor mEvaluationExecutor;
+    private final Executor mUiExecutor;
+    private final FiredListener mListener;
+
+    // Thresholds and triggers for each type of trigger, sorted by threshold.
+    private final Index mAt;
+    private final Index mRisesAbove;
+    private final Index mDropsBelow;
+    private final Index mAbove;
+    private final Index mBelow;
+
+    // Triggers that fired with hysteresis and have not yet moved far enough back to fire again.
+    private final List<Entry> mDisarmed = new ArrayList<>();
+
+    private double mPreviousValue;
+    private boolean mHasPreviousValue = false;
+
+    // Samples waiting for the evaluation executor, guarded by mLock.
+    private final Object mLock = new Object();
+    private final long[] mPendingTimes = new long[PENDING_CAPACITY];
+    private final double[] mPendingValues = new double[PENDING_CAPACITY];
+    private final boolean[] mPendingRecording = new boolean[PENDING_CAPACITY];
+    private int mPendingStart = 0;
+    private int mPendingCount = 0;
+    private boolean mDrainScheduled = false;
+    private long mDropCount = 0;
+    private volatile boolean mStopped = false;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public TriggerEvaluator(List<SensorTrigger> triggers, Executor evaluationExecutor,
+            Executor uiExecutor, FiredListener listener) {
+        mEvaluationExecutor = evaluationExecutor;
+        mUiExecutor = uiExecutor;
+        mListener = listener;
+
+        List<Entry> at = new ArrayList<>();
+        List<Entry> risesAbove = new ArrayList<>();
+        List<Entry> dropsBelow = new ArrayList<>();
+        List<Entry> above = new ArrayList<>();
+        List<Entry> below = new ArrayList<>();
+        for (SensorTrigger trigger : triggers) {
+            Entry entry = new Entry(trigger);
+            switch (trigger.getTriggerWhen()) {
+                case TriggerInformation.TRIGGER_WHEN_AT:
+                    at.add(entry);
+                    break;
+                case TriggerInformation.TRIGGER_WHEN_RISES_ABOVE:
+                    risesAbove.add(entry);
+                    break;
+                case TriggerInformation.TRIGGER_WHEN_DROPS_BELOW:
+                    dropsBelow.add(entry);
+                    break;
+                case TriggerInformation.TRIGGER_WHEN_ABOVE:
+                    above.add(entry);
+                    break;
+                case TriggerInformation.TRIGGER_WHEN_BELOW:
+                    below.add(entry);
+                    break;
+            }
+        }
+        mAt = new Index(at);
+        mRisesAbove = new Index(risesAbove);
+        mDropsBelow = new Index(dropsBelow);
+        mAbove = new Index(above);
+        mBelow = new Index(below);
+    }
+
+    /**
+     * Queues a sample for evaluation.  Does not allocate, and only posts to the evaluation
+     * executor if it is not already draining.
+     *
+     * @param recording whether a recording was in progress when the sample arrived.
+     */
+    public void addSample(long timestampMillis, double value, boolean recording) {
+        synchronized (mLock) {
+            if (mPendingCount == PENDING_CAPACITY) {
+                mPendingStart = (mPendingStart + 1) % PENDING_CAPACITY;
+                mPendingCount--;
+                mDropCount++;
+            }
+            int end = (mPendingStart + mPendingCount) % PENDING_CAPACITY;
+            mPendingTimes[end] = timestampMillis;
+            mPendingValues[end] = value;
+            mPendingRecording[end] = recording;
+            mPendingCount++;
+            if (mDrainScheduled) {
+                return;
+            }
+            mDrainScheduled = true;
+        }
+        mEvaluationExecutor.execute(mDrain);
+    }
+
+    /**
+     * Stops posting fired triggers.  Samples still waiting are discarded.
+     */
+    public void stop() {
+        mStopped = true;
+        synchronized (mLock) {
+            mPendingCount = 0;
+        }
+    }
+
+    public long getDropCount() {
+        synchronized (mLock) {
+            return mDropCount;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            long timestamp;
+            double value;
+            boolean recording;
+            synchronized (mLock) {
+                if (mPendingCount == 0) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                timestamp = mPendingTimes[mPendingStart];
+                value = mPendingValues[mPendingStart];
+                recording = mPendingRecording[mPendingStart];
+                mPendingStart = (mPendingStart + 1) % PENDING_CAPACITY;
+                mPendingCount--;
+            }
+            evaluate(timestamp, value, recording);
+        }
+    }
+
+    /**
+     * Evaluates a single sample on the calling thread.
+     */
+    @VisibleForTesting
+    void evaluate(long timestampMillis, double value, boolean recording) {
+        if (!mHasPreviousValue) {
+            // Like SensorTrigger.isTriggered, the first value only initializes.
+            mHasPreviousValue = true;
+            mPreviousValue = value;
+            return;
+        }
+        double previous = mPreviousValue;
+        mPreviousValue = value;
+
+        rearm(value);
+
+        // AT: within epsilon of the threshold, or strictly crossed it.
+        mAt.fireBetween(Math.min(previous, value - SensorTrigger.EPSILON),
+                Math.max(previous, value + SensorTrigger.EPSILON), false, false, timestampMillis,
+                recording);
+        if (value > previous) {
+            // RISES_ABOVE: previous <= threshold < value
+            mRisesAbove.fireBetween(previous, value, true, false, timestampMillis, recording);
+        } else if (value < previous) {
+            // DROPS_BELOW: value < threshold <= previous
+            mDropsBelow.fireBetween(value, previous, false, true, timestampMillis, recording);
+        }
+        // ABOVE: threshold < value
+        mAbove.fireRange(0, mAbove.lowerBound(value), timestampMillis, recording);
+        // BELOW: threshold > value
+        mBelow.fireRange(mBelow.upperBound(value), mBelow.size(), timestampMillis, recording);
+    }
+
+    private void rearm(double value) {
+        for (int i = mDisarmed.size() - 1; i >= 0; i--) {
+            Entry entry = mDisarmed.get(i);
+            if (entry.canRearm(value)) {
+                entry.mArmed = true;
+                mDisarmed.remove(i);
+            }
+        }
+    }
+
+    private void fire(Entry entry, long timestampMillis, boolean recording) {
+        if (!entry.mArmed || (!recording && entry.mOnlyWhenRecording)) {
+            return;
+        }
+        if (entry.mDebounceMillis > 0 && entry.mLastFiredMillis != NEVER
+                && timestampMillis - entry.mLastFiredMillis < entry.mDebounceMillis) {
+            return;
+        }
+        entry.mLastFiredMillis = timestampMillis;
+        if (entry.mHysteresis > 0 && entry.mWhen != TriggerInformation.TRIGGER_WHEN_ABOVE
+                && entry.mWhen != TriggerInformation.TRIGGER_WHEN_BELOW) {
+            entry.mArmed = false;
+            mDisarmed.add(entry);
+        }
+        final SensorTrigger trigger = entry.mTrigger;
+        mUiExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mStopped) {
+                    // The trigger belongs to the experiment, so it is only changed on the UI
+                    // thread; this keeps the most recently used triggers first in the list.
+                    trigger.updateLastUsed();
+                    mListener.onTriggerFired(trigger, timestampMillis);
+                }
+            }
+        });
+    }
+
+    /**
+     * One trigger and its mutable firing state, only touched on the evaluation executor.
+     */
+    private static class Entry {
+        final SensorTrigger mTrigger;
+        final int mWhen;
+        final double mThreshold;
+        final double mHysteresis;
+        final long mDebounceMillis;
+        final boolean mOnlyWhenRecording;
+        boolean mArmed = true;
+        long mLastFiredMillis = NEVER;
+
+        Entry(SensorTrigger trigger) {
+            mTrigger = trigger;
+            mWhen = trigger.getTriggerWhen();
+            mThreshold = trigger.getValueToTrigger();
+            mHysteresis = trigger.getHysteresis();
+            mDebounceMillis = trigger.getDebounceMillis();
+            mOnlyWhenRecording = trigger.shouldTriggerOnlyWhenRecording();
+        }
+
+        boolean canRearm(double value) {
+            switch (mWhen) {
+                case TriggerInformation.TRIGGER_WHEN_RISES_ABOVE:
+                    return value <= mThreshold - mHysteresis;
+                case TriggerInformation.TRIGGER_WHEN_DROPS_BELOW:
+                    return value >= mThreshold + mHysteresis;
+                default:
+                    return Math.abs(value - mThreshold) > mHysteresis;
+            }
+        }
+    }
+
+    private static final Comparator<Entry> BY_THRESHOLD = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Double.compare(a.mThreshold, b.mThreshold);
+        }
+    };
+
+    /**
+     * Triggers of one type, sorted by threshold.
+     */
+    private class Index {
+        private final double[] mThresholds;
+        private final Entry[] mEntries;
+
+        Index(List<Entry> entries) {
+            mEntries = entries.toArray(new Entry[entries.size()]);
+            Arrays.sort(mEntries, BY_THRESHOLD);
+            mThresholds = new double[mEntries.length];
+            for (int i = 0; i < mEntries.length; i++) {
+                mThresholds[i] = mEntries[i].mThreshold;
+            }
+        }
+
+        int size() {
+            return mEntries.length;
+        }
+
+        /**
+         * Fires the triggers with thresholds between {@code low} and {@code high}, each end
+         * included only if asked.
+         */
+        void fireBetween(double low, double high, boolean includeLow, boolean includeHigh,
+                long timestampMillis, boolean recording) {
+            if (mEntries.length == 0) {
+                return;
+            }
+            int from = includeLow ? lowerBound(low) : upperBound(low);
+            int to = includeHigh ? upperBound(high) : lowerBound(high);
+            fireRange(from, to, timestampMillis, recording);
+        }
+
+        void fireRange(int from, int to, long timestampMillis, boolean recording) {
+            for (int i = from; i < to; i++) {
+                fire(mEntries[i], timestampMillis, recording);
+            }
+        }
+
+        /**
+         * @return the index of the first threshold >= value
+         */
+        int lowerBound(double value) {
+            int low = 0;
+            int high = mThresholds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mThresholds[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the index of the first threshold > value
+         */
+        int upperBound(double value) {
+            int low = 0;
+            int high = mThresholds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mThresholds[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.google.android.apps.forscience.whistlepunk;
 import android.app.Application;
 import android.content.Context;
 
+import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.analytics.UsageTracker;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.SensorDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.featurediscovery.FeatureDiscoveryProvider;
@@ -35,6 +36,7 @@ import javax.inject.Inject;
  * Application subclass holding shared objects.
  */
 public abstract class WhistlePunkApplication extends Application {
+    private static final String TAG = "WhistlePunkApplication";
 
     private RefWatcher mRefWatcher;
 
@@ -93,6 +95,18 @@ public abstract class WhistlePunkApplication extends Application {
         return app.mPerfTrackerProvider;
     }
 
+    /**
+     * @return the perf tracker, or null if {@code context} does not belong to a
+     * WhistlePunkApplication (for example, in tests).
+     */
+    public static PerfTrackerProvider maybeGetPerfTrackerProvider(Context context) {
+        if (context == null
+                || !(context.getApplicationContext() instanceof WhistlePunkApplication)) {
+            return null;
+        }
+        return getPerfTrackerProvider(context);
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -108,6 +122,17 @@ public abstract class WhistlePunkApplication extends Application {
         setupBackupAgent();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN && !LeakCanary.isInAnalyzerProcess(this)) {
+            // The process may be killed from here on, so leave experiment files readable by
+            // themselves.
+            AppSingleton.getInstance(this).getDataController().compactExperimentFiles(
+                    LoggingConsumer.<Success>expectSuccess(TAG, "compact experiment files"));
+        }
+    }
+
     protected void setupBackupAgent() {
         // Register your backup agent to receive settings change events here.
         // Learn more at https://developer.android.com/guide/topics/data/keyvaluebackup.html#BackupAgentHelper.
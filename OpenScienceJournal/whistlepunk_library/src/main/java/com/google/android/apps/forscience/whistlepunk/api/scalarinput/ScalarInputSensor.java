@@ -16,12 +16,15 @@
 package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
 
 import android.content.Context;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.util.Log;
 
 import com.google.android.apps.forscience.javalib.Consumer;
 import com.google.android.apps.forscience.javalib.Delay;
 import com.google.android.apps.forscience.javalib.Scheduler;
 import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.TimestampReconciler;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
@@ -29,6 +32,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.concurrent.Executor;
 
@@ -36,10 +40,14 @@ import java.util.concurrent.Executor;
  * Sensor that receives data through the scalar input API.
  */
 class ScalarInputSensor extends ScalarSensor {
+    private static final String TAG = "ScalarInputSensor";
     public static final Delay CONNECTION_TIME_OUT = Delay.seconds(20);
     private static final int MINIMUM_REFRESH_RATE_MILLIS = 1000;
+    // Slower sensors are served well enough by batched binder calls.
+    static final float SHARED_BUFFER_MIN_SAMPLES_PER_SECOND = 500;
     private final String mAddress;
     private final String mServiceId;
+    private final float mExpectedSamplesPerSecond;
     private final Scheduler mScheduler;
     private Consumer<AppDiscoveryCallbacks> mServiceFinder;
     private ScalarInputStringSource mStringSource;
@@ -56,6 +64,7 @@ class ScalarInputSensor extends ScalarSensor {
         super(sensorId, uiThreadExecutor);
         mAddress = spec.getSensorAddressInService();
         mServiceId = spec.getServiceId();
+        mExpectedSamplesPerSecond = spec.getExpectedSamplesPerSecond();
         mServiceFinder = serviceFinder;
         mStringSource = stringSource;
         mScheduler = scheduler;
@@ -70,6 +79,14 @@ class ScalarInputSensor extends ScalarSensor {
             private Runnable mTimeOutRunnable;
             private ISensorConnector mConnector = null;
             private double mLatestData;
+            // When mLatestData arrived, by our clock.
+            private volatile long mLatestDataTime;
+            // The refresh watchdog reschedules itself, so it is only started once per stream.
+            private boolean mRefreshScheduled = false;
+            // The service's clock may not be ours.
+            private final TimestampReconciler mReconciler = new TimestampReconciler();
+            // Non-null if the service sends readings through shared memory.
+            private SampleRing.Reader mRingReader = null;
             private ApiStatusListener mSensorStatusListener = new ApiStatusListener(listener) {
                 @Override
                 protected void onNoLongerStreaming() {
@@ -80,6 +97,24 @@ class ScalarInputSensor extends ScalarSensor {
 
             class RefreshableObserver extends ISensorObserver.Stub {
                 private final StreamConsumer mConsumer;
+                private long mArrivalTime;
+                private boolean mHasPendingSample = false;
+                private long mPendingTimestamp;
+                private double mPendingValue;
+
+                // Holds back each reading until the next, so that the last of a drain can go
+                // through addData.
+                private final SampleRing.Sink mRingSink = new SampleRing.Sink() {
+                    @Override
+                    public void onSample(long timestamp, double value) {
+                        if (mHasPendingSample) {
+                            mConsumer.addData(mPendingTimestamp, mPendingValue);
+                        }
+                        mHasPendingSample = true;
+                        mPendingTimestamp = mReconciler.toClockMillis(timestamp, mArrivalTime);
+                        mPendingValue = value;
+                    }
+                };
 
                 public RefreshableObserver(StreamConsumer consumer) {
                     mConsumer = consumer;
@@ -91,10 +126,75 @@ class ScalarInputSensor extends ScalarSensor {
                         // We're disconnected, nothing to do here.
                         return;
                     }
+                    addData(mReconciler.toClockMillis(timestamp, clock.getNow()), data);
+                }
+
+                @Override
+                public void onNewDataBatch(long[] timestamps, double[] values, int count) {
+                    if (mConnector == null || count == 0) {
+                        return;
+                    }
+                    long arrivalTime = clock.getNow();
+                    for (int i = 0; i < count; i++) {
+                        mReconciler.observe(timestamps[i], arrivalTime);
+                    }
+                    for (int i = 0; i < count - 1; i++) {
+                        mConsumer.addData(mReconciler.toClockMillis(timestamps[i]), values[i]);
+                    }
+                    // Only the last reading matters for refreshing and connection status.
+                    addData(mReconciler.toClockMillis(timestamps[count - 1]), values[count - 1]);
+                }
+
+                @Override
+                public void onSharedDataAvailable() {
+                    SampleRing.Reader reader = mRingReader;
+                    if (mConnector == null || reader == null) {
+                        return;
+                    }
+                    mArrivalTime = clock.getNow();
+                    try {
+                        reader.drainUntilIdle(mRingSink);
+                    } catch (IllegalStateException e) {
+                        if (Log.isLoggable(TAG, Log.WARN)) {
+                            Log.w(TAG, "Stopped using shared memory for " + mAddress, e);
+                        }
+                        fallBackToObserver();
+                    }
+                    if (mHasPendingSample) {
+                        mHasPendingSample = false;
+                        addData(mPendingTimestamp, mPendingValue);
+                    }
+                }
+
+                /**
+                 * Observes again without the shared buffer, so the service sends its readings
+                 * through this observer instead.
+                 */
+                private void fallBackToObserver() {
+                    mRingReader = null;
+                    try {
+                        mConnector.stopObserving(mAddress);
+                        // TODO: generate correct value of settingsKey
+                        mConnector.startObserving(mAddress, this, mSensorStatusListener, null);
+                    } catch (RemoteException e) {
+                        complain(e);
+                    }
+                }
+
+                /**
+                 * @param timestamp already in our clock's time
+                 */
+                void addData(long timestamp, double data) {
+                    if (mConnector == null) {
+                        return;
+                    }
                     mLatestData = data;
-                    mScheduler.unschedule(mRefreshRunnable);
-                    mScheduler.schedule(Delay.millis(MINIMUM_REFRESH_RATE_MILLIS),
-                            mRefreshRunnable);
+                    mLatestDataTime = clock.getNow();
+                    if (!mRefreshScheduled && mRefreshRunnable != null) {
+                        mRefreshScheduled = true;
+                        mScheduler.schedule(Delay.millis(MINIMUM_REFRESH_RATE_MILLIS),
+                                mRefreshRunnable);
+                    }
                     mConsumer.addData(timestamp, data);
 
                     // Some sensors may forget to set to connected, but if we're getting data,
@@ -129,7 +229,13 @@ class ScalarInputSensor extends ScalarSensor {
                             // TODO: generate correct value of settingsKey
                             String settingsKey = null;
                             mConnector = service.getConnector();
-                            mConnector.startObserving(mAddress, makeObserver(c),
+                            RefreshableObserver observer = makeObserver(c);
+                            mRingReader = openSharedBuffer(context);
+                            if (mRingReader != null) {
+                                // Tells the service to wake us when readings arrive.
+                                observer.onSharedDataAvailable();
+                            }
+                            mConnector.startObserving(mAddress, observer,
                                     mSensorStatusListener, settingsKey);
                             cancelTimeoutRunnable();
                             mTimeOutRunnable = new Runnable() {
@@ -150,15 +256,30 @@ class ScalarInputSensor extends ScalarSensor {
                         }
                     }
 
-                    private ISensorObserver makeObserver(final StreamConsumer c) {
+                    private RefreshableObserver makeObserver(final StreamConsumer c) {
                         final RefreshableObserver observer = new RefreshableObserver(c);
 
                         // TODO: only refresh if expected sample rate is low
                         removeOldRefresh();
+                        // Rather than pushing the refresh back on every reading, which at high
+                        // rates means a lot of scheduler traffic, check when it fires whether a
+                        // reading has arrived since.
                         mRefreshRunnable = new Runnable() {
                             @Override
                             public void run() {
-                                observer.onNewData(clock.getNow(), mLatestData);
+                                if (mConnector == null) {
+                                    mRefreshScheduled = false;
+                                    return;
+                                }
+                                long now = clock.getNow();
+                                long sinceData = now - mLatestDataTime;
+                                if (sinceData >= MINIMUM_REFRESH_RATE_MILLIS) {
+                                    observer.addData(now, mLatestData);
+                                    sinceData = 0;
+                                }
+                                mScheduler.schedule(
+                                        Delay.millis(MINIMUM_REFRESH_RATE_MILLIS - sinceData),
+                                        this);
                             }
                         };
 
@@ -179,6 +300,37 @@ class ScalarInputSensor extends ScalarSensor {
                 });
             }
 
+            /**
+             * @return a reader for readings in shared memory, or null if the service will send
+             * them through the observer
+             */
+            private SampleRing.Reader openSharedBuffer(Context context) {
+                if (mExpectedSamplesPerSecond < SHARED_BUFFER_MIN_SAMPLES_PER_SECOND) {
+                    return null;
+                }
+                SharedRegion readerRegion = null;
+                try {
+                    readerRegion = SharedRegion.create(context.getCacheDir(),
+                            SampleRing.READER_REGION_SIZE);
+                    ParcelFileDescriptor writerRegion = mConnector.openSharedBuffer(mAddress,
+                            readerRegion.getReadOnlyDescriptor());
+                    if (writerRegion == null) {
+                        return null;
+                    }
+                    return new SampleRing.Reader(SharedRegion.mapReadOnly(writerRegion),
+                            readerRegion.getBuffer());
+                } catch (IOException | RemoteException | IllegalArgumentException e) {
+                    if (Log.isLoggable(TAG, Log.WARN)) {
+                        Log.w(TAG, "Not using shared memory for " + mAddress, e);
+                    }
+                    return null;
+                } finally {
+                    if (readerRegion != null) {
+                        readerRegion.closeDescriptor();
+                    }
+                }
+            }
+
             private void cancelTimeoutRunnable() {
                 if (mTimeOutRunnable != null) {
                     mScheduler.unschedule(mTimeOutRunnable);
@@ -196,6 +348,8 @@ class ScalarInputSensor extends ScalarSensor {
                         complain(e);
                     }
                     mConnector = null;
+                    mRingReader = null;
+                    mReconciler.reset();
                     if (mSensorStatusListener != null) {
                         mSensorStatusListener.disconnect();
                     }
@@ -207,6 +361,7 @@ class ScalarInputSensor extends ScalarSensor {
                 if (mRefreshRunnable != null) {
                     mScheduler.unschedule(mRefreshRunnable);
                     mRefreshRunnable = null;
+                    mRefreshScheduled = false;
                 }
             }
 
@@ -94,9 +94,10 @@ public class ScalarSensorServiceFinder extends Consumer<AppDiscoveryCallbacks> {
             Log.i(TAG, "App scalar API version: " + myVersion + ", package version: "
                     + packageVersion);
         }
-        // TODO: get more complicated when we add another version in the future.
-        boolean isOK = (myVersion == Versions.FIRST_RELEASE_SCALAR_API_VERSION
-                && packageVersion == Versions.FIRST_RELEASE_SCALAR_API_VERSION);
+        // Each side adapts to the other's version (for example, providers only batch readings
+        // for apps that accept batches), so any pair of versions we know about works.
+        boolean isOK =
+                Versions.isKnownVersion(myVersion) && Versions.isKnownVersion(packageVersion);
         if (! isOK) {
             if (Log.isLoggable(TAG, Log.ERROR)) {
                 Log.e(TAG, "Incompatible versions. app=" + myVersion + ", pkg=" + packageVersion);
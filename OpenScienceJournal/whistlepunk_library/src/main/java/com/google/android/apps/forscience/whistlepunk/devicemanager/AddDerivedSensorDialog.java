@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.devicemanager;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.app.Fragment;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.LoggingConsumer;
+import com.google.android.apps.forscience.whistlepunk.R;
+import com.google.android.apps.forscience.whistlepunk.SensorAppearanceProvider;
+import com.google.android.apps.forscience.whistlepunk.sensors.DerivedExpression;
+import com.google.android.apps.forscience.whistlepunk.sensors.DerivedSensorProvider;
+import com.google.android.apps.forscience.whistlepunk.sensors.DerivedSensorSpec;
+import com.jakewharton.rxbinding2.widget.RxTextView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Dialog for adding a sensor whose value is calculated from up to three other sensors.
+ */
+public class AddDerivedSensorDialog extends DialogFragment {
+    public static final String TAG = "AddDerivedSensorDialog";
+    private static final String KEY_EXPERIMENT_ID = "experiment_id";
+
+    // Must match R.string.derived_sensor_input_a, _b and _c.
+    private static final String[] VARIABLES = {"a", "b", "c"};
+    private static final int[] SPINNER_IDS = {R.id.derived_sensor_input_a,
+            R.id.derived_sensor_input_b, R.id.derived_sensor_input_c};
+
+    private final List<String> mSensorIds = new ArrayList<>();
+    private final Spinner[] mInputs = new Spinner[VARIABLES.length];
+    private EditText mName;
+    private EditText mExpression;
+    private EditText mUnits;
+
+    /**
+     * @param target if it is a {@link ManageDevicesRecyclerFragment}, it is refreshed once the
+     *               sensor has been added.
+     */
+    public static AddDerivedSensorDialog newInstance(String experimentId, Fragment target) {
+        Bundle args = new Bundle();
+        args.putString(KEY_EXPERIMENT_ID, experimentId);
+        AddDerivedSensorDialog dialog = new AddDerivedSensorDialog();
+        dialog.setArguments(args);
+        dialog.setTargetFragment(target, 0);
+        return dialog;
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        Context context = getActivity();
+        AppSingleton singleton = AppSingleton.getInstance(context);
+        SensorAppearanceProvider appearanceProvider = singleton.getSensorAppearanceProvider();
+
+        List<String> choices = new ArrayList<>();
+        choices.add(getString(R.string.derived_sensor_no_input));
+        mSensorIds.add(null);
+        for (String sensorId : singleton.getSensorRegistry().getAllSources()) {
+            mSensorIds.add(sensorId);
+            choices.add(appearanceProvider.getAppearance(sensorId).getName(context));
+        }
+
+        ViewGroup rootView = (ViewGroup) LayoutInflater.from(context).inflate(
+                R.layout.add_derived_sensor_dialog, null);
+        mName = (EditText) rootView.findViewById(R.id.derived_sensor_name);
+        mExpression = (EditText) rootView.findViewById(R.id.derived_sensor_expression);
+        mUnits = (EditText) rootView.findViewById(R.id.derived_sensor_units);
+        for (int i = 0; i < VARIABLES.length; i++) {
+            mInputs[i] = (Spinner) rootView.findViewById(SPINNER_IDS[i]);
+            ArrayAdapter<String> adapter = new ArrayAdapter<>(context,
+                    android.R.layout.simple_spinner_item, choices);
+            adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+            mInputs[i].setAdapter(adapter);
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(context);
+        builder.setView(rootView);
+        builder.setTitle(R.string.add_derived_sensor_title);
+        builder.setCancelable(true);
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.setPositiveButton(android.R.string.ok,
+                (dialogInterface, i) -> addSensor(builder.getContext()));
+        final AlertDialog result = builder.create();
+
+        RxTextView.afterTextChangeEvents(mExpression).subscribe(event -> validate(result));
+        RxTextView.afterTextChangeEvents(mName).subscribe(event -> validate(result));
+        for (Spinner input : mInputs) {
+            input.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+                @Override
+                public void onItemSelected(AdapterView<?> parent, View view, int position,
+                        long id) {
+                    validate(result);
+                }
+
+                @Override
+                public void onNothingSelected(AdapterView<?> parent) {
+
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        validate((AlertDialog) getDialog());
+    }
+
+    private void validate(AlertDialog dialog) {
+        Button button = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
+        String error = mExpression.getText().length() > 0 ? getExpressionError() : null;
+        mExpression.setError(error);
+        if (button != null) {
+            button.setEnabled(error == null && mName.getText().length() > 0
+                    && mExpression.getText().length() > 0);
+        }
+    }
+
+    private String getExpressionError() {
+        List<String> variables = new ArrayList<>();
+        for (int i = 0; i < VARIABLES.length; i++) {
+            if (getSelectedSensorId(i) != null) {
+                variables.add(VARIABLES[i]);
+            }
+        }
+        if (variables.isEmpty()) {
+            return getString(R.string.derived_sensor_no_inputs_error);
+        }
+        try {
+            DerivedExpression.compile(mExpression.getText().toString(), variables);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private String getSelectedSensorId(int input) {
+        int position = mInputs[input].getSelectedItemPosition();
+        return position < 0 ? null : mSensorIds.get(position);
+    }
+
+    private void addSensor(Context context) {
+        DerivedSensorSpec spec = new DerivedSensorSpec(
+                DerivedSensorSpec.TYPE + "-" + UUID.randomUUID(),
+                mName.getText().toString(), mExpression.getText().toString(),
+                mUnits.getText().toString());
+        for (int i = 0; i < VARIABLES.length; i++) {
+            String sensorId = getSelectedSensorId(i);
+            if (sensorId != null) {
+                spec.addInput(sensorId, VARIABLES[i]);
+            }
+        }
+        final Fragment target = getTargetFragment();
+        DerivedSensorProvider.addToExperiment(
+                AppSingleton.getInstance(context).getDataController(),
+                getArguments().getString(KEY_EXPERIMENT_ID), spec,
+                new LoggingConsumer<String>(TAG, "add derived sensor") {
+                    @Override
+                    public void success(String sensorId) {
+                        if (target instanceof ManageDevicesRecyclerFragment
+                                && target.isResumed()) {
+                            ((ManageDevicesRecyclerFragment) target).refreshAfterLoad();
+                        }
+                    }
+                });
+    }
+}
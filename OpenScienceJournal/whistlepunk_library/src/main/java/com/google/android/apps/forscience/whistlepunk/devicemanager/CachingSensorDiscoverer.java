@@ -0,0 +1,254 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.devicemanager;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.CurrentTimeClock;
+import com.google.android.apps.forscience.whistlepunk.SensorProvider;
+import com.google.android.apps.forscience.whistlepunk.api.scalarinput.InputDeviceSpec;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorSpec;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a discoverer, remembering what its scans have found so that a later scan can show
+ * recently-seen services, devices, and sensors immediately instead of waiting for the underlying
+ * scan to find them again.
+ *
+ * Results are remembered for {@link #DEFAULT_TIME_TO_LIVE_MILLIS} after they were last actually
+ * found, so that reopening the device list a few minutes later still shows them at once.  Whether
+ * a replayed sensor that the new scan doesn't find is then taken off the list is up to the
+ * listener, which can tell from {@link CachedSensor#getLastSeenMillis()}.
+ *
+ * Each scan is a new generation: results from the underlying scan are passed on the first time
+ * they are seen in a generation (or when a sensor's spec changes), and remembered results not yet
+ * seen in the current generation are replayed once the underlying scan has started.  Replayed
+ * sensors are {@link CachedSensor}s, so that listeners can tell when they were last really seen.
+ *
+ * Like other discoverers, this should only be used from the UI thread.
+ */
+public class CachingSensorDiscoverer implements SensorDiscoverer {
+    /**
+     * A sensor that was not found by the current scan, but was found by a recent one.
+     */
+    public interface CachedSensor extends DiscoveredSensor {
+        /**
+         * @return the time (from the discoverer's clock) at which a scan last found this sensor
+         */
+        long getLastSeenMillis();
+    }
+
+    /**
+     * How long results are remembered after they were last found.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static class Entry<T> {
+        public T value;
+        public long lastSeenMillis;
+        public int generation;
+    }
+
+    private final SensorDiscoverer mDelegate;
+    private final Clock mClock;
+    private final long mTimeToLiveMillis;
+
+    private final Map<String, Entry<DiscoveredService>> mServices = new LinkedHashMap<>();
+    private final Map<String, Entry<DiscoveredDevice>> mDevices = new LinkedHashMap<>();
+    private final Map<String, Entry<DiscoveredSensor>> mSensors = new LinkedHashMap<>();
+    private int mGeneration = 0;
+
+    public CachingSensorDiscoverer(SensorDiscoverer delegate) {
+        this(delegate, new CurrentTimeClock(), DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    @VisibleForTesting
+    public CachingSensorDiscoverer(SensorDiscoverer delegate, Clock clock,
+            long timeToLiveMillis) {
+        mDelegate = delegate;
+        mClock = clock;
+        mTimeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Override
+    public boolean startScanning(final ScanListener listener, FailureListener onScanError) {
+        mGeneration++;
+        final int generation = mGeneration;
+        long oldestLiving = mClock.getNow() - mTimeToLiveMillis;
+        expire(mServices, oldestLiving);
+        expire(mDevices, oldestLiving);
+        expire(mSensors, oldestLiving);
+
+        boolean started = mDelegate.startScanning(new ScanListener() {
+            @Override
+            public void onServiceFound(DiscoveredService service) {
+                if (service.getConnectionErrorIfAny() != null) {
+                    // Nothing remembered from this discoverer can be trusted until the error
+                    // is resolved.
+                    clear();
+                    listener.onServiceFound(service);
+                } else if (record(mServices, service.getServiceId(), service, generation,
+                        false)) {
+                    listener.onServiceFound(service);
+                }
+            }
+
+            @Override
+            public void onDeviceFound(DiscoveredDevice device) {
+                if (record(mDevices, device.getSpec().getGlobalDeviceAddress(), device,
+                        generation, false)) {
+                    listener.onDeviceFound(device);
+                }
+            }
+
+            @Override
+            public void onSensorFound(DiscoveredSensor sensor) {
+                Entry<DiscoveredSensor> old = mSensors.get(sensorKey(sensor));
+                boolean changed = old != null && !ConnectableSensorRegistry.isSameSensorAndSpec(
+                        old.value.getSensorSpec(), sensor.getSensorSpec());
+                if (record(mSensors, sensorKey(sensor), sensor, generation, changed)) {
+                    listener.onSensorFound(sensor);
+                }
+            }
+
+            @Override
+            public void onServiceScanComplete(String serviceId) {
+                listener.onServiceScanComplete(serviceId);
+            }
+
+            @Override
+            public void onScanDone() {
+                listener.onScanDone();
+            }
+        }, onScanError);
+
+        if (started) {
+            replay(listener, generation);
+        } else {
+            clear();
+        }
+        return started;
+    }
+
+    private void replay(ScanListener listener, int generation) {
+        // Copy first: the listener may start a scan that changes the cache.
+        for (Entry<DiscoveredService> entry : notYetSeen(mServices, generation)) {
+            listener.onServiceFound(entry.value);
+        }
+        for (Entry<DiscoveredDevice> entry : notYetSeen(mDevices, generation)) {
+            listener.onDeviceFound(entry.value);
+        }
+        for (Entry<DiscoveredSensor> entry : notYetSeen(mSensors, generation)) {
+            listener.onSensorFound(new ReplayedSensor(entry.value, entry.lastSeenMillis));
+        }
+    }
+
+    private static <T> Iterable<Entry<T>> notYetSeen(Map<String, Entry<T>> entries,
+            int generation) {
+        Map<String, Entry<T>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry<T>> entry : entries.entrySet()) {
+            if (entry.getValue().generation != generation) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result.values();
+    }
+
+    /**
+     * @return true if {@code value} should be passed on to the listener: it has not been seen
+     * before during this generation, or it has changed.
+     */
+    private <T> boolean record(Map<String, Entry<T>> entries, String key, T value,
+            int generation, boolean changed) {
+        Entry<T> entry = entries.get(key);
+        boolean isNew = entry == null || entry.generation != generation;
+        if (entry == null) {
+            entry = new Entry<>();
+            entries.put(key, entry);
+        }
+        entry.value = value;
+        entry.lastSeenMillis = mClock.getNow();
+        entry.generation = generation;
+        return isNew || changed;
+    }
+
+    private static <T> void expire(Map<String, Entry<T>> entries, long oldestLiving) {
+        Iterator<Entry<T>> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().lastSeenMillis < oldestLiving) {
+                iter.remove();
+            }
+        }
+    }
+
+    private void clear() {
+        mServices.clear();
+        mDevices.clear();
+        mSensors.clear();
+    }
+
+    private static String sensorKey(DiscoveredSensor sensor) {
+        GoosciSensorSpec.SensorSpec spec = sensor.getSensorSpec();
+        return InputDeviceSpec.joinAddresses(spec.info.providerId, spec.info.address);
+    }
+
+    @Override
+    public void stopScanning() {
+        mDelegate.stopScanning();
+    }
+
+    @Override
+    public SensorProvider getProvider() {
+        return mDelegate.getProvider();
+    }
+
+    private static class ReplayedSensor implements CachedSensor {
+        private final DiscoveredSensor mSensor;
+        private final long mLastSeenMillis;
+
+        public ReplayedSensor(DiscoveredSensor sensor, long lastSeenMillis) {
+            mSensor = sensor;
+            mLastSeenMillis = lastSeenMillis;
+        }
+
+        @Override
+        public long getLastSeenMillis() {
+            return mLastSeenMillis;
+        }
+
+        @Override
+        public GoosciSensorSpec.SensorSpec getSensorSpec() {
+            return mSensor.getSensorSpec();
+        }
+
+        @Override
+        public SettingsInterface getSettingsInterface() {
+            return mSensor.getSettingsInterface();
+        }
+
+        @Override
+        public boolean shouldReplaceStoredSensor(ConnectableSensor oldSensor) {
+            return mSensor.shouldReplaceStoredSensor(oldSensor);
+        }
+    }
+}
@@ -44,7 +44,7 @@ import com.google.common.util.concurrent.Runnables;
 import com.google.protobuf.nano.MessageNano;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,8 +57,14 @@ import java.util.Set;
 public class ConnectableSensorRegistry {
     public static final String TAG = "ConSensorRegistry";
 
-    // Don't remove a sensor unless it's been gone 15 seconds
-    private static final long ASSUME_GONE_TIMEOUT_MILLIS = 15_000;
+    // Don't remove a sensor unless it's been gone 15 seconds.  This only decides removal: sensors
+    // replayed from a CachingSensorDiscoverer are shown for longer, and judged by when they were
+    // last actually seen.
+    static final long ASSUME_GONE_TIMEOUT_MILLIS = 15_000;
+
+    // Value in the keys-seen map of a scan for sensors found by the scan itself, rather than
+    // replayed from a discoverer's cache.
+    private static final long SEEN_DURING_SCAN = Long.MAX_VALUE;
     private static final String EXTERNAL_SENSOR_KEY_PREFIX = "sensorKey";
 
     private final DataController mDataController;
@@ -84,6 +90,8 @@ public class ConnectableSensorRegistry {
     private final SensorAppearanceProvider mAppearanceProvider;
     private UsageTracker mUsageTracker;
     private Runnable mTimeoutRunnable;
+    private long mScanStartMillis;
+    private boolean mFirstResultTracked;
     private ConnectableSensor.Connector mConnector;
 
     // TODO: reduce parameter list?
@@ -230,14 +238,21 @@ public class ConnectableSensorRegistry {
             return;
         }
         final long timeout = clearDeviceCache ? 0 : ASSUME_GONE_TIMEOUT_MILLIS;
-        final Set<String> keysSeen = new HashSet<>();
-
+        // Maps from sensorKey to when the sensor was last seen: SEEN_DURING_SCAN, or an earlier
+        // time for sensors replayed from a cache.
+        final Map<String, Long> keysSeen = new HashMap<>();
+        mScanStartMillis = mClock.getNow();
+        mFirstResultTracked = false;
 
         final TaskPool pool = new TaskPool(() -> {
             long nowMillis = mClock.getNow();
 
-            for (String key : keysSeen) {
-                mMostRecentlySeen.put(key, nowMillis);
+            for (Map.Entry<String, Long> seen : keysSeen.entrySet()) {
+                long seenMillis = Math.min(seen.getValue(), nowMillis);
+                Long previous = mMostRecentlySeen.get(seen.getKey());
+                if (previous == null || previous < seenMillis) {
+                    mMostRecentlySeen.put(seen.getKey(), seenMillis);
+                }
             }
 
             Set<Map.Entry<String, Long>> entries = mMostRecentlySeen.entrySet();
@@ -259,7 +274,7 @@ public class ConnectableSensorRegistry {
     }
 
     private void startScanning(final String providerKey, SensorDiscoverer discoverer,
-            final TaskPool pool, final Set<String> keysSeen, final boolean startSpinners) {
+            final TaskPool pool, final Map<String, Long> keysSeen, final boolean startSpinners) {
         SensorProvider provider = discoverer.getProvider();
         pool.addTask(providerKey);
 
@@ -270,6 +285,7 @@ public class ConnectableSensorRegistry {
                 new SensorDiscoverer.ScanListener() {
                     @Override
                     public void onSensorFound(SensorDiscoverer.DiscoveredSensor sensor) {
+                        trackFirstResult(providerKey);
                         ConnectableSensorRegistry.this.onSensorFound(sensor, keysSeen);
                     }
 
@@ -323,8 +339,21 @@ public class ConnectableSensorRegistry {
         }
     }
 
+    /**
+     * Records how long it took from the start of the scan until the list had something in it.
+     */
+    private void trackFirstResult(String providerKey) {
+        if (mFirstResultTracked) {
+            return;
+        }
+        mFirstResultTracked = true;
+        mUsageTracker.trackEvent(TrackerConstants.CATEGORY_SENSOR_MANAGEMENT,
+                TrackerConstants.ACTION_SCAN_FIRST_RESULT, providerKey,
+                mClock.getNow() - mScanStartMillis);
+    }
+
     private void onSensorFound(SensorDiscoverer.DiscoveredSensor ds,
-            Set<String> availableKeysSeen) {
+            Map<String, Long> availableKeysSeen) {
         ConnectableSensor sensor = mConnector.disconnected(ds.getSensorSpec());
         final String sensorKey = findSensorKey(sensor);
 
@@ -336,7 +365,7 @@ public class ConnectableSensorRegistry {
             if (!getPairedGroup().addAvailableSensor(newKey, sensor)) {
                 // If that doesn't work, this is a new available sensor.
                 getAvailableGroup().addSensor(newKey, sensor);
-                availableKeysSeen.add(newKey);
+                markSeen(availableKeysSeen, newKey, ds);
             } else {
                 getAvailableGroup().onSensorAddedElsewhere(newKey, sensor);
             }
@@ -347,7 +376,7 @@ public class ConnectableSensorRegistry {
                 return;
             }
             if (!sensor.isPaired()) {
-                availableKeysSeen.add(sensorKey);
+                markSeen(availableKeysSeen, sensorKey, ds);
                 if (!getAvailableGroup().hasSensorKey(sensorKey)) {
                     registerSensor(sensorKey, sensor, ds.getSettingsInterface());
                     getAvailableGroup().addSensor(sensorKey, sensor);
@@ -359,6 +388,17 @@ public class ConnectableSensorRegistry {
         }
     }
 
+    private static void markSeen(Map<String, Long> keysSeen, String sensorKey,
+            SensorDiscoverer.DiscoveredSensor ds) {
+        long seenMillis = ds instanceof CachingSensorDiscoverer.CachedSensor
+                ? ((CachingSensorDiscoverer.CachedSensor) ds).getLastSeenMillis()
+                : SEEN_DURING_SCAN;
+        Long previous = keysSeen.get(sensorKey);
+        if (previous == null || previous < seenMillis) {
+            keysSeen.put(sensorKey, seenMillis);
+        }
+    }
+
     private void replaceSensorDataDuringScan(final String sensorKey, ConnectableSensor oldSensor,
             final SensorDiscoverer.DiscoveredSensor newSensor) {
         mSettingsIntents.put(sensorKey, newSensor.getSettingsInterface());
@@ -626,6 +666,6 @@ public class ConnectableSensorRegistry {
                     "Couldn't find " + providerKey + " in " + mDiscoverers);
         }
         startScanning(providerKey, discoverer, new TaskPool(Runnables.doNothing()),
-                new HashSet<String>(), startSpinners);
+                new HashMap<String, Long>(), startSpinners);
     }
 }
@@ -172,6 +172,11 @@ public class ManageDevicesRecyclerFragment extends Fragment implements DevicesPr
         if (item.getItemId() == R.id.action_refresh) {
             refresh(true);
             return true;
+        } else if (item.getItemId() == R.id.action_add_derived_sensor) {
+            AddDerivedSensorDialog.newInstance(
+                    getArguments().getString(ManageDevicesActivity.EXTRA_EXPERIMENT_ID), this)
+                    .show(getFragmentManager(), AddDerivedSensorDialog.TAG);
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import android.os.Process;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a metadata file write on a background thread, a delay after it is requested.  Requests made
+ * while a write is pending are coalesced into that write, so a burst of changes is saved once.
+ *
+ * The write always runs while holding the lock given to the constructor, which should be the lock
+ * guarding whatever the write reads, so that it never sees a change half-made.
+ */
+class CoalescingWriter {
+    private static ScheduledExecutorService sDefaultExecutor;
+
+    /**
+     * @return the thread that all metadata writes share by default, so that they never slow down
+     * the UI thread, or whichever thread is making changes.
+     */
+    private static synchronized ScheduledExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "MetadataWriter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sDefaultExecutor;
+    }
+
+    private final ScheduledExecutorService mExecutor;
+    private final long mDelayMs;
+    private final Object mLock;
+    private final Runnable mWrite;
+
+    // Guarded by mLock.  mGeneration changes whenever mPending is replaced or cancelled, so that a
+    // write which was already starting when it was cancelled can tell that it should not run.
+    private ScheduledFuture<?> mPending;
+    private long mGeneration = 0;
+
+    CoalescingWriter(long delayMs, Object lock, Runnable write) {
+        this(getDefaultExecutor(), delayMs, lock, write);
+    }
+
+    @VisibleForTesting
+    CoalescingWriter(ScheduledExecutorService executor, long delayMs, Object lock,
+            Runnable write) {
+        mExecutor = executor;
+        mDelayMs = delayMs;
+        mLock = lock;
+        mWrite = write;
+    }
+
+    /**
+     * Schedules a write, unless one is already pending.
+     */
+    void requestWrite() {
+        synchronized (mLock) {
+            if (mPending != null) {
+                return;
+            }
+            final long generation = ++mGeneration;
+            mPending = mExecutor.schedule(() -> runScheduled(generation), mDelayMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return whether a write has been requested and not yet started.
+     */
+    boolean isWritePending() {
+        synchronized (mLock) {
+            return mPending != null;
+        }
+    }
+
+    /**
+     * Cancels the pending write, if there is one.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            if (mPending != null) {
+                mPending.cancel(false);
+                mPending = null;
+                mGeneration++;
+            }
+        }
+    }
+
+    /**
+     * Does the write now, on the calling thread, instead of waiting for the pending one.
+     */
+    void flush() {
+        synchronized (mLock) {
+            cancel();
+            mWrite.run();
+        }
+    }
+
+    private void runScheduled(long generation) {
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                // Cancelled or flushed while waiting for the lock.
+                return;
+            }
+            mPending = null;
+            mWrite.run();
+        }
+    }
+}
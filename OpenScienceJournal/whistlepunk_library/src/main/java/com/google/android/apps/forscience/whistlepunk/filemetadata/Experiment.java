@@ -78,14 +78,23 @@ public class Experiment extends LabelListHolder {
      */
     public static Experiment fromExperiment(GoosciExperiment.Experiment experiment,
             GoosciUserMetadata.ExperimentOverview experimentOverview) {
-        return new Experiment(experiment, experimentOverview);
+        return new Experiment(experiment, experimentOverview, null);
+    }
+
+    /**
+     * Populates the Experiment from an existing proto, whose trial index entries are loaded with
+     * trialLoader when they are first needed.
+     */
+    static Experiment fromExperiment(GoosciExperiment.Experiment experiment,
+            GoosciUserMetadata.ExperimentOverview experimentOverview, Trial.Loader trialLoader) {
+        return new Experiment(experiment, experimentOverview, trialLoader);
     }
 
     // Archived state is set per account, so if you archive something on one device and share it
     // it will not show up as archived on another account. Therefore it is stored outside of the
     // experiment proto.
     private Experiment(GoosciExperiment.Experiment experimentProto,
-            GoosciUserMetadata.ExperimentOverview experimentOverview) {
+            GoosciUserMetadata.ExperimentOverview experimentOverview, Trial.Loader trialLoader) {
         mProto = experimentProto;
         mExperimentOverview = experimentOverview;
         mLabels = new ArrayList<>();
@@ -93,9 +102,13 @@ public class Experiment extends LabelListHolder {
             mLabels.add(Label.fromLabel(labelProto));
         }
         mTrials = new ArrayList<>();
+        // Experiments written before version 2.0 have whole trials, rather than an index.
         for (GoosciTrial.Trial trial : mProto.trials) {
             mTrials.add(Trial.fromTrial(trial));
         }
+        for (GoosciTrial.TrialIndexEntry entry : mProto.trialIndex) {
+            mTrials.add(Trial.fromIndexEntry(entry, trialLoader));
+        }
         mSensorTriggers = new ArrayList<>();
         for (GoosciSensorTrigger.SensorTrigger proto : mProto.sensorTriggers) {
             mSensorTriggers.add(SensorTrigger.fromProto(proto));
@@ -112,6 +125,14 @@ public class Experiment extends LabelListHolder {
         return mProto;
     }
 
+    /**
+     * Serializes this experiment, so that it can be written on another thread while it keeps
+     * changing.  Call this on the thread that changes the experiment.
+     */
+    public ExperimentSnapshot snapshot() {
+        return new ExperimentSnapshot(getExperimentProto(), getExperimentOverview(), mTrials);
+    }
+
     public GoosciUserMetadata.ExperimentOverview getExperimentOverview() {
         mExperimentOverview.trialCount = mTrials.size();
         return mExperimentOverview;
@@ -480,11 +501,13 @@ public class Experiment extends LabelListHolder {
             }
         }
 
+        // Trials themselves are saved in their own files; see TrialStore.
         if (mTrials != null) {
-            mProto.trials = new GoosciTrial.Trial[mTrials.size()];
+            mProto.trials = GoosciTrial.Trial.emptyArray();
+            mProto.trialIndex = new GoosciTrial.TrialIndexEntry[mTrials.size()];
             int index = 0;
             for (Trial trial : mTrials) {
-                mProto.trials[index++] = trial.getTrialProto();
+                mProto.trialIndex[index++] = trial.getIndexEntry();
             }
         }
 
@@ -17,36 +17,43 @@
 package com.google.android.apps.forscience.whistlepunk.filemetadata;
 
 import android.content.Context;
-import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.google.android.apps.forscience.whistlepunk.WhistlePunkApplication;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciGadgetInfo;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
 import com.google.android.apps.forscience.whistlepunk.metadata.Version;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
- * This reads and writes experiments to disk. It caches the last used experiment to avoid extra
- * file operations.
- * This class should be constructed and used from a background thread because it does file
- * operations.
+ * This reads and writes experiments to disk. It caches the most recently used experiments, and
+ * defers writing their changes, to avoid extra file operations.
+ * This class should be used from a background thread because it does file operations.  Deferred
+ * writes happen on the shared metadata writer thread (see CoalescingWriter), holding this object's
+ * lock, as do the methods that change the cache.  Experiments keep changing on the UI thread
+ * meanwhile, so writes only use the ExperimentSnapshot taken with each update.
  */
 class ExperimentCache {
     private static final String TAG = "ExperimentCache";
 
     // The current version number we expect from experiments.
     // See upgradeExperimentVersionIfNeeded for the meaning of version numbers.
-    protected static final int VERSION = 1;
+    protected static final int VERSION = 2;
 
     // The current minor version number we expect from experiments.
     // See upgradeExperimentVersionIfNeeded for the meaning of version numbers.
-    protected static final int MINOR_VERSION = 1;
+    protected static final int MINOR_VERSION = 0;
 
     // The current platform version number for experiments we write.
     // This is implementation-specific; it _shouldn't_ affect future readers of the data, but it
@@ -70,15 +77,45 @@ class ExperimentCache {
         void onNewerVersionDetected(GoosciUserMetadata.ExperimentOverview experimentOverview);
     }
 
+    // How many parsed experiments to keep in memory.  Switching between these does not need to
+    // read or write any files; changes are written on the write timer, on saveImmediately, or
+    // when an experiment is evicted.
+    @VisibleForTesting
+    static final int DEFAULT_CAPACITY = 4;
+
+    private static class CachedExperiment {
+        public final Experiment experiment;
+        public final ExperimentJournal journal;
+        public final TrialStore trials;
+        public boolean needsWrite;
+
+        // What to write if needsWrite is set.
+        public ExperimentSnapshot snapshot;
+
+        public CachedExperiment(Experiment experiment, ExperimentJournal journal,
+                TrialStore trials, boolean needsWrite, ExperimentSnapshot snapshot) {
+            this.experiment = experiment;
+            this.journal = journal;
+            this.trials = trials;
+            this.needsWrite = needsWrite;
+            this.snapshot = snapshot;
+        }
+    }
+
     private FailureListener mFailureListener;
     private Context mContext;
     private Experiment mActiveExperiment;
-    private ProtoFileHelper<GoosciExperiment.Experiment> mExperimentProtoFileHelper;
-    private boolean mActiveExperimentNeedsWrite = false;
-    private final long mWriteDelayMs;
 
-    private Handler mHandler;
-    private Runnable mWriteRunnable;
+    // Keyed by experiment ID, least recently used first.
+    private final LinkedHashMap<String, CachedExperiment> mExperiments = new LinkedHashMap<>();
+    private final int mCapacity;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+    private PerfTrackerProvider mPerfTracker;
+
+    private final CoalescingWriter mWriter;
 
     public ExperimentCache(Context context, FailureListener failureListener) {
         this (context, failureListener, WRITE_DELAY_MS);
@@ -86,23 +123,29 @@ class ExperimentCache {
 
     @VisibleForTesting
     ExperimentCache(Context context, FailureListener failureListener, long writeDelayMs) {
+        this(context, failureListener, writeDelayMs, DEFAULT_CAPACITY);
+    }
+
+    @VisibleForTesting
+    ExperimentCache(Context context, FailureListener failureListener, long writeDelayMs,
+            int capacity) {
         mContext = context;
         mFailureListener = failureListener;
-        mExperimentProtoFileHelper = new ProtoFileHelper<>();
-        mHandler = new Handler();
-        mWriteRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (mActiveExperimentNeedsWrite) {
-                    writeActiveExperimentFile();
-                }
-            }
-        };
-        mWriteDelayMs = writeDelayMs;
+        mWriter = new CoalescingWriter(writeDelayMs, this, this::writeAllExperimentFiles);
+        mCapacity = capacity;
+        setPerfTracker(WhistlePunkApplication.maybeGetPerfTrackerProvider(context));
+    }
+
+    /**
+     * Sets where the cache's hit, miss and eviction counts are reported.  They are reported after
+     * each lookup and each eviction.
+     */
+    synchronized void setPerfTracker(PerfTrackerProvider perfTracker) {
+        mPerfTracker = perfTracker;
     }
 
     @VisibleForTesting
-    Experiment getActiveExperimentForTests() {
+    synchronized Experiment getActiveExperimentForTests() {
         return mActiveExperiment;
     }
 
@@ -110,56 +153,67 @@ class ExperimentCache {
      * Creates file space for a new experiment, and gets it ready for a save.
      * @return whether space was created successfully.
      */
-    boolean createNewExperiment(Experiment experiment) {
+    synchronized boolean createNewExperiment(Experiment experiment) {
         if (!prepareForNewExperiment(experiment.getExperimentOverview().experimentId)) {
             mFailureListener.onWriteFailed(experiment);
             return false;
         }
-        return setExistingActiveExperiment(experiment);
+        // The experiment is not shared with the UI yet, so it can be snapshotted here.
+        putExperiment(experiment, experiment.snapshot());
+        return true;
     }
 
     /**
-     * Updates the given experiment.
+     * Updates the given experiment.  This must be called on the thread that changes it; otherwise
+     * use {@link #updateExperiment(Experiment, ExperimentSnapshot)}.
      */
-    void updateExperiment(Experiment experiment) {
-        if (isDifferentFromActive(experiment.getExperimentOverview())) {
-            immediateWriteIfActiveChanging(experiment.getExperimentOverview());
-        }
-        mActiveExperiment = experiment;
-        startWriteTimer();
+    synchronized void updateExperiment(Experiment experiment) {
+        updateExperiment(experiment, experiment.snapshot());
+    }
+
+    /**
+     * Updates the given experiment, which is written as it was when snapshot was taken.
+     */
+    synchronized void updateExperiment(Experiment experiment, ExperimentSnapshot snapshot) {
+        putExperiment(experiment, snapshot);
     }
 
     /**
-     * Updates the experiment overview of the active experiment if the active experiment has the
-     * same ID. This allows us to keep the experimentOverview fresh without doing extra writes
-     * to disk.
-     * If the active experiment is not the same ID as the experiment overview to update, no action
+     * Updates the experiment overview of the cached experiment with the same ID, if there is one.
+     * This allows us to keep the experimentOverview fresh without doing extra writes to disk.
+     * If no cached experiment has the same ID as the experiment overview to update, no action
      * needs to be taken.
      * @param experimentOverview the updated experimentOverview to set on the cached experiment
      *                           if they have the same ID.
      */
-    void onExperimentOverviewUpdated(
+    synchronized void onExperimentOverviewUpdated(
             GoosciUserMetadata.ExperimentOverview experimentOverview) {
-        if (!isDifferentFromActive(experimentOverview)) {
-            mActiveExperiment.setLastUsedTime(experimentOverview.lastUsedTimeMs);
-            mActiveExperiment.setArchived(experimentOverview.isArchived);
-            mActiveExperiment.getExperimentOverview().imagePath = experimentOverview.imagePath;
+        CachedExperiment cached = mExperiments.get(experimentOverview.experimentId);
+        if (cached != null) {
+            cached.experiment.setLastUsedTime(experimentOverview.lastUsedTimeMs);
+            cached.experiment.setArchived(experimentOverview.isArchived);
+            cached.experiment.getExperimentOverview().imagePath = experimentOverview.imagePath;
         }
     }
 
     /**
-     * Loads an active experiment from the disk if it is different from the currently cached active
-     * experiment, otherwise just returns the current cached experiment.
+     * Returns the cached experiment if there is one (even if it has unwritten changes), and
+     * otherwise loads it from disk.  Either way, it becomes the active experiment.
      * @param localExperimentOverview The local ExperimentOverview of the experiment to load. This
      *                                is used for lookup.
      */
-    Experiment getExperiment(GoosciUserMetadata.ExperimentOverview localExperimentOverview) {
-        // Write only if the experiment ID is changing. If it's not changing, we just want to
-        // reload even if it was dirty.
-        if (isDifferentFromActive(localExperimentOverview)) {
-            immediateWriteIfActiveChanging(localExperimentOverview);
+    synchronized Experiment getExperiment(
+            GoosciUserMetadata.ExperimentOverview localExperimentOverview) {
+        CachedExperiment cached = mExperiments.remove(localExperimentOverview.experimentId);
+        if (cached != null) {
+            mHitCount++;
+            mExperiments.put(localExperimentOverview.experimentId, cached);
+            mActiveExperiment = cached.experiment;
+        } else {
+            mMissCount++;
             loadActiveExperimentFromFile(localExperimentOverview);
         }
+        reportStats();
         return mActiveExperiment;
     }
 
@@ -167,7 +221,7 @@ class ExperimentCache {
      * Deletes an experiment from disk. Doesn't need to be the active one to be deleted.
      * Sets the active experiment to null if it is the same one
      */
-    void deleteExperiment(String localExperimentId) {
+    synchronized void deleteExperiment(String localExperimentId) {
         File expDirectory = getExperimentDirectory(localExperimentId);
         if (!deleteRecursive(expDirectory)) {
             // TODO show an error to the user, something has gone wrong
@@ -176,11 +230,13 @@ class ExperimentCache {
             // so that the user can't see pictures any more?
             return;
         }
+        mExperiments.remove(localExperimentId);
         if (mActiveExperiment != null && TextUtils.equals(
                 mActiveExperiment.getExperimentOverview().experimentId, localExperimentId)) {
             mActiveExperiment = null;
+        }
+        if (!hasUnwrittenExperiments()) {
             cancelWriteTimer();
-            mActiveExperimentNeedsWrite = false;
         }
     }
 
@@ -188,24 +244,80 @@ class ExperimentCache {
      * Prepares an experiment for deletion by deleting all of its assets and contents, including
      * trial data. This is not reversable.
      */
-    public void prepareExperimentForDeletion(Experiment experiment) {
+    public synchronized void prepareExperimentForDeletion(Experiment experiment) {
         experiment.deleteContents(mContext);
     }
 
     /**
-     * Used to set the active experiment when the experiment already exists, not when it's being
-     * made for the first time.
-     * Sets the dirty bit to true, then starts a timer if needed to make sure that the write happens
-     * within a reasonable time frame.
+     * Makes the given experiment the active one, replacing any cached experiment with the same
+     * ID.  If there is a snapshot to write, starts a timer if needed to make sure that the write
+     * happens within a reasonable time frame.
      */
-    private boolean setExistingActiveExperiment(Experiment experiment) {
-        immediateWriteIfActiveChanging(experiment.getExperimentOverview());
+    private void putExperiment(Experiment experiment, ExperimentSnapshot snapshot) {
+        putExperiment(experiment, null, null, snapshot);
+    }
 
-        // Then set the new experiment and set the dirty bit to true, resetting the write timer,
-        // so that we save it soon.
+    /**
+     * @param journal the journal the experiment was read with, or null to keep using the journal
+     *                of the cached experiment being replaced.
+     * @param trials the store the experiment's trials are loaded from, or null to keep using the
+     *               store of the cached experiment being replaced.
+     * @param snapshot what to write, or null if the experiment has no changes to write.
+     */
+    private void putExperiment(Experiment experiment, ExperimentJournal journal,
+            TrialStore trials, ExperimentSnapshot snapshot) {
+        String experimentId = experiment.getExperimentId();
+        CachedExperiment old = mExperiments.remove(experimentId);
+        boolean needsWrite = snapshot != null;
+        if (!needsWrite && old != null && old.needsWrite) {
+            // Keep the old changes, which are still to be written.
+            snapshot = old.snapshot;
+        }
+        if (journal == null) {
+            journal = old != null ? old.journal
+                    : new ExperimentJournal(getExperimentFile(experimentId));
+        }
+        if (trials == null) {
+            trials = old != null ? old.trials
+                    : new TrialStore(getExperimentDirectory(experimentId));
+        }
+        mExperiments.put(experimentId, new CachedExperiment(experiment, journal, trials,
+                snapshot != null, snapshot));
         mActiveExperiment = experiment;
-        startWriteTimer();
-        return true;
+        if (needsWrite) {
+            startWriteTimer();
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Drops the least recently used experiments beyond the capacity, writing them first if they
+     * have unwritten changes.
+     */
+    private void evictIfNeeded() {
+        int oldEvictionCount = mEvictionCount;
+        Iterator<CachedExperiment> iter = mExperiments.values().iterator();
+        while (mExperiments.size() > mCapacity && iter.hasNext()) {
+            CachedExperiment eldest = iter.next();
+            if (eldest.experiment == mActiveExperiment) {
+                continue;
+            }
+            if (eldest.needsWrite) {
+                writeExperimentFile(eldest);
+            }
+            iter.remove();
+            mEvictionCount++;
+        }
+        if (mEvictionCount != oldEvictionCount) {
+            reportStats();
+        }
+    }
+
+    private void reportStats() {
+        if (mPerfTracker != null) {
+            mPerfTracker.recordExperimentCacheStats(mCapacity, mHitCount, mMissCount,
+                    mEvictionCount);
+        }
     }
 
     /**
@@ -238,54 +350,53 @@ class ExperimentCache {
         return true;
     }
 
-    /**
-     * Immediately writes the current active experiment to disk if it is different from the given
-     * parameter localExperimentId.
-     */
-    private void immediateWriteIfActiveChanging(GoosciUserMetadata.ExperimentOverview
-            localExperimentOverview) {
-        if (mActiveExperiment != null && mActiveExperimentNeedsWrite &&
-                isDifferentFromActive(localExperimentOverview)) {
-            // First write the old active experiment if the ID has changed.
-            // Then cancel the write timer on the old experiment. We will reset it below.
-            cancelWriteTimer();
-            writeActiveExperimentFile();
-        }
-    }
-
     private void cancelWriteTimer() {
-        mHandler.removeCallbacks(mWriteRunnable);
+        mWriter.cancel();
     }
 
     private void startWriteTimer() {
-        if (mActiveExperimentNeedsWrite) {
-            // The timer is already running.
-            return;
-        }
-
-        // TODO: I think this can only be null during tests.  Can we rewrite the tests to remove
-        //       this possibility?
-        if (mActiveExperiment != null) {
-            // We're going to write a new file, so rev the platform version
-            setPlatformVersion(mActiveExperiment.getExperimentProto(), PLATFORM_VERSION);
-        }
-
-        mActiveExperimentNeedsWrite = true;
-        mHandler.postDelayed(mWriteRunnable, mWriteDelayMs);
+        mWriter.requestWrite();
     }
 
     @VisibleForTesting
     boolean needsWrite() {
-        return mActiveExperimentNeedsWrite;
+        return mWriter.isWritePending();
+    }
+
+    private boolean hasUnwrittenExperiments() {
+        for (CachedExperiment cached : mExperiments.values()) {
+            if (cached.needsWrite) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Writes the active experiment to a file immediately, if needed.
+     * Writes all cached experiments with unwritten changes to files immediately.
      */
     void saveImmediately() {
-        if (mActiveExperimentNeedsWrite) {
-            cancelWriteTimer();
-            writeActiveExperimentFile();
+        mWriter.flush();
+    }
+
+    /**
+     * Writes any unwritten changes, then compacts the journals of the cached experiments, so that
+     * each experiment file is complete without its journal.
+     */
+    synchronized void compactJournals() {
+        mWriter.flush();
+        for (CachedExperiment cached : mExperiments.values()) {
+            if (cached.journal.hasJournal() && !cached.journal.compact()) {
+                mFailureListener.onWriteFailed(cached.experiment);
+            }
+        }
+    }
+
+    private void writeAllExperimentFiles() {
+        for (CachedExperiment cached : mExperiments.values()) {
+            if (cached.needsWrite) {
+                writeExperimentFile(cached);
+            }
         }
     }
 
@@ -293,33 +404,76 @@ class ExperimentCache {
      * Writes the active experiment to a file.
      */
     @VisibleForTesting
-    void writeActiveExperimentFile() {
-        if (mActiveExperiment.getVersion() > VERSION ||
-                mActiveExperiment.getVersion() == VERSION &&
-                        mActiveExperiment.getMinorVersion() > MINOR_VERSION) {
-            // If the major version is too new, or the minor version is too new, we can't save this.
-            // TODO: Or should this throw onWriteFailed?
-            mFailureListener.onNewerVersionDetected(mActiveExperiment.getExperimentOverview());
+    synchronized void writeActiveExperimentFile() {
+        String experimentId = mActiveExperiment.getExperimentId();
+        CachedExperiment cached = mExperiments.get(experimentId);
+        if (cached == null) {
+            cached = new CachedExperiment(mActiveExperiment,
+                    new ExperimentJournal(getExperimentFile(experimentId)),
+                    new TrialStore(getExperimentDirectory(experimentId)), true, null);
+        }
+        if (cached.snapshot == null) {
+            // Only tests call this, on the thread that changes the experiment.
+            cached.snapshot = mActiveExperiment.snapshot();
         }
+        writeExperimentFile(cached);
+        if (!hasUnwrittenExperiments()) {
+            cancelWriteTimer();
+        }
+    }
 
-        File experimentFile = getExperimentFile(mActiveExperiment.getExperimentOverview());
-        boolean success = mExperimentProtoFileHelper.writeToFile(experimentFile,
-                mActiveExperiment.getExperimentProto());
-        if (success) {
-            mActiveExperimentNeedsWrite = false;
+    private void writeExperimentFile(CachedExperiment cached) {
+        // This proto is parsed from the snapshot, so it is only used here.
+        GoosciExperiment.Experiment proto = cached.snapshot.getExperimentProto();
+        if (proto.fileVersion.version > VERSION ||
+                proto.fileVersion.version == VERSION &&
+                        proto.fileVersion.minorVersion > MINOR_VERSION) {
+            // If the major version is too new, or the minor version is too new, we can't save this
+            // without losing what the newer version wrote.
+            // TODO: Or should this throw onWriteFailed?
+            mFailureListener.onNewerVersionDetected(cached.snapshot.getOverview());
+            cached.needsWrite = false;
+            cached.snapshot = null;
+            return;
+        }
+        // We're going to write a new file, so rev the platform version
+        setPlatformVersion(proto, PLATFORM_VERSION);
+
+        // Trials whose files are written here are only listed in the experiment file once it is
+        // written after them, and removed trials are only deleted after they stop being listed.
+        // Writing the experiment file usually just appends the changes to its journal.
+        if (cached.trials.writeTrials(cached.snapshot.getLoadedTrials())
+                && cached.journal.write(proto)) {
+            List<String> trialIds = new ArrayList<>();
+            for (GoosciTrial.TrialIndexEntry entry : proto.trialIndex) {
+                trialIds.add(entry.trialId);
+            }
+            cached.trials.deleteRemovedTrials(trialIds);
+            cached.needsWrite = false;
+            cached.snapshot = null;
         } else {
-            mFailureListener.onWriteFailed(mActiveExperiment);
+            mFailureListener.onWriteFailed(cached.experiment);
         }
     }
 
     @VisibleForTesting
-    void loadActiveExperimentFromFile(GoosciUserMetadata.ExperimentOverview experimentOverview) {
-        File experimentFile = getExperimentFile(experimentOverview);
-        GoosciExperiment.Experiment proto = mExperimentProtoFileHelper.readFromFile(experimentFile,
-                GoosciExperiment.Experiment::parseFrom);
-        if (proto != null) {
-            upgradeExperimentVersionIfNeeded(proto, experimentOverview);
-            mActiveExperiment = Experiment.fromExperiment(proto, experimentOverview);
+    synchronized void loadActiveExperimentFromFile(
+            GoosciUserMetadata.ExperimentOverview experimentOverview) {
+        ExperimentJournal journal = new ExperimentJournal(getExperimentFile(experimentOverview));
+        GoosciExperiment.Experiment proto = journal.read();
+        if (proto != null && proto.fileVersion != null && proto.fileVersion.version > VERSION) {
+            // A newer major version may store things where we wouldn't look for them, so showing
+            // it could look like data was lost.
+            mFailureListener.onNewerVersionDetected(experimentOverview);
+            mActiveExperiment = null;
+        } else if (proto != null) {
+            boolean upgraded = upgradeExperimentVersionIfNeeded(proto, experimentOverview);
+            TrialStore trials =
+                    new TrialStore(getExperimentDirectory(experimentOverview.experimentId));
+            Experiment experiment = Experiment.fromExperiment(proto, experimentOverview, trials);
+            // The experiment is not shared with the UI until this returns, so it can be
+            // snapshotted here.
+            putExperiment(experiment, journal, trials, upgraded ? experiment.snapshot() : null);
         } else {
             // Or maybe pass a FailureListener into the load instead of failing here.
             mFailureListener.onReadFailed(experimentOverview);
@@ -327,9 +481,9 @@ class ExperimentCache {
         }
     }
 
-    private void upgradeExperimentVersionIfNeeded(GoosciExperiment.Experiment proto,
+    private boolean upgradeExperimentVersionIfNeeded(GoosciExperiment.Experiment proto,
             GoosciUserMetadata.ExperimentOverview experimentOverview) {
-        upgradeExperimentVersionIfNeeded(proto, experimentOverview, VERSION, MINOR_VERSION,
+        return upgradeExperimentVersionIfNeeded(proto, experimentOverview, VERSION, MINOR_VERSION,
                 PLATFORM_VERSION);
     }
 
@@ -339,9 +493,10 @@ class ExperimentCache {
      * @param newMajorVersion The major version to upgrade to, available for testing
      * @param newMinorVersion The minor version to upgrade to, available for testing
      * @param newPlatformVersion The platform version to upgrade to, available for testing
+     * @return whether the proto was changed and needs to be saved.
      */
     @VisibleForTesting
-    void upgradeExperimentVersionIfNeeded(GoosciExperiment.Experiment proto,
+    synchronized boolean upgradeExperimentVersionIfNeeded(GoosciExperiment.Experiment proto,
             GoosciUserMetadata.ExperimentOverview experimentOverview, int newMajorVersion,
             int newMinorVersion, int newPlatformVersion) {
 
@@ -358,12 +513,12 @@ class ExperimentCache {
             && fileVersion.minorVersion == newMinorVersion
             && fileVersion.platformVersion == newPlatformVersion) {
             // No upgrade needed, this is running the same version as us.
-            return;
+            return false;
         }
         if (fileVersion.version > newMajorVersion) {
             // It is too new for us to read -- the major version is later than ours.
             mFailureListener.onNewerVersionDetected(experimentOverview);
-            return;
+            return false;
         }
         // Try to upgrade the major version
         if (fileVersion.version == 0) {
@@ -407,18 +562,19 @@ class ExperimentCache {
                 setPlatformVersion(proto, 2);
             }
 
-            // When we are ready for version 2.0, we would do work in the following if statement
-            // and then call incrementMajorVersion.
             if (fileVersion.version < newMajorVersion) {
-                // Do any work to upgrade version, then increment the version when we are
-                // ready to go to 2.0 or above.
+                // In 2.0, trials are stored in their own files, and changes may be journaled.
+                // Nothing else changes, and the save requested below moves the trials.
                 revMajorVersionTo(proto, 2);
-
             }
         }
+        if (fileVersion.version == 2) {
+            // Minor version upgrades for major version 2 could be done here.
+        }
 
         // We've made changes we need to save.
         startWriteTimer();
+        return true;
     }
 
     private void revMajorVersionTo(GoosciExperiment.Experiment proto, int majorVersion) {
@@ -448,14 +604,6 @@ class ExperimentCache {
         return new File(experimentDirectory, FileMetadataManager.ASSETS_DIRECTORY);
     }
 
-    private boolean isDifferentFromActive(GoosciUserMetadata.ExperimentOverview other) {
-        if (mActiveExperiment == null) {
-            return true;
-        }
-        return !TextUtils.equals(other.experimentId,
-                mActiveExperiment.getExperimentOverview().experimentId);
-    }
-
     @VisibleForTesting
     static boolean deleteRecursive(File file) {
         if (file.isDirectory()) {
@@ -0,0 +1,482 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperimentJournal;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.nano.CodedInputByteBufferNano;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes one experiment as its experiment file plus a journal of the changes made
+ * since that file was written.  Writing a change appends an entry with just the labels, trial
+ * index entries, and other fields that changed, instead of rewriting the whole experiment.  Once
+ * the journal grows past {@link #MIN_COMPACTION_BYTES} or half the size of the experiment file,
+ * whichever is larger, the next write compacts: it rewrites the experiment file and deletes the
+ * journal.
+ *
+ * The journal starts with a checksum of the experiment file it applies to, so a journal left
+ * behind by a compaction that was interrupted before deleting it is ignored.  Each entry has its
+ * own checksum, so an entry torn by the app being killed mid-append is dropped when reading.
+ * The journal is part of the file format (see experiment_journal.proto): readers have to apply
+ * it, so ExperimentCache also compacts when the app is closed or goes into the background.
+ *
+ * Like ExperimentCache, this does file operations, and should be used from a background thread.
+ */
+class ExperimentJournal {
+    private static final String TAG = "ExperimentJournal";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final int JOURNAL_MAGIC = 0x534a4a31;
+
+    // magic (int) + experiment file checksum (long)
+    private static final int HEADER_BYTES = 4 + 8;
+
+    // length (int) + checksum (int)
+    private static final int ENTRY_OVERHEAD_BYTES = 4 + 4;
+
+    @VisibleForTesting
+    static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    // Field numbers in experiment.proto of the lists that entries hold separately.
+    private static final int TRIALS_FIELD_NUMBER = 5;
+    private static final int LABELS_FIELD_NUMBER = 6;
+    private static final int TRIAL_INDEX_FIELD_NUMBER = 14;
+
+    private interface IdGetter<T> {
+        String getId(T item);
+    }
+
+    private static final IdGetter<GoosciLabel.Label> LABEL_ID = label -> label.labelId;
+    private static final IdGetter<GoosciTrial.Trial> TRIAL_ID = trial -> trial.trialId;
+    private static final IdGetter<GoosciTrial.TrialIndexEntry> TRIAL_INDEX_ID =
+            entry -> entry.trialId;
+
+    private final File mExperimentFile;
+    private final File mJournalFile;
+    private final ProtoFileHelper.SyncPolicy mSyncPolicy;
+    private final ProtoFileHelper<GoosciExperiment.Experiment> mProtoFileHelper;
+    private final long mMinCompactionBytes;
+
+    // What the files currently say, so that changes can be found without reading them again.
+    // Until the files have been read or written, mWrittenLabels is null, and the next write
+    // compacts.
+    private byte[] mWrittenFields;
+    private Map<String, byte[]> mWrittenLabels;
+    private Map<String, byte[]> mWrittenTrials;
+    private Map<String, byte[]> mWrittenTrialIndex;
+    private long mExperimentFileChecksum;
+    private long mExperimentFileLength;
+    private long mJournalLength;
+
+    ExperimentJournal(File experimentFile) {
+        this(experimentFile, ProtoFileHelper.SyncPolicy.SYNC, MIN_COMPACTION_BYTES);
+    }
+
+    @VisibleForTesting
+    ExperimentJournal(File experimentFile, ProtoFileHelper.SyncPolicy syncPolicy,
+            long minCompactionBytes) {
+        mExperimentFile = experimentFile;
+        mJournalFile = getJournalFile(experimentFile);
+        mSyncPolicy = syncPolicy;
+        mProtoFileHelper = new ProtoFileHelper<>(syncPolicy);
+        mMinCompactionBytes = minCompactionBytes;
+    }
+
+    @VisibleForTesting
+    static File getJournalFile(File experimentFile) {
+        return new File(experimentFile.getParentFile(), experimentFile.getName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * @return the experiment in the experiment file, with the journal applied, or null if the
+     * experiment file could not be read.
+     */
+    GoosciExperiment.Experiment read() {
+        final CRC32 checksum = new CRC32();
+        GoosciExperiment.Experiment proto = mProtoFileHelper.readFromFile(mExperimentFile,
+                bytes -> {
+                    checksum.update(bytes);
+                    return GoosciExperiment.Experiment.parseFrom(bytes);
+                });
+        if (proto == null) {
+            return null;
+        }
+        mExperimentFileChecksum = checksum.getValue();
+        mExperimentFileLength = mExperimentFile.length();
+        mJournalLength = 0;
+        if (mJournalFile.exists()) {
+            try {
+                mJournalLength = readJournal(proto);
+            } catch (IOException e) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, Log.getStackTraceString(e));
+                }
+                // Leave the files alone, and rewrite them completely on the next write.
+                mWrittenLabels = null;
+                return proto;
+            }
+            if (mJournalLength == 0) {
+                mJournalFile.delete();
+            }
+        }
+        remember(proto);
+        return proto;
+    }
+
+    /**
+     * Applies the journal's entries to proto.
+     *
+     * @return the length of the journal up to the end of its last complete entry, or 0 if the
+     * journal does not apply to the experiment file.
+     */
+    private long readJournal(GoosciExperiment.Experiment proto) throws IOException {
+        long validLength;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mJournalFile)))) {
+            if (in.readInt() != JOURNAL_MAGIC || in.readLong() != mExperimentFileChecksum) {
+                // Left over from before the experiment file was last compacted.
+                return 0;
+            }
+            validLength = HEADER_BYTES;
+            long remaining = mJournalFile.length() - HEADER_BYTES;
+            while (remaining >= ENTRY_OVERHEAD_BYTES) {
+                int length = in.readInt();
+                int entryChecksum = in.readInt();
+                if (length < 0 || length > remaining - ENTRY_OVERHEAD_BYTES) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                if (checksum(bytes) != entryChecksum) {
+                    break;
+                }
+                GoosciExperimentJournal.ExperimentJournalEntry entry;
+                try {
+                    entry = GoosciExperimentJournal.ExperimentJournalEntry.parseFrom(bytes);
+                } catch (InvalidProtocolBufferNanoException e) {
+                    break;
+                }
+                apply(proto, entry);
+                validLength += ENTRY_OVERHEAD_BYTES + length;
+                remaining -= ENTRY_OVERHEAD_BYTES + length;
+            }
+        } catch (EOFException e) {
+            return 0;
+        }
+        if (validLength < mJournalFile.length()) {
+            // Drop the torn entry, so that later entries are not appended after it.
+            try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw")) {
+                file.setLength(validLength);
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Writes proto, by appending the changes since the last read or write to the journal, or by
+     * compacting if the journal is large enough.
+     *
+     * @return true if the write succeeded.
+     */
+    boolean write(GoosciExperiment.Experiment proto) {
+        if (mWrittenLabels == null
+                || mJournalLength > Math.max(mMinCompactionBytes, mExperimentFileLength / 2)) {
+            return compact(proto);
+        }
+        GoosciExperimentJournal.ExperimentJournalEntry entry = makeEntry(proto);
+        if (entry == null) {
+            // Nothing has changed.
+            return true;
+        }
+        try {
+            append(MessageNano.toByteArray(entry));
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, Log.getStackTraceString(e));
+            }
+            // The journal may now end in a torn entry; start again from a complete file.
+            return compact(proto);
+        }
+        remember(proto);
+        return true;
+    }
+
+    /**
+     * @return whether there is a journal that a compaction would fold into the experiment file.
+     */
+    boolean hasJournal() {
+        return mJournalLength > 0;
+    }
+
+    /**
+     * Compacts the files as they are: reads the experiment with its journal applied, and rewrites
+     * the experiment file without the journal.
+     *
+     * @return true if the compaction succeeded.
+     */
+    boolean compact() {
+        GoosciExperiment.Experiment proto = read();
+        return proto != null && compact(proto);
+    }
+
+    @VisibleForTesting
+    boolean compact(GoosciExperiment.Experiment proto) {
+        if (!mProtoFileHelper.writeToFile(mExperimentFile, proto)) {
+            return false;
+        }
+        // Any journal left behind if this delete doesn't happen is ignored, since its checksum
+        // no longer matches.
+        mJournalFile.delete();
+        CRC32 checksum = new CRC32();
+        checksum.update(MessageNano.toByteArray(proto));
+        mExperimentFileChecksum = checksum.getValue();
+        mExperimentFileLength = mExperimentFile.length();
+        mJournalLength = 0;
+        remember(proto);
+        return true;
+    }
+
+    private void append(byte[] entryBytes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        boolean newJournal = mJournalLength == 0;
+        if (newJournal) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeLong(mExperimentFileChecksum);
+        }
+        out.writeInt(entryBytes.length);
+        out.writeInt(checksum(entryBytes));
+        out.write(entryBytes);
+        out.flush();
+
+        try (FileOutputStream outputStream = new FileOutputStream(mJournalFile, !newJournal)) {
+            bytes.writeTo(outputStream);
+            if (mSyncPolicy == ProtoFileHelper.SyncPolicy.SYNC) {
+                // As in ProtoFileHelper, the directory is not synced, so a power loss just after
+                // a new journal is started may lose it, leaving the experiment as compacted.
+                outputStream.getFD().sync();
+            }
+        }
+        mJournalLength += bytes.size();
+    }
+
+    /**
+     * @return an entry with everything that changed in proto since it was last read or written,
+     * or null if nothing changed.
+     */
+    private GoosciExperimentJournal.ExperimentJournalEntry makeEntry(
+            GoosciExperiment.Experiment proto) {
+        GoosciExperimentJournal.ExperimentJournalEntry entry =
+                new GoosciExperimentJournal.ExperimentJournalEntry();
+        boolean changed = false;
+
+        byte[] fields = fieldsWithoutLists(proto);
+        if (!Arrays.equals(digest(fields), mWrittenFields)) {
+            try {
+                entry.experimentFields = GoosciExperiment.Experiment.parseFrom(fields);
+            } catch (InvalidProtocolBufferNanoException e) {
+                throw new IllegalStateException("Could not re-read experiment fields", e);
+            }
+            changed = true;
+        }
+
+        List<GoosciLabel.Label> labels = new ArrayList<>();
+        entry.labelIds = findChanges(proto.labels, LABEL_ID, mWrittenLabels, labels);
+        entry.labels = labels.toArray(new GoosciLabel.Label[labels.size()]);
+
+        List<GoosciTrial.Trial> trials = new ArrayList<>();
+        entry.trialIds = findChanges(proto.trials, TRIAL_ID, mWrittenTrials, trials);
+        entry.trials = trials.toArray(new GoosciTrial.Trial[trials.size()]);
+
+        List<GoosciTrial.TrialIndexEntry> indexEntries = new ArrayList<>();
+        entry.trialIndexIds = findChanges(proto.trialIndex, TRIAL_INDEX_ID, mWrittenTrialIndex,
+                indexEntries);
+        entry.trialIndex = indexEntries.toArray(
+                new GoosciTrial.TrialIndexEntry[indexEntries.size()]);
+
+        changed = changed || !labels.isEmpty() || !trials.isEmpty() || !indexEntries.isEmpty()
+                  || entry.labelIds != null || entry.trialIds != null
+                  || entry.trialIndexIds != null;
+        return changed ? entry : null;
+    }
+
+    /**
+     * Adds the items whose digests differ from the written ones to changed.
+     *
+     * @return the IDs of all the items, in order, if they differ from the written ones, or null
+     * if they are the same.
+     */
+    private static <T extends MessageNano> GoosciExperimentJournal.IdList findChanges(T[] items,
+            IdGetter<T> idGetter, Map<String, byte[]> written, List<T> changed) {
+        List<String> ids = new ArrayList<>();
+        for (T item : items) {
+            String id = idGetter.getId(item);
+            ids.add(id);
+            if (!Arrays.equals(digest(item), written.get(id))) {
+                changed.add(item);
+            }
+        }
+        return ids.equals(new ArrayList<>(written.keySet())) ? null : makeIdList(ids);
+    }
+
+    /**
+     * Applies one journal entry to proto.
+     */
+    @VisibleForTesting
+    static void apply(GoosciExperiment.Experiment proto,
+            GoosciExperimentJournal.ExperimentJournalEntry entry) throws IOException {
+        if (entry.experimentFields != null) {
+            GoosciLabel.Label[] labels = proto.labels;
+            GoosciTrial.Trial[] trials = proto.trials;
+            GoosciTrial.TrialIndexEntry[] trialIndex = proto.trialIndex;
+            MessageNano.mergeFrom(proto.clear(), MessageNano.toByteArray(entry.experimentFields));
+            proto.labels = labels;
+            proto.trials = trials;
+            proto.trialIndex = trialIndex;
+        }
+
+        List<GoosciLabel.Label> labels =
+                applyChanges(proto.labels, entry.labels, entry.labelIds, LABEL_ID);
+        proto.labels = labels.toArray(new GoosciLabel.Label[labels.size()]);
+
+        List<GoosciTrial.Trial> trials =
+                applyChanges(proto.trials, entry.trials, entry.trialIds, TRIAL_ID);
+        proto.trials = trials.toArray(new GoosciTrial.Trial[trials.size()]);
+
+        List<GoosciTrial.TrialIndexEntry> trialIndex = applyChanges(proto.trialIndex,
+                entry.trialIndex, entry.trialIndexIds, TRIAL_INDEX_ID);
+        proto.trialIndex = trialIndex.toArray(new GoosciTrial.TrialIndexEntry[trialIndex.size()]);
+    }
+
+    /**
+     * @return items, with changed items replacing those with the same ID or added at the end, and
+     * ordered by ids if it is not null.
+     */
+    private static <T> List<T> applyChanges(T[] items, T[] changed,
+            GoosciExperimentJournal.IdList ids, IdGetter<T> idGetter) {
+        Map<String, T> byId = new LinkedHashMap<>();
+        for (T item : items) {
+            byId.put(idGetter.getId(item), item);
+        }
+        for (T item : changed) {
+            byId.put(idGetter.getId(item), item);
+        }
+        if (ids == null) {
+            return new ArrayList<>(byId.values());
+        }
+        List<T> ordered = new ArrayList<>();
+        for (String id : ids.ids) {
+            if (byId.containsKey(id)) {
+                ordered.add(byId.get(id));
+            }
+        }
+        return ordered;
+    }
+
+    private void remember(GoosciExperiment.Experiment proto) {
+        mWrittenFields = digest(fieldsWithoutLists(proto));
+        mWrittenLabels = digestAll(proto.labels, LABEL_ID);
+        mWrittenTrials = digestAll(proto.trials, TRIAL_ID);
+        mWrittenTrialIndex = digestAll(proto.trialIndex, TRIAL_INDEX_ID);
+    }
+
+    private static <T extends MessageNano> Map<String, byte[]> digestAll(T[] items,
+            IdGetter<T> idGetter) {
+        Map<String, byte[]> digests = new LinkedHashMap<>();
+        for (T item : items) {
+            digests.put(idGetter.getId(item), digest(item));
+        }
+        return digests;
+    }
+
+    /**
+     * @return proto serialized without its labels, trials or trial index entries.  The lists are
+     * left out of a serialized copy, so that proto itself is never changed.
+     */
+    private static byte[] fieldsWithoutLists(GoosciExperiment.Experiment proto) {
+        byte[] bytes = MessageNano.toByteArray(proto);
+        ByteArrayOutputStream fields = new ByteArrayOutputStream(bytes.length);
+        CodedInputByteBufferNano in = CodedInputByteBufferNano.newInstance(bytes);
+        try {
+            int start = in.getPosition();
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                in.skipField(tag);
+                int end = in.getPosition();
+                // The low three bits of a tag are its wire type, and the rest its field number.
+                int fieldNumber = tag >>> 3;
+                if (fieldNumber != TRIALS_FIELD_NUMBER && fieldNumber != LABELS_FIELD_NUMBER
+                        && fieldNumber != TRIAL_INDEX_FIELD_NUMBER) {
+                    fields.write(bytes, start, end - start);
+                }
+                start = end;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not re-read experiment", e);
+        }
+        return fields.toByteArray();
+    }
+
+    private static GoosciExperimentJournal.IdList makeIdList(List<String> ids) {
+        GoosciExperimentJournal.IdList idList = new GoosciExperimentJournal.IdList();
+        idList.ids = ids.toArray(new String[ids.size()]);
+        return idList;
+    }
+
+    static byte[] digest(MessageNano message) {
+        return digest(MessageNano.toByteArray(message));
+    }
+
+    static byte[] digest(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
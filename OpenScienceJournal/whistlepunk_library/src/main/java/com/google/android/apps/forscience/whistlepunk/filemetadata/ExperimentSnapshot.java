@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The serialized contents of an experiment at one point in time, as made by
+ * {@link Experiment#snapshot()}.  Experiments are changed on the UI thread, and written on the
+ * metadata writer thread; the writer only ever sees snapshots, so it never reads an experiment
+ * while it is being changed.
+ */
+public class ExperimentSnapshot {
+    private final byte[] mExperimentBytes;
+    private final byte[] mOverviewBytes;
+    private final Map<String, byte[]> mLoadedTrials;
+
+    ExperimentSnapshot(GoosciExperiment.Experiment experimentProto,
+            GoosciUserMetadata.ExperimentOverview overview, List<Trial> trials) {
+        mExperimentBytes = MessageNano.toByteArray(experimentProto);
+        mOverviewBytes = MessageNano.toByteArray(overview);
+        mLoadedTrials = Collections.unmodifiableMap(serializeLoadedTrials(trials));
+    }
+
+    /**
+     * @return the serialized trials that have been loaded, by trial ID.  Trials that were never
+     * loaded have not changed since they were written, so they are left out.
+     */
+    static Map<String, byte[]> serializeLoadedTrials(List<Trial> trials) {
+        Map<String, byte[]> loadedTrials = new LinkedHashMap<>();
+        for (Trial trial : trials) {
+            if (trial.isLoaded()) {
+                loadedTrials.put(trial.getTrialId(),
+                        MessageNano.toByteArray(trial.getTrialProto()));
+            }
+        }
+        return loadedTrials;
+    }
+
+    /**
+     * @return a new copy of the experiment proto, which the caller owns.
+     */
+    GoosciExperiment.Experiment getExperimentProto() {
+        try {
+            return GoosciExperiment.Experiment.parseFrom(mExperimentBytes);
+        } catch (InvalidProtocolBufferNanoException e) {
+            // These are the bytes that were just serialized.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a new copy of the experiment overview, which the caller owns.
+     */
+    GoosciUserMetadata.ExperimentOverview getOverview() {
+        try {
+            return GoosciUserMetadata.ExperimentOverview.parseFrom(mOverviewBytes);
+        } catch (InvalidProtocolBufferNanoException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Map<String, byte[]> getLoadedTrials() {
+        return mLoadedTrials;
+    }
+}
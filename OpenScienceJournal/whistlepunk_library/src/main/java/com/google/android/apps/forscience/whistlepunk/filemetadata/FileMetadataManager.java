@@ -146,6 +146,14 @@ public class FileMetadataManager {
         mUserMetadataManager.saveImmediately();
     }
 
+    /**
+     * Saves everything, and folds the experiments' journals into their experiment files.
+     */
+    public void compactExperimentFiles() {
+        mActiveExperimentCache.compactJournals();
+        mUserMetadataManager.saveImmediately();
+    }
+
     public void deleteExperiment(Experiment experiment) {
         mActiveExperimentCache.prepareExperimentForDeletion(experiment);
         deleteExperiment(experiment.getExperimentId());
@@ -157,11 +165,19 @@ public class FileMetadataManager {
     }
 
     public void updateExperiment(Experiment experiment) {
-        mActiveExperimentCache.updateExperiment(experiment);
+        updateExperiment(experiment, experiment.snapshot());
+    }
+
+    /**
+     * Updates the experiment as it was when snapshot was taken, so that it can keep changing on
+     * the UI thread while this runs.
+     */
+    public void updateExperiment(Experiment experiment, ExperimentSnapshot snapshot) {
+        mActiveExperimentCache.updateExperiment(experiment, snapshot);
 
         // TODO: Only do this if strictly necessary, instead of every time?
         // Or does updateExperiment mean the last updated time should change, and we need a clock?
-        mUserMetadataManager.updateExperimentOverview(experiment.getExperimentOverview());
+        mUserMetadataManager.updateExperimentOverview(snapshot.getOverview());
     }
 
     public List<GoosciUserMetadata.ExperimentOverview> getExperimentOverviews(
@@ -198,7 +214,7 @@ public class FileMetadataManager {
     }
 
     public void close() {
-        saveImmediately();
+        compactExperimentFiles();
     }
 
     @VisibleForTesting
@@ -263,4 +279,21 @@ public class FileMetadataManager {
         return mUserMetadataManager.getMyDevices();
     }
 
+    /**
+     * @return the progress of migrating experiments from the database into files, or null if no
+     * migration is in progress.
+     */
+    public GoosciUserMetadata.DatabaseMigration getDatabaseMigration() {
+        return mUserMetadataManager.getDatabaseMigration();
+    }
+
+    /**
+     * Sets the progress of migrating experiments from the database into files. Like other changes,
+     * this is written after a delay, or by saveImmediately.
+     * @param migration The progress to save, or null once the migration is finished.
+     */
+    public void setDatabaseMigration(GoosciUserMetadata.DatabaseMigration migration) {
+        mUserMetadataManager.setDatabaseMigration(migration);
+    }
+
 }
\ No newline at end of file
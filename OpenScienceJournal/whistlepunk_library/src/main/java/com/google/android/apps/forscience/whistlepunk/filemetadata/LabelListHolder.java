@@ -30,10 +30,11 @@ import java.util.List;
  */
 public abstract class LabelListHolder {
     // mLabels should be initialized by the class which implements this class in its constructor.
+    // Methods here use getLabels() rather than mLabels, so that subclasses can load labels lazily.
     List<Label> mLabels;
 
     public int getLabelCount() {
-        return mLabels.size();
+        return getLabels().size();
     }
 
     /**
@@ -54,12 +55,13 @@ public abstract class LabelListHolder {
     }
 
     public void updateLabelWithoutSorting(Label label) {
-        for (int i = 0; i < mLabels.size(); i++) {
-            Label next = mLabels.get(i);
+        List<Label> labels = getLabels();
+        for (int i = 0; i < labels.size(); i++) {
+            Label next = labels.get(i);
             if (!TextUtils.equals(label.getLabelId(), next.getLabelId())) {
                 continue;
             }
-            mLabels.set(i, label);
+            labels.set(i, label);
         }
     }
 
@@ -67,7 +69,7 @@ public abstract class LabelListHolder {
      * Adds a label to the object's list of labels. The list will still be sorted by timestamp.
      */
     public void addLabel(Label label) {
-        mLabels.add(label);
+        getLabels().add(label);
         sortLabels();
         if (label.getType() == GoosciLabel.Label.PICTURE) {
             onPictureLabelAdded(label);
@@ -80,9 +82,9 @@ public abstract class LabelListHolder {
      */
     public void deleteLabel(Label toDelete, Context context, String experimentId) {
         deleteLabelAssets(toDelete, context, experimentId);
-        for (Label label : mLabels) {
+        for (Label label : getLabels()) {
             if (TextUtils.equals(label.getLabelId(), toDelete.getLabelId())) {
-                mLabels.remove(label);
+                getLabels().remove(label);
                 break;
             }
         }
@@ -96,7 +98,7 @@ public abstract class LabelListHolder {
     }
 
     private void sortLabels() {
-        Collections.sort(mLabels, Label.COMPARATOR_BY_TIMESTAMP);
+        Collections.sort(getLabels(), Label.COMPARATOR_BY_TIMESTAMP);
     }
 
     protected void setLabels(List<Label> labels) {
@@ -23,7 +23,6 @@ import com.google.protobuf.nano.MessageNano;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
@@ -35,6 +34,43 @@ import io.reactivex.functions.Function;
 // TODO: Check free storage space before writing anything?
 public class ProtoFileHelper<T extends MessageNano> {
     private static final String TAG = "ProtoFileHelper";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Whether to wait for new contents to reach the disk before they replace the old contents.
+     * The app always writes with {@link #SYNC}; there is no setting for it.
+     */
+    public enum SyncPolicy {
+        /**
+         * Slower, but the new contents survive power loss as well as the app being killed.  The
+         * directory is not synced after the new contents are renamed into place, so a power loss
+         * just after a write may still leave the old contents, but never an empty file.
+         */
+        SYNC,
+
+        /**
+         * Faster, but after power loss the file may be left empty.  Only for tests.
+         */
+        NO_SYNC
+    }
+
+    /**
+     * The steps of writing a file, so that tests can fail at each one.
+     */
+    @VisibleForTesting
+    enum WriteStep {
+        WRITE, SYNC, RENAME
+    }
+
+    private final SyncPolicy mSyncPolicy;
+
+    public ProtoFileHelper() {
+        this(SyncPolicy.SYNC);
+    }
+
+    public ProtoFileHelper(SyncPolicy syncPolicy) {
+        mSyncPolicy = syncPolicy;
+    }
 
     public T readFromFile(File file, Function<byte[], T> parseFrom) {
         try (FileInputStream inputStream = new FileInputStream(file)) {
@@ -55,53 +91,67 @@ public class ProtoFileHelper<T extends MessageNano> {
     }
 
     public boolean writeToFile(File file, T protoToWrite) {
-        return writeToFile(file, protoToWrite, /* don't throw an error for testing */ false);
+        return writeToFile(file, protoToWrite, /* don't throw an error for testing */ null);
     }
 
     @VisibleForTesting
     boolean writeToFile(File file, T protoToWrite, boolean failWritingForTest) {
+        return writeToFile(file, protoToWrite, failWritingForTest ? WriteStep.WRITE : null);
+    }
+
+    @VisibleForTesting
+    boolean writeToFile(File file, T protoToWrite, WriteStep failAtStepForTest) {
         // Do this outside the file-writing blocks. If it fails it throws a RuntimeException
         // which we don't want to have happen during reading or writing.
         byte[] protoBytes = MessageNano.toByteArray(protoToWrite);
+        return writeBytesToFile(file, protoBytes, failAtStepForTest);
+    }
 
-        // Save what's in the file in case the write fails. This is a safety net because
-        // the FileOutputStream clears the file and we need a way to put the data back
-        // to how it was.
-        byte[] bytes = new byte[(int) file.length()];
-        try (FileInputStream inputStream = new FileInputStream(file)) {
-            inputStream.read(bytes);
-        } catch (IOException ex) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, Log.getStackTraceString(ex));
-            }
-            return false;
-        }
+    /**
+     * Writes a proto that was already serialized, for example on another thread.
+     */
+    public boolean writeBytesToFile(File file, byte[] protoBytes) {
+        return writeBytesToFile(file, protoBytes, null);
+    }
 
-        // Now try to write.
-        try (FileOutputStream outputStream = new FileOutputStream(file)) {
-            if (failWritingForTest) {
-                throw new IOException("Failing for the test");
-            } else {
+    private boolean writeBytesToFile(File file, byte[] protoBytes, WriteStep failAtStepForTest) {
+        // Write the new contents next to the file, and only replace the file once they are
+        // complete. A failure (or the app being killed) at any step leaves the old contents in
+        // place, so there is no need to read them first as a backup.
+        File tempFile = getTempFile(file);
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                if (failAtStepForTest == WriteStep.WRITE) {
+                    outputStream.write(protoBytes, 0, protoBytes.length / 2);
+                    throw new IOException("Failing for the test");
+                }
                 outputStream.write(protoBytes);
-                return true;
+                if (mSyncPolicy == SyncPolicy.SYNC) {
+                    if (failAtStepForTest == WriteStep.SYNC) {
+                        throw new IOException("Failing for the test");
+                    }
+                    outputStream.getFD().sync();
+                }
             }
+            if (failAtStepForTest == WriteStep.RENAME || !tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+            return true;
         } catch (IOException ex) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, Log.getStackTraceString(ex));
             }
-            replaceContents(file, bytes);
+            tempFile.delete();
             return false;
         }
     }
 
-    private void replaceContents(File file, byte[] bytes) {
-        // If write failed, might be the proto's fault, try to write back what we had before.
-        try (FileOutputStream outputStream = new FileOutputStream(file)) {
-            outputStream.write(bytes);
-        } catch (IOException ex) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, Log.getStackTraceString(ex));
-            }
-        }
+    /**
+     * @return the file that new contents for {@code file} are written to before replacing it.
+     * Any existing contents are left over from an interrupted write, and can be overwritten.
+     */
+    @VisibleForTesting
+    static File getTempFile(File file) {
+        return new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
     }
 }
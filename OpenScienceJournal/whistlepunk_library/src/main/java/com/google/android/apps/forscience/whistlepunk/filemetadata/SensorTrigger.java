@@ -41,7 +41,7 @@ public class SensorTrigger {
 
     // When comparing double values from sensors, use this epsilon.
     // TODO: This could be passed in per-sensor as part of the API.
-    private static final Double EPSILON = .00001;
+    public static final double EPSILON = .00001;
 
     private GoosciSensorTrigger.SensorTrigger mTriggerProto;
 
@@ -168,8 +168,9 @@ public class SensorTrigger {
     }
 
     // This can be called any time a trigger is "used", i.e. when the trigger is used in a card, or
-    // when information about a trigger is edited.
-    private void updateLastUsed() {
+    // when information about a trigger is edited, or when it fires.  Call it on the UI thread,
+    // which owns the experiment's triggers.
+    public void updateLastUsed() {
         setLastUsed(System.currentTimeMillis());
     }
 
@@ -234,6 +235,8 @@ public class SensorTrigger {
                 Objects.equals(getValueToTrigger(), other.getValueToTrigger()) &&
                 getActionType() == other.getActionType() &&
                 getTriggerWhen() == other.getTriggerWhen() &&
+                getHysteresis() == other.getHysteresis() &&
+                getDebounceMillis() == other.getDebounceMillis() &&
                 TextUtils.equals(getNoteText(), other.getNoteText()) &&
                 hasSameAlertTypes(getAlertTypes(), other.getAlertTypes());
     }
@@ -290,6 +293,22 @@ public class SensorTrigger {
         }
     }
 
+    public double getHysteresis() {
+        return mTriggerProto.triggerInformation.hysteresis;
+    }
+
+    public void setHysteresis(double hysteresis) {
+        mTriggerProto.triggerInformation.hysteresis = hysteresis;
+    }
+
+    public long getDebounceMillis() {
+        return mTriggerProto.triggerInformation.debounceMs;
+    }
+
+    public void setDebounceMillis(long debounceMillis) {
+        mTriggerProto.triggerInformation.debounceMs = debounceMillis;
+    }
+
     public boolean shouldTriggerOnlyWhenRecording() {
         return mTriggerProto.triggerInformation.triggerOnlyWhenRecording;
     }
@@ -23,6 +23,7 @@ import android.util.Log;
 import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.MaybeConsumers;
 import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.ElapsedTimeFormatter;
 import com.google.android.apps.forscience.whistlepunk.R;
 import com.google.android.apps.forscience.whistlepunk.SensorAppearanceProvider;
@@ -62,10 +63,32 @@ public class Trial extends LabelListHolder {
         void beforeDeletingPictureLabel(Label label);
     }
 
+    /**
+     * Reads the whole proto of a trial that so far has only been read from a trial index.
+     */
+    interface Loader {
+        /**
+         * @return the trial's proto, or null if it could not be read.
+         */
+        GoosciTrial.Trial loadTrial(String trialId);
+    }
+
     private GoosciTrial.Trial mTrial;
     private Map<String, TrialStats> mTrialStats;
     private OnLabelChangeListener mOnLabelChangeListener;
 
+    // Until the whole trial is needed, mTrial only has the fields in the trial index, and this
+    // is the loader to read the rest with.  Null once the whole trial is in memory.
+    private Loader mLoader;
+    // Whether mLoader failed to read the trial.  The trial then stays unloaded, so that what the
+    // index knows is never written over the trial's file; only an explicit load() tries again.
+    private boolean mLoadFailed;
+    private int mIndexedLabelCount;
+
+    // Guards loading, which can happen on the metadata thread (see load) as well as on whichever
+    // thread first needs the whole trial.
+    private final Object mLoadLock = new Object();
+
     /**
      * Populates the Trial from an existing proto.
      */
@@ -73,6 +96,14 @@ public class Trial extends LabelListHolder {
         return new Trial(trial);
     }
 
+    /**
+     * Populates the Trial from its entry in an experiment's trial index.  The rest of the trial is
+     * read with loader the first time it is needed.
+     */
+    static Trial fromIndexEntry(GoosciTrial.TrialIndexEntry entry, Loader loader) {
+        return new Trial(entry, loader);
+    }
+
     /**
      * Invoked when recording begins to save the metadata about what's being recorded.
      */
@@ -91,6 +122,21 @@ public class Trial extends LabelListHolder {
         }
     }
 
+    private Trial(GoosciTrial.TrialIndexEntry entry, Loader loader) {
+        mTrial = new GoosciTrial.Trial();
+        mTrial.trialId = entry.trialId;
+        mTrial.creationTimeMs = entry.creationTimeMs;
+        mTrial.title = entry.title;
+        mTrial.archived = entry.archived;
+        mTrial.recordingRange = entry.recordingRange;
+        mTrial.cropRange = entry.cropRange;
+        mTrial.trialNumberInExperiment = entry.trialNumberInExperiment;
+        mIndexedLabelCount = entry.labelCount;
+        mLoader = loader;
+        mLabels = new ArrayList<>();
+        mTrialStats = new HashMap<>();
+    }
+
     // TODO: eventually provider should go away, in favor of a different structure containing
     // sensor_specs
     private Trial(long startTimeMs, GoosciSensorLayout.SensorLayout[] sensorLayouts,
@@ -117,7 +163,96 @@ public class Trial extends LabelListHolder {
         mTrialStats = new HashMap<>();
     }
 
+    /**
+     * @return whether the whole trial is in memory, rather than just its trial index entry.  This
+     * stays false for a trial whose file could not be read.
+     */
+    boolean isLoaded() {
+        synchronized (mLoadLock) {
+            return mLoader == null;
+        }
+    }
+
+    /**
+     * Reads the whole trial now, if only its trial index entry has been read so far.  This reads
+     * a file, so screens that show more than the trial index should have it done on a background
+     * thread first, with {@link DataController#loadTrials}.
+     */
+    public void load() {
+        synchronized (mLoadLock) {
+            boolean retrying = mLoadFailed;
+            mLoadFailed = false;
+            GoosciTrial.Trial indexed = mTrial;
+            ensureLoaded();
+            if (retrying && isLoaded()) {
+                // Setters called while the load was failing only changed the trial index fields,
+                // and those have been saved in the experiment since, so keep them.
+                mTrial.title = indexed.title;
+                mTrial.archived = indexed.archived;
+                mTrial.cropRange = indexed.cropRange;
+                mTrial.trialNumberInExperiment = indexed.trialNumberInExperiment;
+            }
+        }
+    }
+
+    /**
+     * Reads the whole trial, if only its trial index entry has been read so far.  Setters of
+     * fields in the trial index call this too, so that the loaded proto does not undo them.
+     */
+    private void ensureLoaded() {
+        synchronized (mLoadLock) {
+            if (mLoader == null || mLoadFailed) {
+                return;
+            }
+            GoosciTrial.Trial trial = mLoader.loadTrial(mTrial.trialId);
+            if (trial == null) {
+                // Keep what the index knows, rather than losing the trial altogether, but leave
+                // the trial unloaded so that it is not written back in place of its file.
+                mLoadFailed = true;
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Could not load trial " + mTrial.trialId);
+                }
+                return;
+            }
+            mLoader = null;
+            mTrial = trial;
+            mTrialStats = TrialStats.fromTrial(mTrial);
+            mLabels = new ArrayList<>();
+            for (GoosciLabel.Label proto : mTrial.labels) {
+                mLabels.add(Label.fromLabel(proto));
+            }
+        }
+    }
+
+    /**
+     * @return the fields of this trial needed to list it, without loading the rest.
+     */
+    GoosciTrial.TrialIndexEntry getIndexEntry() {
+        GoosciTrial.TrialIndexEntry entry = new GoosciTrial.TrialIndexEntry();
+        entry.trialId = mTrial.trialId;
+        entry.creationTimeMs = mTrial.creationTimeMs;
+        entry.title = mTrial.title;
+        entry.archived = mTrial.archived;
+        entry.recordingRange = mTrial.recordingRange;
+        entry.cropRange = mTrial.cropRange;
+        entry.trialNumberInExperiment = mTrial.trialNumberInExperiment;
+        entry.labelCount = getLabelCount();
+        return entry;
+    }
+
+    @Override
+    public int getLabelCount() {
+        return isLoaded() ? super.getLabelCount() : mIndexedLabelCount;
+    }
+
+    @Override
+    public List<Label> getLabels() {
+        ensureLoaded();
+        return super.getLabels();
+    }
+
     public GoosciPictureLabelValue.PictureLabelValue getCoverPictureLabelValue() {
+        ensureLoaded();
         for (Label label : mLabels) {
             if (label.getType() == GoosciLabel.Label.PICTURE) {
                 return label.getPictureLabelValue();
@@ -149,6 +284,7 @@ public class Trial extends LabelListHolder {
     }
 
     public void setRecordingEndTime(long recordingEndTime) {
+        ensureLoaded();
         mTrial.recordingRange.endMs = recordingEndTime;
     }
 
@@ -161,10 +297,12 @@ public class Trial extends LabelListHolder {
     }
 
     public void setCropRange(GoosciTrial.Range cropRange) {
+        ensureLoaded();
         mTrial.cropRange = cropRange;
     }
 
     public List<String> getSensorIds() {
+        ensureLoaded();
         List<String> result = new ArrayList<>();
         for (GoosciSensorLayout.SensorLayout layout : mTrial.sensorLayouts) {
             result.add(layout.sensorId);
@@ -202,6 +340,7 @@ public class Trial extends LabelListHolder {
     }
 
     public void setTitle(String title) {
+        ensureLoaded();
         mTrial.title = title;
     }
 
@@ -210,31 +349,37 @@ public class Trial extends LabelListHolder {
     }
 
     public void setArchived(boolean isArchived) {
+        ensureLoaded();
         mTrial.archived = isArchived;
     }
 
     public GoosciTrial.Trial getTrialProto() {
+        ensureLoaded();
         updateTrialProtoWithStats();
         updateTrialProtoWithLabels();
         return mTrial;
     }
 
     public List<GoosciSensorLayout.SensorLayout> getSensorLayouts() {
+        ensureLoaded();
         return new ArrayList(Arrays.asList(mTrial.sensorLayouts));
     }
 
     @VisibleForTesting
     public void setSensorLayouts(List<GoosciSensorLayout.SensorLayout> sensorLayouts) {
+        ensureLoaded();
         Preconditions.checkNotNull(sensorLayouts);
         mTrial.sensorLayouts = sensorLayouts.toArray(new GoosciSensorLayout.SensorLayout[
                 sensorLayouts.size()]);
     }
 
     public boolean getAutoZoomEnabled() {
+        ensureLoaded();
         return mTrial.autoZoomEnabled;
     }
 
     public void setAutoZoomEnabled(boolean enableAutoZoom) {
+        ensureLoaded();
         mTrial.autoZoomEnabled = enableAutoZoom;
     }
 
@@ -242,6 +387,7 @@ public class Trial extends LabelListHolder {
      * Gets a list of the stats for all sensors.
      */
     public List<TrialStats> getStats() {
+        ensureLoaded();
         return new ArrayList<>(mTrialStats.values());
     }
 
@@ -249,6 +395,7 @@ public class Trial extends LabelListHolder {
      * Gets the stats for a sensor.
      */
     public TrialStats getStatsForSensor(String sensorId) {
+        ensureLoaded();
         return mTrialStats.get(sensorId);
     }
 
@@ -257,6 +404,7 @@ public class Trial extends LabelListHolder {
      * @param newTrialStats The new stats to save.
      */
     public void setStats(TrialStats newTrialStats) {
+        ensureLoaded();
         mTrialStats.put(newTrialStats.getSensorId(), newTrialStats);
     }
 
@@ -266,6 +414,7 @@ public class Trial extends LabelListHolder {
     }
 
     public String getCaptionText() {
+        ensureLoaded();
         if (mTrial.caption == null) {
             return "";
         }
@@ -273,6 +422,7 @@ public class Trial extends LabelListHolder {
     }
 
     public void setCaption(GoosciCaption.Caption caption) {
+        ensureLoaded();
         mTrial.caption = caption;
     }
 
@@ -281,6 +431,7 @@ public class Trial extends LabelListHolder {
      * run data, etc.
      */
     public void deleteContents(Context context, String experimentId) {
+        ensureLoaded();
         for (Label label : mLabels) {
             deleteLabelAssets(label, context, experimentId);
         }
@@ -338,6 +489,7 @@ public class Trial extends LabelListHolder {
      * protos.  This map should not be changed; changes have no effect.
      */
     public Map<String, GoosciSensorAppearance.BasicSensorAppearance> getAppearances() {
+        ensureLoaded();
         // TODO: need a putAppearance method for changes
         HashMap<String, GoosciSensorAppearance.BasicSensorAppearance> appearances = new HashMap<>();
         for (GoosciTrial.Trial.AppearanceEntry entry : mTrial.sensorAppearances) {
@@ -355,6 +507,7 @@ public class Trial extends LabelListHolder {
     }
 
     public void setTrialNumberInExperiment(int trialNumberInExperiment) {
+        ensureLoaded();
         mTrial.trialNumberInExperiment = trialNumberInExperiment;
     }
 
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the trials of one experiment, each in its own file in the experiment's trials
+ * directory.  Opening an experiment then only needs its trial index, and a trial is read the first
+ * time it is needed.  Saving writes only the trials that were read and changed since.
+ *
+ * Like ExperimentCache, this does file operations, and should be used from a background thread.
+ */
+class TrialStore implements Trial.Loader {
+    @VisibleForTesting
+    static final String TRIALS_DIRECTORY = "trials";
+
+    private static final String TRIAL_FILE_SUFFIX = ".proto";
+
+    private final File mTrialsDirectory;
+    private final ProtoFileHelper<GoosciTrial.Trial> mProtoFileHelper;
+
+    // Digests of the trials as they are in their files, by trial ID, so that unchanged trials
+    // are not written again.  Trials are loaded on whichever thread first needs them, and
+    // written on the writer thread, so this is guarded by itself.
+    private final Map<String, byte[]> mWrittenTrials = new HashMap<>();
+
+    // The IDs of the trials that have files, or null if not yet known.
+    private Set<String> mStoredTrialIds;
+
+    TrialStore(File experimentDirectory) {
+        this(experimentDirectory, ProtoFileHelper.SyncPolicy.SYNC);
+    }
+
+    @VisibleForTesting
+    TrialStore(File experimentDirectory, ProtoFileHelper.SyncPolicy syncPolicy) {
+        mTrialsDirectory = new File(experimentDirectory, TRIALS_DIRECTORY);
+        mProtoFileHelper = new ProtoFileHelper<>(syncPolicy);
+    }
+
+    @VisibleForTesting
+    File getTrialFile(String trialId) {
+        return new File(mTrialsDirectory, trialId + TRIAL_FILE_SUFFIX);
+    }
+
+    @Override
+    public GoosciTrial.Trial loadTrial(String trialId) {
+        GoosciTrial.Trial trial = mProtoFileHelper.readFromFile(getTrialFile(trialId),
+                GoosciTrial.Trial::parseFrom);
+        if (trial != null) {
+            byte[] digest = ExperimentJournal.digest(trial);
+            synchronized (mWrittenTrials) {
+                mWrittenTrials.put(trialId, digest);
+            }
+        }
+        return trial;
+    }
+
+    /**
+     * Writes the files of the trials that are new, or were loaded and have changed since.
+     * Trials that were never loaded cannot have changed, and are left out of loadedTrials (see
+     * ExperimentSnapshot) without reading them.
+     *
+     * @param loadedTrials the serialized trials, by trial ID.
+     * @return true if all of the writes succeeded.
+     */
+    boolean writeTrials(Map<String, byte[]> loadedTrials) {
+        if (!mTrialsDirectory.exists() && !mTrialsDirectory.mkdirs()) {
+            return false;
+        }
+        boolean success = true;
+        for (Map.Entry<String, byte[]> trial : loadedTrials.entrySet()) {
+            String trialId = trial.getKey();
+            byte[] digest = ExperimentJournal.digest(trial.getValue());
+            synchronized (mWrittenTrials) {
+                if (Arrays.equals(digest, mWrittenTrials.get(trialId))) {
+                    continue;
+                }
+            }
+            if (mProtoFileHelper.writeBytesToFile(getTrialFile(trialId), trial.getValue())) {
+                synchronized (mWrittenTrials) {
+                    mWrittenTrials.put(trialId, digest);
+                }
+            } else {
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Deletes the files of trials which are no longer in the experiment.  This should be called
+     * after the experiment file has been written without them, so that it never lists a trial
+     * whose file is gone.
+     */
+    void deleteRemovedTrials(Collection<String> trialIdsToKeep) {
+        Set<String> trialIds = new HashSet<>(trialIdsToKeep);
+        if (mStoredTrialIds == null) {
+            // The first time, also clean up after any deletes that were interrupted.
+            mStoredTrialIds = new HashSet<>();
+            String[] fileNames = mTrialsDirectory.list();
+            if (fileNames != null) {
+                for (String fileName : fileNames) {
+                    if (fileName.endsWith(TRIAL_FILE_SUFFIX)) {
+                        mStoredTrialIds.add(fileName.substring(0,
+                                fileName.length() - TRIAL_FILE_SUFFIX.length()));
+                    }
+                }
+            }
+        }
+        for (String trialId : mStoredTrialIds) {
+            if (!trialIds.contains(trialId)) {
+                getTrialFile(trialId).delete();
+                synchronized (mWrittenTrials) {
+                    mWrittenTrials.remove(trialId);
+                }
+            }
+        }
+        mStoredTrialIds = trialIds;
+    }
+}
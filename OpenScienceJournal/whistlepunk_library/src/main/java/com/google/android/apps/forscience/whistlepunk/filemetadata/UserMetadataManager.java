@@ -17,23 +17,28 @@
 package com.google.android.apps.forscience.whistlepunk.filemetadata;
 
 import android.content.Context;
-import android.os.Handler;
-import android.text.TextUtils;
 
 import com.google.android.apps.forscience.whistlepunk.data.GoosciDeviceSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
 import com.google.protobuf.nano.MessageNano;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Reads and writes ExperimentOverview lists
+ * Reads and writes ExperimentOverview lists.
+ * Changes are written after a short delay on the shared metadata writer thread (see
+ * CoalescingWriter), holding this object's lock, as do the methods that make changes.  Overviews
+ * are copied on the way in and out, so that the writer never serializes one while the UI thread
+ * changes it.
  */
 // TODO: Should this be a cache too?
 public class UserMetadataManager {
@@ -48,12 +53,14 @@ public class UserMetadataManager {
     private static final int MINOR_VERSION = 1;
     private static final long WRITE_DELAY_MS = 500;
 
-    private final Handler mHandler;
-    private final Runnable mWriteRunnable;
-    private final long mWriteDelayMs;
+    private final CoalescingWriter mWriter;
     private boolean mNeedsWrite = false;
     private GoosciUserMetadata.UserMetadata mUserMetadata;
 
+    // The overviews in mUserMetadata, by experiment ID, in the same order.  This is the
+    // authoritative list once mUserMetadata is read, and is copied back into it when writing.
+    private Map<String, GoosciUserMetadata.ExperimentOverview> mOverviews;
+
     interface FailureListener {
         // TODO: What's helpful to pass back here? Maybe info about the type of error?
         void onWriteFailed();
@@ -72,87 +79,60 @@ public class UserMetadataManager {
         mFailureListener = failureListener;
         mOverviewProtoFileHelper = new ProtoFileHelper<>();
         mUserMetadataFile = FileMetadataManager.getUserMetadataFile(context);
-        mHandler = new Handler();
-        mWriteRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (mNeedsWrite) {
-                    writeUserMetadata(mUserMetadata);
-                }
+        mWriter = new CoalescingWriter(WRITE_DELAY_MS, this, () -> {
+            if (mNeedsWrite) {
+                writeUserMetadata(mUserMetadata);
             }
-        };
-        mWriteDelayMs = WRITE_DELAY_MS;
+        });
     }
 
     private void startWriteTimer() {
-        if (mNeedsWrite) {
-            // The timer is already running.
-            return;
-        }
         mNeedsWrite = true;
-        mHandler.postDelayed(mWriteRunnable, mWriteDelayMs);
+        mWriter.requestWrite();
     }
 
+    /**
+     * Writes any changes now, on the calling thread, rather than waiting for the write timer.
+     */
     public void saveImmediately() {
-        if (mNeedsWrite) {
-            writeUserMetadata(mUserMetadata);
-            cancelWriteTimer();
-        }
-    }
-
-    private void cancelWriteTimer() {
-        mHandler.removeCallbacks(mWriteRunnable);
+        mWriter.flush();
     }
 
     /**
      * Gets an experiment overview by experiment ID from the Shared Metadata.
      */
-    GoosciUserMetadata.ExperimentOverview getExperimentOverview(String experimentId) {
-        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
-        if (userMetadata == null) {
+    synchronized GoosciUserMetadata.ExperimentOverview getExperimentOverview(
+            String experimentId) {
+        if (getUserMetadata() == null) {
             return null;
         }
-        for (GoosciUserMetadata.ExperimentOverview overview : userMetadata.experiments) {
-            if (TextUtils.equals(overview.experimentId, experimentId)) {
-                return overview;
-            }
-        }
-        return null;
+        GoosciUserMetadata.ExperimentOverview overview = mOverviews.get(experimentId);
+        return overview == null ? null : copy(overview);
     }
 
     /**
      * Adds a new experiment overview to the Shared Metadata.
      */
-    void addExperimentOverview(GoosciUserMetadata.ExperimentOverview overviewToAdd) {
-        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
-        if (userMetadata == null) {
+    synchronized void addExperimentOverview(
+            GoosciUserMetadata.ExperimentOverview overviewToAdd) {
+        if (getUserMetadata() == null) {
             return;
         }
-        GoosciUserMetadata.ExperimentOverview[] newList =
-                Arrays.copyOf(userMetadata.experiments, userMetadata.experiments.length + 1);
-        newList[userMetadata.experiments.length] = overviewToAdd;
-        userMetadata.experiments = newList;
+        mOverviews.put(overviewToAdd.experimentId, copy(overviewToAdd));
         startWriteTimer();
     }
 
     /**
      * Updates an experiment overview in the Shared Metadata.
      */
-    void updateExperimentOverview(GoosciUserMetadata.ExperimentOverview overviewToUpdate) {
-        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
-        if (userMetadata == null) {
+    synchronized void updateExperimentOverview(
+            GoosciUserMetadata.ExperimentOverview overviewToUpdate) {
+        if (getUserMetadata() == null) {
             return;
         }
-        boolean updated = false;
-        for (int i = 0; i < userMetadata.experiments.length; i++) {
-            if (TextUtils.equals(userMetadata.experiments[i].experimentId,
-                    overviewToUpdate.experimentId)) {
-                userMetadata.experiments[i] = overviewToUpdate;
-                updated = true;
-                break;
-            }
-        }
-        if (updated) {
+        if (mOverviews.containsKey(overviewToUpdate.experimentId)) {
+            // Replacing the value of an existing key keeps its place in the order.
+            mOverviews.put(overviewToUpdate.experimentId, copy(overviewToUpdate));
             startWriteTimer();
         }
     }
@@ -161,27 +141,11 @@ public class UserMetadataManager {
      * Deletes an experiment overview from disk.
      * @param experimentIdToDelete the ID of the overview to be deleted.
      */
-    void deleteExperimentOverview(String experimentIdToDelete) {
-        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
-        if (userMetadata == null || userMetadata.experiments.length == 0) {
+    synchronized void deleteExperimentOverview(String experimentIdToDelete) {
+        if (getUserMetadata() == null) {
             return;
         }
-        boolean updated = false;
-        GoosciUserMetadata.ExperimentOverview[] newList =
-                new GoosciUserMetadata.ExperimentOverview[userMetadata.experiments.length - 1];
-        int newIndex = 0;
-        for (int oldIndex = 0; oldIndex < userMetadata.experiments.length; oldIndex++) {
-            // If it's not the one we want to delete, add it to the new list.
-            if (!TextUtils.equals(experimentIdToDelete,
-                    userMetadata.experiments[oldIndex].experimentId)) {
-                newList[newIndex] = userMetadata.experiments[oldIndex];
-                newIndex++;
-            } else {
-                updated = true;
-            }
-        }
-        if (updated) {
-            userMetadata.experiments = newList;
+        if (mOverviews.remove(experimentIdToDelete) != null) {
             startWriteTimer();
         }
     }
@@ -190,28 +154,35 @@ public class UserMetadataManager {
      * Gets all the experiment overviews
      * @param includeArchived Whether to include the archived experiments.
      */
-    List<GoosciUserMetadata.ExperimentOverview> getExperimentOverviews(boolean includeArchived) {
-        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
-        if (userMetadata == null) {
+    synchronized List<GoosciUserMetadata.ExperimentOverview> getExperimentOverviews(
+            boolean includeArchived) {
+        if (getUserMetadata() == null) {
             return null;
         }
-        if (includeArchived) {
-            return Arrays.asList(userMetadata.experiments);
-        } else {
-            List<GoosciUserMetadata.ExperimentOverview> result = new ArrayList<>();
-            for (GoosciUserMetadata.ExperimentOverview overview : userMetadata.experiments) {
-                if (!overview.isArchived) {
-                    result.add(overview);
-                }
+        List<GoosciUserMetadata.ExperimentOverview> result = new ArrayList<>();
+        for (GoosciUserMetadata.ExperimentOverview overview : mOverviews.values()) {
+            if (includeArchived || !overview.isArchived) {
+                result.add(copy(overview));
             }
-            return result;
+        }
+        return result;
+    }
+
+    private static GoosciUserMetadata.ExperimentOverview copy(
+            GoosciUserMetadata.ExperimentOverview overview) {
+        try {
+            return MessageNano.mergeFrom(new GoosciUserMetadata.ExperimentOverview(),
+                    MessageNano.toByteArray(overview));
+        } catch (InvalidProtocolBufferNanoException e) {
+            // These are the bytes that were just serialized.
+            throw new IllegalStateException(e);
         }
     }
 
     /**
      * Adds a device to the user's list of devices if it is not yet added.
      */
-    public void addMyDevice(GoosciDeviceSpec.DeviceSpec device) {
+    public synchronized void addMyDevice(GoosciDeviceSpec.DeviceSpec device) {
         GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
 
         if (userMetadata == null) {
@@ -233,7 +204,7 @@ public class UserMetadataManager {
         startWriteTimer();
     }
 
-    public void removeMyDevice(GoosciDeviceSpec.DeviceSpec device) {
+    public synchronized void removeMyDevice(GoosciDeviceSpec.DeviceSpec device) {
         GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
 
         if (userMetadata == null) {
@@ -260,7 +231,7 @@ public class UserMetadataManager {
         startWriteTimer();
     }
 
-    public List<GoosciDeviceSpec.DeviceSpec> getMyDevices() {
+    public synchronized List<GoosciDeviceSpec.DeviceSpec> getMyDevices() {
         GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
         if (userMetadata == null) {
             return Lists.newArrayList();
@@ -269,6 +240,31 @@ public class UserMetadataManager {
         return Lists.newArrayList(userMetadata.myDevices);
     }
 
+    /**
+     * @return the progress of migrating experiments from the database into files, or null if no
+     * migration is in progress.
+     */
+    synchronized GoosciUserMetadata.DatabaseMigration getDatabaseMigration() {
+        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
+        if (userMetadata == null) {
+            return null;
+        }
+        return userMetadata.databaseMigration;
+    }
+
+    /**
+     * Sets the progress of migrating experiments from the database into files.
+     * @param migration The progress to save, or null once the migration is finished.
+     */
+    synchronized void setDatabaseMigration(GoosciUserMetadata.DatabaseMigration migration) {
+        GoosciUserMetadata.UserMetadata userMetadata = getUserMetadata();
+        if (userMetadata == null) {
+            return;
+        }
+        userMetadata.databaseMigration = migration;
+        startWriteTimer();
+    }
+
     /**
      * Reads the shared metadata from the file, and throws an error to the failure listener if
      * needed.
@@ -295,6 +291,10 @@ public class UserMetadataManager {
             }
             upgradeUserMetadataVersionIfNeeded(mUserMetadata);
         }
+        mOverviews = new LinkedHashMap<>();
+        for (GoosciUserMetadata.ExperimentOverview overview : mUserMetadata.experiments) {
+            mOverviews.put(overview.experimentId, overview);
+        }
         return mUserMetadata;
     }
 
@@ -309,7 +309,8 @@ public class UserMetadataManager {
      * @param newMinorVersion The minor version to upgrade to, available for testing
      */
     @VisibleForTesting
-    void upgradeUserMetadataVersionIfNeeded(GoosciUserMetadata.UserMetadata userMetadata,
+    synchronized void upgradeUserMetadataVersionIfNeeded(
+            GoosciUserMetadata.UserMetadata userMetadata,
             int newMajorVersion, int newMinorVersion) {
         if (userMetadata.version == newMajorVersion &&
                 userMetadata.minorVersion == newMinorVersion) {
@@ -368,6 +369,10 @@ public class UserMetadataManager {
             // If the major version is too new, or the minor version is too new, we can't save this.
             mFailureListener.onNewerVersionDetected(); // TODO: Or should this throw onWriteFailed?
         }
+        if (userMetadata == mUserMetadata && mOverviews != null) {
+            userMetadata.experiments = mOverviews.values().toArray(
+                    new GoosciUserMetadata.ExperimentOverview[mOverviews.size()]);
+        }
         createUserMetadataFileIfNeeded();
         if (!mOverviewProtoFileHelper.writeToFile(mUserMetadataFile, userMetadata)) {
             mFailureListener.onWriteFailed();
@@ -20,6 +20,7 @@ import com.google.android.apps.forscience.whistlepunk.SensorProvider;
 import com.google.android.apps.forscience.whistlepunk.api.scalarinput.InputDeviceSpec;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentSnapshot;
 
 import java.util.List;
 import java.util.Map;
@@ -29,6 +30,20 @@ import java.util.Map;
  */
 public interface MetaDataManager {
 
+    /**
+     * Reports the progress of migrating experiments from the database into files.
+     */
+    interface MigrationProgressListener {
+        /**
+         * Called when the migration starts or resumes, each time a batch of experiments is
+         * migrated, and once it is finished, which is when migratedCount reaches totalCount.
+         * @param migratedCount How many experiments have been migrated so far.
+         * @param totalCount How many experiments were left to migrate when the migration started
+         *                   or resumed.
+         */
+        void onMigrationProgress(int migratedCount, int totalCount);
+    }
+
     Experiment getExperimentById(String experimentId);
 
     /**
@@ -46,6 +61,13 @@ public interface MetaDataManager {
      */
     void updateExperiment(Experiment experiment);
 
+    /**
+     * Updates experiment details as they were when snapshot was taken.  Unlike
+     * {@link #updateExperiment(Experiment)}, this can be called on a different thread than the
+     * one that changes the experiment.
+     */
+    void updateExperiment(Experiment experiment, ExperimentSnapshot snapshot);
+
     /**
      * @return the list of all experiments.
      */
@@ -133,4 +155,18 @@ public interface MetaDataManager {
      * Any unsaved or cached data should be saved immediately.
      */
     void saveImmediately();
+
+    /**
+     * Saves immediately, and also rewrites any experiment files whose recent changes are only in
+     * their journals, so that the files are complete on their own.
+     */
+    void compactExperimentFiles();
+
+    /**
+     * Starts migrating any experiments left in the database by an older version of the app into
+     * files, on a background thread, unless that is already done or underway, and reports its
+     * progress to listener on that thread.  Calls that read experiments wait for the migration,
+     * but calls that only use the database do not.
+     */
+    void migrateExperimentsInBackground(MigrationProgressListener listener);
 }
@@ -42,6 +42,7 @@ import com.google.android.apps.forscience.whistlepunk.data.GoosciDeviceSpec;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentSnapshot;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.FileMetadataManager;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.LabelValue;
@@ -68,6 +69,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An implementation of the {@link MetaDataManager} which uses a simple database.
@@ -83,15 +88,33 @@ public class SimpleMetaDataManager implements MetaDataManager {
     private static final String UNKNOWN_LABEL_TAG = "label";
     private static final String DEFAULT_PROJECT_ID = "defaultProjectId";
 
+    // How many experiments to migrate to files before saving them and deleting them from the
+    // database.
+    private static final int MIGRATION_BATCH_SIZE = 10;
+
+    // How many picture assets to copy at once while migrating.
+    private static final int MIGRATION_COPY_THREADS = 4;
+
     private DatabaseHelper mDbHelper;
     private Context mContext;
     private Clock mClock;
     private Object mLock = new Object();
     private FileMetadataManager mFileMetadataManager;
 
+    // Experiments are migrated into files on their own thread, so that calls which only use the
+    // database do not wait for the migration.  The fields below are guarded by mLock.
+    private final ExecutorService mMigrationThread = Executors.newSingleThreadExecutor();
+    private Future<?> mMigration;
+    private MigrationProgressListener mMigrationProgressListener;
+    private int mMigratedCount;
+    private int mMigrationTotalCount;
+
     public void close() {
+        // A migration that is still running resumes the next time experiments are needed.
+        mMigrationThread.shutdown();
         mDbHelper.close();
-        getFileMetadataManager().close();
+        // Not getFileMetadataManager(), which would start any unfinished migration again.
+        mFileMetadataManager.close();
     }
 
     /**
@@ -133,7 +156,7 @@ public class SimpleMetaDataManager implements MetaDataManager {
 
                     @Override
                     public void onMigrateExperimentsToFiles(SQLiteDatabase db) {
-                        migrateExperimentsToFiles(db);
+                        startExperimentMigration();
                     }
 
                     @Override
@@ -144,61 +167,235 @@ public class SimpleMetaDataManager implements MetaDataManager {
     }
 
     private FileMetadataManager getFileMetadataManager() {
+        // Finish migrating experiments before anything reads them.  This waits without holding
+        // mLock, so calls that only use the database are not blocked meanwhile.
+        Future<?> migration = startMigrationIfNeeded();
+        try {
+            migration.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not migrate experiments to files",
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted migrating experiments to files", e);
+        }
+        return mFileMetadataManager;
+    }
+
+    @Override
+    public void migrateExperimentsInBackground(MigrationProgressListener listener) {
+        setMigrationProgressListener(listener);
+        if (startMigrationIfNeeded().isDone()) {
+            reportMigrationProgress();
+        }
+    }
+
+    /**
+     * Sets a listener for the progress of migrating experiments from the database into files,
+     * which is done the first time that experiments are needed after the database is upgraded.
+     */
+    public void setMigrationProgressListener(MigrationProgressListener listener) {
         synchronized (mLock) {
-            // Force upgrade if needed
-            final SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            return mFileMetadataManager;
+            mMigrationProgressListener = listener;
+        }
+    }
+
+    /**
+     * @return the migration of experiments into files, which is started if this is the first
+     * time experiments are needed, or if the last attempt failed.
+     */
+    private Future<?> startMigrationIfNeeded() {
+        synchronized (mLock) {
+            if (mMigration == null) {
+                mMigration = mMigrationThread.submit(() -> {
+                    try {
+                        // Force upgrade if needed
+                        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                        if (mFileMetadataManager.getDatabaseMigration() != null) {
+                            migrateExperimentsToFiles(db);
+                        } else {
+                            reportMigrationProgress();
+                        }
+                    } catch (RuntimeException e) {
+                        // Try again the next time experiments are needed.
+                        synchronized (mLock) {
+                            mMigration = null;
+                        }
+                        throw e;
+                    }
+                });
+            }
+            return mMigration;
         }
     }
 
     @VisibleForTesting
     void migrateExperimentsToFiles() {
-        synchronized (mLock) {
-            final SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            migrateExperimentsToFiles(db);
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (mFileMetadataManager.getDatabaseMigration() == null) {
+            startExperimentMigration();
         }
+        migrateExperimentsToFiles(db);
     }
 
+    /**
+     * Records that experiments need to be migrated from the database into files.  The migration
+     * itself is not done in the database upgrade, because that is one transaction, which would be
+     * rolled back and started over if the app was killed before the end.
+     */
+    private void startExperimentMigration() {
+        mFileMetadataManager.setDatabaseMigration(new GoosciUserMetadata.DatabaseMigration());
+        mFileMetadataManager.saveImmediately();
+    }
+
+    /**
+     * Migrates the experiments left in the database into files, in batches. Each batch is written
+     * to files, and its IDs saved in the user metadata along with its experiment overviews, before
+     * it is deleted from the database in one transaction. So if this is interrupted, it can resume:
+     * the experiments of a saved batch just need deleting from the database, and other experiments
+     * with files were not completely written, so are migrated again.
+     *
+     * This does not hold mLock.  It only uses the database rows of experiments that are not
+     * migrated yet, which nothing else reads until it finishes.
+     */
     private void migrateExperimentsToFiles(SQLiteDatabase db) {
-        // For each experiment, migrate it over and delete it from the database.
         List<String> experimentIds = getAllExperimentIds(db);
 
+        GoosciUserMetadata.DatabaseMigration migration =
+                mFileMetadataManager.getDatabaseMigration();
+        List<String> savedBatch = new ArrayList<>();
+        for (String experimentId : migration.migratedExperimentIds) {
+            if (experimentIds.remove(experimentId)) {
+                savedBatch.add(experimentId);
+            }
+        }
+        deleteMigratedDatabaseExperiments(db, savedBatch);
+
         // Clean up if a previous migration was not successful / complete.
         mFileMetadataManager.deleteAll(experimentIds);
+        setMigrationProgress(0, experimentIds.size());
 
-        for (String experimentId : experimentIds) {
-            Experiment experiment = getDatabaseExperimentById(db, experimentId, mContext, true);
-
-            // This prepares the file system for the new experiment.
-            mFileMetadataManager.addExperiment(experiment);
-
-            // Remove experiment description, turn it into a text note.
-            if (!TextUtils.isEmpty(experiment.getDescription())) {
-                GoosciTextLabelValue.TextLabelValue descriptionValue = new GoosciTextLabelValue
-                        .TextLabelValue();
-                descriptionValue.text = experiment.getDescription();
-                Label descriptionLabel = Label.newLabelWithValue(
-                        experiment.getCreationTimeMs() - 500,
-                        GoosciLabel.Label.TEXT, descriptionValue, null);
-                experiment.setDescription("");
-                experiment.addLabel(descriptionLabel);
-            }
-            // Migrate assets
-            for (int i = 0; i < experiment.getLabelCount(); i++) {
-                Label label = experiment.getLabels().get(i);
-                updateLabelPictureAssets(experiment, label);
-            }
-            for (Trial trial : experiment.getTrials()) {
-                // TODO: Also migrate any sensor specific assets needed to view this trial.
-                for (Label trialLabel : trial.getLabels()) {
-                    updateLabelPictureAssets(experiment, trialLabel);
+        ExecutorService copyExecutor = Executors.newFixedThreadPool(MIGRATION_COPY_THREADS);
+        try {
+            for (int start = 0; start < experimentIds.size(); start += MIGRATION_BATCH_SIZE) {
+                List<String> batch = experimentIds.subList(start,
+                        Math.min(start + MIGRATION_BATCH_SIZE, experimentIds.size()));
+                for (String experimentId : batch) {
+                    migrateExperimentToFiles(db, experimentId, copyExecutor);
+                    onMigrationStep();
                 }
+
+                migration.migratedExperimentIds = batch.toArray(new String[batch.size()]);
+                mFileMetadataManager.setDatabaseMigration(migration);
+                mFileMetadataManager.saveImmediately();
+                onMigrationStep();
+
+                deleteMigratedDatabaseExperiments(db, batch);
+                onMigrationStep();
+                setMigrationProgress(start + batch.size(), experimentIds.size());
             }
-            // Now that all the labels have their assets in the right place, we can save them.
-            mFileMetadataManager.updateExperiment(experiment);
-            mFileMetadataManager.saveImmediately();
+        } finally {
+            copyExecutor.shutdown();
+        }
+        mFileMetadataManager.setDatabaseMigration(null);
+    }
 
-            deleteDatabaseExperiment(db, experiment, mContext);
+    private void setMigrationProgress(int migratedCount, int totalCount) {
+        synchronized (mLock) {
+            mMigratedCount = migratedCount;
+            mMigrationTotalCount = totalCount;
+        }
+        reportMigrationProgress();
+    }
+
+    private void reportMigrationProgress() {
+        MigrationProgressListener listener;
+        int migratedCount;
+        int totalCount;
+        synchronized (mLock) {
+            listener = mMigrationProgressListener;
+            migratedCount = mMigratedCount;
+            totalCount = mMigrationTotalCount;
+        }
+        if (listener != null) {
+            listener.onMigrationProgress(migratedCount, totalCount);
+        }
+    }
+
+    /**
+     * Called at each point where migrating experiments could be interrupted, for example by the
+     * app being killed.  Tests override this to interrupt it.
+     */
+    @VisibleForTesting
+    void onMigrationStep() {
+    }
+
+    private void migrateExperimentToFiles(SQLiteDatabase db, String experimentId,
+            ExecutorService copyExecutor) {
+        Experiment experiment = getDatabaseExperimentById(db, experimentId, mContext, true);
+
+        // This prepares the file system for the new experiment.
+        mFileMetadataManager.addExperiment(experiment);
+
+        // Remove experiment description, turn it into a text note.
+        if (!TextUtils.isEmpty(experiment.getDescription())) {
+            GoosciTextLabelValue.TextLabelValue descriptionValue = new GoosciTextLabelValue
+                    .TextLabelValue();
+            descriptionValue.text = experiment.getDescription();
+            Label descriptionLabel = Label.newLabelWithValue(
+                    experiment.getCreationTimeMs() - 500,
+                    GoosciLabel.Label.TEXT, descriptionValue, null);
+            experiment.setDescription("");
+            experiment.addLabel(descriptionLabel);
+        }
+        // Migrate assets, copying the pictures in parallel.
+        List<Label> labels = new ArrayList<>(experiment.getLabels());
+        for (Trial trial : experiment.getTrials()) {
+            // TODO: Also migrate any sensor specific assets needed to view this trial.
+            labels.addAll(trial.getLabels());
+        }
+        List<Future<Boolean>> copies = new ArrayList<>();
+        for (Label label : labels) {
+            copies.add(copyExecutor.submit(
+                    () -> migratePictureAssetsIfNeeded(experimentId, label)));
+        }
+        for (int i = 0; i < labels.size(); i++) {
+            if (getCopyResult(copies.get(i))) {
+                updateLabelPictureAssets(experiment, labels.get(i));
+            }
+        }
+        // Now that all the labels have their assets in the right place, we can save them.
+        mFileMetadataManager.updateExperiment(experiment);
+    }
+
+    private static boolean getCopyResult(Future<Boolean> copy) {
+        try {
+            return copy.get();
+        } catch (ExecutionException e) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, Log.getStackTraceString(e));
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void deleteMigratedDatabaseExperiments(SQLiteDatabase db,
+            List<String> experimentIds) {
+        db.beginTransaction();
+        try {
+            for (String experimentId : experimentIds) {
+                Experiment experiment = getDatabaseExperimentById(db, experimentId, mContext,
+                        false);
+                if (experiment != null) {
+                    deleteDatabaseExperiment(db, experiment, mContext);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
     }
 
@@ -223,18 +420,17 @@ public class SimpleMetaDataManager implements MetaDataManager {
     }
 
     /**
-     * Migrates label picture assets, updating the Experiment Overview image if it is not yet set.
+     * Updates a label whose picture assets were migrated, and the Experiment Overview image if it
+     * is not yet set.
      */
     private void updateLabelPictureAssets(Experiment experiment, Label label) {
-        if (migratePictureAssetsIfNeeded(experiment.getExperimentId(), label)) {
-            experiment.updateLabelWithoutSorting(label);
-            if (TextUtils.isEmpty(experiment.getExperimentOverview().imagePath)) {
-                String path = label.getPictureLabelValue().filePath;
-                if (!TextUtils.isEmpty(path)) {
-                    experiment.getExperimentOverview().imagePath =
-                            PictureUtils.getExperimentOverviewRelativeImagePath(
-                                    experiment.getExperimentId(), path);
-                }
+        experiment.updateLabelWithoutSorting(label);
+        if (TextUtils.isEmpty(experiment.getExperimentOverview().imagePath)) {
+            String path = label.getPictureLabelValue().filePath;
+            if (!TextUtils.isEmpty(path)) {
+                experiment.getExperimentOverview().imagePath =
+                        PictureUtils.getExperimentOverviewRelativeImagePath(
+                                experiment.getExperimentId(), path);
             }
         }
     }
@@ -574,11 +770,21 @@ public class SimpleMetaDataManager implements MetaDataManager {
         getFileMetadataManager().updateExperiment(experiment);
     }
 
+    @Override
+    public void updateExperiment(Experiment experiment, ExperimentSnapshot snapshot) {
+        getFileMetadataManager().updateExperiment(experiment, snapshot);
+    }
+
     @Override
     public void saveImmediately() {
         getFileMetadataManager().saveImmediately();
     }
 
+    @Override
+    public void compactExperimentFiles() {
+        getFileMetadataManager().compactExperimentFiles();
+    }
+
     private static void updateDatabaseExperiment(SQLiteDatabase db, Experiment experiment) {
         final ContentValues values = new ContentValues();
         values.put(ExperimentColumns.TITLE, experiment.getTitle());
@@ -2011,7 +2217,8 @@ public class SimpleMetaDataManager implements MetaDataManager {
             // Called when project data needs to be migrated.
             void onMigrateProjectData(SQLiteDatabase db);
 
-            // Called when experiment data needs to be migrated.
+            // Called when experiment data needs to be migrated. The migration should be done after
+            // the upgrade, rather than in its transaction.
             void onMigrateExperimentsToFiles(SQLiteDatabase db);
 
             void onMigrateMyDevicesToProto(SQLiteDatabase db);
@@ -2211,7 +2418,8 @@ public class SimpleMetaDataManager implements MetaDataManager {
             }
 
             if (version == 21 && version < newVersion) {
-                // Migrate experiment data into file-based system.
+                // Migrate experiment data into file-based system. This only starts the migration,
+                // which is done in batches the first time experiments are needed.
                 mUpgradeCallback.onMigrateExperimentsToFiles(db);
                 version = 22;
             }
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.modules;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.devicemanager.SensorDiscoverer;
+import com.google.android.apps.forscience.whistlepunk.sensors.DerivedSensorProvider;
+import com.google.android.apps.forscience.whistlepunk.sensors.DerivedSensorSpec;
+
+import dagger.Module;
+import dagger.Provides;
+import dagger.multibindings.IntoMap;
+import dagger.multibindings.StringKey;
+
+@Module
+public class DerivedSensorModule {
+    @Provides
+    @IntoMap
+    @StringKey(DerivedSensorSpec.TYPE)
+    public SensorDiscoverer providesDerivedSensorDiscoverer(Context context) {
+        return DerivedSensorProvider.discoverer(context);
+    }
+}
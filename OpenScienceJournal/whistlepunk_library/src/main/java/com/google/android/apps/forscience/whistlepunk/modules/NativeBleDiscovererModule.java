@@ -18,6 +18,7 @@ package com.google.android.apps.forscience.whistlepunk.modules;
 
 import android.content.Context;
 
+import com.google.android.apps.forscience.whistlepunk.devicemanager.CachingSensorDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.SensorDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.NativeBleDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.metadata.BleSensorSpec;
@@ -33,6 +34,6 @@ public class NativeBleDiscovererModule {
     @IntoMap
     @StringKey(BleSensorSpec.TYPE)
     public SensorDiscoverer providesNativeDiscoverer(Context context) {
-        return new NativeBleDiscoverer(context);
+        return new CachingSensorDiscoverer(new NativeBleDiscoverer(context));
     }
 }
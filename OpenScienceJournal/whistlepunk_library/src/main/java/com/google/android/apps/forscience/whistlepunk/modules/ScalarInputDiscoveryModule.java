@@ -21,6 +21,7 @@ import com.google.android.apps.forscience.whistlepunk.analytics.UsageTracker;
 import com.google.android.apps.forscience.whistlepunk.api.scalarinput.ScalarInputDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.api.scalarinput.ScalarInputSpec;
 import com.google.android.apps.forscience.whistlepunk.api.scalarinput.ScalarSensorServiceFinder;
+import com.google.android.apps.forscience.whistlepunk.devicemanager.CachingSensorDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.SensorDiscoverer;
 
 import dagger.Module;
@@ -35,7 +36,7 @@ public class ScalarInputDiscoveryModule {
     @StringKey(ScalarInputSpec.TYPE)
     public SensorDiscoverer providesScalarInputDiscoverer(Context context,
             UsageTracker usageTracker) {
-        return new ScalarInputDiscoverer(new ScalarSensorServiceFinder(context), context,
-                usageTracker);
+        return new CachingSensorDiscoverer(new ScalarInputDiscoverer(
+                new ScalarSensorServiceFinder(context), context, usageTracker));
     }
 }
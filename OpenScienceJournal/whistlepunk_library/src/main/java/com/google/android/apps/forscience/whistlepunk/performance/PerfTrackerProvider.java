@@ -93,4 +93,62 @@ public interface PerfTrackerProvider {
      * @param object
      */
     void watchForMemoryLeak(Object object);
+
+    /**
+     * Record the state of a bounded queue in the sensor data pipeline
+     * @param queueName The name of the queue
+     * @param capacity The number of items the queue can hold
+     * @param highWaterMark The largest number of items that have waited
+     *                      in the queue at once
+     * @param dropCount The number of items the queue has dropped
+     */
+    void recordQueueStats(String queueName, int capacity, int highWaterMark, long dropCount);
+
+    /**
+     * Record how long a sensor took to deliver its first reading
+     * @param sensorId The id of the sensor
+     * @param millis The time from the request to observe the sensor
+     *               to its first reading
+     */
+    void recordTimeToFirstSample(String sensorId, long millis);
+
+    /**
+     * Record the state of a microphone capture session once it ends
+     * @param samplesPerSecond The average rate at which audio samples
+     *                         were read during the session
+     * @param droppedBufferCount The number of audio buffers lost to
+     *                           read errors or overruns
+     */
+    void recordAudioCaptureStats(double samplesPerSecond, long droppedBufferCount);
+
+    /**
+     * Record the memory kept for pre-trigger data when a trigger starts a recording
+     * @param bytes The memory held by all running sensors' buffers
+     *              of readings from before the trigger
+     */
+    void recordPreTriggerBufferBytes(long bytes);
+
+    /**
+     * Record a BLE device's connection once it ends
+     * @param connectMillis The time from the first connection attempt
+     *                      until the device was ready
+     * @param connectAttempts The number of attempts the connection took
+     * @param notificationsPerSecond The average rate of notifications
+     *                               while connected
+     */
+    void recordBleConnectionStats(long connectMillis, int connectAttempts,
+            double notificationsPerSecond);
+
+    /**
+     * Record how well the in-memory experiment cache is working
+     * @param capacity The number of experiments the cache can hold
+     * @param hitCount The number of experiment lookups answered
+     *                 from memory
+     * @param missCount The number of experiment lookups that had to
+     *                  read a file
+     * @param evictionCount The number of experiments dropped from
+     *                      memory to make room for others
+     */
+    void recordExperimentCacheStats(int capacity, int hitCount, int missCount,
+            int evictionCount);
 }
@@ -38,6 +38,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.google.android.apps.forscience.javalib.Success;
@@ -88,6 +89,11 @@ public class ExperimentListFragment extends Fragment implements
 
     private ExperimentListAdapter mExperimentListAdapter;
     private boolean mIncludeArchived;
+    private View mMigrationProgress;
+    private ProgressBar mMigrationProgressBar;
+
+    // Whether the experiments have been loaded since the fragment was last resumed.
+    private boolean mExperimentsLoaded;
 
     public static ExperimentListFragment newInstance(boolean usePanes) {
         ExperimentListFragment fragment = new ExperimentListFragment();
@@ -120,7 +126,27 @@ public class ExperimentListFragment extends Fragment implements
     @Override
     public void onResume() {
         super.onResume();
-        loadExperiments();
+        // Experiments saved by older versions of the app are moved into files before they can be
+        // listed, which can take a while the first time, so show progress until then.
+        mExperimentsLoaded = false;
+        getDataController().migrateExperimentsInBackground(this::onMigrationProgress);
+    }
+
+    private void onMigrationProgress(int migratedCount, int totalCount) {
+        if (!isResumed()) {
+            return;
+        }
+        if (migratedCount < totalCount) {
+            mMigrationProgress.setVisibility(View.VISIBLE);
+            mMigrationProgressBar.setMax(totalCount);
+            mMigrationProgressBar.setProgress(migratedCount);
+            return;
+        }
+        mMigrationProgress.setVisibility(View.GONE);
+        if (!mExperimentsLoaded) {
+            mExperimentsLoaded = true;
+            loadExperiments();
+        }
     }
 
     @Override
@@ -140,6 +166,8 @@ public class ExperimentListFragment extends Fragment implements
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_experiment_list, container, false);
         final RecyclerView detailList = (RecyclerView) view.findViewById(R.id.details);
+        mMigrationProgress = view.findViewById(R.id.migration_progress);
+        mMigrationProgressBar = (ProgressBar) view.findViewById(R.id.migration_progress_bar);
 
         mExperimentListAdapter = new ExperimentListAdapter(this, getDataController());
         // TODO: Adjust the column count based on breakpoint specs when available.
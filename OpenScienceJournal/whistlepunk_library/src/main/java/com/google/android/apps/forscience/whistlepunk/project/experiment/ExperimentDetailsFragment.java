@@ -206,17 +206,21 @@ public class ExperimentDetailsFragment extends Fragment
             return Completable.complete();
         }
         return RxDataController.getExperimentById(getDataController(), mExperimentId)
-                               .doOnSuccess(experiment -> {
+                               .flatMapCompletable(experiment -> {
                                    if (experiment == null) {
                                        // This was deleted on us. Finish and return so we don't
                                        // try to load.
                                        getActivity().finish();
-                                       return;
+                                       return Completable.complete();
                                    }
-                                   attachExperimentDetails(experiment);
-                                   loadExperimentData(experiment);
-                               })
-                               .toCompletable();
+                                   // The cards show each trial's labels, sensors and stats, so
+                                   // read the trials before showing them.
+                                   return RxDataController.loadTrials(getDataController(),
+                                           experiment.getTrials()).doOnComplete(() -> {
+                                               attachExperimentDetails(experiment);
+                                               loadExperimentData(experiment);
+                                           });
+                               });
     }
 
     @Override
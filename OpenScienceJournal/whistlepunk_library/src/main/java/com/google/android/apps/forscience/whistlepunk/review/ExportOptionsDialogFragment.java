@@ -55,6 +55,7 @@ public class ExportOptionsDialogFragment extends BottomSheetDialogFragment {
     private static final String KEY_TRIAL_ID = "trial_id";
     private String mTrialId;
     private CheckBox mRelativeTime;
+    private CheckBox mResample;
     private List<String> mSensorIds;
     private ProgressBar mProgressBar;
     private Button mExportButton;
@@ -134,6 +135,7 @@ public class ExportOptionsDialogFragment extends BottomSheetDialogFragment {
             @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.dialog_export_options, container, false);
         mRelativeTime = (CheckBox) view.findViewById(R.id.export_relative_time);
+        mResample = (CheckBox) view.findViewById(R.id.export_resample);
         mProgressBar = (ProgressBar) view.findViewById(R.id.progress);
         mProgressBar.setMax(100);
         view.findViewById(R.id.action_cancel).setOnClickListener(v -> {
@@ -153,7 +155,8 @@ public class ExportOptionsDialogFragment extends BottomSheetDialogFragment {
         mExportButton = (Button) view.findViewById(R.id.action_export);
         mExportButton.setOnClickListener(v -> {
             ExportService.exportTrial(getActivity(), experimentId, trialId,
-                    mRelativeTime.isChecked(), mSensorIds.toArray(new String[]{}));
+                    mRelativeTime.isChecked(), mSensorIds.toArray(new String[]{}),
+                    mResample.isChecked());
         });
         return view;
     }
@@ -568,7 +568,14 @@ public class RunReviewFragment extends Fragment implements
                             getActivity().finish();
                         }
                         mExperiment = experiment;
-                        attachToRun(experiment.getTrial(mTrialId));
+                        final Trial trial = experiment.getTrial(mTrialId);
+                        dc.loadTrials(Collections.singletonList(trial),
+                                new LoggingConsumer<Success>(TAG, "load trial") {
+                                    @Override
+                                    public void success(Success value) {
+                                        attachToRun(trial);
+                                    }
+                                });
                     }
                 });
     }
@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * Keeps the most recent readings of an observed sensor, so that a recording started by a trigger
+ * can include the data that led up to it.
+ *
+ * Readings older than {@code windowMillis} before the newest reading are discarded, and at most
+ * {@code capacity} readings are kept, so memory use is fixed at {@link #getCapacityBytes()} when
+ * the buffer is created.  Adding a reading does not allocate.
+ */
+public class PreTriggerBuffer {
+    /**
+     * How much data before a trigger is kept by default.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 5000;
+
+    /**
+     * The default number of readings kept, which covers the default window at 200 Hz.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * Returned from {@link #getEarliestMillis} when there is no buffered reading.
+     */
+    public static final long NONE = Long.MAX_VALUE;
+
+    // One timestamp and one value per reading.
+    private static final int BYTES_PER_READING = 8 + 8;
+
+    private final long mWindowMillis;
+    private final long[] mTimes;
+    private final double[] mValues;
+    private int mStart = 0;
+    private int mSize = 0;
+
+    public PreTriggerBuffer(long windowMillis, int capacity) {
+        mWindowMillis = windowMillis;
+        mTimes = new long[capacity];
+        mValues = new double[capacity];
+    }
+
+    /**
+     * Adds a reading, which must be newer than any reading already in the buffer.
+     */
+    public synchronized void add(long timestampMillis, double value) {
+        if (mTimes.length == 0) {
+            return;
+        }
+        while (mSize > 0 && timeAt(0) < timestampMillis - mWindowMillis) {
+            dropFirst();
+        }
+        if (mSize == mTimes.length) {
+            dropFirst();
+        }
+        int end = (mStart + mSize) % mTimes.length;
+        mTimes[end] = timestampMillis;
+        mValues[end] = value;
+        mSize++;
+    }
+
+    /**
+     * @return the timestamp of the earliest buffered reading at or after {@code sinceMillis}, or
+     * {@link #NONE}
+     */
+    public synchronized long getEarliestMillis(long sinceMillis) {
+        for (int i = 0; i < mSize; i++) {
+            if (timeAt(i) >= sinceMillis) {
+                return timeAt(i);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Passes the buffered readings at or after {@code sinceMillis} to {@code consumer}, oldest
+     * first, and empties the buffer.
+     *
+     * @return how many readings were passed on
+     */
+    public synchronized int drainTo(long sinceMillis, StreamConsumer consumer) {
+        int drained = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (timeAt(i) >= sinceMillis) {
+                consumer.addData(timeAt(i), valueAt(i));
+                drained++;
+            }
+        }
+        clear();
+        return drained;
+    }
+
+    public synchronized void clear() {
+        mStart = 0;
+        mSize = 0;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the memory held by this buffer's readings, whether or not they are in use.
+     */
+    public long getCapacityBytes() {
+        return (long) mTimes.length * BYTES_PER_READING;
+    }
+
+    private void dropFirst() {
+        mStart = (mStart + 1) % mTimes.length;
+        mSize--;
+    }
+
+    private long timeAt(int i) {
+        return mTimes[(mStart + i) % mTimes.length];
+    }
+
+    private double valueAt(int i) {
+        return mValues[(mStart + i) % mValues.length];
+    }
+}
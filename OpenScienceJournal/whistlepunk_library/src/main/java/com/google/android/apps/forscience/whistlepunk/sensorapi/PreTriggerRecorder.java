@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * A {@link SensorRecorder} that keeps recent data in memory while observing, so that a recording
+ * can start from a point in the past.
+ */
+public interface PreTriggerRecorder extends SensorRecorder {
+    /**
+     * @return the timestamp of the earliest data kept at or after {@code sinceMillis}, or
+     * {@link PreTriggerBuffer#NONE}
+     */
+    long getEarliestBufferedMillis(long sinceMillis);
+
+    /**
+     * Like {@link #startRecording(String)}, but first records the data kept since
+     * {@code sinceMillis}, with its original timestamps.
+     */
+    void startRecordingFrom(String runId, long sinceMillis);
+
+    /**
+     * @return the memory held for data kept while observing.
+     */
+    long getBufferedBytes();
+}
@@ -26,8 +26,10 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.google.android.apps.forscience.javalib.Consumer;
 import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.BoundedQueue;
 import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.ExternalAxisController;
@@ -35,6 +37,7 @@ import com.google.android.apps.forscience.whistlepunk.R;
 import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
 import com.google.android.apps.forscience.whistlepunk.StatsAccumulator;
 import com.google.android.apps.forscience.whistlepunk.StatsListener;
+import com.google.android.apps.forscience.whistlepunk.WhistlePunkApplication;
 import com.google.android.apps.forscience.whistlepunk.audiogen.AudioGenerator;
 import com.google.android.apps.forscience.whistlepunk.audiogen.SimpleJsynAudioGenerator;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorConfig;
@@ -42,6 +45,7 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartController;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
@@ -54,6 +58,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 
@@ -68,6 +73,12 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
      */
     public static final int DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS = 20;
 
+    /**
+     * How many readings may wait for the UI thread before the display queue applies its overflow
+     * policy.  At typical frame rates this is several frames' worth of data even for fast sensors.
+     */
+    public static final int DEFAULT_DISPLAY_QUEUE_CAPACITY = 64;
+
     private static final String TAG = "ScalarSensor";
     private static final double DENOMINATOR_FOR_RPMS = 60 * 1000.0;
     private static final String BUNDLE_KEY_SENSOR_VALUE = "key_sensor_value";
@@ -362,8 +373,9 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         final ZoomRecorder zoomRecorder = new ZoomRecorder(getId(), zoomBufferSize, 1);
         final ScalarStreamConsumer consumer = new ScalarStreamConsumer(statsAccumulator, observer,
                 dataController, zoomRecorder);
+        consumer.setPerfTracker(WhistlePunkApplication.maybeGetPerfTrackerProvider(context));
         final SensorRecorder recorder = makeScalarControl(consumer, environment, context, listener);
-        return new DelegatingSensorRecorder(recorder) {
+        return new BufferingSensorRecorder(recorder) {
             private String mRunId;
 
             @Override
@@ -375,38 +387,61 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             @Override
             public void stopObserving() {
                 super.stopObserving();
+                consumer.discardPendingDisplay();
                 dataController.clearDataErrorListenerForSensor(getId());
             }
 
             @Override
             public void startRecording(String runId) {
+                startRecordingFrom(runId, PreTriggerBuffer.NONE);
+            }
+
+            @Override
+            public void startRecordingFrom(String runId, long sinceMillis) {
                 mRunId = runId;
-                statsAccumulator.clearStats();
-                zoomRecorder.clear();
-                consumer.startRecording();
+                consumer.startRecording(sinceMillis);
                 super.startRecording(runId);
             }
 
+            @Override
+            public long getEarliestBufferedMillis(long sinceMillis) {
+                return consumer.getPreTriggerBuffer().getEarliestMillis(sinceMillis);
+            }
+
+            @Override
+            public long getBufferedBytes() {
+                return consumer.getPreTriggerBuffer().getCapacityBytes();
+            }
+
             @Override
             public void stopRecording(Trial trialToUpdate) {
                 super.stopRecording(trialToUpdate);
 
-                TrialStats trialStats = statsAccumulator.makeSaveableStats();
-                trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT,
-                        zoomRecorder.countTiers());
-                trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
-                        mZoomLevelBetweenTiers);
+                TrialStats trialStats = consumer.stopRecording();
                 if (trialToUpdate != null) {
                     trialToUpdate.setStats(trialStats);
                 }
-                consumer.stopRecording();
-                statsAccumulator.clearStats();
+            }
+
+            @Override
+            public void rollOverRecording(Trial finishedSegment, String nextRunId) {
+                // The underlying sensor keeps running; only the consumer starts a new segment.
+                mRunId = nextRunId;
+                TrialStats trialStats = consumer.rollOver();
+                if (finishedSegment != null) {
+                    finishedSegment.setStats(trialStats);
+                }
             }
 
             @Override
             public boolean hasRecordedData() {
                 return consumer.hasRecordedData();
             }
+
+            @Override
+            public void setStreamConsumer(StreamConsumer streamConsumer) {
+                consumer.setStreamConsumer(streamConsumer);
+            }
         };
     }
 
@@ -429,6 +464,30 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         }
     }
 
+    /**
+     * Override to change how much data is kept in memory while observing, for recordings started
+     * by a trigger.  Return 0 to keep none.
+     */
+    protected int getPreTriggerCapacity() {
+        return PreTriggerBuffer.DEFAULT_CAPACITY;
+    }
+
+    /**
+     * Override to change how many readings may wait to be displayed.
+     */
+    protected int getDisplayQueueCapacity() {
+        return DEFAULT_DISPLAY_QUEUE_CAPACITY;
+    }
+
+    /**
+     * Override to change what happens when the UI thread falls behind this sensor.  By default
+     * the oldest waiting readings are skipped, since only recent data is visible.  Recording is
+     * unaffected: this queue only holds readings on their way to the screen.
+     */
+    protected BoundedQueue.OverflowPolicy getDisplayOverflowPolicy() {
+        return BoundedQueue.OverflowPolicy.DROP_OLDEST;
+    }
+
     @Override
     public void setScalarFilter(ValueFilter filter) {
         mValueFilter = filter;
@@ -457,10 +516,22 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         private final StatsAccumulator mStatsAccumulator;
         private final RecordingDataController mDataController;
         private final ZoomRecorder mZoomRecorder;
+
+        // Held by the sensor's thread while it handles a reading, and by whichever thread starts
+        // or stops recording, so that buffered readings are drained in order before new ones are
+        // recorded, and the stats and zoom tiers are not changed from two threads at once.
+        private final Object mRecordingLock = new Object();
+        // Readings recorded while holding mRecordingLock.  Storing a reading can wait for the
+        // database to catch up, so they are only handed to mDataController once the lock is
+        // released; otherwise the UI thread could wait on the lock to start or stop recording.
+        private final PendingWrites mPendingWrites = new PendingWrites();
+        private volatile StreamConsumer mStreamConsumer;
         private boolean mIsRecording = false;
         private long mLastDataTimestampMillis = NO_DATA_RECORDED;
         private long mTimestampBeforeRecordingStart = NO_DATA_RECORDED;
-        private SensorMessage.Pool mMessagePool;
+        private final SensorMessage.Pool mMessagePool;
+        private final BoundedQueue<SensorMessage> mDisplayQueue;
+        private final PreTriggerBuffer mPreTriggerBuffer;
 
         public ScalarStreamConsumer(StatsAccumulator statsAccumulator,
                 SensorObserver observer, RecordingDataController dataController,
@@ -469,16 +540,108 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             mDataController = dataController;
             mZoomRecorder = zoomRecorder;
             mMessagePool = new SensorMessage.Pool(observer);
+            mDisplayQueue = new BoundedQueue<>("display_" + getId(), getDisplayQueueCapacity(),
+                    getDisplayOverflowPolicy(), new Executor() {
+                        @Override
+                        public void execute(Runnable runnable) {
+                            runOnMainThread(runnable);
+                        }
+                    }, new Consumer<SensorMessage>() {
+                        @Override
+                        public void take(SensorMessage message) {
+                            message.getRunnable().run();
+                        }
+                    });
+            mPreTriggerBuffer = new PreTriggerBuffer(PreTriggerBuffer.DEFAULT_WINDOW_MILLIS,
+                    getPreTriggerCapacity());
+        }
+
+        public void setPerfTracker(PerfTrackerProvider perfTracker) {
+            mDisplayQueue.setPerfTracker(perfTracker);
+        }
+
+        public void discardPendingDisplay() {
+            for (SensorMessage message : mDisplayQueue.clear()) {
+                mMessagePool.release(message);
+            }
+            mPreTriggerBuffer.clear();
+        }
+
+        public PreTriggerBuffer getPreTriggerBuffer() {
+            return mPreTriggerBuffer;
+        }
+
+        public void setStreamConsumer(StreamConsumer streamConsumer) {
+            mStreamConsumer = streamConsumer;
+        }
+
+        /**
+         * @param sinceMillis the time from which to record data kept while observing, or
+         *                    {@link PreTriggerBuffer#NONE} to record only new data.
+         */
+        public void startRecording(long sinceMillis) {
+            synchronized (mRecordingLock) {
+                mStatsAccumulator.clearStats();
+                mZoomRecorder.clear();
+                mIsRecording = true;
+                mTimestampBeforeRecordingStart = mLastDataTimestampMillis;
+                if (sinceMillis == PreTriggerBuffer.NONE) {
+                    mPreTriggerBuffer.clear();
+                    return;
+                }
+                long earliest = mPreTriggerBuffer.getEarliestMillis(sinceMillis);
+                if (earliest != PreTriggerBuffer.NONE) {
+                    // The buffered data counts as recorded.
+                    mTimestampBeforeRecordingStart = earliest - 1;
+                }
+                mPreTriggerBuffer.drainTo(sinceMillis, (timestampMillis, value) -> {
+                    mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
+                    recordData(timestampMillis, value);
+                    return true;
+                });
+            }
+            flushPendingWrites();
+        }
+
+        /**
+         * @return the stats of the recording just stopped
+         */
+        public TrialStats stopRecording() {
+            TrialStats trialStats;
+            synchronized (mRecordingLock) {
+                mIsRecording = false;
+                trialStats = finishSegment();
+            }
+            flushPendingWrites();
+            return trialStats;
         }
 
-        public void startRecording() {
-            mIsRecording = true;
-            mTimestampBeforeRecordingStart = mLastDataTimestampMillis;
+        /**
+         * Ends the current segment and starts the next one, without ever pausing recording.
+         *
+         * @return the stats of the segment just ended
+         */
+        public TrialStats rollOver() {
+            TrialStats trialStats;
+            synchronized (mRecordingLock) {
+                trialStats = finishSegment();
+                mZoomRecorder.clear();
+                mTimestampBeforeRecordingStart = mLastDataTimestampMillis;
+            }
+            flushPendingWrites();
+            return trialStats;
         }
 
-        public void stopRecording() {
-            mIsRecording = false;
-            mZoomRecorder.flushAllTiers(mDataController);
+        // Called with mRecordingLock held.
+        private TrialStats finishSegment() {
+            mZoomRecorder.flushAllTiers(mPendingWrites);
+            TrialStats trialStats = mStatsAccumulator.makeSaveableStats();
+            trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT,
+                    mZoomRecorder.countTiers());
+            trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
+                    mZoomLevelBetweenTiers);
+            mStatsAccumulator.clearStats();
+            return trialStats;
         }
 
         public boolean maintainsTimeSeries(final long timestampMillis) {
@@ -495,9 +658,19 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
                 return false;
             }
             value = maybeFilter(timestampMillis, value);
-            observeData(timestampMillis, value);
-            recordData(timestampMillis, value);
-            mLastDataTimestampMillis = timestampMillis;
+            synchronized (mRecordingLock) {
+                observeData(timestampMillis, value);
+                recordData(timestampMillis, value);
+                if (!mIsRecording) {
+                    mPreTriggerBuffer.add(timestampMillis, value);
+                }
+                mLastDataTimestampMillis = timestampMillis;
+            }
+            flushPendingWrites();
+            StreamConsumer streamConsumer = mStreamConsumer;
+            if (streamConsumer != null) {
+                streamConsumer.addData(timestampMillis, value);
+            }
             return true;
         }
 
@@ -511,14 +684,34 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
             mStatsAccumulator.addStatsToBundle(message.getData());
 
-            // ..and will be cleared and released back to the message pool when getRunnable is run.
-            runOnMainThread(message.getRunnable());
+            // ..and will be cleared and released back to the message pool when getRunnable is run,
+            // or when it is evicted because the UI thread has fallen behind.
+            SensorMessage evicted = mDisplayQueue.offer(message);
+            if (evicted != null) {
+                mMessagePool.release(evicted);
+            }
         }
 
+        // Called with mRecordingLock held.
         public void recordData(long timestampMillis, double value) {
             if (mIsRecording) {
-                mZoomRecorder.addData(timestampMillis, value, mDataController);
-                mDataController.addScalarReading(getId(), 0, timestampMillis, value);
+                mZoomRecorder.addData(timestampMillis, value, mPendingWrites);
+                mPendingWrites.addScalarReading(getId(), 0, timestampMillis, value);
+            }
+        }
+
+        // Must not hold mRecordingLock.
+        private void flushPendingWrites() {
+            List<PendingWrite> writes;
+            synchronized (mRecordingLock) {
+                if (mPendingWrites.isEmpty()) {
+                    return;
+                }
+                writes = mPendingWrites.takeAll();
+            }
+            for (PendingWrite write : writes) {
+                mDataController.addScalarReading(getId(), write.resolutionTier,
+                        write.timestampMillis, write.value);
             }
         }
 
@@ -530,7 +723,66 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         }
 
         public boolean hasRecordedData() {
-            return mLastDataTimestampMillis > mTimestampBeforeRecordingStart;
+            synchronized (mRecordingLock) {
+                return mLastDataTimestampMillis > mTimestampBeforeRecordingStart;
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        final int resolutionTier;
+        final long timestampMillis;
+        final double value;
+
+        PendingWrite(int resolutionTier, long timestampMillis, double value) {
+            this.resolutionTier = resolutionTier;
+            this.timestampMillis = timestampMillis;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Collects the readings of one sensor to be stored later.  Not thread-safe: the consumer
+     * guards it with its recording lock.
+     */
+    private static class PendingWrites implements RecordingDataController {
+        private List<PendingWrite> mWrites = new ArrayList<>();
+
+        @Override
+        public void addScalarReading(String sensorId, int resolutionTier, long timestampMillis,
+                double value) {
+            mWrites.add(new PendingWrite(resolutionTier, timestampMillis, value));
+        }
+
+        @Override
+        public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clearDataErrorListenerForSensor(String sensorId) {
+            throw new UnsupportedOperationException();
+        }
+
+        boolean isEmpty() {
+            return mWrites.isEmpty();
+        }
+
+        List<PendingWrite> takeAll() {
+            List<PendingWrite> writes = mWrites;
+            mWrites = new ArrayList<>();
+            return writes;
+        }
+    }
+
+    /**
+     * Lets the anonymous recorder built in {@link #createRecorder} also offer pre-trigger data,
+     * roll long recordings over into new segments, and stream its values.
+     */
+    private abstract static class BufferingSensorRecorder extends DelegatingSensorRecorder
+            implements PreTriggerRecorder, SegmentedRecorder, StreamingRecorder {
+        BufferingSensorRecorder(SensorRecorder delegate) {
+            super(delegate);
         }
     }
 
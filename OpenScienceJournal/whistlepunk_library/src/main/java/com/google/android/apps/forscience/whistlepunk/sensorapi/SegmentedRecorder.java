@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+
+/**
+ * A {@link SensorRecorder} that can split a long recording into segments without pausing it.
+ */
+public interface SegmentedRecorder extends SensorRecorder {
+    /**
+     * Like {@link #stopRecording(Trial)} followed by {@link #startRecording(String)}, except
+     * that recording never stops in between: each reading goes into exactly one of the two
+     * segments.
+     *
+     * @param finishedSegment the trial to save the ending segment's stats to, or null
+     */
+    void rollOverRecording(Trial finishedSegment, String nextRunId);
+}
@@ -117,7 +117,10 @@ public class SensorMessage {
             return obtained;
         }
 
-        private void release(SensorMessage released) {
+        /**
+         * Returns {@code released} to the pool without delivering it.
+         */
+        void release(SensorMessage released) {
             released.mData.clear();
             released.mTimestamp = -1;
             mQueue.add(released);
@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * A {@link SensorRecorder} that can also hand each value it produces straight to a consumer, on
+ * the sensor's own thread.  Unlike its {@link SensorObserver}, which is called on the UI thread
+ * and may skip values when that thread falls behind, the consumer sees every value that is
+ * recorded.
+ */
+public interface StreamingRecorder extends SensorRecorder {
+    /**
+     * @param consumer receives every new value, or null to stop.
+     */
+    void setStreamConsumer(StreamConsumer consumer);
+}
@@ -0,0 +1,376 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Turns a time-ordered stream of readings from several sensors (such as the one returned by
+ * {@link SensorDatabase#createScalarObservable}) into rows holding one value per sensor.
+ *
+ * On a grid, a row is produced every {@code intervalMillis}, with each sensor's value at that
+ * time computed by an {@link Interpolation}.  A grid row waits until every sensor has a reading at
+ * or after its timestamp, but never for more than {@code lookaheadMillis} of stream time, so the
+ * readings buffered per sensor are bounded by the lookahead.
+ */
+public class ScalarResampler {
+    public enum Interpolation {
+        /** The most recent value at or before the grid time. */
+        LAST,
+        /**
+         * Linear interpolation between the values on either side of the grid time.  There is no
+         * value after a sensor's last reading, nor across a gap longer than the lookahead.
+         */
+        LINEAR,
+        /** Whichever of the values on either side of the grid time is closer, as for LINEAR. */
+        NEAREST
+    }
+
+    /**
+     * One output row.  Sensors with no value for the row are NaN.
+     */
+    public static class Row {
+        private final long mTimestampMillis;
+        private final double[] mValues;
+
+        Row(long timestampMillis, double[] values) {
+            mTimestampMillis = timestampMillis;
+            mValues = values;
+        }
+
+        public long getTimestampMillis() {
+            return mTimestampMillis;
+        }
+
+        /**
+         * @param index the index of the sensor in the tags passed to the resampler.
+         */
+        public boolean hasValue(int index) {
+            return !Double.isNaN(mValues[index]);
+        }
+
+        public double getValue(int index) {
+            return mValues[index];
+        }
+
+        public int getValueCount() {
+            return mValues.length;
+        }
+
+        @Override
+        public String toString() {
+            return mTimestampMillis + " " + Arrays.toString(mValues);
+        }
+    }
+
+    public interface RowListener {
+        void onRow(Row row);
+    }
+
+    /**
+     * @return a transformer that resamples the readings for {@code sensorTags} onto a grid
+     * starting at {@code gridStartMillis}.  Readings for other tags are ignored.
+     */
+    public static ObservableTransformer<ScalarReading, Row> onGrid(final String[] sensorTags,
+            final long gridStartMillis, final long intervalMillis,
+            final Interpolation interpolation, final long lookaheadMillis) {
+        Preconditions.checkArgument(intervalMillis > 0);
+        return upstream -> upstream.lift(downstream -> new ResamplingObserver(downstream,
+                new ScalarResampler(sensorTags, gridStartMillis, intervalMillis, interpolation,
+                        lookaheadMillis, downstream::onNext)));
+    }
+
+    /**
+     * @return a transformer that makes one row for each distinct timestamp, holding only the
+     * readings taken at exactly that time.
+     */
+    public static ObservableTransformer<ScalarReading, Row> atEachTimestamp(
+            final String[] sensorTags) {
+        return upstream -> upstream.lift(downstream -> new ResamplingObserver(downstream,
+                new ScalarResampler(sensorTags, 0, 0, Interpolation.LAST, 0,
+                        downstream::onNext)));
+    }
+
+    private final String[] mSensorTags;
+    private final long mIntervalMillis;
+    private final Interpolation mInterpolation;
+    private final long mLookaheadMillis;
+    private final RowListener mListener;
+    private final SampleQueue[] mQueues;
+
+    private long mNextGridMillis;
+    private long mLatestMillis = Long.MIN_VALUE;
+
+    /**
+     * @param intervalMillis the grid spacing, or 0 for a row at each distinct timestamp.
+     */
+    public ScalarResampler(String[] sensorTags, long gridStartMillis, long intervalMillis,
+            Interpolation interpolation, long lookaheadMillis, RowListener listener) {
+        Preconditions.checkArgument(intervalMillis >= 0);
+        Preconditions.checkArgument(lookaheadMillis >= 0);
+        mSensorTags = sensorTags;
+        mIntervalMillis = intervalMillis;
+        mInterpolation = interpolation;
+        mLookaheadMillis = lookaheadMillis;
+        mListener = listener;
+        mNextGridMillis = gridStartMillis;
+        mQueues = new SampleQueue[sensorTags.length];
+        for (int i = 0; i < mQueues.length; i++) {
+            mQueues[i] = new SampleQueue();
+        }
+    }
+
+    /**
+     * Adds the next reading.  Readings must arrive in timestamp order.
+     */
+    public void addReading(ScalarReading reading) {
+        addReading(reading.getSensorTag(), reading.getCollectedTimeMillis(), reading.getValue());
+    }
+
+    public void addReading(String sensorTag, long timestampMillis, double value) {
+        int index = indexOf(sensorTag);
+        if (index < 0) {
+            return;
+        }
+        if (mIntervalMillis == 0) {
+            if (timestampMillis != mLatestMillis) {
+                emitExactRow();
+            }
+        } else if (mLatestMillis == Long.MIN_VALUE && timestampMillis > mNextGridMillis) {
+            // Skip the grid points before the first reading, which would all be empty.
+            long intervals = (timestampMillis - mNextGridMillis + mIntervalMillis - 1)
+                    / mIntervalMillis;
+            mNextGridMillis += intervals * mIntervalMillis;
+        }
+        mQueues[index].add(timestampMillis, value);
+        mLatestMillis = Math.max(mLatestMillis, timestampMillis);
+        if (mIntervalMillis > 0) {
+            emitReadyGridRows(timestampMillis);
+        }
+    }
+
+    /**
+     * Emits the remaining rows, up to the timestamp of the last reading.
+     */
+    public void finish() {
+        if (mIntervalMillis == 0) {
+            emitExactRow();
+            return;
+        }
+        while (mNextGridMillis <= mLatestMillis) {
+            emitGridRow();
+        }
+    }
+
+    private int indexOf(String sensorTag) {
+        for (int i = 0; i < mSensorTags.length; i++) {
+            if (mSensorTags[i].equals(sensorTag)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void emitExactRow() {
+        if (mLatestMillis == Long.MIN_VALUE) {
+            return;
+        }
+        double[] values = new double[mQueues.length];
+        for (int i = 0; i < mQueues.length; i++) {
+            SampleQueue queue = mQueues[i];
+            values[i] = queue.size() > 0 && queue.timeAt(0) == mLatestMillis ? queue.valueAt(0)
+                    : Double.NaN;
+            queue.clear();
+        }
+        mListener.onRow(new Row(mLatestMillis, values));
+    }
+
+    private void emitReadyGridRows(long streamMillis) {
+        // Readings at the grid time itself may still be coming in, so only emit rows that are
+        // strictly in the past.
+        while (mNextGridMillis < streamMillis && isReady(mNextGridMillis, streamMillis)) {
+            emitGridRow();
+        }
+    }
+
+    private boolean isReady(long gridMillis, long streamMillis) {
+        if (mInterpolation == Interpolation.LAST
+                || streamMillis - gridMillis > mLookaheadMillis) {
+            return true;
+        }
+        for (SampleQueue queue : mQueues) {
+            if (queue.size() == 0 || queue.timeAt(queue.size() - 1) < gridMillis) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void emitGridRow() {
+        long gridMillis = mNextGridMillis;
+        mNextGridMillis += mIntervalMillis;
+
+        double[] values = new double[mQueues.length];
+        boolean anyValue = false;
+        for (int i = 0; i < mQueues.length; i++) {
+            SampleQueue queue = mQueues[i];
+            queue.dropBefore(gridMillis);
+            values[i] = valueAt(queue, gridMillis);
+            anyValue |= !Double.isNaN(values[i]);
+        }
+        if (anyValue) {
+            mListener.onRow(new Row(gridMillis, values));
+        }
+    }
+
+    // Expects that the queue holds at most one reading at or before gridMillis.
+    private double valueAt(SampleQueue queue, long gridMillis) {
+        if (queue.size() == 0 || queue.timeAt(0) > gridMillis) {
+            // No extrapolation back before a sensor's first reading.
+            return Double.NaN;
+        }
+        long before = queue.timeAt(0);
+        if (before == gridMillis || mInterpolation == Interpolation.LAST) {
+            return queue.valueAt(0);
+        }
+        if (queue.size() == 1) {
+            // Nor forward past a sensor's last reading, so that a sensor that stopped early
+            // leaves its cells empty rather than repeating its final value.
+            return Double.NaN;
+        }
+        long after = queue.timeAt(1);
+        if (mInterpolation == Interpolation.NEAREST) {
+            return gridMillis - before <= after - gridMillis ? queue.valueAt(0)
+                    : queue.valueAt(1);
+        }
+        double fraction = (double) (gridMillis - before) / (after - before);
+        return queue.valueAt(0) + fraction * (queue.valueAt(1) - queue.valueAt(0));
+    }
+
+    /**
+     * A growable ring buffer of one sensor's pending readings, so that buffering a reading does
+     * not allocate.
+     */
+    private static class SampleQueue {
+        private long[] mTimes = new long[16];
+        private double[] mValues = new double[16];
+        private int mStart = 0;
+        private int mSize = 0;
+
+        void add(long timestampMillis, double value) {
+            if (mSize > 0 && timestampMillis <= timeAt(mSize - 1)) {
+                // Out of order or duplicate: keep the first.
+                return;
+            }
+            if (mSize == mTimes.length) {
+                grow();
+            }
+            int end = (mStart + mSize) % mTimes.length;
+            mTimes[end] = timestampMillis;
+            mValues[end] = value;
+            mSize++;
+        }
+
+        /**
+         * Drops readings until only the last one at or before {@code timestampMillis} is left.
+         */
+        void dropBefore(long timestampMillis) {
+            while (mSize > 1 && timeAt(1) <= timestampMillis) {
+                mStart = (mStart + 1) % mTimes.length;
+                mSize--;
+            }
+        }
+
+        void clear() {
+            mStart = 0;
+            mSize = 0;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long timeAt(int i) {
+            return mTimes[(mStart + i) % mTimes.length];
+        }
+
+        double valueAt(int i) {
+            return mValues[(mStart + i) % mValues.length];
+        }
+
+        private void grow() {
+            long[] times = new long[mTimes.length * 2];
+            double[] values = new double[mValues.length * 2];
+            for (int i = 0; i < mSize; i++) {
+                times[i] = timeAt(i);
+                values[i] = valueAt(i);
+            }
+            mTimes = times;
+            mValues = values;
+            mStart = 0;
+        }
+    }
+
+    private static class ResamplingObserver implements Observer<ScalarReading>, Disposable {
+        private final Observer<? super Row> mDownstream;
+        private final ScalarResampler mResampler;
+        private Disposable mUpstream;
+
+        ResamplingObserver(Observer<? super Row> downstream, ScalarResampler resampler) {
+            mDownstream = downstream;
+            mResampler = resampler;
+        }
+
+        @Override
+        public void onSubscribe(Disposable disposable) {
+            mUpstream = disposable;
+            mDownstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(ScalarReading reading) {
+            mResampler.addReading(reading);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            mDownstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            mResampler.finish();
+            mDownstream.onComplete();
+        }
+
+        @Override
+        public void dispose() {
+            mUpstream.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return mUpstream.isDisposed();
+        }
+    }
+}
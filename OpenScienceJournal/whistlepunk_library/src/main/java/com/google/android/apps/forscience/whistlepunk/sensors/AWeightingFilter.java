@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+/**
+ * IEC 61672 A-weighting filter for a single audio channel.
+ *
+ * The analog A-weighting curve has four zeros at the origin and six real poles, so it is
+ * implemented here as a cascade of six first-order sections, each converted to the digital domain
+ * with the bilinear transform.  The cascade is normalized to unity gain at 1 kHz.
+ *
+ * Filtering a sample does not allocate.  Instances are stateful and not thread-safe.
+ */
+public class AWeightingFilter {
+    private static final double POLE_1_HZ = 20.598997;
+    private static final double POLE_2_HZ = 107.65265;
+    private static final double POLE_3_HZ = 737.86223;
+    private static final double POLE_4_HZ = 12194.217;
+    private static final double NORMALIZATION_HZ = 1000;
+
+    // Poles of the high-pass sections (s / (s + p)), in Hz.
+    private static final double[] HIGH_PASS_POLES_HZ = {POLE_1_HZ, POLE_1_HZ, POLE_2_HZ,
+            POLE_3_HZ};
+
+    // Poles of the low-pass sections (p / (s + p)), in Hz.
+    private static final double[] LOW_PASS_POLES_HZ = {POLE_4_HZ, POLE_4_HZ};
+
+    private final int mSections = HIGH_PASS_POLES_HZ.length + LOW_PASS_POLES_HZ.length;
+    private final double[] mB0 = new double[mSections];
+    private final double[] mB1 = new double[mSections];
+    private final double[] mA1 = new double[mSections];
+    private final double[] mLastInput = new double[mSections];
+    private final double[] mLastOutput = new double[mSections];
+    private final double mGain;
+
+    public AWeightingFilter(int sampleRateHz) {
+        double k = 2.0 * sampleRateHz;
+        int section = 0;
+        for (double poleHz : HIGH_PASS_POLES_HZ) {
+            double p = 2 * Math.PI * poleHz;
+            mB0[section] = k / (k + p);
+            mB1[section] = -k / (k + p);
+            mA1[section] = (p - k) / (k + p);
+            section++;
+        }
+        for (double poleHz : LOW_PASS_POLES_HZ) {
+            double p = 2 * Math.PI * poleHz;
+            mB0[section] = p / (k + p);
+            mB1[section] = p / (k + p);
+            mA1[section] = (p - k) / (k + p);
+            section++;
+        }
+        mGain = 1.0 / magnitudeAt(NORMALIZATION_HZ, sampleRateHz);
+    }
+
+    /**
+     * @return the A-weighted value of the next sample in the stream.
+     */
+    public double filter(double input) {
+        double value = input;
+        for (int i = 0; i < mSections; i++) {
+            double output = mB0[i] * value + mB1[i] * mLastInput[i] - mA1[i] * mLastOutput[i];
+            mLastInput[i] = value;
+            mLastOutput[i] = output;
+            value = output;
+        }
+        return value * mGain;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mSections; i++) {
+            mLastInput[i] = 0;
+            mLastOutput[i] = 0;
+        }
+    }
+
+    /**
+     * @return the gain of the unnormalized cascade at the given frequency.
+     */
+    private double magnitudeAt(double frequencyHz, int sampleRateHz) {
+        double omega = 2 * Math.PI * frequencyHz / sampleRateHz;
+        double cos = Math.cos(omega);
+        double sin = Math.sin(omega);
+        double magnitude = 1;
+        for (int i = 0; i < mSections; i++) {
+            // |b0 + b1 * e^-jw| / |1 + a1 * e^-jw|
+            double numReal = mB0[i] + mB1[i] * cos;
+            double numImaginary = -mB1[i] * sin;
+            double denReal = 1 + mA1[i] * cos;
+            double denImaginary = -mA1[i] * sin;
+            magnitude *= Math.hypot(numReal, numImaginary) / Math.hypot(denReal, denImaginary);
+        }
+        return magnitude;
+    }
+}
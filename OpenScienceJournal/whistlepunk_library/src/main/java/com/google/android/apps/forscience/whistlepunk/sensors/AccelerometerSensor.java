@@ -16,22 +16,11 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensors;
 
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
-public class AccelerometerSensor extends ScalarSensor {
+public class AccelerometerSensor extends HardwareScalarSensor {
     private Axis mAxis;
 
     public enum Axis {
@@ -47,8 +36,8 @@ public class AccelerometerSensor extends ScalarSensor {
             mDatabaseTag = databaseTag;
         }
 
-        public float getValue(SensorEvent event) {
-            return event.values[mValueIndex];
+        public float getValue(float[] values) {
+            return values[mValueIndex];
         }
 
         public String getSensorId() {
@@ -56,49 +45,14 @@ public class AccelerometerSensor extends ScalarSensor {
         }
     }
 
-    private SensorEventListener mSensorEventListener;
-
     public AccelerometerSensor(Axis axis) {
-        super(axis.getSensorId());
+        super(axis.getSensorId(), Sensor.TYPE_ACCELEROMETER, SamplingRate.PERIOD_UI_MICROS);
         mAxis = axis;
     }
 
     @Override
-    protected SensorRecorder makeScalarControl(final StreamConsumer c,
-            final SensorEnvironment environment, final Context context,
-            final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        c.addData(clock.getNow(), mAxis.getValue(event));
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
-
-            }
-
-            @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
-            }
-        };
+    protected double computeValue(float[] values, double magnitude) {
+        return mAxis.getValue(values);
     }
 
     public static boolean isAccelerometerAvailable(AvailableSensors availableSensors) {
@@ -18,9 +18,6 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
 import com.google.android.apps.forscience.javalib.DataRefresher;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
@@ -28,6 +25,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -41,7 +39,6 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 public class AmbientLightSensor extends ScalarSensor {
     public static final String ID = "AmbientLightSensor";
     private final SystemScheduler mScheduler = new SystemScheduler();
-    private SensorEventListener mSensorEventListener;
     private DataRefresher mDataRefresher;
 
     public AmbientLightSensor() {
@@ -52,38 +49,29 @@ public class AmbientLightSensor extends ScalarSensor {
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, final Context context,
             final SensorStatusListener listener) {
+        final HardwareSensorHub.Subscriber subscriber = new HardwareSensorHub.Subscriber() {
+            @Override
+            public void onSensorValues(long eventTimestampNanos, float[] values,
+                    double magnitude) {
+                // values[0] is the ambient light level in SI lux units.
+                mDataRefresher.setValue(values[0]);
+                mDataRefresher.startStreaming();
+            }
+        };
         return new AbstractSensorRecorder() {
+            private int mSamplingPeriodMicros = SamplingRate.PERIOD_UI_MICROS;
+
             @Override
             public void startObserving() {
                 mDataRefresher = new DataRefresher(mScheduler, environment.getDefaultClock());
                 listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        // values[0] is the ambient light level in SI lux units.
-                        mDataRefresher.setValue(event.values[0]);
-                        mDataRefresher.startStreaming();
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
                 mDataRefresher.setStreamConsumer(c);
-
+                getHub(context).subscribe(subscriber, mSamplingPeriodMicros);
             }
 
             @Override
             public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
+                getHub(context).unsubscribe(subscriber);
                 listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
                 if (mDataRefresher != null) {
                     mDataRefresher.stopStreaming();
@@ -93,11 +81,22 @@ public class AmbientLightSensor extends ScalarSensor {
 
             @Override
             public void applyOptions(ReadableSensorOptions settings) {
-                // do nothing, no settings apply to collection
+                mSamplingPeriodMicros = SamplingRate.getSamplingPeriodMicros(settings,
+                        SamplingRate.PERIOD_UI_MICROS);
+                getHub(context).setSamplingPeriod(subscriber, mSamplingPeriodMicros);
             }
         };
     }
 
+    private static HardwareSensorHub getHub(Context context) {
+        return HardwareSensorHub.forSensorType(context, Sensor.TYPE_LIGHT);
+    }
+
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingRateOptionsPresenter(SamplingRate.PERIOD_UI_MICROS);
+    }
+
     public static boolean isAmbientLightAvailable(AvailableSensors availableSensors) {
         return availableSensors.isSensorAvailable(Sensor.TYPE_LIGHT);
     }
@@ -16,68 +16,23 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensors;
 
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
 /**
  * Class to get sensor data from the Ambient Temperature sensor.
  */
-public class AmbientTemperatureSensor extends ScalarSensor {
+public class AmbientTemperatureSensor extends HardwareScalarSensor {
     public static final String ID = "AmbientTemperatureSensor";
-    private SensorEventListener mSensorEventListener;
 
     public AmbientTemperatureSensor() {
-        super(ID);
+        super(ID, Sensor.TYPE_AMBIENT_TEMPERATURE, SamplingRate.PERIOD_NORMAL_MICROS);
     }
 
     @Override
-    protected SensorRecorder makeScalarControl(final StreamConsumer c,
-            final SensorEnvironment environment, final Context context,
-            final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(
-                        Sensor.TYPE_AMBIENT_TEMPERATURE);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        c.addData(clock.getNow(), event.values[0]);
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_NORMAL);
-            }
-
-            @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
-            }
-        };
+    protected double computeValue(float[] values, double magnitude) {
+        return values[0];
     }
 
     public static boolean isAmbientTemperatureSensorAvailable(AvailableSensors availableSensors) {
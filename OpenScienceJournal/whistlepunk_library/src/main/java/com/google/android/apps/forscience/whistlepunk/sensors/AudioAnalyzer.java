@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+/**
+ * Splits a stream of 16-bit audio samples into (possibly overlapping) analysis windows, and
+ * reports the peak, RMS and A-weighted RMS amplitude of each window.
+ *
+ * A new window is reported every {@code hopSize} samples, once at least {@code windowSize}
+ * samples have been seen.  No allocation happens per sample or per window.
+ */
+public class AudioAnalyzer {
+    public interface WindowListener {
+        /**
+         * @param timestampMillis the time of the last sample in the window
+         * @param peak the largest absolute sample value in the window
+         * @param rms the root-mean-square of the samples in the window
+         * @param aWeightedRms the root-mean-square of the A-weighted samples in the window
+         */
+        void onWindow(long timestampMillis, double peak, double rms, double aWeightedRms);
+    }
+
+    private final int mSampleRateHz;
+    private final int mWindowSize;
+    private final int mHopSize;
+    private final WindowListener mListener;
+    private final AWeightingFilter mWeightingFilter;
+
+    // Ring buffers holding the most recent mWindowSize raw and weighted samples
+    private final short[] mSamples;
+    private final double[] mWeightedSamples;
+    private int mWritePosition = 0;
+    private int mFilledSamples = 0;
+    private int mSamplesSinceLastWindow = 0;
+
+    public static int millisToSamples(long millis, int sampleRateHz) {
+        return (int) Math.max(1, millis * sampleRateHz / 1000);
+    }
+
+    public AudioAnalyzer(int sampleRateHz, int windowSize, int hopSize,
+            WindowListener listener) {
+        if (windowSize <= 0 || hopSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Window and hop sizes must be positive: " + windowSize + ", " + hopSize);
+        }
+        mSampleRateHz = sampleRateHz;
+        mWindowSize = windowSize;
+        mHopSize = hopSize;
+        mListener = listener;
+        mWeightingFilter = new AWeightingFilter(sampleRateHz);
+        mSamples = new short[windowSize];
+        mWeightedSamples = new double[windowSize];
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    public int getHopSize() {
+        return mHopSize;
+    }
+
+    /**
+     * @param timestampMillis the time at which the last sample in {@code buffer} was captured
+     * @param buffer audio samples
+     * @param count the number of valid samples at the start of {@code buffer}
+     */
+    public void addSamples(long timestampMillis, short[] buffer, int count) {
+        for (int i = 0; i < count; i++) {
+            short sample = buffer[i];
+            mSamples[mWritePosition] = sample;
+            mWeightedSamples[mWritePosition] = mWeightingFilter.filter(sample);
+            mWritePosition = (mWritePosition + 1) % mWindowSize;
+            if (mFilledSamples < mWindowSize) {
+                mFilledSamples++;
+            }
+            mSamplesSinceLastWindow++;
+
+            if (mFilledSamples == mWindowSize && mSamplesSinceLastWindow >= mHopSize) {
+                mSamplesSinceLastWindow = 0;
+                int samplesAfterThisOne = count - 1 - i;
+                reportWindow(timestampMillis - samplesAfterThisOne * 1000L / mSampleRateHz);
+            }
+        }
+    }
+
+    public void reset() {
+        mWritePosition = 0;
+        mFilledSamples = 0;
+        mSamplesSinceLastWindow = 0;
+        mWeightingFilter.reset();
+    }
+
+    private void reportWindow(long timestampMillis) {
+        int peak = 0;
+        double totalSquared = 0;
+        double totalWeightedSquared = 0;
+        for (int i = 0; i < mWindowSize; i++) {
+            int sample = mSamples[i];
+            int magnitude = Math.abs(sample);
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            totalSquared += (double) sample * sample;
+            double weighted = mWeightedSamples[i];
+            totalWeightedSquared += weighted * weighted;
+        }
+        mListener.onWindow(timestampMillis, peak, Math.sqrt(totalSquared / mWindowSize),
+                Math.sqrt(totalWeightedSquared / mWindowSize));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.EditText;
+
+import com.google.android.apps.forscience.whistlepunk.R;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ActiveBundle;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.LongUpdatingWatcher;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
+
+/**
+ * OptionsPresenter for the analysis window length and hop of {@link DecibelSensor}.
+ */
+class AudioWindowOptionsPresenter implements SensorPresenter.OptionsPresenter {
+    @Override
+    public View buildOptionsView(ActiveBundle activeBundle, Context context) {
+        @SuppressLint("InflateParams") final View inflated =
+                LayoutInflater.from(context).inflate(R.layout.audio_window_options, null);
+        ReadableSensorOptions options = activeBundle.getReadOnly();
+
+        EditText windowEdit = (EditText) inflated.findViewById(R.id.audio_window_edit);
+        windowEdit.setText(String.valueOf(DecibelSensor.getWindowMillis(options)));
+        windowEdit.addTextChangedListener(new LongUpdatingWatcher(activeBundle,
+                DecibelSensor.PREFS_KEY_WINDOW_MILLIS, windowEdit));
+
+        EditText hopEdit = (EditText) inflated.findViewById(R.id.audio_hop_edit);
+        hopEdit.setText(String.valueOf(DecibelSensor.getHopMillis(options)));
+        hopEdit.addTextChangedListener(new LongUpdatingWatcher(activeBundle,
+                DecibelSensor.PREFS_KEY_HOP_MILLIS, hopEdit));
+        return inflated;
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions bundle) {
+        // Nothing to preview; the recorder rebuilds its analyzer with the new window.
+    }
+}
@@ -20,8 +20,7 @@ import android.content.Context;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.google.android.apps.forscience.ble.BleFlow;
-import com.google.android.apps.forscience.ble.BleFlowListener;
+import com.google.android.apps.forscience.ble.BleConnectionManager;
 import com.google.android.apps.forscience.whistlepunk.AppSingleton;
 import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.PacketAssembler;
@@ -66,13 +65,11 @@ public class BluetoothSensor extends ScalarSensor {
     private final BleSensorSpec mSensor;
     private final BleServiceSpec mServiceSpec;
     private boolean mDeviceFrequencyEnabled;
-    private boolean mNotificationSubscribed = false;
 
     private String mAddress;
     private GoosciSensorConfig.BleSensorConfig.ScaleTransform mDeviceScaleTransform;
 
-    private BleFlow mFlow;
-    private BleFlowListener mBleFlowListener;
+    private BleConnectionManager mConnectionManager;
 
     public BluetoothSensor(String sensorId, BleSensorSpec sensor, BleServiceSpec serviceSpec) {
         this(sensorId, sensor, serviceSpec, AppSingleton.getUiThreadExecutor());
@@ -88,9 +85,9 @@ public class BluetoothSensor extends ScalarSensor {
         readConfigurationFrom(sensor);
     }
 
-    private BleFlowListener createBleFlowListener(final StreamConsumer c, final Clock defaultClock,
-            final SensorStatusListener listener) {
-        return new BleFlowListener() {
+    private BleConnectionManager.DeviceListener createDeviceListener(final StreamConsumer c,
+            final Clock defaultClock, final SensorStatusListener listener) {
+        return new BleConnectionManager.DeviceListener() {
             final PacketAssembler mPa = new PacketAssembler(defaultClock,
                     new PacketAssembler.Listener() {
                         @Override
@@ -105,21 +102,26 @@ public class BluetoothSensor extends ScalarSensor {
                     });
 
             @Override
-            public void onSuccess() {
+            public void onReady(String address) {
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
+                if (mConnectionManager.hasCharacteristic(mAddress, mServiceSpec.getServiceId(),
+                        mServiceSpec.getVersionId())) {
+                    mConnectionManager.readCharacteristic(mAddress, mServiceSpec.getServiceId(),
+                            mServiceSpec.getVersionId());
+                } else {
+                    writeConfigAndSetNotification();
+                }
             }
 
             @Override
-            public void onFailure(Exception error) {
-                Log.d(TAG, "Failure " + error.getMessage());
-                listener.onSourceError(getId(), SensorStatusListener.ERROR_UNKNOWN,
-                        error.getLocalizedMessage());
-                mFlow.resetAndAddListener(mBleFlowListener, true)
-                        .disconnect();
-                BleFlow.run(mFlow);
+            public void onConnectionLost(String address) {
+                // The manager reconnects on its own, and calls onReady again when it has.
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
             }
 
             @Override
-            public void onCharacteristicRead(UUID characteristic, int flags, byte[] value) {
+            public void onCharacteristicRead(String address, UUID characteristic, int flags,
+                    byte[] value) {
                 // This is where we catch the characteristic static value
                 // For Value (UUID:555a0003), it's a protobuf
                 // For Description (UUID:555a0002), it's a string desc (eg. "Goosci Windmill")
@@ -134,45 +136,10 @@ public class BluetoothSensor extends ScalarSensor {
             }
 
             @Override
-            public void onNotification(UUID characteristic, int flags, byte[] value) {
+            public void onNotification(String address, UUID characteristic, int flags,
+                    byte[] value) {
                 mPa.append(value);
             }
-
-            @Override
-            public void onDisconnect() {
-                mNotificationSubscribed = false;
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
-            }
-
-            @Override
-            public void onConnect() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-            }
-
-            @Override
-            public void onNotificationSubscribed() {
-                mNotificationSubscribed = true;
-            }
-
-            @Override
-            public void onNotificationUnsubscribed() {
-                mNotificationSubscribed = false;
-                mFlow.resetAndAddListener(mBleFlowListener, true)
-                        .disconnect();
-                BleFlow.run(mFlow);
-            }
-
-            @Override
-            public void onServicesDiscovered() {
-                if (mFlow.isCharacteristicValid(mServiceSpec.getServiceId(),
-                        mServiceSpec.getVersionId())) {
-                    mFlow.lookupCharacteristic(mServiceSpec.getServiceId(),
-                            mServiceSpec.getVersionId()).read();
-                    BleFlow.run(mFlow);
-                } else {
-                    writeConfigAndSetNotification();
-                }
-            }
         };
     }
 
@@ -232,14 +199,13 @@ public class BluetoothSensor extends ScalarSensor {
 
     private void writeConfigAndSetNotification() {
         byte[] sensorConfig = buildConfigProtoForDevice(mSensor);
-        if (sensorConfig != null && mFlow.isCharacteristicValid(mServiceSpec.getServiceId(),
-                mServiceSpec.getSettingId())) {
-            mFlow.lookupCharacteristic(mServiceSpec.getServiceId(),
-                    mServiceSpec.getSettingId()).write(sensorConfig);
+        if (sensorConfig != null && mConnectionManager.hasCharacteristic(mAddress,
+                mServiceSpec.getServiceId(), mServiceSpec.getSettingId())) {
+            mConnectionManager.writeCharacteristic(mAddress, mServiceSpec.getServiceId(),
+                    mServiceSpec.getSettingId(), sensorConfig);
         }
-        mFlow.lookupCharacteristic(mServiceSpec.getServiceId(), mServiceSpec.getValueId())
-                .enableNotification();
-        BleFlow.run(mFlow);
+        mConnectionManager.setNotificationsEnabled(mAddress, mServiceSpec.getServiceId(),
+                mServiceSpec.getValueId(), true);
     }
 
     private void readConfigurationFrom(BleSensorSpec bleSensor) {
@@ -258,34 +224,20 @@ public class BluetoothSensor extends ScalarSensor {
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, Context context,
             final SensorStatusListener listener) {
-        mFlow = environment.getBleClient().getFlowFor(mAddress);
+        mConnectionManager = environment.getBleClient().getConnectionManager();
         return new AbstractSensorRecorder() {
             @Override
             public void startObserving() {
-                // make BLE connection
+                // make BLE connection, which the manager keeps up until we stop observing
                 listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTING);
-                mBleFlowListener =
-                        createBleFlowListener(c, environment.getDefaultClock(), listener);
-                mFlow.resetAndAddListener(mBleFlowListener, true)
-                        .connect()
-                        .lookupService(mServiceSpec.getServiceId());
-                BleFlow.run(mFlow);
+                mConnectionManager.connect(mAddress, mServiceSpec.getServiceId(),
+                        createDeviceListener(c, environment.getDefaultClock(), listener));
             }
 
             @Override
             public void stopObserving() {
-                // Don't reset service map: should still be valid from above, and it doesn't work
-                // on ChromeBooks
-                mFlow.resetAndAddListener(mBleFlowListener, false);
-                if(mNotificationSubscribed) {
-                    mFlow.lookupService(mServiceSpec.getServiceId()).lookupCharacteristic(
-                            mServiceSpec.getServiceId(), mServiceSpec.getValueId())
-                            .disableNotification();
-                    BleFlow.run(mFlow);
-                } else {
-                    mFlow.disconnect();
-                    BleFlow.run(mFlow);
-                }
+                // Disconnecting also ends the device's notifications.
+                mConnectionManager.disconnect(mAddress);
             }
         };
     }
@@ -18,15 +18,15 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -36,7 +36,6 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
  */
 public class CompassSensor extends ScalarSensor {
     public static final String ID = "CompassSensor";
-    private SensorEventListener mSensorEventListener;
 
     public CompassSensor() {
         super(ID);
@@ -45,67 +44,97 @@ public class CompassSensor extends ScalarSensor {
     @Override
     protected SensorRecorder makeScalarControl(StreamConsumer c, SensorEnvironment environment,
             Context context, SensorStatusListener listener) {
+        final Clock clock = environment.getDefaultClock();
+        final EventTimeMapper timeMapper = new EventTimeMapper();
         return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-                Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    private float[] orientation = new float[3];
-                    private float[] magneticRotation;
-                    private float[] acceleration;
-                    private float[] rotation = new float[9];
-                    private float[] inclination = new float[9];
+            private int samplingPeriodMicros = SamplingRate.PERIOD_UI_MICROS;
+            private float[] orientation = new float[3];
+            private float[] magneticRotation = new float[3];
+            private float[] acceleration = new float[3];
+            private boolean hasMagneticRotation = false;
+            private boolean hasAcceleration = false;
+            private float[] rotation = new float[9];
+            private float[] inclination = new float[9];
 
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                            acceleration = event.values;
-                        } else {
-                            magneticRotation = event.values;
-                        }
-                        // Update data as long as we have a value for both. This is the highest
-                        // rate of update.
-                        // If we want a slower rate, we can update when *both* values have changed,
-                        // or only when magneticRotation changes, for example.
-                        if (acceleration == null || magneticRotation == null) {
-                            return;
+            private final HardwareSensorHub.Subscriber accelerationSubscriber =
+                    new HardwareSensorHub.Subscriber() {
+                        @Override
+                        public void onSensorValues(long eventTimestampNanos, float[] values,
+                                double magnitude) {
+                            System.arraycopy(values, 0, acceleration, 0, 3);
+                            hasAcceleration = true;
+                            update(eventTimestampNanos);
                         }
-                        boolean hasRotation = SensorManager.getRotationMatrix(rotation, inclination,
-                                acceleration, magneticRotation);
-                        if (hasRotation) {
-                            SensorManager.getOrientation(rotation, orientation);
-                            // Use a positive angle in degrees between 0 and 360.
-                            c.addData(clock.getNow(), 360 - (360 - (Math.toDegrees(orientation[0])))
-                                    % 360);
+                    };
+
+            private final HardwareSensorHub.Subscriber magneticSubscriber =
+                    new HardwareSensorHub.Subscriber() {
+                        @Override
+                        public void onSensorValues(long eventTimestampNanos, float[] values,
+                                double magnitude) {
+                            System.arraycopy(values, 0, magneticRotation, 0, 3);
+                            hasMagneticRotation = true;
+                            update(eventTimestampNanos);
                         }
-                    }
+                    };
+
+            private void update(long eventTimestampNanos) {
+                // Update data as long as we have a value for both. This is the highest
+                // rate of update.
+                // If we want a slower rate, we can update when *both* values have changed,
+                // or only when magneticRotation changes, for example.
+                if (!hasAcceleration || !hasMagneticRotation) {
+                    return;
+                }
+                boolean hasRotation = SensorManager.getRotationMatrix(rotation, inclination,
+                        acceleration, magneticRotation);
+                if (hasRotation) {
+                    SensorManager.getOrientation(rotation, orientation);
+                    // Use a positive angle in degrees between 0 and 360.
+                    long timestamp = timeMapper.toClockMillis(eventTimestampNanos,
+                            clock.getNow());
+                    c.addData(timestamp, 360 - (360 - (Math.toDegrees(orientation[0]))) % 360);
+                }
+            }
 
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            @Override
+            public void startObserving() {
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
+                timeMapper.reset();
+                HardwareSensorHub.forSensorType(context, Sensor.TYPE_MAGNETIC_FIELD).subscribe(
+                        magneticSubscriber, samplingPeriodMicros);
+                HardwareSensorHub.forSensorType(context, Sensor.TYPE_ACCELEROMETER).subscribe(
+                        accelerationSubscriber, samplingPeriodMicros);
+            }
 
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, magnetometer,
-                        SensorManager.SENSOR_DELAY_UI);
-                sensorManager.registerListener(mSensorEventListener, accelerometer,
-                        SensorManager.SENSOR_DELAY_UI);
+            @Override
+            public void applyOptions(ReadableSensorOptions settings) {
+                samplingPeriodMicros = SamplingRate.getSamplingPeriodMicros(settings,
+                        SamplingRate.PERIOD_UI_MICROS);
+                HardwareSensorHub.forSensorType(context, Sensor.TYPE_MAGNETIC_FIELD)
+                        .setSamplingPeriod(magneticSubscriber, samplingPeriodMicros);
+                HardwareSensorHub.forSensorType(context, Sensor.TYPE_ACCELEROMETER)
+                        .setSamplingPeriod(accelerationSubscriber, samplingPeriodMicros);
             }
 
             @Override
             public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
+                HardwareSensorHub.forSensorType(context, Sensor.TYPE_MAGNETIC_FIELD).unsubscribe(
+                        magneticSubscriber);
+                HardwareSensorHub.forSensorType(context, Sensor.TYPE_ACCELEROMETER).unsubscribe(
+                        accelerationSubscriber);
+                hasAcceleration = false;
+                hasMagneticRotation = false;
                 listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
             }
         };
     }
 
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingRateOptionsPresenter(SamplingRate.PERIOD_UI_MICROS);
+    }
+
     public static boolean isCompassSensorAvailable(AvailableSensors availableSensors) {
         return availableSensors.isSensorAvailable(Sensor.TYPE_ACCELEROMETER) &&
                 availableSensors.isSensorAvailable(Sensor.TYPE_MAGNETIC_FIELD);
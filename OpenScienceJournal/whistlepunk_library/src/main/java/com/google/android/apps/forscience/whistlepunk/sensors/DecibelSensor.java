@@ -17,135 +17,165 @@
 package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
-import android.media.audiofx.NoiseSuppressor;
+import android.text.TextUtils;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.WhistlePunkApplication;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
-
 /**
  * Displays sound pressure levels in uncalibrated decibels (I have not tried to figure out the
  * 16-bit integer corresponding to 20 micro-Pascals, nor am I convinced it is the same from
  * device to device).  Results should be comparable between readings on the same device, but not
  * necessarily between devices.
+ *
+ * Audio is read through {@link SharedAudioCapture}, so several instances (for example, measuring
+ * different {@link Output}s) share one microphone and capture thread.
  */
 public class DecibelSensor extends ScalarSensor {
-    private static final int SAMPLE_RATE_IN_HZ = 44100;
-    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
-    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     public static final String ID = "DecibelSource";
-    private AudioRecord mRecord;
-    private final ExecutorService mExecutor;
-    private final int mBytesInBuffer;
-    AtomicBoolean mRunning = new AtomicBoolean(false);
+    public static final String PEAK_ID = "DecibelPeakSource";
+    public static final String A_WEIGHTED_ID = "DecibelAWeightedSource";
+
+    public static final String PREFS_KEY_WINDOW_MILLIS = "prefs_window_millis";
+    public static final String PREFS_KEY_HOP_MILLIS = "prefs_hop_millis";
+    public static final long DEFAULT_WINDOW_MILLIS = 100;
+    public static final long DEFAULT_HOP_MILLIS = 100;
+
+    /**
+     * Which amplitude measure of each analysis window is reported.
+     */
+    public enum Output {
+        PEAK,
+        RMS,
+        A_WEIGHTED_RMS
+    }
+
+    private final Output mOutput;
 
     public DecibelSensor() {
-        super(ID);
-        int minBufferSize =
-                AudioRecord.getMinBufferSize(SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT);
-        mBytesInBuffer = minBufferSize;
-        mExecutor = Executors.newSingleThreadExecutor();
+        this(ID, Output.RMS);
+    }
+
+    public DecibelSensor(String id, Output output) {
+        super(id);
+        mOutput = output;
+    }
+
+    /**
+     * @return true if {@code sensorId} is one of the built-in microphone sensors, which all need
+     *         the record audio permission.
+     */
+    public static boolean isDecibelSensor(String sensorId) {
+        return TextUtils.equals(sensorId, ID) || TextUtils.equals(sensorId, PEAK_ID)
+                || TextUtils.equals(sensorId, A_WEIGHTED_ID);
+    }
+
+    static long getWindowMillis(ReadableSensorOptions settings) {
+        return settings.getLong(PREFS_KEY_WINDOW_MILLIS, DEFAULT_WINDOW_MILLIS);
+    }
+
+    static long getHopMillis(ReadableSensorOptions settings) {
+        return settings.getLong(PREFS_KEY_HOP_MILLIS, DEFAULT_HOP_MILLIS);
     }
 
     @Override
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, Context context,
             final SensorStatusListener listener) {
-        final Clock clock = environment.getDefaultClock();
+        SharedAudioCapture.getInstance().setPerfTracker(
+                WhistlePunkApplication.maybeGetPerfTrackerProvider(context));
+        final AudioAnalyzer.WindowListener windowListener = new AudioAnalyzer.WindowListener() {
+            @Override
+            public void onWindow(long timestampMillis, double peak, double rms,
+                    double aWeightedRms) {
+                // https://en.wikipedia.org/wiki/Sound_pressure
+                final double uncalibratedDecibels = 20 * Math.log10(selectOutput(peak, rms,
+                        aWeightedRms));
+                if (isValidReading(uncalibratedDecibels)) {
+                    c.addData(timestampMillis, uncalibratedDecibels);
+                }
+            }
+        };
+
         return new AbstractSensorRecorder() {
+            private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+            private long mHopMillis = DEFAULT_HOP_MILLIS;
+            private volatile AudioAnalyzer mAnalyzer = createAnalyzer();
+
+            private final SharedAudioCapture.AudioReceiver mReceiver =
+                    new SharedAudioCapture.AudioReceiver() {
+                        @Override
+                        public void onReceiveAudio(long timestampMillis, short[] buffer,
+                                int count) {
+                            mAnalyzer.addSamples(timestampMillis, buffer, count);
+                        }
+                    };
+
+            private AudioAnalyzer createAnalyzer() {
+                int sampleRate = SharedAudioCapture.SAMPLE_RATE_IN_HZ;
+                return new AudioAnalyzer(sampleRate,
+                        AudioAnalyzer.millisToSamples(mWindowMillis, sampleRate),
+                        AudioAnalyzer.millisToSamples(mHopMillis, sampleRate), windowListener);
+            }
+
             @Override
             public void startObserving() {
                 listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                if (mBytesInBuffer < 0) {
-                    // If this is the case, AudioRecord.getMinBufferSize returned an error.
+                int result =
+                        SharedAudioCapture.getInstance().registerReceiver(mReceiver);
+                if (result == SharedAudioCapture.START_ERROR_MICROPHONE_IN_USE) {
                     listener.onSourceError(getId(), SensorStatusListener.ERROR_FAILED_TO_CONNECT,
-                            "Could not connect to microphone");
-                    return;
-                }
-                mRunning.set(true);
-                // Use VOICE_COMMUNICATION to filter out audio coming from the speakers
-                mRecord = new AudioRecord(MediaRecorder.AudioSource.VOICE_COMMUNICATION,
-                        SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT, mBytesInBuffer);
-                if (mRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                            "Microphone in use by another application");
+                } else if (result != SharedAudioCapture.START_OK) {
                     listener.onSourceError(getId(), SensorStatusListener.ERROR_FAILED_TO_CONNECT,
                             "Could not connect to microphone");
-                    return;
                 }
-                mRecord.startRecording();
-                // Check to see if we actually started recording before continuing.
-                // AudioRecord#startRecording() logs an error but it has no return value and
-                // doesn't throw an exception when someone else is using the mic.
-                if (mRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
-                    listener.onSourceError(getId(), SensorStatusListener.ERROR_FAILED_TO_CONNECT,
-                            "Microphone in use by another application");
-                    return;
-                }
-                mExecutor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        short[] tempBuffer = new short[mBytesInBuffer];
-
-                        while (mRunning.get()) {
-                            int readShorts = mRecord.read(tempBuffer, 0, mBytesInBuffer);
-                            if (readShorts > 0) {
-                                sendBuffer(tempBuffer, readShorts);
-                            }
-                        }
-                    }
-
-                    private void sendBuffer(short[] tempBuffer, int readShorts) {
-                        final long timestampMillis = clock.getNow();
-                        double totalSquared = 0;
-
-                        for (int i = 0; i < readShorts; i++) {
-                            short soundbits = tempBuffer[i];
-                            totalSquared += soundbits * soundbits;
-                        }
-
-                        // https://en.wikipedia.org/wiki/Sound_pressure
-                        final double quadraticMeanPressure =
-                                Math.sqrt(totalSquared / readShorts);
-                        final double uncalibratedDecibels =
-                                20 * Math.log10(quadraticMeanPressure);
-
-                        if (isValidReading(uncalibratedDecibels)) {
-                            c.addData(timestampMillis, uncalibratedDecibels);
-                        }
-                    }
-                });
             }
 
             @Override
             public void stopObserving() {
-                mRunning.set(false);
-                if (mRecord != null) {
-                    if (mRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                        mRecord.stop();
-                    }
-                    mRecord.release();
-                }
-                mRecord = null;
+                SharedAudioCapture.getInstance().unregisterReceiver(mReceiver);
                 listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
             }
 
             @Override
             public void applyOptions(ReadableSensorOptions settings) {
-                // do nothing, no settings apply to collection
+                long windowMillis = getWindowMillis(settings);
+                long hopMillis = getHopMillis(settings);
+                if (windowMillis != mWindowMillis || hopMillis != mHopMillis) {
+                    mWindowMillis = windowMillis;
+                    mHopMillis = hopMillis;
+                    // Swapped in whole, so the capture thread never sees a half-configured
+                    // analyzer.
+                    mAnalyzer = createAnalyzer();
+                }
             }
         };
     }
+
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new AudioWindowOptionsPresenter();
+    }
+
+    private double selectOutput(double peak, double rms, double aWeightedRms) {
+        switch (mOutput) {
+            case PEAK:
+                return peak;
+            case A_WEIGHTED_RMS:
+                return aWeightedRms;
+            default:
+                return rms;
+        }
+    }
+
     /* Some devices (mostly Samsung) seem to spit out
     some -Double.MAX_VALUE points when the mic starts
     which mess up graphing/audio due to an absurd yMin
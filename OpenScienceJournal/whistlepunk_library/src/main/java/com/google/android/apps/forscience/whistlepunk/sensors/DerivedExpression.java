@@ -0,0 +1,371 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import java.util.List;
+
+/**
+ * An arithmetic expression over named inputs, compiled once into a tree so that evaluating it for
+ * each sample does not allocate.
+ *
+ * Supports {@code + - * / ^}, unary minus, parentheses, numeric literals, the constants
+ * {@code pi} and {@code e}, and the functions {@code abs sqrt exp ln log10 sin cos tan} (one
+ * argument) and {@code min max pow} (two arguments).  Sub-expressions that do not depend on any
+ * input are folded into constants at compile time.
+ */
+public class DerivedExpression {
+    private final Node mRoot;
+    private final int mVariableCount;
+
+    private DerivedExpression(Node root, int variableCount) {
+        mRoot = root;
+        mVariableCount = variableCount;
+    }
+
+    /**
+     * @param variables the names of the inputs, in the order their values will be passed to
+     *                  {@link #evaluate(double[])}.
+     * @throws IllegalArgumentException if {@code source} is not a valid expression over
+     *                                  {@code variables}.
+     */
+    public static DerivedExpression compile(String source, List<String> variables) {
+        Parser parser = new Parser(source, variables);
+        Node root = parser.parseExpression();
+        parser.expectEnd();
+        return new DerivedExpression(root, variables.size());
+    }
+
+    /**
+     * @param inputs one value for each variable passed to {@link #compile(String, List)}.
+     */
+    public double evaluate(double[] inputs) {
+        return mRoot.eval(inputs);
+    }
+
+    public int getVariableCount() {
+        return mVariableCount;
+    }
+
+    private abstract static class Node {
+        abstract double eval(double[] inputs);
+
+        boolean isConstant() {
+            return false;
+        }
+    }
+
+    private static class Constant extends Node {
+        private final double mValue;
+
+        Constant(double value) {
+            mValue = value;
+        }
+
+        @Override
+        double eval(double[] inputs) {
+            return mValue;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static class Variable extends Node {
+        private final int mIndex;
+
+        Variable(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        double eval(double[] inputs) {
+            return inputs[mIndex];
+        }
+    }
+
+    private static class Unary extends Node {
+        private static final String[] FUNCTIONS =
+                {"-", "abs", "sqrt", "exp", "ln", "log10", "sin", "cos", "tan"};
+
+        private final int mFunction;
+        private final Node mArg;
+
+        Unary(int function, Node arg) {
+            mFunction = function;
+            mArg = arg;
+        }
+
+        static int indexOf(String name) {
+            for (int i = 0; i < FUNCTIONS.length; i++) {
+                if (FUNCTIONS[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        double eval(double[] inputs) {
+            double x = mArg.eval(inputs);
+            switch (mFunction) {
+                case 0:
+                    return -x;
+                case 1:
+                    return Math.abs(x);
+                case 2:
+                    return Math.sqrt(x);
+                case 3:
+                    return Math.exp(x);
+                case 4:
+                    return Math.log(x);
+                case 5:
+                    return Math.log10(x);
+                case 6:
+                    return Math.sin(x);
+                case 7:
+                    return Math.cos(x);
+                default:
+                    return Math.tan(x);
+            }
+        }
+
+        @Override
+        boolean isConstant() {
+            return mArg.isConstant();
+        }
+    }
+
+    private static class Binary extends Node {
+        private final char mOp;
+        private final Node mLeft;
+        private final Node mRight;
+
+        Binary(char op, Node left, Node right) {
+            mOp = op;
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        double eval(double[] inputs) {
+            double a = mLeft.eval(inputs);
+            double b = mRight.eval(inputs);
+            switch (mOp) {
+                case '+':
+                    return a + b;
+                case '-':
+                    return a - b;
+                case '*':
+                    return a * b;
+                case '/':
+                    return a / b;
+                case '^':
+                    return b == 2 ? a * a : Math.pow(a, b);
+                case '<':
+                    return Math.min(a, b);
+                case '>':
+                    return Math.max(a, b);
+                default:
+                    throw new IllegalStateException("Unknown operator " + mOp);
+            }
+        }
+
+        @Override
+        boolean isConstant() {
+            return mLeft.isConstant() && mRight.isConstant();
+        }
+    }
+
+    private static Node fold(Node node) {
+        return node.isConstant() ? new Constant(node.eval(null)) : node;
+    }
+
+    private static class Parser {
+        private final String mSource;
+        private final List<String> mVariables;
+        private int mPos = 0;
+
+        Parser(String source, List<String> variables) {
+            mSource = source;
+            mVariables = variables;
+        }
+
+        Node parseExpression() {
+            Node left = parseTerm();
+            while (true) {
+                char c = peek();
+                if (c == '+' || c == '-') {
+                    mPos++;
+                    left = fold(new Binary(c, left, parseTerm()));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseTerm() {
+            Node left = parseUnary();
+            while (true) {
+                char c = peek();
+                if (c == '*' || c == '/') {
+                    mPos++;
+                    left = fold(new Binary(c, left, parseUnary()));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseUnary() {
+            if (peek() == '-') {
+                mPos++;
+                return fold(new Unary(0, parseUnary()));
+            }
+            return parsePower();
+        }
+
+        private Node parsePower() {
+            Node base = parsePrimary();
+            if (peek() == '^') {
+                mPos++;
+                // Right-associative, and binds tighter than unary minus on its left.
+                return fold(new Binary('^', base, parseUnary()));
+            }
+            return base;
+        }
+
+        private Node parsePrimary() {
+            char c = peek();
+            if (c == '(') {
+                mPos++;
+                Node inner = parseExpression();
+                expect(')');
+                return inner;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                return parseNumber();
+            }
+            if (Character.isLetter(c) || c == '_') {
+                return parseIdentifier();
+            }
+            throw error(c == 0 ? "Unexpected end of expression" : "Unexpected '" + c + "'");
+        }
+
+        private Node parseNumber() {
+            int start = mPos;
+            while (mPos < mSource.length() && (Character.isDigit(mSource.charAt(mPos))
+                    || mSource.charAt(mPos) == '.')) {
+                mPos++;
+            }
+            if (mPos < mSource.length()
+                    && (mSource.charAt(mPos) == 'e' || mSource.charAt(mPos) == 'E')) {
+                int exponentStart = mPos++;
+                if (mPos < mSource.length()
+                        && (mSource.charAt(mPos) == '-' || mSource.charAt(mPos) == '+')) {
+                    mPos++;
+                }
+                if (mPos < mSource.length() && Character.isDigit(mSource.charAt(mPos))) {
+                    while (mPos < mSource.length() && Character.isDigit(mSource.charAt(mPos))) {
+                        mPos++;
+                    }
+                } else {
+                    // Not an exponent after all; leave the "e" for the caller to reject.
+                    mPos = exponentStart;
+                }
+            }
+            try {
+                return new Constant(Double.parseDouble(mSource.substring(start, mPos)));
+            } catch (NumberFormatException e) {
+                throw error("Bad number " + mSource.substring(start, mPos));
+            }
+        }
+
+        private Node parseIdentifier() {
+            int start = mPos;
+            while (mPos < mSource.length() && (Character.isLetterOrDigit(mSource.charAt(mPos))
+                    || mSource.charAt(mPos) == '_')) {
+                mPos++;
+            }
+            String name = mSource.substring(start, mPos);
+            if (peek() == '(') {
+                mPos++;
+                return parseFunction(name);
+            }
+            int index = mVariables.indexOf(name);
+            if (index >= 0) {
+                return new Variable(index);
+            }
+            switch (name) {
+                case "pi":
+                    return new Constant(Math.PI);
+                case "e":
+                    return new Constant(Math.E);
+                default:
+                    throw error("Unknown input " + name);
+            }
+        }
+
+        private Node parseFunction(String name) {
+            Node first = parseExpression();
+            int unary = Unary.indexOf(name);
+            if (unary > 0) {
+                expect(')');
+                return fold(new Unary(unary, first));
+            }
+            switch (name) {
+                case "min":
+                case "max":
+                case "pow":
+                    expect(',');
+                    Node second = parseExpression();
+                    expect(')');
+                    char op = name.equals("min") ? '<' : name.equals("max") ? '>' : '^';
+                    return fold(new Binary(op, first, second));
+                default:
+                    throw error("Unknown function " + name);
+            }
+        }
+
+        void expectEnd() {
+            if (peek() != 0) {
+                throw error("Unexpected '" + peek() + "'");
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            mPos++;
+        }
+
+        // Skips whitespace, and returns the next character, or 0 at the end of the source.
+        private char peek() {
+            while (mPos < mSource.length() && Character.isWhitespace(mSource.charAt(mPos))) {
+                mPos++;
+            }
+            return mPos < mSource.length() ? mSource.charAt(mPos) : 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + mPos + " in \""
+                    + mSource + "\"");
+        }
+    }
+}
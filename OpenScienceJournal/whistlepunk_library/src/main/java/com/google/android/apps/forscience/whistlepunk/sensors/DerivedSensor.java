@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.RecorderListenerRegistry;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A sensor whose value is computed from other sensors' values by a {@link DerivedExpression}.
+ *
+ * While observing, it subscribes to each of its inputs, aligns their samples with a
+ * {@link StreamAligner}, and hands each computed value to the normal ScalarSensor path, so it is
+ * charted, zoomed and recorded like any other sensor.  Inputs are taken from what they record,
+ * not from what they display, so none of their samples are skipped when the UI thread is busy.
+ */
+public class DerivedSensor extends ScalarSensor {
+    /**
+     * Where a derived sensor gets the data for its inputs.
+     */
+    public interface InputSource {
+        /**
+         * Starts delivering every recorded value and the status of {@code sensorId}.  Values may
+         * be delivered on any thread.
+         *
+         * @return an id to pass to {@link #unsubscribe}
+         */
+        String subscribe(String sensorId, StreamConsumer consumer,
+                SensorStatusListener listener);
+
+        void unsubscribe(String sensorId, String subscriptionId);
+    }
+
+    private static final String CYCLE_ERROR = "Derived sensor cannot use itself as an input";
+
+    private final DerivedSensorSpec mSpec;
+    private final InputSource mInputSource;
+    private final Map<String, DerivedSensorSpec> mKnownSpecs;
+    private final List<String> mInputIds;
+    private DerivedExpression mExpression;
+    private String mCompileError;
+
+    /**
+     * @param knownSpecs the specs of the other derived sensors, by sensor id, used to reject
+     *                   inputs that lead back to this sensor.  It is read each time observing
+     *                   starts, so sensors built after this one are taken into account.
+     */
+    public DerivedSensor(String sensorId, DerivedSensorSpec spec, InputSource inputSource,
+            Map<String, DerivedSensorSpec> knownSpecs) {
+        this(sensorId, spec, inputSource, knownSpecs, AppSingleton.getUiThreadExecutor());
+    }
+
+    @VisibleForTesting
+    public DerivedSensor(String sensorId, DerivedSensorSpec spec, InputSource inputSource,
+            Executor uiThreadExecutor) {
+        this(sensorId, spec, inputSource, Collections.<String, DerivedSensorSpec>emptyMap(),
+                uiThreadExecutor);
+    }
+
+    @VisibleForTesting
+    public DerivedSensor(String sensorId, DerivedSensorSpec spec, InputSource inputSource,
+            Map<String, DerivedSensorSpec> knownSpecs, Executor uiThreadExecutor) {
+        super(sensorId, uiThreadExecutor);
+        mSpec = spec;
+        mInputSource = inputSource;
+        mKnownSpecs = knownSpecs;
+        mInputIds = spec.getInputSensorIds();
+        if (mInputIds.isEmpty()) {
+            mCompileError = "Derived sensor has no inputs";
+        } else {
+            try {
+                mExpression = spec.compileExpression();
+            } catch (IllegalArgumentException e) {
+                mCompileError = e.getMessage();
+            }
+        }
+    }
+
+    /**
+     * @return an InputSource that listens to sensors through {@code registry}.  The inputs must
+     * be observed by some other means, with recorders streaming to
+     * {@link RecorderListenerRegistry#makeStreamConsumerForRecorder}.
+     */
+    public static InputSource inputsFrom(final RecorderListenerRegistry registry) {
+        return new InputSource() {
+            @Override
+            public String subscribe(String sensorId, StreamConsumer consumer,
+                    SensorStatusListener listener) {
+                return registry.putStreamListeners(sensorId, consumer, listener);
+            }
+
+            @Override
+            public void unsubscribe(String sensorId, String subscriptionId) {
+                registry.remove(sensorId, subscriptionId);
+            }
+        };
+    }
+
+    @Override
+    protected SensorRecorder makeScalarControl(final StreamConsumer c,
+            SensorEnvironment environment, Context context,
+            final SensorStatusListener listener) {
+        final int inputCount = mInputIds.size();
+        final StreamAligner aligner = new StreamAligner(inputCount, mSpec.getMaxSkewMillis(),
+                new StreamAligner.AlignedListener() {
+                    @Override
+                    public void onAligned(long timestampMillis, double[] values) {
+                        c.addData(timestampMillis, mExpression.evaluate(values));
+                    }
+                });
+
+        // Each input delivers on its own sensor's thread, so the aligner is guarded by itself.
+        final StreamConsumer[] inputs = new StreamConsumer[inputCount];
+        final SensorStatusListener[] statusListeners = new SensorStatusListener[inputCount];
+        final boolean[] connected = new boolean[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            final int input = i;
+            inputs[i] = new StreamConsumer() {
+                @Override
+                public boolean addData(long timestampMillis, double value) {
+                    synchronized (aligner) {
+                        aligner.addSample(input, timestampMillis, value);
+                    }
+                    return true;
+                }
+            };
+            statusListeners[i] = new SensorStatusListener() {
+                @Override
+                public void onSourceStatus(String id, @Status int status) {
+                    connected[input] = status == STATUS_CONNECTED;
+                    listener.onSourceStatus(getId(),
+                            allConnected(connected) ? STATUS_CONNECTED : STATUS_CONNECTING);
+                }
+
+                @Override
+                public void onSourceError(String id, @Error int error, String errorMessage) {
+                    listener.onSourceError(getId(), error, errorMessage);
+                }
+            };
+        }
+
+        return new AbstractSensorRecorder() {
+            private final String[] mSubscriptionIds = new String[inputCount];
+
+            @Override
+            public void startObserving() {
+                String error = mCompileError;
+                if (error == null && DerivedSensorSpec.dependsOn(getId(), mInputIds,
+                        mKnownSpecs)) {
+                    error = CYCLE_ERROR;
+                }
+                if (error != null) {
+                    listener.onSourceError(getId(), SensorStatusListener.ERROR_UNKNOWN, error);
+                    return;
+                }
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTING);
+                synchronized (aligner) {
+                    aligner.reset();
+                }
+                for (int i = 0; i < inputCount; i++) {
+                    connected[i] = false;
+                    mSubscriptionIds[i] = mInputSource.subscribe(mInputIds.get(i), inputs[i],
+                            statusListeners[i]);
+                }
+            }
+
+            @Override
+            public void stopObserving() {
+                for (int i = 0; i < inputCount; i++) {
+                    if (mSubscriptionIds[i] != null) {
+                        mInputSource.unsubscribe(mInputIds.get(i), mSubscriptionIds[i]);
+                        mSubscriptionIds[i] = null;
+                    }
+                }
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+            }
+        };
+    }
+
+    private static boolean allConnected(boolean[] connected) {
+        for (boolean c : connected) {
+            if (!c) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
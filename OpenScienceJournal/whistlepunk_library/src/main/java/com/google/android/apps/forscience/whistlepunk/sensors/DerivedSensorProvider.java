@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.javalib.Consumer;
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.javalib.MaybeConsumers;
+import com.google.android.apps.forscience.javalib.Success;
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.DataController;
+import com.google.android.apps.forscience.whistlepunk.RecorderController;
+import com.google.android.apps.forscience.whistlepunk.SensorProvider;
+import com.google.android.apps.forscience.whistlepunk.devicemanager.SensorDiscoverer;
+import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorChoice;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds {@link DerivedSensor}s from their stored specs.
+ *
+ * Derived sensors are stored and registered like external sensors: a spec is added to the
+ * experiment with {@link #addToExperiment} (from the "Add calculated sensor" dialog in the device
+ * manager), and SensorRegistry builds the sensor through this provider when the experiment's
+ * sensors are loaded.
+ */
+public class DerivedSensorProvider implements SensorProvider {
+    private final DerivedSensor.InputSource mInputSource;
+    // Every derived sensor this provider has built, so each can check for cycles through the
+    // others.
+    private final Map<String, DerivedSensorSpec> mBuiltSpecs = new ConcurrentHashMap<>();
+
+    public DerivedSensorProvider(DerivedSensor.InputSource inputSource) {
+        mInputSource = inputSource;
+    }
+
+    @Override
+    public ExternalSensorSpec buildSensorSpec(String name, byte[] config) {
+        return new DerivedSensorSpec(name, config);
+    }
+
+    @Override
+    public SensorChoice buildSensor(String sensorId, ExternalSensorSpec spec) {
+        DerivedSensorSpec derivedSpec = (DerivedSensorSpec) spec;
+        mBuiltSpecs.put(sensorId, derivedSpec);
+        return new DerivedSensor(sensorId, derivedSpec, mInputSource, mBuiltSpecs);
+    }
+
+    /**
+     * Stores {@code spec} and adds it to the experiment's available sensors, returning the new
+     * sensor's id to {@code onSensorId}.  Fails with an IllegalArgumentException, without adding
+     * the sensor to the experiment, if the expression is invalid or the sensor would depend on
+     * itself through other derived sensors.
+     */
+    public static void addToExperiment(final DataController dc, final String experimentId,
+            final DerivedSensorSpec spec, final MaybeConsumer<String> onSensorId) {
+        try {
+            spec.compileExpression();
+        } catch (IllegalArgumentException e) {
+            onSensorId.fail(e);
+            return;
+        }
+        dc.addOrGetExternalSensor(spec, MaybeConsumers.chainFailure(onSensorId,
+                new Consumer<String>() {
+                    @Override
+                    public void take(final String sensorId) {
+                        checkForCycle(dc, sensorId, spec, MaybeConsumers.chainFailure(onSensorId,
+                                new Consumer<Success>() {
+                                    @Override
+                                    public void take(Success success) {
+                                        addSensorToExperiment(dc, experimentId, sensorId,
+                                                onSensorId);
+                                    }
+                                }));
+                    }
+                }));
+    }
+
+    private static void checkForCycle(DataController dc, final String sensorId,
+            final DerivedSensorSpec spec, final MaybeConsumer<Success> onNoCycle) {
+        dc.getExternalSensors(MaybeConsumers.chainFailure(onNoCycle,
+                new Consumer<Map<String, ExternalSensorSpec>>() {
+                    @Override
+                    public void take(Map<String, ExternalSensorSpec> sensors) {
+                        Map<String, DerivedSensorSpec> derivedSpecs = new HashMap<>();
+                        for (Map.Entry<String, ExternalSensorSpec> entry : sensors.entrySet()) {
+                            if (entry.getValue() instanceof DerivedSensorSpec) {
+                                derivedSpecs.put(entry.getKey(),
+                                        (DerivedSensorSpec) entry.getValue());
+                            }
+                        }
+                        if (DerivedSensorSpec.dependsOn(sensorId, spec.getInputSensorIds(),
+                                derivedSpecs)) {
+                            onNoCycle.fail(new IllegalArgumentException(
+                                    "Derived sensor cannot use itself as an input"));
+                        } else {
+                            onNoCycle.success(Success.SUCCESS);
+                        }
+                    }
+                }));
+    }
+
+    private static void addSensorToExperiment(DataController dc, String experimentId,
+            final String sensorId, final MaybeConsumer<String> onSensorId) {
+        dc.addSensorToExperiment(experimentId, sensorId,
+                MaybeConsumers.chainFailure(onSensorId, new Consumer<Success>() {
+                    @Override
+                    public void take(Success success) {
+                        onSensorId.success(sensorId);
+                    }
+                }));
+    }
+
+    /**
+     * @return an InputSource that starts observing each input through the app's
+     * RecorderController, so inputs run even when they are not shown on a card.
+     */
+    public static DerivedSensor.InputSource recorderControllerInputs(final Context context) {
+        return new DerivedSensor.InputSource() {
+            @Override
+            public String subscribe(String sensorId, StreamConsumer consumer,
+                    SensorStatusListener listener) {
+                AppSingleton singleton = AppSingleton.getInstance(context);
+                return singleton.getRecorderController().startStreaming(sensorId, consumer,
+                        listener, singleton.getSensorRegistry());
+            }
+
+            @Override
+            public void unsubscribe(String sensorId, String subscriptionId) {
+                RecorderController rc = AppSingleton.getInstance(context).getRecorderController();
+                rc.stopObserving(sensorId, subscriptionId);
+            }
+        };
+    }
+
+    /**
+     * Derived sensors are never found by scanning; they come only from stored experiments.
+     */
+    public static SensorDiscoverer discoverer(Context context) {
+        final SensorProvider provider = new DerivedSensorProvider(
+                recorderControllerInputs(context.getApplicationContext()));
+        return new SensorDiscoverer() {
+            @Override
+            public boolean startScanning(ScanListener listener, FailureListener onScanError) {
+                return false;
+            }
+
+            @Override
+            public void stopScanning() {
+
+            }
+
+            @Override
+            public SensorProvider getProvider() {
+                return provider;
+            }
+        };
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.SensorAppearance;
+import com.google.android.apps.forscience.whistlepunk.api.scalarinput.EmptySensorAppearance;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciDerivedSensorConfig
+        .DerivedSensorConfig;
+import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Specifies a sensor whose value is computed from other sensors by an expression.  Stored in an
+ * experiment like any other external sensor spec.
+ */
+public class DerivedSensorSpec extends ExternalSensorSpec {
+    public static final String TYPE = "derived";
+    private static final String TAG = "DerivedSensorSpec";
+
+    private String mName;
+    private DerivedSensorConfig mConfig = new DerivedSensorConfig();
+
+    /**
+     * @param address a unique address for this sensor.  Inputs are added with
+     *                {@link #addInput(String, String)}; the first input added is the reference.
+     */
+    public DerivedSensorSpec(String address, String name, String expression, String units) {
+        mName = name;
+        mConfig.address = address;
+        mConfig.expression = expression;
+        mConfig.units = units;
+    }
+
+    public DerivedSensorSpec(String name, byte[] config) {
+        mName = name;
+        try {
+            mConfig = DerivedSensorConfig.parseFrom(config);
+        } catch (InvalidProtocolBufferNanoException e) {
+            Log.e(TAG, "Could not deserialize config", e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public DerivedSensorSpec addInput(String sensorId, String variable) {
+        DerivedSensorConfig.Input input = new DerivedSensorConfig.Input();
+        input.sensorId = sensorId;
+        input.variable = variable;
+
+        DerivedSensorConfig.Input[] inputs = new DerivedSensorConfig.Input[
+                mConfig.inputs.length + 1];
+        System.arraycopy(mConfig.inputs, 0, inputs, 0, mConfig.inputs.length);
+        inputs[mConfig.inputs.length] = input;
+        mConfig.inputs = inputs;
+        return this;
+    }
+
+    public void setMaxSkewMillis(long maxSkewMillis) {
+        mConfig.maxSkewMillis = maxSkewMillis;
+    }
+
+    public long getMaxSkewMillis() {
+        return mConfig.maxSkewMillis;
+    }
+
+    public String getExpression() {
+        return mConfig.expression;
+    }
+
+    public List<String> getInputSensorIds() {
+        List<String> ids = new ArrayList<>();
+        for (DerivedSensorConfig.Input input : mConfig.inputs) {
+            ids.add(input.sensorId);
+        }
+        return ids;
+    }
+
+    public List<String> getInputVariables() {
+        List<String> variables = new ArrayList<>();
+        for (DerivedSensorConfig.Input input : mConfig.inputs) {
+            variables.add(input.variable);
+        }
+        return variables;
+    }
+
+    /**
+     * @return true if {@code sensorId} can be reached from {@code inputIds}, following inputs
+     *         through the derived sensors in {@code derivedSpecs} (keyed by sensor id).  A derived
+     *         sensor with those inputs would then depend, directly or indirectly, on itself.
+     */
+    public static boolean dependsOn(String sensorId, List<String> inputIds,
+            Map<String, DerivedSensorSpec> derivedSpecs) {
+        Deque<String> toVisit = new ArrayDeque<>(inputIds);
+        Set<String> visited = new HashSet<>();
+        while (!toVisit.isEmpty()) {
+            String id = toVisit.pop();
+            if (id.equals(sensorId)) {
+                return true;
+            }
+            if (visited.add(id)) {
+                DerivedSensorSpec spec = derivedSpecs.get(id);
+                if (spec != null) {
+                    toVisit.addAll(spec.getInputSensorIds());
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is invalid or refers to unknown inputs.
+     */
+    public DerivedExpression compileExpression() {
+        return DerivedExpression.compile(mConfig.expression, getInputVariables());
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getAddress() {
+        return mConfig.address;
+    }
+
+    @Override
+    public SensorAppearance getSensorAppearance() {
+        return new EmptySensorAppearance() {
+            @Override
+            public String getName(Context context) {
+                return mName;
+            }
+
+            @Override
+            public String getUnits(Context context) {
+                return mConfig.units;
+            }
+
+            @Override
+            public String getShortDescription(Context context) {
+                return mConfig.expression;
+            }
+        };
+    }
+
+    @Override
+    public byte[] getConfig() {
+        return getBytes(mConfig);
+    }
+
+    @Override
+    public boolean shouldShowOptionsOnConnect() {
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+/**
+ * Maps {@link android.hardware.SensorEvent#timestamp} values (nanoseconds on the sensor's own
+ * monotonic timebase) onto the millisecond timebase of a
+ * {@link com.google.android.apps.forscience.whistlepunk.Clock}, so that readings are spaced by
+ * when the hardware sampled them rather than by when the callback happened to run.
+ *
+ * The offset between the two timebases is estimated as the smallest observed difference between
+ * the clock at callback time and the event time: delivery latency can only make that difference
+ * larger, so the minimum is the best estimate of the true offset.  A fresh minimum is taken over
+ * each recalibration interval so that the mapping follows changes to the wall clock.
+ *
+ * Mapped times never go backwards: when the estimate drops, the offset actually applied slews
+ * down to it at no more than half the rate at which event time advances, so readings keep their
+ * order, and readings at least two milliseconds apart still map to different times.  Readings
+ * closer together than that can map to the same millisecond.  Increases are applied at once,
+ * since they only move readings forward.
+ */
+public class EventTimeMapper {
+    static final long RECALIBRATION_INTERVAL_NANOS = 10L * 1000 * 1000 * 1000;
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private boolean mCalibrated = false;
+    private long mOffsetNanos;
+    private long mAppliedOffsetNanos;
+    private long mLastEventNanos;
+    private long mLastResultMillis;
+    private long mWindowStartNanos;
+    private long mWindowMinOffsetNanos;
+
+    /**
+     * @param eventTimestampNanos the hardware timestamp of a reading
+     * @param clockNowMillis the clock's current time, read as soon as the reading arrived
+     * @return the time of the reading in the clock's timebase
+     */
+    public long toClockMillis(long eventTimestampNanos, long clockNowMillis) {
+        long observedOffset = clockNowMillis * NANOS_PER_MILLI - eventTimestampNanos;
+        if (!mCalibrated) {
+            mCalibrated = true;
+            mOffsetNanos = observedOffset;
+            mAppliedOffsetNanos = observedOffset;
+            mLastEventNanos = eventTimestampNanos;
+            mLastResultMillis = Long.MIN_VALUE;
+            startWindow(eventTimestampNanos, observedOffset);
+        } else {
+            if (observedOffset < mOffsetNanos) {
+                mOffsetNanos = observedOffset;
+            }
+            if (observedOffset < mWindowMinOffsetNanos) {
+                mWindowMinOffsetNanos = observedOffset;
+            }
+            if (eventTimestampNanos - mWindowStartNanos >= RECALIBRATION_INTERVAL_NANOS) {
+                mOffsetNanos = mWindowMinOffsetNanos;
+                startWindow(eventTimestampNanos, observedOffset);
+            }
+            updateAppliedOffset(eventTimestampNanos);
+        }
+        long result = Math.max((eventTimestampNanos + mAppliedOffsetNanos) / NANOS_PER_MILLI,
+                mLastResultMillis);
+        mLastResultMillis = result;
+        return result;
+    }
+
+    /**
+     * @return the (clock time - event time) currently applied to readings, in nanoseconds.  This
+     *         may still be slewing toward a lower estimate.
+     */
+    public long getOffsetNanos() {
+        return mAppliedOffsetNanos;
+    }
+
+    public void reset() {
+        mCalibrated = false;
+    }
+
+    private void updateAppliedOffset(long eventTimestampNanos) {
+        long eventElapsed = Math.max(0, eventTimestampNanos - mLastEventNanos);
+        mLastEventNanos = eventTimestampNanos;
+        if (mOffsetNanos >= mAppliedOffsetNanos) {
+            mAppliedOffsetNanos = mOffsetNanos;
+        } else {
+            mAppliedOffsetNanos = Math.max(mOffsetNanos, mAppliedOffsetNanos - eventElapsed / 2);
+        }
+    }
+
+    private void startWindow(long eventTimestampNanos, long observedOffset) {
+        mWindowStartNanos = eventTimestampNanos;
+        mWindowMinOffsetNanos = observedOffset;
+    }
+}
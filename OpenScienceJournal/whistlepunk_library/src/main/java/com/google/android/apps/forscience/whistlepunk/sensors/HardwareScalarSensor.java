@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A ScalarSensor whose value is computed from each event of a single Android hardware sensor.
+ *
+ * Events arrive through the shared {@link HardwareSensorHub}, at a sampling rate the user can
+ * choose in the sensor's options, and readings are timestamped from the event's hardware
+ * timestamp (see {@link EventTimeMapper}).
+ */
+public abstract class HardwareScalarSensor extends ScalarSensor {
+    private final int mSensorType;
+    private final int mDefaultSamplingPeriodMicros;
+
+    protected HardwareScalarSensor(String id, int sensorType, int defaultSamplingPeriodMicros) {
+        super(id);
+        mSensorType = sensorType;
+        mDefaultSamplingPeriodMicros = defaultSamplingPeriodMicros;
+    }
+
+    @VisibleForTesting
+    HardwareScalarSensor(String id, int sensorType, int defaultSamplingPeriodMicros,
+            Executor uiThreadExecutor) {
+        super(id, uiThreadExecutor);
+        mSensorType = sensorType;
+        mDefaultSamplingPeriodMicros = defaultSamplingPeriodMicros;
+    }
+
+    /**
+     * @param values {@link android.hardware.SensorEvent#values} of the event
+     * @param magnitude the length of the vector formed by the first three values
+     * @return the scalar value to report for this event
+     */
+    protected abstract double computeValue(float[] values, double magnitude);
+
+    @VisibleForTesting
+    HardwareSensorHub getHub(Context context) {
+        return HardwareSensorHub.forSensorType(context, mSensorType);
+    }
+
+    @Override
+    protected SensorRecorder makeScalarControl(final StreamConsumer c,
+            final SensorEnvironment environment, final Context context,
+            final SensorStatusListener listener) {
+        final Clock clock = environment.getDefaultClock();
+        final EventTimeMapper timeMapper = new EventTimeMapper();
+        final HardwareSensorHub.Subscriber subscriber = new HardwareSensorHub.Subscriber() {
+            @Override
+            public void onSensorValues(long eventTimestampNanos, float[] values,
+                    double magnitude) {
+                long timestamp = timeMapper.toClockMillis(eventTimestampNanos, clock.getNow());
+                c.addData(timestamp, computeValue(values, magnitude));
+            }
+        };
+        return new AbstractSensorRecorder() {
+            private int mSamplingPeriodMicros = mDefaultSamplingPeriodMicros;
+
+            @Override
+            public void startObserving() {
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
+                timeMapper.reset();
+                getHub(context).subscribe(subscriber, mSamplingPeriodMicros);
+            }
+
+            @Override
+            public void stopObserving() {
+                getHub(context).unsubscribe(subscriber);
+                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+            }
+
+            @Override
+            public void applyOptions(ReadableSensorOptions settings) {
+                mSamplingPeriodMicros = SamplingRate.getSamplingPeriodMicros(settings,
+                        mDefaultSamplingPeriodMicros);
+                getHub(context).setSamplingPeriod(subscriber, mSamplingPeriodMicros);
+            }
+        };
+    }
+
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingRateOptionsPresenter(mDefaultSamplingPeriodMicros);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares one {@link SensorEventListener} registration per hardware sensor type among every
+ * built-in sensor that reads from it.  For example, observing accelerometer X, Y and Z registers
+ * with the {@link SensorManager} once, and each event is fanned out to all three subscribers.
+ *
+ * The hub registers when the first subscriber arrives and unregisters when the last one leaves.
+ * Each subscriber asks for a sampling period, and the hub registers at the fastest period any
+ * current subscriber wants, re-registering when that changes.  The vector magnitude of each event
+ * is computed once and handed to every subscriber.
+ */
+public class HardwareSensorHub {
+    public interface Subscriber {
+        /**
+         * Called on the thread the SensorManager delivers events on.  {@code values} belongs to
+         * the SensorManager and may be reused once this returns.
+         *
+         * @param eventTimestampNanos {@link SensorEvent#timestamp} of the event
+         * @param values {@link SensorEvent#values} of the event
+         * @param magnitude the length of the vector formed by the first three values
+         */
+        void onSensorValues(long eventTimestampNanos, float[] values, double magnitude);
+    }
+
+    /**
+     * Hides the SensorManager so that the reference counting can be tested.
+     */
+    @VisibleForTesting
+    interface Registrar {
+        void register(SensorEventListener listener, int samplingPeriodMicros);
+
+        void unregister(SensorEventListener listener);
+    }
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+    private static final int NOT_REGISTERED = -1;
+    private static final Map<Integer, HardwareSensorHub> sHubs = new HashMap<>();
+
+    /**
+     * @return the shared hub for the default sensor of the given {@link Sensor} type.
+     */
+    public static synchronized HardwareSensorHub forSensorType(Context context, int sensorType) {
+        HardwareSensorHub hub = sHubs.get(sensorType);
+        if (hub == null) {
+            hub = new HardwareSensorHub(managerRegistrar(context.getApplicationContext(),
+                    sensorType));
+            sHubs.put(sensorType, hub);
+        }
+        return hub;
+    }
+
+    private static Registrar managerRegistrar(final Context appContext, final int sensorType) {
+        return new Registrar() {
+            @Override
+            public void register(SensorEventListener listener, int samplingPeriodMicros) {
+                SensorManager sensorManager = ScalarSensor.getSensorManager(appContext);
+                Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+                sensorManager.registerListener(listener, sensor, samplingPeriodMicros);
+            }
+
+            @Override
+            public void unregister(SensorEventListener listener) {
+                ScalarSensor.getSensorManager(appContext).unregisterListener(listener);
+            }
+        };
+    }
+
+    private final Registrar mRegistrar;
+
+    // Replaced wholesale on every change, so dispatch can walk it without locking.
+    private volatile Subscriber[] mSubscribers = NO_SUBSCRIBERS;
+
+    // Requested sampling period of each subscriber, parallel to mSubscribers.  Guarded by this.
+    private int[] mSamplingPeriods = new int[0];
+    private int mRegisteredPeriod = NOT_REGISTERED;
+
+    private final SensorEventListener mListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            dispatch(event.timestamp, event.values);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+        }
+    };
+
+    @VisibleForTesting
+    HardwareSensorHub(Registrar registrar) {
+        mRegistrar = registrar;
+    }
+
+    /**
+     * @param samplingPeriodMicros the desired delay between events, in microseconds.  The actual
+     *                             rate may be faster if another subscriber asks for one.
+     */
+    public synchronized void subscribe(Subscriber subscriber, int samplingPeriodMicros) {
+        Subscriber[] current = mSubscribers;
+        int index = indexOf(current, subscriber);
+        if (index >= 0) {
+            mSamplingPeriods[index] = samplingPeriodMicros;
+            updateRegistration();
+            return;
+        }
+        Subscriber[] updated = new Subscriber[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = subscriber;
+        int[] periods = new int[current.length + 1];
+        System.arraycopy(mSamplingPeriods, 0, periods, 0, current.length);
+        periods[current.length] = samplingPeriodMicros;
+        mSamplingPeriods = periods;
+        mSubscribers = updated;
+        updateRegistration();
+    }
+
+    /**
+     * Changes the sampling period requested by an existing subscriber.  Does nothing if
+     * {@code subscriber} is not subscribed.
+     */
+    public synchronized void setSamplingPeriod(Subscriber subscriber, int samplingPeriodMicros) {
+        int index = indexOf(mSubscribers, subscriber);
+        if (index >= 0) {
+            mSamplingPeriods[index] = samplingPeriodMicros;
+            updateRegistration();
+        }
+    }
+
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        Subscriber[] current = mSubscribers;
+        int index = indexOf(current, subscriber);
+        if (index < 0) {
+            return;
+        }
+        Subscriber[] updated = new Subscriber[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        int[] periods = new int[current.length - 1];
+        System.arraycopy(mSamplingPeriods, 0, periods, 0, index);
+        System.arraycopy(mSamplingPeriods, index + 1, periods, index, current.length - index - 1);
+        mSamplingPeriods = periods;
+        mSubscribers = updated.length == 0 ? NO_SUBSCRIBERS : updated;
+        updateRegistration();
+    }
+
+    /**
+     * @return the sampling period the hub is registered at, or -1 if it is not registered.
+     */
+    public synchronized int getRegisteredSamplingPeriod() {
+        return mRegisteredPeriod;
+    }
+
+    private void updateRegistration() {
+        int wanted = NOT_REGISTERED;
+        for (int period : mSamplingPeriods) {
+            if (wanted == NOT_REGISTERED || period < wanted) {
+                wanted = period;
+            }
+        }
+        if (wanted == mRegisteredPeriod) {
+            return;
+        }
+        if (mRegisteredPeriod != NOT_REGISTERED) {
+            mRegistrar.unregister(mListener);
+        }
+        if (wanted != NOT_REGISTERED) {
+            mRegistrar.register(mListener, wanted);
+        }
+        mRegisteredPeriod = wanted;
+    }
+
+    private static int indexOf(Subscriber[] subscribers, Subscriber subscriber) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i] == subscriber) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getSubscriberCount() {
+        return mSubscribers.length;
+    }
+
+    @VisibleForTesting
+    void dispatch(long eventTimestampNanos, float[] values) {
+        Subscriber[] subscribers = mSubscribers;
+        if (subscribers.length == 0) {
+            return;
+        }
+        double magnitude = magnitude(values);
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i].onSensorValues(eventTimestampNanos, values, magnitude);
+        }
+    }
+
+    private static double magnitude(float[] values) {
+        double sumOfSquares = 0;
+        int axes = Math.min(3, values.length);
+        for (int i = 0; i < axes; i++) {
+            double value = values[i];
+            sumOfSquares += value * value;
+        }
+        return Math.sqrt(sumOfSquares);
+    }
+}
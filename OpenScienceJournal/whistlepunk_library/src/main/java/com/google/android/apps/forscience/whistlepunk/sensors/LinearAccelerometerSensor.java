@@ -16,72 +16,24 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensors;
 
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
 /**
  * Class to get scalar, linear data from the linear accelerometer sensor by combining acceleration
  * in all three axis. The force of gravity is excluded.
  */
-public class LinearAccelerometerSensor extends ScalarSensor {
+public class LinearAccelerometerSensor extends HardwareScalarSensor {
     public static final String ID = "LinearAccelerometerSensor";
-    private SensorEventListener mSensorEventListener;
 
     public LinearAccelerometerSensor() {
-        super(ID);
+        super(ID, Sensor.TYPE_LINEAR_ACCELERATION, SamplingRate.PERIOD_UI_MICROS);
     }
 
     @Override
-    protected SensorRecorder makeScalarControl(final StreamConsumer c,
-            final SensorEnvironment environment, final Context context,
-            final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        c.addData(clock.getNow(), Math.sqrt(
-                                        event.values[0] * event.values[0] +
-                                        event.values[1] * event.values[1] +
-                                        event.values[2] * event.values[2]));
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
-
-            }
-
-            @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
-            }
-        };
+    protected double computeValue(float[] values, double magnitude) {
+        return magnitude;
     }
 
     public static boolean isLinearAccelerometerAvailable(AvailableSensors availableSensors) {
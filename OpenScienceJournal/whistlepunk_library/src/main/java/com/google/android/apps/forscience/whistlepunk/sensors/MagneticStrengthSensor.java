@@ -16,72 +16,27 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensors;
 
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
 /**
  * Class to get sensor data from the Magnetic sensor.
  */
-public class MagneticStrengthSensor extends ScalarSensor {
+public class MagneticStrengthSensor extends HardwareScalarSensor {
     // For historical reasons, the ID is MagneticRotationSensor. Since this is not exposed to the
     // user, we will just not mind the inconsistency.
     public static final String ID = "MagneticRotationSensor";
-    private SensorEventListener mSensorEventListener;
 
     public MagneticStrengthSensor() {
-        super(ID);
+        super(ID, Sensor.TYPE_MAGNETIC_FIELD, SamplingRate.PERIOD_UI_MICROS);
     }
 
     @Override
-    protected SensorRecorder makeScalarControl(final StreamConsumer c,
-            final SensorEnvironment environment, final Context context,
-            final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        // The strength is the square root of the sum of the squares of the
-                        // values in X, Y and Z.
-                        c.addData(clock.getNow(), Math.sqrt(Math.pow(event.values[0], 2) +
-                                Math.pow(event.values[1], 2) + Math.pow(event.values[2], 2)));
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, magnetometer,
-                        SensorManager.SENSOR_DELAY_UI);
-            }
-
-            @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
-            }
-        };
+    protected double computeValue(float[] values, double magnitude) {
+        // The strength is the square root of the sum of the squares of the
+        // values in X, Y and Z.
+        return magnitude;
     }
 
     public static boolean isMagneticRotationSensorAvailable(AvailableSensors availableSensors) {
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+
+/**
+ * The hardware sampling rate option shared by built-in sensors.  Rates are stored as a sampling
+ * period in microseconds, which is what {@link android.hardware.SensorManager#registerListener}
+ * accepts, so the SENSOR_DELAY_* presets and explicit periods can be compared directly.
+ */
+public class SamplingRate {
+    public static final String PREFS_KEY_SAMPLING_PERIOD_MICROS = "sampling_period_micros";
+
+    // The periods Android uses for the SensorManager.SENSOR_DELAY_* constants.
+    public static final int PERIOD_NORMAL_MICROS = 200000;
+    public static final int PERIOD_UI_MICROS = 66667;
+    public static final int PERIOD_GAME_MICROS = 20000;
+    public static final int PERIOD_FASTEST_MICROS = 0;
+
+    // registerListener reads periods of 0 to 3 as the SENSOR_DELAY_* constants themselves.  0 is
+    // PERIOD_FASTEST_MICROS, which means the same either way; other custom periods must be longer.
+    private static final int MIN_CUSTOM_PERIOD_MICROS = 4;
+
+    private SamplingRate() {
+    }
+
+    /**
+     * @return the stored sampling period, which is never one that registerListener would take
+     * for a different SENSOR_DELAY_* constant.
+     */
+    public static int getSamplingPeriodMicros(ReadableSensorOptions options,
+            int defaultPeriodMicros) {
+        long period = options.getLong(PREFS_KEY_SAMPLING_PERIOD_MICROS, defaultPeriodMicros);
+        if (period < 0) {
+            return defaultPeriodMicros;
+        }
+        if (period != PERIOD_FASTEST_MICROS && period < MIN_CUSTOM_PERIOD_MICROS) {
+            return MIN_CUSTOM_PERIOD_MICROS;
+        }
+        return (int) Math.min(period, Integer.MAX_VALUE);
+    }
+}
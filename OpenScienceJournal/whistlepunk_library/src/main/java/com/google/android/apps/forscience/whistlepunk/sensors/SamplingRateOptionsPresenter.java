@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import com.google.android.apps.forscience.whistlepunk.R;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ActiveBundle;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.LongUpdatingWatcher;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
+
+/**
+ * OptionsPresenter for the hardware sampling rate of built-in sensors.
+ */
+class SamplingRateOptionsPresenter implements SensorPresenter.OptionsPresenter {
+    // In the same order as R.array.sampling_rate_list, followed by the "custom" entry.
+    private static final int[] PRESET_PERIODS = {SamplingRate.PERIOD_UI_MICROS,
+            SamplingRate.PERIOD_GAME_MICROS, SamplingRate.PERIOD_FASTEST_MICROS};
+    private static final int CUSTOM_POSITION = PRESET_PERIODS.length;
+
+    private final int mDefaultPeriodMicros;
+
+    SamplingRateOptionsPresenter(int defaultPeriodMicros) {
+        mDefaultPeriodMicros = defaultPeriodMicros;
+    }
+
+    @Override
+    public View buildOptionsView(final ActiveBundle activeBundle, Context context) {
+        @SuppressLint("InflateParams") final View inflated =
+                LayoutInflater.from(context).inflate(R.layout.sampling_rate_options, null);
+        final View periodRow = inflated.findViewById(R.id.sampling_period_row);
+        final EditText periodEdit = (EditText) inflated.findViewById(R.id.sampling_period_edit);
+        final Spinner spinner = (Spinner) inflated.findViewById(R.id.sampling_rate_spinner);
+
+        int period = SamplingRate.getSamplingPeriodMicros(activeBundle.getReadOnly(),
+                mDefaultPeriodMicros);
+        final int initialPosition = positionForPeriod(period);
+        periodEdit.setText(String.valueOf(period));
+        periodEdit.addTextChangedListener(new LongUpdatingWatcher(activeBundle,
+                SamplingRate.PREFS_KEY_SAMPLING_PERIOD_MICROS, periodEdit));
+        periodRow.setVisibility(initialPosition == CUSTOM_POSITION ? View.VISIBLE : View.GONE);
+
+        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(context,
+                R.array.sampling_rate_list, android.R.layout.simple_spinner_item);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinner.setAdapter(adapter);
+        spinner.setSelection(initialPosition);
+        spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (position == CUSTOM_POSITION) {
+                    periodRow.setVisibility(View.VISIBLE);
+                } else {
+                    periodRow.setVisibility(View.GONE);
+                    // Updating the text also stores the preset through the watcher.
+                    periodEdit.setText(String.valueOf(PRESET_PERIODS[position]));
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+
+            }
+        });
+        return inflated;
+    }
+
+    private static int positionForPeriod(int periodMicros) {
+        for (int i = 0; i < PRESET_PERIODS.length; i++) {
+            if (PRESET_PERIODS[i] == periodMicros) {
+                return i;
+            }
+        }
+        return CUSTOM_POSITION;
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions bundle) {
+        // Nothing to preview; the recorder re-registers at the new rate.
+    }
+}
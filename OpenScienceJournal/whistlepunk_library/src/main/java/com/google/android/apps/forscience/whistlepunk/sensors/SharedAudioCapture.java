@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.CurrentTimeClock;
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Owns the single microphone {@link AudioRecord} and capture thread, and fans each captured
+ * buffer out to every registered {@link AudioReceiver}.  The microphone is opened when the first
+ * receiver registers and released when the last one unregisters, so any number of audio-derived
+ * sensors can observe at once without competing for the mic.
+ *
+ * Buffers are timestamped with a clock owned by this class, so every receiver sees the same
+ * timeline no matter which one started the capture.
+ */
+public class SharedAudioCapture {
+    private static final String TAG = "SharedAudioCapture";
+
+    public static final int SAMPLE_RATE_IN_HZ = 44100;
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    // How many read-sized chunks the AudioRecord can buffer before it overruns.
+    private static final int RECORD_BUFFER_CHUNKS = 4;
+
+    public static final int START_OK = 0;
+    public static final int START_ERROR_NO_MICROPHONE = 1;
+    public static final int START_ERROR_MICROPHONE_IN_USE = 2;
+
+    public interface AudioReceiver {
+        /**
+         * Called on the capture thread.  {@code buffer} is reused after this returns, so
+         * receivers must copy anything they want to keep.
+         *
+         * @param timestampMillis the time at which the last sample in the buffer was read
+         */
+        void onReceiveAudio(long timestampMillis, short[] buffer, int count);
+    }
+
+    private static SharedAudioCapture sInstance;
+
+    public static synchronized SharedAudioCapture getInstance() {
+        if (sInstance == null) {
+            sInstance = new SharedAudioCapture();
+        }
+        return sInstance;
+    }
+
+    private final CopyOnWriteArrayList<AudioReceiver> mReceivers = new CopyOnWriteArrayList<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Clock mClock = new CurrentTimeClock();
+    private volatile PerfTrackerProvider mPerfTracker;
+    private AudioRecord mRecord;
+
+    // Each capture session gets its own flag, so a loop that is still winding down can never be
+    // revived by a later session.
+    private AtomicBoolean mCaptureRunning = null;
+
+    private SharedAudioCapture() {
+    }
+
+    /**
+     * Adds a receiver, starting capture if it is the first one.
+     *
+     * @return {@link #START_OK} if the microphone is capturing, or an error constant if it could
+     *         not be started (in which case the receiver is not registered).
+     */
+    public synchronized int registerReceiver(AudioReceiver receiver) {
+        if (mCaptureRunning == null) {
+            int result = startCapture();
+            if (result != START_OK) {
+                return result;
+            }
+        }
+        mReceivers.addIfAbsent(receiver);
+        return START_OK;
+    }
+
+    /**
+     * Removes a receiver, releasing the microphone if no receivers remain.
+     */
+    public synchronized void unregisterReceiver(AudioReceiver receiver) {
+        mReceivers.remove(receiver);
+        if (mReceivers.isEmpty()) {
+            stopCapture();
+        }
+    }
+
+    public int getReceiverCount() {
+        return mReceivers.size();
+    }
+
+    /**
+     * At the end of each capture session, the average rate at which samples were read and the
+     * number of buffers lost to read errors or to the AudioRecord overrunning (because receivers
+     * took too long) are reported to {@code perfTracker}, if it is not null.
+     */
+    public void setPerfTracker(PerfTrackerProvider perfTracker) {
+        mPerfTracker = perfTracker;
+    }
+
+    private int startCapture() {
+        int minBufferBytes =
+                AudioRecord.getMinBufferSize(SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT);
+        if (minBufferBytes < 0) {
+            // AudioRecord.getMinBufferSize returned an error.
+            return START_ERROR_NO_MICROPHONE;
+        }
+        final int readSamples = minBufferBytes / BYTES_PER_SAMPLE;
+        // Use VOICE_COMMUNICATION to filter out audio coming from the speakers
+        final AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.VOICE_COMMUNICATION,
+                SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT,
+                minBufferBytes * RECORD_BUFFER_CHUNKS);
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            return START_ERROR_NO_MICROPHONE;
+        }
+        record.startRecording();
+        // Check to see if we actually started recording before continuing.
+        // AudioRecord#startRecording() logs an error but it has no return value and
+        // doesn't throw an exception when someone else is using the mic.
+        if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            record.release();
+            return START_ERROR_MICROPHONE_IN_USE;
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        mRecord = record;
+        mCaptureRunning = running;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                captureLoop(record, readSamples, running);
+            }
+        });
+        return START_OK;
+    }
+
+    private void stopCapture() {
+        if (mCaptureRunning != null) {
+            mCaptureRunning.set(false);
+            mCaptureRunning = null;
+        }
+        if (mRecord != null) {
+            final AudioRecord record = mRecord;
+            mRecord = null;
+            // Stopping unblocks any pending read; release on the capture thread once the loop has
+            // exited so that we never release a record that is still being read.
+            record.stop();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    record.release();
+                }
+            });
+        }
+    }
+
+    private void captureLoop(AudioRecord record, int readSamples, AtomicBoolean running) {
+        short[] buffer = new short[readSamples];
+        // If more time than this passes between reads, the AudioRecord has overrun and dropped
+        // audio.
+        long overrunNanos = RECORD_BUFFER_CHUNKS * readSamples * 1000000000L / SAMPLE_RATE_IN_HZ;
+        long startNanos = System.nanoTime();
+        long lastReadNanos = startNanos;
+        long samplesRead = 0;
+        long droppedBuffers = 0;
+
+        while (running.get()) {
+            int read = record.read(buffer, 0, readSamples);
+            long now = System.nanoTime();
+            if (read <= 0) {
+                if (running.get()) {
+                    droppedBuffers++;
+                    if (Log.isLoggable(TAG, Log.WARN)) {
+                        Log.w(TAG, "AudioRecord read failed: " + read);
+                    }
+                }
+                continue;
+            }
+            if (now - lastReadNanos > overrunNanos) {
+                droppedBuffers++;
+            }
+            lastReadNanos = now;
+
+            long timestampMillis = mClock.getNow();
+            for (AudioReceiver receiver : mReceivers) {
+                receiver.onReceiveAudio(timestampMillis, buffer, read);
+            }
+            samplesRead += read;
+        }
+
+        PerfTrackerProvider perfTracker = mPerfTracker;
+        long elapsedNanos = lastReadNanos - startNanos;
+        if (perfTracker != null && elapsedNanos > 0) {
+            perfTracker.recordAudioCaptureStats(samplesRead * 1e9 / elapsedNanos,
+                    droppedBuffers);
+        }
+    }
+}
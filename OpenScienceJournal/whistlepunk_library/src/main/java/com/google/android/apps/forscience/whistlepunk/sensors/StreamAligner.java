@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Aligns several independently-timed scalar streams onto the timestamps of the first (reference)
+ * stream.
+ *
+ * Each reference sample waits until every other stream has produced a sample at or after its
+ * timestamp, and is then emitted together with the other streams' values linearly interpolated
+ * to that timestamp.  If another stream falls more than {@code maxSkewMillis} behind, its most
+ * recent value is held instead, so one stalled input does not stop the output.  No allocation is
+ * done per sample.
+ */
+public class StreamAligner {
+    public interface AlignedListener {
+        /**
+         * @param values one value per input.  Only valid for the duration of the call.
+         */
+        void onAligned(long timestampMillis, double[] values);
+    }
+
+    /**
+     * How many reference samples may wait for the other inputs before the oldest is emitted
+     * with held values regardless of skew.
+     */
+    static final int MAX_PENDING = 64;
+
+    private static final long NO_SAMPLE = Long.MIN_VALUE;
+
+    private final int mInputCount;
+    private final long mMaxSkewMillis;
+    private final AlignedListener mListener;
+
+    // The two most recent samples for each input, to interpolate between.
+    private final long[] mPrevTimes;
+    private final double[] mPrevValues;
+    private final long[] mLatestTimes;
+    private final double[] mLatestValues;
+
+    // Ring buffer of reference samples waiting for the other inputs to catch up.
+    private final long[] mPendingTimes = new long[MAX_PENDING];
+    private final double[] mPendingValues = new double[MAX_PENDING];
+    private int mPendingStart = 0;
+    private int mPendingCount = 0;
+
+    private final double[] mOutput;
+
+    public StreamAligner(int inputCount, long maxSkewMillis, AlignedListener listener) {
+        Preconditions.checkArgument(inputCount > 0);
+        mInputCount = inputCount;
+        mMaxSkewMillis = maxSkewMillis;
+        mListener = listener;
+        mPrevTimes = new long[inputCount];
+        mPrevValues = new double[inputCount];
+        mLatestTimes = new long[inputCount];
+        mLatestValues = new double[inputCount];
+        mOutput = new double[inputCount];
+        reset();
+    }
+
+    /**
+     * Adds a sample for {@code input}.  Samples for a given input that are not newer than that
+     * input's previous sample are ignored.
+     */
+    public void addSample(int input, long timestampMillis, double value) {
+        if (timestampMillis <= mLatestTimes[input]) {
+            return;
+        }
+        mPrevTimes[input] = mLatestTimes[input];
+        mPrevValues[input] = mLatestValues[input];
+        mLatestTimes[input] = timestampMillis;
+        mLatestValues[input] = value;
+
+        if (input == 0) {
+            if (mPendingCount == MAX_PENDING) {
+                emitOldest();
+            }
+            int end = (mPendingStart + mPendingCount) % MAX_PENDING;
+            mPendingTimes[end] = timestampMillis;
+            mPendingValues[end] = value;
+            mPendingCount++;
+        }
+        flush(timestampMillis);
+    }
+
+    public void reset() {
+        for (int i = 0; i < mInputCount; i++) {
+            mPrevTimes[i] = NO_SAMPLE;
+            mLatestTimes[i] = NO_SAMPLE;
+        }
+        mPendingStart = 0;
+        mPendingCount = 0;
+    }
+
+    private void flush(long newestTimestamp) {
+        while (mPendingCount > 0) {
+            long pending = mPendingTimes[mPendingStart];
+            if (!allCaughtUpTo(pending) && newestTimestamp - pending <= mMaxSkewMillis) {
+                return;
+            }
+            emitOldest();
+        }
+    }
+
+    private boolean allCaughtUpTo(long timestampMillis) {
+        for (int i = 1; i < mInputCount; i++) {
+            if (mLatestTimes[i] < timestampMillis) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void emitOldest() {
+        long timestamp = mPendingTimes[mPendingStart];
+        mOutput[0] = mPendingValues[mPendingStart];
+        mPendingStart = (mPendingStart + 1) % MAX_PENDING;
+        mPendingCount--;
+
+        for (int i = 1; i < mInputCount; i++) {
+            if (mLatestTimes[i] == NO_SAMPLE) {
+                // Nothing to align with yet
+                return;
+            }
+            mOutput[i] = valueAt(i, timestamp);
+        }
+        mListener.onAligned(timestamp, mOutput);
+    }
+
+    private double valueAt(int input, long timestampMillis) {
+        long latest = mLatestTimes[input];
+        if (timestampMillis >= latest) {
+            return mLatestValues[input];
+        }
+        long prev = mPrevTimes[input];
+        if (prev == NO_SAMPLE) {
+            return mLatestValues[input];
+        }
+        if (timestampMillis <= prev) {
+            // The bracketing samples are gone; the nearest one we still have is prev.
+            return mPrevValues[input];
+        }
+        double fraction = (double) (timestampMillis - prev) / (latest - prev);
+        return mPrevValues[input] + fraction * (mLatestValues[input] - mPrevValues[input]);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.MockScheduler;
+import com.google.android.apps.forscience.whistlepunk.RecordingPerfTracker;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.FakeBleClient;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class BleConnectionManagerTest {
+    private static final UUID SERVICE_ID =
+            UUID.fromString("555a0001-0aaa-467a-9538-01f0652c74e8");
+    private static final UUID VALUE_ID = UUID.fromString("555a0003-0aaa-467a-9538-01f0652c74e8");
+
+    private final Context mContext = RuntimeEnvironment.application;
+    private final MockScheduler mScheduler = new MockScheduler();
+    private final FakeBleClient mClient = new FakeBleClient(mContext);
+    private final BleConnectionManager mManager =
+            new BleConnectionManager(mContext, mClient, mScheduler, mScheduler.getClock());
+    private final RecordingListener mListener = new RecordingListener();
+    private final List<String> mReportedStats = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        // Receivers are registered with a broadcast manager that outlives the test.
+        for (String address : new String[] {"a", "b", "c", "absent"}) {
+            mManager.disconnect(address);
+        }
+    }
+
+    @Test
+    public void connectsOneAtATimeButDiscoversSideBySide() {
+        mClient.connectableAddresses.add("a");
+        mClient.connectableAddresses.add("b");
+        mClient.connectableAddresses.add("c");
+        mManager.connect("a", mListener);
+        mManager.connect("b", mListener);
+        mManager.connect("c", mListener);
+        assertEquals(Lists.newArrayList("connect a"), mClient.operations);
+
+        send(BleEvents.GATT_CONNECT, "a");
+        send(BleEvents.GATT_CONNECT, "b");
+        assertEquals(Lists.newArrayList("connect a", "connect b", "findServices a",
+                "connect c", "findServices b"), mClient.operations);
+
+        // b answers before a does.
+        send(BleEvents.SERVICES_OK, "b");
+        send(BleEvents.SERVICES_OK, "a");
+        send(BleEvents.GATT_CONNECT, "c");
+        send(BleEvents.SERVICES_OK, "c");
+        assertEquals(Lists.newArrayList("ready b", "ready a", "ready c"), mListener.events);
+        assertEquals(BleConnectionManager.State.READY, mManager.getState("c"));
+    }
+
+    @Test
+    public void absentDeviceOnlyDelaysItself() {
+        mClient.connectableAddresses.add("absent");
+        mClient.connectableAddresses.add("b");
+        mManager.connect("absent", mListener);
+        mManager.connect("b", mListener);
+        assertEquals(Lists.newArrayList("connect absent"), mClient.operations);
+
+        mScheduler.incrementTime(BleConnectionManager.CONNECT_TIMEOUT.asMillis());
+        assertEquals(Lists.newArrayList("connect absent", "disconnect absent", "connect b"),
+                mClient.operations);
+        send(BleEvents.GATT_CONNECT, "b");
+        send(BleEvents.SERVICES_OK, "b");
+        assertEquals(BleConnectionManager.State.READY, mManager.getState("b"));
+        assertEquals(BleConnectionManager.State.WAITING_TO_RETRY,
+                mManager.getState("absent"));
+
+        // Retries wait 1s, then 2s, then 4s.
+        mScheduler.incrementTime(40 * 1000);
+        assertEquals(Lists.newArrayList("lost absent@10000", "ready b", "lost absent@21000",
+                "lost absent@33000", "lost absent@47000"), mListener.events);
+    }
+
+    @Test
+    public void reconnectsAfterDropAndReportsStats() {
+        mManager.setPerfTracker(new RecordingPerfTracker(new ArrayList<>()) {
+            @Override
+            public void recordBleConnectionStats(long connectMillis, int connectAttempts,
+                    double notificationsPerSecond) {
+                mReportedStats.add(connectMillis + " " + connectAttempts + " "
+                        + notificationsPerSecond);
+            }
+        });
+        mClient.connectableAddresses.add("a");
+        mManager.connect("a", mListener);
+        mScheduler.incrementTime(100);
+        send(BleEvents.GATT_CONNECT, "a");
+        mScheduler.incrementTime(150);
+        send(BleEvents.SERVICES_OK, "a");
+
+        for (int i = 0; i < 50; i++) {
+            mScheduler.incrementTime(20);
+            Intent notification = BleEvents.createIntent(BleEvents.CHAR_CHANGED, "a");
+            notification.putExtra(MyBleService.UUID, VALUE_ID.toString());
+            notification.putExtra(MyBleService.DATA, new byte[] {(byte) i});
+            MyBleService.getBroadcastManager(mContext).sendBroadcastSync(notification);
+        }
+        BleConnectionManager.Stats stats = mManager.getStats("a");
+        assertEquals(250, stats.getConnectMillis());
+        assertEquals(1, stats.getConnectAttempts());
+        assertEquals(50, stats.getNotificationCount());
+        assertEquals(50.0, stats.getNotificationsPerSecond(), 0.001);
+
+        send(BleEvents.GATT_DISCONNECT, "a");
+        assertEquals(BleConnectionManager.State.WAITING_TO_RETRY, mManager.getState("a"));
+        assertEquals(Lists.newArrayList("250 1 50.0"), mReportedStats);
+        mScheduler.incrementTime(BleConnectionManager.INITIAL_BACKOFF_MILLIS);
+        send(BleEvents.GATT_CONNECT, "a");
+        send(BleEvents.SERVICES_OK, "a");
+        assertEquals(Lists.newArrayList("ready a", "notified a x50", "lost a@1250", "ready a"),
+                mListener.collapsed());
+        assertEquals(Lists.newArrayList("connect a", "findServices a", "disconnect a",
+                "connect a", "findServices a"), mClient.operations);
+
+        // Disconnecting on purpose ends the connection too.
+        mManager.disconnect("a");
+        assertEquals(2, mReportedStats.size());
+    }
+
+    @Test
+    public void missingCharacteristicDoesNotBlockLaterOperations() {
+        mClient.connectableAddresses.add("a");
+        mManager.connect("a", mListener);
+        send(BleEvents.GATT_CONNECT, "a");
+        send(BleEvents.SERVICES_OK, "a");
+
+        // The fake client offers no services, so neither operation reaches the device.
+        assertFalse(mManager.hasCharacteristic("a", SERVICE_ID, VALUE_ID));
+        mManager.readCharacteristic("a", SERVICE_ID, VALUE_ID);
+        mManager.setNotificationsEnabled("a", SERVICE_ID, VALUE_ID, true);
+        assertFalse(mManager.hasOutstandingOperation("a"));
+        assertEquals(BleConnectionManager.State.READY, mManager.getState("a"));
+    }
+
+    @Test
+    public void disconnectStopsRetrying() {
+        // Not connectable, so every attempt fails at once.
+        mManager.connect("a", mListener);
+        mScheduler.incrementTime(3000);
+        mManager.disconnect("a");
+        int operations = mClient.operations.size();
+        mScheduler.incrementTime(10 * 60 * 1000);
+        assertEquals(operations, mClient.operations.size());
+        assertEquals(BleConnectionManager.State.DISCONNECTED, mManager.getState("a"));
+    }
+
+    private void send(String action, String address) {
+        MyBleService.getBroadcastManager(mContext).sendBroadcastSync(
+                BleEvents.createIntent(action, address));
+    }
+
+    private class RecordingListener implements BleConnectionManager.DeviceListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onReady(String address) {
+            events.add("ready " + address);
+        }
+
+        @Override
+        public void onConnectionLost(String address) {
+            events.add("lost " + address + "@" + mScheduler.getClock().getNow());
+        }
+
+        @Override
+        public void onNotification(String address, UUID characteristic, int flags,
+                byte[] value) {
+            assertEquals(VALUE_ID, characteristic);
+            events.add("notified " + address);
+        }
+
+        @Override
+        public void onCharacteristicRead(String address, UUID characteristic, int flags,
+                byte[] value) {
+            events.add("read " + address);
+        }
+
+        /**
+         * @return events, with runs of the same event written once with a count
+         */
+        List<String> collapsed() {
+            List<String> result = new ArrayList<>();
+            int run = 0;
+            for (int i = 0; i < events.size(); i++) {
+                run++;
+                if (i + 1 < events.size() && events.get(i + 1).equals(events.get(i))) {
+                    continue;
+                }
+                result.add(run == 1 ? events.get(i) : events.get(i) + " x" + run);
+                run = 0;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.javalib.Consumer;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class BoundedQueueTest {
+    private final List<Runnable> mPosted = new ArrayList<>();
+    private final List<Integer> mDelivered = new ArrayList<>();
+
+    @Test
+    public void testCoalescesPosts() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>("test", 10,
+                BoundedQueue.OverflowPolicy.DROP_OLDEST, mPosted::add, deliverInOrder());
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        assertEquals(1, mPosted.size());
+
+        runPosted();
+        assertEquals(Lists.newArrayList(1, 2, 3), mDelivered);
+
+        // Once drained, the next offer posts again
+        queue.offer(4);
+        assertEquals(1, mPosted.size());
+        runPosted();
+        assertEquals(Lists.newArrayList(1, 2, 3, 4), mDelivered);
+        assertEquals(3, queue.getHighWaterMark());
+    }
+
+    @Test
+    public void testDropOldest() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>("test", 3,
+                BoundedQueue.OverflowPolicy.DROP_OLDEST, mPosted::add, deliverInOrder());
+        for (int i = 0; i < 3; i++) {
+            assertNull(queue.offer(i));
+        }
+        assertEquals(Integer.valueOf(0), queue.offer(3));
+        assertEquals(Integer.valueOf(1), queue.offer(4));
+
+        runPosted();
+        assertEquals(Lists.newArrayList(2, 3, 4), mDelivered);
+        assertEquals(2, queue.getDropCount());
+        assertEquals(3, queue.getHighWaterMark());
+    }
+
+    @Test
+    public void testReportsStatsWhenChanged() {
+        final List<String> reports = new ArrayList<>();
+        BoundedQueue<Integer> queue = new BoundedQueue<>("test", 2,
+                BoundedQueue.OverflowPolicy.DROP_OLDEST, mPosted::add, deliverInOrder());
+        queue.setPerfTracker(new RecordingPerfTracker(reports));
+
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        runPosted();
+        assertEquals(Lists.newArrayList("test 2 2 1"), reports);
+
+        // Nothing new to report
+        queue.offer(4);
+        runPosted();
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    public void testMainThreadProducerNeverBlocks() {
+        // Robolectric runs tests on the main looper's thread.
+        BoundedQueue<Integer> queue = new BoundedQueue<>("test", 2,
+                BoundedQueue.OverflowPolicy.BLOCK_OFF_MAIN_THREAD, mPosted::add,
+                deliverInOrder());
+        assertNull(queue.offer(0));
+        assertNull(queue.offer(1));
+        for (int i = 2; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), queue.offer(i));
+        }
+        assertEquals(2, queue.size());
+
+        runPosted();
+        assertEquals(Lists.newArrayList(0, 1), mDelivered);
+        assertEquals(3, queue.getDropCount());
+        assertEquals(2, queue.getHighWaterMark());
+
+        // Once drained, there is room again.
+        assertNull(queue.offer(5));
+        runPosted();
+        assertEquals(Lists.newArrayList(0, 1, 5), mDelivered);
+    }
+
+    @Test
+    public void testBlockNeverDropsUnderSaturation() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 5000;
+        final int capacity = 16;
+        final AtomicInteger delivered = new AtomicInteger();
+        final List<Integer> lastSeen = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < producers; i++) {
+            lastSeen.add(-1);
+        }
+        final boolean[] inOrder = {true};
+
+        ExecutorService consumerThread = Executors.newSingleThreadExecutor();
+        final BoundedQueue<int[]> queue = new BoundedQueue<>("test", capacity,
+                BoundedQueue.OverflowPolicy.BLOCK, consumerThread, new Consumer<int[]>() {
+                    @Override
+                    public void take(int[] item) {
+                        // A deliberately slow consumer, so producers are always waiting.
+                        if (item[1] % 100 == 0) {
+                            sleep(1);
+                        }
+                        if (lastSeen.get(item[0]) != item[1] - 1) {
+                            inOrder[0] = false;
+                        }
+                        lastSeen.set(item[0], item[1]);
+                        delivered.incrementAndGet();
+                    }
+                });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(new int[]{producer, i});
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        consumerThread.shutdown();
+        assertTrue(consumerThread.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(producers * perProducer, delivered.get());
+        assertEquals(0, queue.getDropCount());
+        assertTrue(queue.getHighWaterMark() <= capacity);
+        assertTrue(inOrder[0]);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Consumer<Integer> deliverInOrder() {
+        return new Consumer<Integer>() {
+            @Override
+            public void take(Integer item) {
+                mDelivered.add(item);
+            }
+        };
+    }
+
+    private void runPosted() {
+        List<Runnable> posted = new ArrayList<>(mPosted);
+        mPosted.clear();
+        for (Runnable runnable : posted) {
+            runnable.run();
+        }
+    }
+}
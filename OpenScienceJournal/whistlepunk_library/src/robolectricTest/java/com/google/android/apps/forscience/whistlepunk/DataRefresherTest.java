@@ -38,12 +38,14 @@ public class DataRefresherTest {
         private long mTimestamp;
         private double mValue;
         private boolean mDataAdded = false;
+        private int mCount = 0;
 
         @Override
         public boolean addData(long timestampMillis, double value) {
             mTimestamp = timestampMillis;
             mValue = value;
             mDataAdded = true;
+            mCount++;
             return true;
         }
 
@@ -132,6 +134,51 @@ public class DataRefresherTest {
         assertEquals(255d, mStreamConsumer.getLastValue(), 0.001);
     }
 
+    @Test
+    public void testFrequentValuesNeitherRescheduleNorRepeat() {
+        DataRefresher dr = makeRefresher();
+        dr.setStreamConsumer(mStreamConsumer);
+        dr.startStreaming();
+        assertEquals(1, mStreamConsumer.mCount);
+
+        // A new value every 10ms: each is published, but the refresh is scheduled about once per
+        // period rather than once per value, and never repeats a value that was just published.
+        // Each refresh waits for the rest of the period after the latest value, which here
+        // always arrived 10ms before, so refreshes come every 90ms.
+        for (int i = 1; i <= 100; i++) {
+            mScheduler.incrementTime(10);
+            dr.setValue(i);
+        }
+        assertEquals(101, mStreamConsumer.mCount);
+        assertEquals(1 + 1000 / 90, mScheduler.getScheduleCount());
+
+        // Once the values stop, the last one is repeated every period.
+        mScheduler.incrementTime(300);
+        assertEquals(100d, mStreamConsumer.getLastValue(), 0.001);
+        assertEquals(1300, mStreamConsumer.getLastTimestamp());
+        dr.stopStreaming();
+    }
+
+    @Test
+    public void testValueJustBeforeRefreshRepeatedOnePeriodLater() {
+        DataRefresher dr = makeRefresher();
+        dr.setStreamConsumer(mStreamConsumer);
+        dr.startStreaming();
+
+        mScheduler.incrementTime(90);
+        dr.setValue(5);
+        assertEquals(90, mStreamConsumer.getLastTimestamp());
+
+        // The refresh at 100 has nothing to repeat yet, and waits until 190 rather than 200.
+        mScheduler.incrementTime(10);
+        assertEquals(2, mStreamConsumer.mCount);
+        mScheduler.incrementTime(90);
+        assertEquals(3, mStreamConsumer.mCount);
+        assertEquals(190, mStreamConsumer.getLastTimestamp());
+        assertEquals(5d, mStreamConsumer.getLastValue(), 0.001);
+        dr.stopStreaming();
+    }
+
     private DataRefresher makeRefresher() {
         return new DataRefresher(mScheduler, mScheduler.getClock());
     }
@@ -19,6 +19,7 @@ package com.google.android.apps.forscience.whistlepunk;
 import static org.junit.Assert.assertEquals;
 
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 
 import org.junit.Test;
@@ -26,6 +27,9 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 /**
  * Tests for {@link ExportService}.
  */
@@ -75,6 +79,44 @@ public class ExportServiceTest {
                 filename);
     }
 
+    @Test
+    public void testResampleIntervalFollowsFastestSensor() {
+        // 101 points over 1s is every 10ms; 11 points over 1s is every 100ms.
+        TrialStats fast = makeStats("fast", 101, 1000);
+        TrialStats slow = makeStats("slow", 11, 1000);
+        assertEquals(10, ExportService.chooseResampleIntervalMillis(Arrays.asList(slow, fast)));
+
+        // Faster than 1kHz still gets whole-millisecond rows.
+        TrialStats veryFast = makeStats("veryFast", 10001, 1000);
+        assertEquals(1, ExportService.chooseResampleIntervalMillis(
+                Collections.singletonList(veryFast)));
+    }
+
+    @Test
+    public void testResampleIntervalWithoutStats() {
+        assertEquals(ExportService.FALLBACK_RESAMPLE_INTERVAL_MILLIS,
+                ExportService.chooseResampleIntervalMillis(
+                        Arrays.asList(null, new TrialStats("empty"), makeStats("one", 1, 0))));
+    }
+
+    @Test
+    public void testResampleLookaheadCoversSlowestSensor() {
+        TrialStats fast = makeStats("fast", 101, 1000);
+        assertEquals(ExportService.MIN_RESAMPLE_LOOKAHEAD_MILLIS,
+                ExportService.chooseResampleLookaheadMillis(Arrays.asList(fast, null)));
+
+        // One reading every 2s.
+        TrialStats slow = makeStats("slow", 6, 10000);
+        assertEquals(4000, ExportService.chooseResampleLookaheadMillis(Arrays.asList(fast, slow)));
+    }
+
+    private TrialStats makeStats(String sensorId, int numPoints, long durationMillis) {
+        TrialStats stats = new TrialStats(sensorId);
+        stats.putStat(GoosciTrial.SensorStat.NUM_DATA_POINTS, numPoints);
+        stats.putStat(GoosciTrial.SensorStat.TOTAL_DURATION, durationMillis);
+        return stats;
+    }
+
     private Trial makeTrial(String runTitle) {
         GoosciTrial.Trial trial = new GoosciTrial.Trial();
         trial.trialId ="runId";
@@ -24,6 +24,7 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSnapshotValue;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.android.apps.forscience.whistlepunk.wireapi.TransportableSensorOptions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
@@ -49,6 +50,12 @@ class MemoryRecorderController implements RecorderController {
         return observerId;
     }
 
+    @Override
+    public String startStreaming(String sensorId, StreamConsumer consumer,
+            SensorStatusListener listener, SensorRegistry sensorRegistry) {
+        return startObserving(sensorId, null, null, listener, null, sensorRegistry);
+    }
+
     @Override
     public void stopObserving(String sensorId, String observerId) {
         if (mCurrentObserverIds.get(sensorId).equals(observerId)) {
@@ -56,6 +63,11 @@ class MemoryRecorderController implements RecorderController {
         }
     }
 
+    @Override
+    public void startObservingAll(Runnable startObservingCalls, SensorRegistry sensorRegistry) {
+        startObservingCalls.run();
+    }
+
     @Override
     public String pauseObservingAll() {
         return null;
@@ -47,9 +47,11 @@ public class PacketAssemblerTest {
     final private int[] packetStream = {5, 10, 15, 20, 25, 30};
 
     private class TestSystemClock implements Clock {
+        long mNow = testTime;
+
         @Override
         public long getNow() {
-            return testTime;
+            return mNow;
         }
     };
 
@@ -154,6 +156,12 @@ public class PacketAssemblerTest {
             return this;
         }
 
+        GoosciSensorBuilder setExtraReadings(int[] timestampOffsets, float[] values) {
+            mSensorData.extraTimestampOffsets = timestampOffsets;
+            mSensorData.extraValues = values;
+            return this;
+        }
+
         GoosciSensorBuilder commit() {
             mSensorData.setData(mData);
             return this;
@@ -173,7 +181,7 @@ public class PacketAssemblerTest {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             int l = chunksize;
             boolean last = i == length-1;
-            if (last) l=value.length % chunksize;
+            if (last) l=value.length - start;
             outputStream.write((byte) l);
             outputStream.write((byte)(last ? 1 : 0));
             for (int j = 0; j < l; ++j)
@@ -185,7 +193,10 @@ public class PacketAssemblerTest {
     }
 
     private PacketAssembler createPacketAssembler(TestPacketAssemblerListener tpal) {
-        final Clock cl = new TestSystemClock();
+        return createPacketAssembler(tpal, new TestSystemClock());
+    }
+
+    private PacketAssembler createPacketAssembler(TestPacketAssemblerListener tpal, Clock cl) {
         return new PacketAssembler(cl, tpal);
     }
 
@@ -420,9 +431,13 @@ public class PacketAssemblerTest {
     @Test
     public void testPacketStream() {
         final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
-        final PacketAssembler pa = createPacketAssembler(tpal);
+        final TestSystemClock clock = new TestSystemClock();
+        final PacketAssembler pa = createPacketAssembler(tpal, clock);
+        int timeSkew = 42 - packetStream[0];
 
         for (int dataValue : packetStream) {
+            // Each message arrives the same time after it was sent.
+            clock.mNow = dataValue + timeSkew;
             byte[] value = new GoosciSensorBuilder()
                     .setAnalogPin()
                     .setAnalogValue(dataValue, dataValue)
@@ -434,8 +449,6 @@ public class PacketAssemblerTest {
             fakeFramedSensorData(pa, value, chunksize, 2);
         }
 
-        int timeSkew = 42 - packetStream[0];
-
         List<Point> points = tpal.getData();
         assertEquals(packetStream.length, points.size());
 
@@ -448,9 +461,13 @@ public class PacketAssemblerTest {
     @Test
     public void testMultiPacketStream() {
         final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
-        final PacketAssembler pa = createPacketAssembler(tpal);
+        final TestSystemClock clock = new TestSystemClock();
+        final PacketAssembler pa = createPacketAssembler(tpal, clock);
+        int timeSkew = 42 - packetStream[0];
 
         for (int dataValue : packetStream) {
+            // Each message arrives the same time after it was sent.
+            clock.mNow = dataValue + timeSkew;
             byte[] value = new GoosciSensorBuilder()
                     .setAnalogPin()
                     .setAnalogValue(dataValue, dataValue)
@@ -462,8 +479,6 @@ public class PacketAssemblerTest {
             fakeFramedSensorData(pa, value, chunksize, 2);
         }
 
-        int timeSkew = 42 - packetStream[0];
-
         List<Point> points = tpal.getData();
         assertEquals(packetStream.length, points.size());
 
@@ -473,6 +488,64 @@ public class PacketAssemblerTest {
         }
     }
 
+    @Test
+    public void testExtraReadings() {
+        final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+        final TestSystemClock clock = new TestSystemClock();
+        final PacketAssembler pa = createPacketAssembler(tpal, clock);
+
+        // The whole batch arrives once its last reading is taken.
+        clock.mNow = testTime + 15;
+        byte[] value = new GoosciSensorBuilder()
+                .setFloatValue(floatTestValue, 0)
+                .setVirtualPin()
+                .setExtraReadings(new int[] {5, 10, 15}, new float[] {11f, 12f, 13f})
+                .commit()
+                .toByteArray();
+
+        // Several BLE packets' worth, as a batch would be.
+        int chunksize = 6;
+        fakeFramedSensorData(pa, value, chunksize, (int) Math.ceil(value.length / 6.0));
+
+        List<Point> points = tpal.getData();
+        assertEquals(4, points.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(testTime + 5 * i, points.get(i).x);
+            assertEquals(floatTestValue + i, points.get(i).y, Double.MIN_VALUE);
+        }
+        assertEquals(0, tpal.getErrors().size());
+    }
+
+    @Test
+    public void testSmallerMessageAfterLarger() {
+        final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+        final TestSystemClock clock = new TestSystemClock();
+        final PacketAssembler pa = createPacketAssembler(tpal, clock);
+
+        clock.mNow = testTime + 5;
+        byte[] large = new GoosciSensorBuilder()
+                .setFloatValue(floatTestValue, 0)
+                .setVirtualPin()
+                .setExtraReadings(new int[] {5}, new float[] {11f})
+                .commit()
+                .toByteArray();
+        fakeFramedSensorData(pa, large, large.length + 1, 1);
+
+        // Nothing from the larger message should carry over into this one.
+        clock.mNow = testTime + 10;
+        byte[] small = new GoosciSensorBuilder()
+                .setAnalogValue(smallTestValue, 10)
+                .setAnalogPin()
+                .commit()
+                .toByteArray();
+        fakeFramedSensorData(pa, small, small.length + 1, 1);
+
+        List<Point> points = tpal.getData();
+        assertEquals(3, points.size());
+        assertEquals(testTime + 10, points.get(2).x);
+        assertEquals((double) smallTestValue, points.get(2).y, Double.MIN_VALUE);
+    }
+
     @Test
     public void testInvalidPacket() {
         final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
@@ -30,13 +30,18 @@ import com.google.android.apps.forscience.whistlepunk.devicemanager.FakeUnitAppe
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.BleSensorSpec;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation
+        .TriggerInformation;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSnapshotValue;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.FakeBleClient;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ManualSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.MemorySensorEnvironment;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StubStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.IncrementableMonotonicClock;
 import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
@@ -50,6 +55,7 @@ import org.robolectric.annotation.Config;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Maybe;
 import io.reactivex.Single;
@@ -96,6 +102,43 @@ public class RecorderControllerTest {
         TestData.allPointsBetween(2, 3, 1).checkObserver(observer2);
     }
 
+    @Test
+    public void startObservingAll() {
+        IncrementableMonotonicClock clock = new IncrementableMonotonicClock();
+        MemorySensorEnvironment environment = new MemorySensorEnvironment(
+                mDatabase.makeSimpleRecordingController(), new FakeBleClient(null),
+                new MemorySensorHistoryStorage(), clock);
+        RecorderControllerImpl rc = new RecorderControllerImpl(null, environment,
+                new RecorderListenerRegistry(), null, null, null, Delay.ZERO,
+                new FakeUnitAppearanceProvider());
+        List<String> firstSamples = new ArrayList<>();
+        rc.setPerfTracker(new RecordingPerfTracker(new ArrayList<String>(), firstSamples));
+        ManualSensor sensor2 = mSensorRegistry.addSensor("sensor2", "Sensor 2");
+        RecordingSensorObserver observer1 = new RecordingSensorObserver();
+        RecordingSensorObserver observer2 = new RecordingSensorObserver();
+
+        rc.startObservingAll(() -> {
+            rc.startObserving(mSensorId, Collections.<SensorTrigger>emptyList(), observer1,
+                    new StubStatusListener(), null, mSensorRegistry);
+            rc.startObserving("sensor2", Collections.<SensorTrigger>emptyList(), observer2,
+                    new StubStatusListener(), null, mSensorRegistry);
+            // Neither sensor is connected until the batch ends.
+            mSensor.pushValue(0, 0);
+            sensor2.pushValue(0, 0);
+        }, mSensorRegistry);
+
+        clock.increment();
+        clock.increment();
+        mSensor.pushValue(1, 1);
+        clock.increment();
+        sensor2.pushValue(1, 1);
+        mSensor.pushValue(2, 2);
+
+        TestData.allPointsBetween(1, 2, 1).checkObserver(observer1);
+        TestData.allPointsBetween(1, 1, 1).checkObserver(observer2);
+        assertEquals(Lists.newArrayList("sensorId 2", "sensor2 3"), firstSamples);
+    }
+
     @Test
     public void layoutLogging() {
         RecorderControllerImpl rc = new RecorderControllerImpl(null, mEnvironment,
@@ -123,11 +166,14 @@ public class RecorderControllerTest {
 
     @Test
     public void delayStopObserving() {
-        TestTrigger trigger = new TestTrigger(mSensorId);
+        SensorTrigger trigger = SensorTrigger.newNoteTypeTrigger(mSensorId,
+                TriggerInformation.TRIGGER_WHEN_ABOVE, "note", -1);
         ArrayList<SensorTrigger> triggerList = Lists.<SensorTrigger>newArrayList(trigger);
         RecorderControllerImpl rc = new RecorderControllerImpl(null, mEnvironment,
                 new RecorderListenerRegistry(), null, null, mScheduler, Delay.seconds(15),
                 new FakeUnitAppearanceProvider());
+        List<SensorTrigger> firedTriggers = new ArrayList<>();
+        rc.addTriggerFiredListener(new RecordingTriggerListener(firedTriggers));
         String observeId1 = rc.startObserving(mSensorId, Lists.<SensorTrigger>newArrayList(),
                 new RecordingSensorObserver(), new RecordingStatusListener(), null,
                 mSensorRegistry);
@@ -148,10 +194,11 @@ public class RecorderControllerTest {
         mScheduler.incrementTime(30000);
         assertTrue(mSensor.isObserving());
 
-        // And we have correctly picked up the new trigger list.
-        trigger.clearTestCount();
+        // And we have correctly picked up the new trigger list.  (The first value only
+        // initializes the trigger.)
         mSensor.pushValue(0, 0);
-        assertEquals(1, trigger.getTestCount());
+        mSensor.pushValue(1, 1);
+        assertEquals(triggerList, firedTriggers);
 
         // Finally, after appropriate delay, sensor stops.
         rc.stopObserving(mSensorId, observeId2);
@@ -356,6 +403,56 @@ public class RecorderControllerTest {
         assertEquals(mSensorName, appearance.name);
     }
 
+    @Test
+    public void longRunSegments() throws InterruptedException {
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long period = TimeUnit.SECONDS.toMillis(10);
+        MemorySensorEnvironment environment = new MemorySensorEnvironment(
+                mDatabase.makeSimpleRecordingController(), new FakeBleClient(null),
+                new MemorySensorHistoryStorage(), mScheduler.getClock());
+        final RecorderControllerImpl rc =
+                new RecorderControllerImpl(RuntimeEnvironment.application.getApplicationContext(),
+                        environment, new RecorderListenerRegistry(), connectionSupplier(),
+                        mDataController, mScheduler, Delay.ZERO,
+                        new FakeUnitAppearanceProvider());
+        rc.setSegmentMillis(hour);
+        rc.startObserving(mSensorId, new ArrayList<SensorTrigger>(), new RecordingSensorObserver(),
+                new RecordingStatusListener(), null, mSensorRegistry);
+        Experiment experiment =
+                RxDataController.createExperiment(mDataController).test().values().get(0);
+        rc.setSelectedExperiment(experiment);
+        rc.startRecording(null).test().await().assertComplete();
+
+        // 72 simulated hours of a reading every 10 seconds.
+        for (long t = period; t < 72 * hour; t += period) {
+            mScheduler.incrementTime(period);
+            mSensor.pushValue(t, 1000000 + Math.sin(t));
+            if (t == 3 * hour) {
+                // Finished segments are saved while recording goes on.
+                List<Trial> saved = RxDataController.getExperimentById(mDataController,
+                        experiment.getExperimentId()).test().values().get(0).getTrials();
+                assertEquals(4, saved.size());
+                assertTrue(saved.get(2).getStatsForSensor(mSensorId).statsAreValid());
+            }
+        }
+        rc.stopRecording(mSensorRegistry).test().await().assertComplete();
+
+        List<Trial> trials = RxDataController.getExperimentById(mDataController,
+                experiment.getExperimentId()).test().values().get(0).getTrials();
+        assertEquals(72, trials.size());
+
+        // What each segment holds does not grow with the length of the recording.
+        TrialStats second = trials.get(1).getStatsForSensor(mSensorId);
+        for (Trial trial : trials.subList(1, trials.size() - 1)) {
+            TrialStats stats = trial.getStatsForSensor(mSensorId);
+            assertEquals(360, stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0);
+            assertEquals(
+                    second.getStatValue(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, -1),
+                    stats.getStatValue(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, -1), 0);
+            assertEquals(1000000, stats.getStatValue(GoosciTrial.SensorStat.AVERAGE, -1), 0.1);
+        }
+    }
+
     private Supplier<RecorderServiceConnection> connectionSupplier() {
         return () -> (RecorderServiceConnection) c -> {
             try {
@@ -391,25 +488,27 @@ public class RecorderControllerTest {
         return spec;
     }
 
-    private class TestTrigger extends SensorTrigger {
-        int mTestCount = 0;
+    private static class RecordingTriggerListener
+            implements RecorderController.TriggerFiredListener {
+        private final List<SensorTrigger> mFired;
 
-        public TestTrigger(String sensorId) {
-            super(sensorId, 0, 0, 0);
+        public RecordingTriggerListener(List<SensorTrigger> fired) {
+            mFired = fired;
         }
 
-        public void clearTestCount() {
-            mTestCount = 0;
+        @Override
+        public void onTriggerFired(SensorTrigger trigger) {
+            mFired.add(trigger);
         }
 
-        public int getTestCount() {
-            return mTestCount;
+        @Override
+        public void onRequestStartRecording() {
+
         }
 
         @Override
-        public boolean isTriggered(double newValue) {
-            mTestCount++;
-            return false;
+        public void onRequestStopRecording(RecorderController rc) {
+
         }
     }
 }
\ No newline at end of file
@@ -20,8 +20,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import android.os.Bundle;
+
 import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorObserver;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -56,4 +60,107 @@ public class RecorderListenerRegistryTest {
         assertFalse(r.getSourceHasError("sensorId"));
     }
 
+    @Test
+    public void testRemoveDuringDispatch() {
+        final RecorderListenerRegistry r = new RecorderListenerRegistry();
+        final int[] calls = new int[2];
+        final String[] firstId = new String[1];
+        firstId[0] = r.putListeners("sensorId", new SensorObserver() {
+            @Override
+            public void onNewData(long timestamp, Bundle data) {
+                calls[0]++;
+                r.remove("sensorId", firstId[0]);
+            }
+        }, null);
+        r.putListeners("sensorId", new SensorObserver() {
+            @Override
+            public void onNewData(long timestamp, Bundle data) {
+                calls[1]++;
+            }
+        }, null);
+
+        SensorObserver router = r.makeObserverForRecorder("sensorId");
+        router.onNewData(0, null);
+        // The second listener is still called for the reading that removed the first.
+        assertEquals(1, calls[0]);
+        assertEquals(1, calls[1]);
+        assertEquals(1, r.countListeners("sensorId"));
+
+        router.onNewData(1, null);
+        assertEquals(1, calls[0]);
+        assertEquals(2, calls[1]);
+    }
+
+    @Test
+    public void testRoutesEachReadingToItsSensorsObservers() {
+        int sensorCount = 20;
+        int observersPerSensor = 3;
+        int readingsPerSensor = 1000;
+
+        RecorderListenerRegistry r = new RecorderListenerRegistry();
+        CountingObserver[][] observers = new CountingObserver[sensorCount][observersPerSensor];
+        SensorObserver[] routers = new SensorObserver[sensorCount];
+        for (int s = 0; s < sensorCount; s++) {
+            String sensorId = "sensor" + s;
+            for (int o = 0; o < observersPerSensor; o++) {
+                observers[s][o] = new CountingObserver();
+                r.putListeners(sensorId, observers[s][o], null);
+            }
+            routers[s] = r.makeObserverForRecorder(sensorId);
+        }
+
+        for (int i = 0; i < readingsPerSensor; i++) {
+            // Give sensor s readings at timestamps that only it uses.
+            for (int s = 0; s < sensorCount; s++) {
+                routers[s].onNewData(i * sensorCount + s, null);
+            }
+        }
+
+        for (int s = 0; s < sensorCount; s++) {
+            for (int o = 0; o < observersPerSensor; o++) {
+                assertEquals(readingsPerSensor, observers[s][o].count);
+                assertEquals((readingsPerSensor - 1) * sensorCount + s,
+                        observers[s][o].lastTimestamp);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamListenersOnlyGetRecordedValues() {
+        RecorderListenerRegistry r = new RecorderListenerRegistry();
+        CountingObserver observer = new CountingObserver();
+        r.putListeners("sensorId", observer, null);
+        final double[] streamed = new double[2];
+        String streamId = r.putStreamListeners("sensorId", new StreamConsumer() {
+            @Override
+            public boolean addData(long timestampMillis, double value) {
+                streamed[0]++;
+                streamed[1] = value;
+                return true;
+            }
+        }, null);
+        assertEquals(2, r.countListeners("sensorId"));
+
+        r.makeObserverForRecorder("sensorId").onNewData(1, null);
+        StreamConsumer router = r.makeStreamConsumerForRecorder("sensorId");
+        router.addData(2, 5.0);
+        assertEquals(1, observer.count);
+        assertEquals(1.0, streamed[0], 0.0);
+        assertEquals(5.0, streamed[1], 0.0);
+
+        r.remove("sensorId", streamId);
+        router.addData(3, 6.0);
+        assertEquals(1.0, streamed[0], 0.0);
+    }
+
+    private static class CountingObserver implements SensorObserver {
+        int count = 0;
+        long lastTimestamp = -1;
+
+        @Override
+        public void onNewData(long timestamp, Bundle data) {
+            count++;
+            lastTimestamp = timestamp;
+        }
+    }
 }
\ No newline at end of file
@@ -42,4 +42,16 @@ public class StatsAccumulatorTest {
         assertEquals(3.0, stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0.001);
         assertEquals(2.0, stats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, -1), 0.001);
     }
+
+    @Test
+    public void testAverageOfManyPoints() {
+        StatsAccumulator acc = new StatsAccumulator("sensorId");
+        // A reading a second for three days, each just above a large offset.
+        int count = 3 * 24 * 60 * 60;
+        for (int i = 0; i < count; i++) {
+            acc.updateRecordingStreamStats(i * 1000, 1e9 + 0.1);
+        }
+        TrialStats stats = acc.makeSaveableStats();
+        assertEquals(1e9 + 0.1, stats.getStatValue(GoosciTrial.SensorStat.AVERAGE, -1), 1e-6);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TimestampReconcilerTest {
+    private static final long TWO_HOURS = TimeUnit.HOURS.toMillis(2);
+
+    @Test
+    public void testFollowsSlowDeviceClock() {
+        assertTracksDrift(100);
+    }
+
+    @Test
+    public void testFollowsFastDeviceClock() {
+        assertTracksDrift(-250);
+    }
+
+    @Test
+    public void testNoDrift() {
+        assertTracksDrift(0);
+    }
+
+    @Test
+    public void testNeverGoesBackwards() {
+        TimestampReconciler reconciler = new TimestampReconciler(100, 10);
+        long last = reconciler.toClockMillis(0, 500);
+        // Each reading arrives less delayed than the last, pulling the estimate down.
+        for (int i = 1; i < 50; i++) {
+            long next = reconciler.toClockMillis(i * 10, 500 + i * 10 - i * 5);
+            assertTrue(next > last);
+            last = next;
+        }
+    }
+
+    @Test
+    public void testNoEstimateAtFirst() {
+        TimestampReconciler reconciler = new TimestampReconciler();
+        assertEquals(TimestampReconciler.NO_ESTIMATE, reconciler.getErrorEstimateMillis(), 0);
+        assertEquals(1042, reconciler.toClockMillis(1000, 1042));
+    }
+
+    /**
+     * Simulates a device whose clock gains or loses {@code driftPpm}, sending a reading every
+     * 100ms for two hours with randomly varying delivery latency.
+     */
+    private void assertTracksDrift(double driftPpm) {
+        Random random = new Random(42);
+        TimestampReconciler reconciler = new TimestampReconciler();
+        long deviceStart = 3000;
+        long phoneStart = 1500000000000L;
+        double worstError = 0;
+        double firstSkew = Double.NaN;
+        double worstFirstSkewError = 0;
+        for (long elapsed = 0; elapsed < TWO_HOURS; elapsed += 100) {
+            long takenAt = phoneStart + elapsed;
+            long deviceMillis = deviceStart + Math.round(elapsed * (1 - driftPpm / 1e6));
+            // At least 8ms, usually around 30ms, occasionally much longer.
+            long latency = 8 + (long) (-20 * Math.log(1 - random.nextDouble()));
+            if (random.nextInt(100) == 0) {
+                latency += 500;
+            }
+            long result = reconciler.toClockMillis(deviceMillis, takenAt + latency);
+
+            if (Double.isNaN(firstSkew)) {
+                firstSkew = takenAt + latency - deviceMillis;
+            }
+            worstFirstSkewError =
+                    Math.max(worstFirstSkewError, Math.abs(deviceMillis + firstSkew - takenAt));
+            if (elapsed > TimeUnit.MINUTES.toMillis(5)) {
+                worstError = Math.max(worstError, Math.abs(result - takenAt));
+            }
+        }
+
+        assertTrue("Worst error " + worstError, worstError < 15);
+        assertEquals(driftPpm, reconciler.getDriftPpm(), 5);
+        double estimate = reconciler.getErrorEstimateMillis();
+        assertTrue("Estimate " + estimate, estimate >= 0 && estimate < 15);
+        if (driftPpm != 0) {
+            // Applying the first reading's offset forever is far worse.
+            assertTrue(worstFirstSkewError > 10 * worstError);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation
+        .TriggerInformation;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TriggerEvaluatorTest {
+    private static final int TRIGGER_COUNT = 100;
+    private static final int SAMPLES_PER_SECOND = 200;
+    private static final int SAMPLE_SECONDS = 60;
+
+    private final List<String> mFired = new ArrayList<>();
+
+    @Test
+    public void testRisesAboveWithHysteresis() {
+        SensorTrigger trigger = makeTrigger("t", TriggerInformation.TRIGGER_WHEN_RISES_ABOVE, 10);
+        trigger.setHysteresis(2);
+        TriggerEvaluator evaluator = makeEvaluator(trigger);
+        evaluate(evaluator, 0, 11, 9, 11, 7, 11);
+        // Dipping to 9 is not far enough below 10 to fire again
+        assertEquals(Arrays.asList("t@1", "t@5"), mFired);
+    }
+
+    @Test
+    public void testAtWithoutHysteresis() {
+        TriggerEvaluator evaluator = makeEvaluator(
+                makeTrigger("t", TriggerInformation.TRIGGER_WHEN_AT, 5));
+        evaluate(evaluator, 0, 5, 5, 6, 4, 3);
+        assertEquals(Arrays.asList("t@1", "t@2", "t@4"), mFired);
+    }
+
+    @Test
+    public void testDebounce() {
+        SensorTrigger trigger = makeTrigger("t", TriggerInformation.TRIGGER_WHEN_ABOVE, 0);
+        trigger.setDebounceMillis(3);
+        TriggerEvaluator evaluator = makeEvaluator(trigger);
+        evaluate(evaluator, 1, 1, 1, 1, 1, 1, 1, 1);
+        assertEquals(Arrays.asList("t@1", "t@4", "t@7"), mFired);
+    }
+
+    @Test
+    public void testOnlyWhenRecording() {
+        SensorTrigger trigger = makeTrigger("t", TriggerInformation.TRIGGER_WHEN_DROPS_BELOW, 0);
+        trigger.setTriggerOnlyWhenRecording(true);
+        TriggerEvaluator evaluator = makeEvaluator(trigger);
+        evaluator.evaluate(0, 1, false);
+        evaluator.evaluate(1, -1, false);
+        evaluator.evaluate(2, 1, true);
+        evaluator.evaluate(3, -1, true);
+        assertEquals(Arrays.asList("t@3"), mFired);
+    }
+
+    @Test
+    public void testEvaluatesOnExecutor() {
+        QueuedExecutor background = new QueuedExecutor();
+        QueuedExecutor ui = new QueuedExecutor();
+        TriggerEvaluator evaluator = new TriggerEvaluator(Lists.newArrayList(
+                makeTrigger("t", TriggerInformation.TRIGGER_WHEN_RISES_ABOVE, 0)), background, ui,
+                (trigger, timestamp) -> mFired.add(trigger.getNoteText() + "@" + timestamp));
+        evaluator.addSample(0, -1, false);
+        evaluator.addSample(1, 1, false);
+        evaluator.addSample(2, 2, false);
+
+        // One drain for all three samples, and nothing evaluated yet
+        assertEquals(1, background.mQueue.size());
+        assertEquals(0, ui.mQueue.size());
+
+        background.runAll();
+        assertEquals(1, ui.mQueue.size());
+        assertEquals(0, mFired.size());
+        ui.runAll();
+        assertEquals(Arrays.asList("t@1"), mFired);
+    }
+
+    @Test
+    public void testFiringUpdatesLastUsedOnUiExecutor() {
+        QueuedExecutor ui = new QueuedExecutor();
+        SensorTrigger fires = makeTrigger("fires", TriggerInformation.TRIGGER_WHEN_ABOVE, 0);
+        SensorTrigger idle = makeTrigger("idle", TriggerInformation.TRIGGER_WHEN_ABOVE, 10);
+        fires.setLastUsed(0);
+        idle.setLastUsed(0);
+        TriggerEvaluator evaluator = new TriggerEvaluator(Lists.newArrayList(fires, idle),
+                MoreExecutors.directExecutor(), ui,
+                (trigger, timestamp) -> mFired.add(trigger.getNoteText() + "@" + timestamp));
+        evaluator.evaluate(0, 1, false);
+        evaluator.evaluate(1, 1, false);
+
+        // Not changed off the UI thread
+        assertEquals(0, fires.getLastUsed());
+        long before = System.currentTimeMillis();
+        ui.runAll();
+        assertEquals(Arrays.asList("fires@1"), mFired);
+        assertTrue(fires.getLastUsed() >= before);
+        assertEquals(0, idle.getLastUsed());
+    }
+
+    @Test
+    public void testDropsOldestWhenBehind() {
+        QueuedExecutor background = new QueuedExecutor();
+        TriggerEvaluator evaluator = new TriggerEvaluator(Lists.newArrayList(
+                makeTrigger("t", TriggerInformation.TRIGGER_WHEN_ABOVE, 0)), background,
+                MoreExecutors.directExecutor(),
+                (trigger, timestamp) -> mFired.add(trigger.getNoteText() + "@" + timestamp));
+        for (int i = 0; i < TriggerEvaluator.PENDING_CAPACITY + 2; i++) {
+            evaluator.addSample(i, 1, false);
+        }
+        background.runAll();
+        assertEquals(2, evaluator.getDropCount());
+        // The first kept sample only initializes
+        assertEquals(TriggerEvaluator.PENDING_CAPACITY - 1, mFired.size());
+        assertEquals("t@3", mFired.get(0));
+    }
+
+    /**
+     * 100 triggers against a 200Hz random walk: the indexed evaluator must fire exactly what
+     * evaluating every trigger on every sample does.
+     */
+    @Test
+    public void testIndexedMatchesLinearEvaluation() {
+        Random random = new Random(42);
+        int[] kinds = {TriggerInformation.TRIGGER_WHEN_AT,
+                TriggerInformation.TRIGGER_WHEN_RISES_ABOVE,
+                TriggerInformation.TRIGGER_WHEN_DROPS_BELOW, TriggerInformation.TRIGGER_WHEN_ABOVE,
+                TriggerInformation.TRIGGER_WHEN_BELOW};
+        List<SensorTrigger> indexedTriggers = new ArrayList<>();
+        List<SensorTrigger> linearTriggers = new ArrayList<>();
+        for (int i = 0; i < TRIGGER_COUNT; i++) {
+            int kind = kinds[i % kinds.length];
+            // Level triggers fire on nearly every sample; keep most of them out of range.
+            double threshold = kind == TriggerInformation.TRIGGER_WHEN_ABOVE ? 90 + i / 10.0
+                    : kind == TriggerInformation.TRIGGER_WHEN_BELOW ? -90 - i / 10.0
+                            : random.nextDouble() * 100 - 50;
+            indexedTriggers.add(makeTrigger("t" + i, kind, threshold));
+            linearTriggers.add(makeTrigger("t" + i, kind, threshold));
+        }
+        int sampleCount = SAMPLES_PER_SECOND * SAMPLE_SECONDS;
+        double[] values = new double[sampleCount];
+        double value = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            value = Math.max(-100, Math.min(100, value + random.nextGaussian()));
+            values[i] = value;
+        }
+
+        TriggerEvaluator evaluator = new TriggerEvaluator(indexedTriggers,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                (trigger, timestamp) -> mFired.add(trigger.getNoteText() + "@" + timestamp));
+        for (int i = 0; i < sampleCount; i++) {
+            evaluator.evaluate(i * 1000 / SAMPLES_PER_SECOND, values[i], false);
+        }
+
+        List<String> linearFired = new ArrayList<>();
+        for (int i = 0; i < sampleCount; i++) {
+            for (SensorTrigger trigger : linearTriggers) {
+                if (trigger.isTriggered(values[i])) {
+                    linearFired.add(trigger.getNoteText() + "@" + i * 1000 / SAMPLES_PER_SECOND);
+                }
+            }
+        }
+
+        // Within one sample, linear evaluation reports in trigger order; the index by threshold.
+        assertEquals(sortedWithinSamples(linearFired), sortedWithinSamples(mFired));
+    }
+
+    private static List<String> sortedWithinSamples(List<String> fired) {
+        List<String> sorted = new ArrayList<>(fired);
+        sorted.sort((a, b) -> {
+            long timeA = Long.parseLong(a.substring(a.indexOf('@') + 1));
+            long timeB = Long.parseLong(b.substring(b.indexOf('@') + 1));
+            return timeA != timeB ? Long.compare(timeA, timeB) : a.compareTo(b);
+        });
+        return sorted;
+    }
+
+    private void evaluate(TriggerEvaluator evaluator, double... values) {
+        for (int i = 0; i < values.length; i++) {
+            evaluator.evaluate(i, values[i], false);
+        }
+    }
+
+    private TriggerEvaluator makeEvaluator(SensorTrigger trigger) {
+        return new TriggerEvaluator(Lists.newArrayList(trigger), MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(),
+                (fired, timestamp) -> mFired.add(fired.getNoteText() + "@" + timestamp));
+    }
+
+    private static SensorTrigger makeTrigger(String name, int triggerWhen, double value) {
+        return SensorTrigger.newNoteTypeTrigger("sensorId", triggerWhen, name, value);
+    }
+
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> mQueue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        void runAll() {
+            while (!mQueue.isEmpty()) {
+                mQueue.remove(0).run();
+            }
+        }
+    }
+}
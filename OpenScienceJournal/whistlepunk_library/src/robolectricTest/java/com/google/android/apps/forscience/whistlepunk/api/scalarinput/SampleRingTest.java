@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class SampleRingTest {
+    private static final int CAPACITY = 4;
+    // Where SampleRing keeps the writer's published index.
+    private static final int WRITE_INDEX_OFFSET = 64;
+
+    private final ByteBuffer mWriterRegion =
+            ByteBuffer.allocateDirect(SampleRing.writerRegionSize(CAPACITY));
+    private final ByteBuffer mReaderRegion =
+            ByteBuffer.allocateDirect(SampleRing.READER_REGION_SIZE);
+    private final SampleRing.Writer mWriter =
+            new SampleRing.Writer(mWriterRegion, mReaderRegion, CAPACITY);
+    private final SampleRing.Reader mReader = new SampleRing.Reader(mWriterRegion, mReaderRegion);
+    private final RecordingSink mSink = new RecordingSink();
+
+    @Test
+    public void wakesReaderOncePerWait() {
+        assertTrue(mWriter.offer(1, 1.5));
+        // The reader hasn't started waiting yet.
+        assertFalse(mWriter.publish());
+        assertEquals(1, mReader.drainUntilIdle(mSink));
+
+        assertTrue(mWriter.offer(2, 2.5));
+        assertTrue(mWriter.publish());
+        assertTrue(mWriter.offer(3, 3.5));
+        assertFalse(mWriter.publish());
+
+        assertEquals(2, mReader.drainUntilIdle(mSink));
+        assertEquals("1=1.5 2=2.5 3=3.5", mSink.toString());
+        assertEquals(0, mReader.drainUntilIdle(mSink));
+        assertFalse(mWriter.publish());
+    }
+
+    @Test
+    public void dropsNewestWhenFull() {
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(mWriter.offer(i, i));
+        }
+        assertFalse(mWriter.offer(CAPACITY, CAPACITY));
+        mWriter.publish();
+        assertEquals(1, mReader.getDroppedCount());
+
+        mReader.drainUntilIdle(mSink);
+        assertTrue(mWriter.offer(10, 10));
+        assertTrue(mWriter.publish());
+        mReader.drainUntilIdle(mSink);
+        assertEquals("0=0.0 1=1.0 2=2.0 3=3.0 10=10.0", mSink.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnformattedRegion() {
+        new SampleRing.Reader(ByteBuffer.allocate(SampleRing.writerRegionSize(CAPACITY)),
+                mReaderRegion);
+    }
+
+    @Test
+    public void rejectsImpossibleWriteIndex() {
+        assertTrue(mWriter.offer(1, 1.5));
+        mWriter.publish();
+        assertEquals(1, mReader.drainUntilIdle(mSink));
+
+        // More than a ring ahead of the reader, or behind it: neither can come from a Writer.
+        for (int writeIndex : new int[] {1 + CAPACITY + 1, 0}) {
+            mWriterRegion.putInt(WRITE_INDEX_OFFSET, writeIndex);
+            try {
+                mReader.drainUntilIdle(mSink);
+                fail("Accepted write index " + writeIndex);
+            } catch (IllegalStateException expected) {
+                // The caller falls back to the observer.
+            }
+        }
+        assertEquals("1=1.5", mSink.toString());
+    }
+
+    @Test
+    public void producerAndConsumerThreads() throws InterruptedException {
+        final int capacity = 1024;
+        final int count = Integer.getInteger("ring.stressCount", 500000);
+        ByteBuffer writerRegion = ByteBuffer.allocateDirect(SampleRing.writerRegionSize(capacity));
+        ByteBuffer readerRegion = ByteBuffer.allocateDirect(SampleRing.READER_REGION_SIZE);
+        final SampleRing.Writer writer =
+                new SampleRing.Writer(writerRegion, readerRegion, capacity);
+        SampleRing.Reader reader = new SampleRing.Reader(writerRegion, readerRegion);
+        // Stands in for the binder wakeup.
+        final Semaphore wakeups = new Semaphore(0);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    // Retry rather than drop, so that every reading is checked.
+                    while (!writer.offer(i, i * 0.5)) {
+                        if (writer.publish()) {
+                            wakeups.release();
+                        }
+                        Thread.yield();
+                    }
+                    if (writer.publish()) {
+                        wakeups.release();
+                    }
+                }
+            }
+        });
+
+        SampleRing.Sink checker = new SampleRing.Sink() {
+            long mExpected = 0;
+
+            @Override
+            public void onSample(long timestamp, double value) {
+                if (error.get() == null && (timestamp != mExpected || value != mExpected * 0.5)) {
+                    error.set("Expected " + mExpected + ", got " + timestamp + "=" + value);
+                }
+                mExpected++;
+            }
+        };
+
+        producer.start();
+        int received = reader.drainUntilIdle(checker);
+        while (received < count) {
+            if (!wakeups.tryAcquire(10, TimeUnit.SECONDS)) {
+                fail("Lost wakeup after " + received + " readings");
+            }
+            received += reader.drainUntilIdle(checker);
+        }
+        producer.join();
+        assertEquals(null, error.get());
+        assertEquals(count, received);
+        assertEquals(0, reader.drainUntilIdle(checker));
+    }
+
+    private static class RecordingSink implements SampleRing.Sink {
+        private final List<String> mSamples = new ArrayList<>();
+
+        @Override
+        public void onSample(long timestamp, double value) {
+            mSamples.add(timestamp + "=" + value);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String sample : mSamples) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(sample);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 
@@ -110,6 +111,12 @@ public class ScalarInputProviderTest {
                                             throws RemoteException {
 
                                     }
+
+                                    @Override
+                                    public ParcelFileDescriptor openSharedBuffer(String sensorId,
+                                            ParcelFileDescriptor readerRegion) {
+                                        return null;
+                                    }
                                 }));
                     }
                 };
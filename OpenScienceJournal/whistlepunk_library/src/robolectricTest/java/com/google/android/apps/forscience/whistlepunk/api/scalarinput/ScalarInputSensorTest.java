@@ -85,6 +85,35 @@ public class ScalarInputSensorTest {
         assertEquals(9, mScheduler.getScheduleCount());
     }
 
+    @Test
+    public void refreshSchedulingDoesNotGrowWithSampleRate() throws RemoteException {
+        int slowCount = countSchedulesWhileStreaming(10, 5000);
+        int fastCount = countSchedulesWhileStreaming(1000, 5000);
+        // About one per second: the refresh watchdog, rather than one per reading.
+        assertTrue("slow: " + slowCount, slowCount <= 7);
+        assertTrue("fast: " + fastCount, fastCount <= 7);
+        assertTrue(Math.abs(fastCount - slowCount) <= 1);
+    }
+
+    private int countSchedulesWhileStreaming(int hz, int durationMillis) throws RemoteException {
+        MockScheduler scheduler = new MockScheduler();
+        TestFinder serviceFinder = new TestFinder("serviceId");
+        ScalarInputSpec spec = new ScalarInputSpec("sensorName", "serviceId", "address", mBehavior,
+                null, "devId");
+        ScalarInputSensor sis = new ScalarInputSensor("sensorId", MoreExecutors.directExecutor(),
+                serviceFinder, new TestStringSource(), spec, scheduler);
+        SensorRecorder recorder = makeRecorder(sis, scheduler);
+        recorder.startObserving();
+        int before = scheduler.getScheduleCount();
+        int periodMillis = 1000 / hz;
+        for (int t = periodMillis; t <= durationMillis; t += periodMillis) {
+            scheduler.incrementTime(periodMillis);
+            serviceFinder.observer.onNewData(t, t);
+        }
+        recorder.stopObserving();
+        return scheduler.getScheduleCount() - before;
+    }
+
     @Test
     public void backwardCompatibleServiceId() throws RemoteException {
         final TestFinder serviceFinder = new TestFinder("serviceId/ServiceClassName");
@@ -101,6 +130,28 @@ public class ScalarInputSensorTest {
         testData.checkObserver(mObserver);
     }
 
+    @Test
+    public void batchedReadings() throws RemoteException {
+        final TestFinder serviceFinder = new TestFinder("serviceId");
+        ScalarInputSpec spec = new ScalarInputSpec("sensorName", "serviceId", "address", mBehavior,
+                null, "devId");
+        ScalarInputSensor sis = new ScalarInputSensor("sensorId", MoreExecutors.directExecutor(),
+                serviceFinder, new TestStringSource(), spec, mScheduler);
+        SensorRecorder recorder = makeRecorder(sis);
+        recorder.startObserving();
+
+        // The whole batch arrives together, just after its last reading was taken.
+        mScheduler.incrementTime(200);
+        serviceFinder.observer.onNewDataBatch(new long[] {0, 100, 200, 999},
+                new double[] {0.0, 1.0, 2.0, 9.9}, 3);
+
+        TestData testData = new TestData();
+        testData.addPoint(0, 0.0);
+        testData.addPoint(100, 1.0);
+        testData.addPoint(200, 2.0);
+        testData.checkObserver(mObserver);
+    }
+
     @Test
     public void connectedOnDataPoint() throws RemoteException {
         final TestFinder serviceFinder = neverConnectFinder();
@@ -145,6 +196,8 @@ public class ScalarInputSensorTest {
         mListener.assertNoErrors();
 
         recorder.startObserving();
+        // Readings are placed on our clock by when they arrive.
+        mScheduler.incrementTime(2);
         serviceFinder.observer.onNewData(2, 2.0);
         serviceFinder.listener.onSensorError("Error after reconnect!");
 
@@ -200,8 +253,12 @@ public class ScalarInputSensorTest {
 
 
     private SensorRecorder makeRecorder(ScalarInputSensor sis) {
+        return makeRecorder(sis, mScheduler);
+    }
+
+    private SensorRecorder makeRecorder(ScalarInputSensor sis, MockScheduler scheduler) {
         return sis.createRecorder(null, mObserver, mListener, new MemorySensorEnvironment(
                 new InMemorySensorDatabase().makeSimpleRecordingController(), null, null,
-                mScheduler.getClock()));
+                scheduler.getClock()));
     }
 }
\ No newline at end of file
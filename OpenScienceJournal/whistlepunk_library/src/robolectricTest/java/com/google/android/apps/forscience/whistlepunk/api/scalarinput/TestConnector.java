@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
@@ -57,4 +58,10 @@ class TestConnector extends ISensorConnector.Stub {
         mListener = null;
         mObserver = null;
     }
+
+    @Override
+    public ParcelFileDescriptor openSharedBuffer(String sensorId,
+            ParcelFileDescriptor readerRegion) throws RemoteException {
+        return null;
+    }
 }
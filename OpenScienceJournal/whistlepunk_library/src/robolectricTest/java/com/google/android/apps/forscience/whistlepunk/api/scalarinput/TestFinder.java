@@ -16,6 +16,7 @@
 package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
 
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 import com.google.android.apps.forscience.javalib.Consumer;
@@ -67,6 +68,12 @@ class TestFinder extends Consumer<AppDiscoveryCallbacks> {
 
                     }
 
+                    @Override
+                    public ParcelFileDescriptor openSharedBuffer(String sensorAddress,
+                            ParcelFileDescriptor readerRegion) throws RemoteException {
+                        return null;
+                    }
+
                     @Override
                     public IBinder asBinder() {
                         return null;
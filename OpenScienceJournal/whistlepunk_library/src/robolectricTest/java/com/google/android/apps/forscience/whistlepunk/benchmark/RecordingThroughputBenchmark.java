@@ -0,0 +1,338 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.benchmark;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.SensorProvider;
+import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.FakeBleClient;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ManualSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.MemorySensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StubStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MonotonicClock;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+
+/**
+ * Drives simulated sensors through the same recording path as the app (ScalarSensor recorders,
+ * DataControllerImpl's write queue, and a SQLite SensorDatabaseImpl), and measures how fast the
+ * readings reach the database.
+ *
+ * Sensor timestamps are simulated, so a long recording can be replayed as fast as the pipeline
+ * allows; the sustained rate is the number of readings divided by the wall-clock time until the
+ * last one is stored.
+ */
+public class RecordingThroughputBenchmark {
+    // Must hold more entries than can wait in the write queue at once.
+    private static final int ENQUEUE_TIME_RING_SIZE = 1 << 17;
+
+    private final int mSensorCount;
+    private final int mHz;
+    private final long mDurationMillis;
+
+    /**
+     * @param sensorCount    how many sensors record at once
+     * @param hz             readings per second from each sensor, at most 1000
+     * @param durationMillis how much simulated time to record
+     */
+    public RecordingThroughputBenchmark(int sensorCount, int hz, long durationMillis) {
+        Preconditions.checkArgument(hz > 0 && hz <= 1000, "Timestamps are in millis");
+        mSensorCount = sensorCount;
+        mHz = hz;
+        mDurationMillis = durationMillis;
+    }
+
+    public Result run(Context context, String databaseName) throws InterruptedException {
+        Preconditions.checkState(
+                ENQUEUE_TIME_RING_SIZE > DataControllerImpl.DEFAULT_SCALAR_WRITE_QUEUE_CAPACITY);
+        TimingSensorDatabase database =
+                new TimingSensorDatabase(new SensorDatabaseImpl(context, databaseName));
+        ExecutorService sensorDataThread = Executors.newSingleThreadExecutor();
+        Map<String, SensorProvider> providerMap = new HashMap<>();
+        DataControllerImpl dataController = new DataControllerImpl(database,
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(), sensorDataThread,
+                new MemoryMetadataManager(), new MonotonicClock(), providerMap,
+                new ConnectableSensor.Connector(providerMap));
+        TimingRecordingDataController timingController =
+                new TimingRecordingDataController(dataController, database);
+        MemorySensorEnvironment environment = new MemorySensorEnvironment(timingController,
+                new FakeBleClient(context), null, null);
+
+        SensorObserver ignoreDisplay = (timestamp, data) -> {
+            // Only recording is measured.
+        };
+        List<ManualSensor> sensors = new ArrayList<>();
+        List<SensorRecorder> recorders = new ArrayList<>();
+        for (int i = 0; i < mSensorCount; i++) {
+            ManualSensor sensor = new ManualSensor("benchmark" + i, 100, 20);
+            SensorRecorder recorder = sensor.createRecorder(context, ignoreDisplay,
+                    new StubStatusListener(), environment);
+            recorder.startObserving();
+            recorder.startRecording("benchmark");
+            sensors.add(sensor);
+            recorders.add(recorder);
+        }
+
+        long samplesPerSensor = mDurationMillis * mHz / 1000;
+        long gcCountBefore = getGcCount();
+        long gcMillisBefore = getGcMillis();
+        long startNanos = System.nanoTime();
+        for (long i = 0; i < samplesPerSensor; i++) {
+            long timestamp = i * 1000 / mHz;
+            double value = Math.sin(i / 100.0);
+            for (int s = 0; s < mSensorCount; s++) {
+                sensors.get(s).pushValue(timestamp, value);
+            }
+        }
+        for (SensorRecorder recorder : recorders) {
+            recorder.stopRecording(null);
+            recorder.stopObserving();
+        }
+        sensorDataThread.shutdown();
+        sensorDataThread.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        return new Result(this, samplesPerSensor * mSensorCount, elapsedNanos,
+                database.getLatenciesMicros(), database.getRowsPerTier(),
+                dataController.getScalarWriteQueue().getHighWaterMark(),
+                getGcCount() - gcCountBefore, getGcMillis() - gcMillisBefore);
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public static class Result {
+        private final RecordingThroughputBenchmark mConfig;
+        private final long mSamples;
+        private final long mElapsedNanos;
+        private final long[] mSortedLatenciesMicros;
+        private final List<Long> mRowsPerTier;
+        private final int mWriteQueueHighWaterMark;
+        private final long mGcCount;
+        private final long mGcMillis;
+
+        Result(RecordingThroughputBenchmark config, long samples, long elapsedNanos,
+                long[] latenciesMicros, List<Long> rowsPerTier, int writeQueueHighWaterMark,
+                long gcCount, long gcMillis) {
+            mConfig = config;
+            mSamples = samples;
+            mElapsedNanos = elapsedNanos;
+            mSortedLatenciesMicros = latenciesMicros;
+            Arrays.sort(mSortedLatenciesMicros);
+            mRowsPerTier = rowsPerTier;
+            mWriteQueueHighWaterMark = writeQueueHighWaterMark;
+            mGcCount = gcCount;
+            mGcMillis = gcMillis;
+        }
+
+        public long getSamples() {
+            return mSamples;
+        }
+
+        public double getSamplesPerSecond() {
+            return mSamples * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the time that a reading waited between being handed to the data controller and
+         * being stored, in microseconds
+         */
+        public long getWriteLatencyMicros(double percentile) {
+            if (mSortedLatenciesMicros.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * mSortedLatenciesMicros.length) - 1;
+            return mSortedLatenciesMicros[Math.max(0, index)];
+        }
+
+        public List<Long> getRowsPerTier() {
+            return mRowsPerTier;
+        }
+
+        public long getGcCount() {
+            return mGcCount;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject config = new JSONObject();
+            config.put("sensors", mConfig.mSensorCount);
+            config.put("hz", mConfig.mHz);
+            config.put("durationMillis", mConfig.mDurationMillis);
+
+            JSONObject latency = new JSONObject();
+            latency.put("p50", getWriteLatencyMicros(50));
+            latency.put("p90", getWriteLatencyMicros(90));
+            latency.put("p99", getWriteLatencyMicros(99));
+            latency.put("max", getWriteLatencyMicros(100));
+
+            JSONObject json = new JSONObject();
+            json.put("config", config);
+            json.put("samples", mSamples);
+            json.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(mElapsedNanos));
+            json.put("samplesPerSecond", getSamplesPerSecond());
+            json.put("writeLatencyMicros", latency);
+            json.put("writeQueueHighWaterMark", mWriteQueueHighWaterMark);
+            json.put("rowsPerTier", new JSONArray(mRowsPerTier));
+            json.put("gcCount", mGcCount);
+            json.put("gcMillis", mGcMillis);
+            return json;
+        }
+    }
+
+    /**
+     * Notes when each reading is handed to the data controller.  Readings are stored in the order
+     * they are queued, so the n-th reading stored is the n-th queued.
+     */
+    private static class TimingRecordingDataController implements RecordingDataController {
+        private final RecordingDataController mDelegate;
+        private final TimingSensorDatabase mDatabase;
+
+        TimingRecordingDataController(RecordingDataController delegate,
+                TimingSensorDatabase database) {
+            mDelegate = delegate;
+            mDatabase = database;
+        }
+
+        @Override
+        public void addScalarReading(String sensorId, int resolutionTier, long timestampMillis,
+                double value) {
+            mDatabase.onEnqueued(System.nanoTime());
+            mDelegate.addScalarReading(sensorId, resolutionTier, timestampMillis, value);
+        }
+
+        @Override
+        public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {
+            mDelegate.setDataErrorListenerForSensor(sensorId, listener);
+        }
+
+        @Override
+        public void clearDataErrorListenerForSensor(String sensorId) {
+            mDelegate.clearDataErrorListenerForSensor(sensorId);
+        }
+    }
+
+    /**
+     * Counts the rows written to each tier, and how long each waited in the write queue.
+     */
+    private static class TimingSensorDatabase implements SensorDatabase {
+        private final SensorDatabase mDelegate;
+        private final long[] mEnqueueNanos = new long[ENQUEUE_TIME_RING_SIZE];
+        private long mEnqueued = 0;
+        private long mStored = 0;
+        private long[] mLatenciesMicros = new long[1024];
+        private final List<Long> mRowsPerTier = new ArrayList<>();
+
+        TimingSensorDatabase(SensorDatabase delegate) {
+            mDelegate = delegate;
+        }
+
+        // Called on the recording thread; the write queue hands each reading over to the
+        // storing thread with a lock, which makes this write visible there.
+        void onEnqueued(long nanos) {
+            mEnqueueNanos[(int) (mEnqueued++ % ENQUEUE_TIME_RING_SIZE)] = nanos;
+        }
+
+        @Override
+        public void addScalarReading(String sensorTag, int resolutionTier, long timestampMillis,
+                double value) {
+            mDelegate.addScalarReading(sensorTag, resolutionTier, timestampMillis, value);
+            long now = System.nanoTime();
+            long enqueued = mEnqueueNanos[(int) (mStored % ENQUEUE_TIME_RING_SIZE)];
+            if (mStored == mLatenciesMicros.length) {
+                mLatenciesMicros = Arrays.copyOf(mLatenciesMicros, mLatenciesMicros.length * 2);
+            }
+            mLatenciesMicros[(int) mStored++] = TimeUnit.NANOSECONDS.toMicros(now - enqueued);
+            while (mRowsPerTier.size() <= resolutionTier) {
+                mRowsPerTier.add(0L);
+            }
+            mRowsPerTier.set(resolutionTier, mRowsPerTier.get(resolutionTier) + 1);
+        }
+
+        long[] getLatenciesMicros() {
+            return Arrays.copyOf(mLatenciesMicros, (int) mStored);
+        }
+
+        List<Long> getRowsPerTier() {
+            return mRowsPerTier;
+        }
+
+        @Override
+        public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+                int resolutionTier, int maxRecords) {
+            return mDelegate.getScalarReadings(sensorTag, range, resolutionTier, maxRecords);
+        }
+
+        @Override
+        public String getFirstDatabaseTagAfter(long timestamp) {
+            return mDelegate.getFirstDatabaseTagAfter(timestamp);
+        }
+
+        @Override
+        public void deleteScalarReadings(String sensorTag, TimeRange range) {
+            mDelegate.deleteScalarReadings(sensorTag, range);
+        }
+
+        @Override
+        public Observable<ScalarReading> createScalarObservable(String[] sensorTags,
+                TimeRange range, int resolutionTier) {
+            return mDelegate.createScalarObservable(sensorTags, range, resolutionTier);
+        }
+    }
+}
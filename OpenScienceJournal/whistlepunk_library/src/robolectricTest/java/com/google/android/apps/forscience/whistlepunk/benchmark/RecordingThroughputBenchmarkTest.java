@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Runs {@link RecordingThroughputBenchmark} and saves the results as JSON, so that runs from
+ * different commits can be compared.  The defaults are small enough for every test run; pass
+ * e.g. {@code -Dbenchmark.sensors=8 -Dbenchmark.hz=400 -Dbenchmark.seconds=600} for a longer one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class RecordingThroughputBenchmarkTest {
+    private static final String OUTPUT_PATH = "build/benchmarks/recording_throughput.json";
+
+    @Test
+    public void runBenchmark() throws InterruptedException, JSONException, IOException {
+        int sensors = Integer.getInteger("benchmark.sensors", 4);
+        int hz = Integer.getInteger("benchmark.hz", 100);
+        int seconds = Integer.getInteger("benchmark.seconds", 30);
+        RecordingThroughputBenchmark.Result result =
+                new RecordingThroughputBenchmark(sensors, hz, seconds * 1000L).run(
+                        RuntimeEnvironment.application, "benchmark.db");
+
+        // Every reading reached the database, plus some in the zoom tiers.
+        assertEquals((long) sensors * hz * seconds, result.getSamples());
+        assertEquals(result.getSamples(), (long) result.getRowsPerTier().get(0));
+        assertTrue(result.getRowsPerTier().size() > 1);
+
+        File output = new File(System.getProperty("benchmark.output", OUTPUT_PATH));
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        try (Writer writer = new FileWriter(output)) {
+            writer.write(result.toJson().toString(2));
+        }
+    }
+}
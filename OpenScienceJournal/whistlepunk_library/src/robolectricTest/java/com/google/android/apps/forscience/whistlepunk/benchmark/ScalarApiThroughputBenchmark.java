@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.benchmark;
+
+import android.os.Binder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import com.google.android.apps.forscience.whistlepunk.api.scalarinput.BatchingObserver;
+import com.google.android.apps.forscience.whistlepunk.api.scalarinput.ISensorObserver;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measures how many readings per second a sensor service can send to Science Journal through the
+ * scalar API, one binder call per reading versus batches of readings.
+ *
+ * Calls go through the generated AIDL proxy and stub, so every reading is marshalled into a
+ * {@link Parcel} as it would be between apps.  The cost of crossing into the other process is
+ * simulated by a fixed delay per transaction.
+ */
+public class ScalarApiThroughputBenchmark {
+    private static final long FLUSH_DELAY_MILLIS = 60 * 1000;
+
+    private final int mReadings;
+    private final long mBinderOverheadNanos;
+    private final int mBatchSize;
+
+    /**
+     * @param readings              how many readings to send down each path
+     * @param binderOverheadMicros  simulated cost of each transaction
+     * @param batchSize             readings per batch on the batched path
+     */
+    public ScalarApiThroughputBenchmark(int readings, int binderOverheadMicros, int batchSize) {
+        mReadings = readings;
+        mBinderOverheadNanos = binderOverheadMicros * 1000L;
+        mBatchSize = batchSize;
+    }
+
+    public Result run() throws RemoteException {
+        CountingObserver single = new CountingObserver();
+        long singleNanos = sendSingly(connect(single));
+
+        CountingObserver batched = new CountingObserver();
+        long batchedNanos = sendBatched(connect(batched));
+
+        return new Result(this, single.mReadings, singleNanos, single.mTransactions,
+                batched.mReadings, batchedNanos, batched.mTransactions);
+    }
+
+    private long sendSingly(ISensorObserver observer) throws RemoteException {
+        long start = System.nanoTime();
+        for (int i = 0; i < mReadings; i++) {
+            observer.onNewData(i, i);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long sendBatched(ISensorObserver observer) throws RemoteException {
+        // Readings arrive faster than any flush delay, so only full batches are sent until the
+        // final flush.
+        BatchingObserver batcher = new BatchingObserver(observer, mBatchSize,
+                FLUSH_DELAY_MILLIS, new Handler(Looper.getMainLooper()), null);
+        long start = System.nanoTime();
+        for (int i = 0; i < mReadings; i++) {
+            batcher.onNewData(i, i);
+        }
+        batcher.flush();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return a proxy for {@code target} whose calls are marshalled, delayed, and unmarshalled
+     */
+    private ISensorObserver connect(final ISensorObserver.Stub target) {
+        Binder remote = new Binder() {
+            @Override
+            protected boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                    throws RemoteException {
+                spin(mBinderOverheadNanos);
+                return target.transact(code, data, reply, flags);
+            }
+        };
+        return ISensorObserver.Stub.asInterface(remote);
+    }
+
+    // Sleeping is far too coarse for per-transaction delays of tens of microseconds.
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // wait
+        }
+    }
+
+    private static class CountingObserver extends ISensorObserver.Stub {
+        long mReadings = 0;
+        long mTransactions = 0;
+        double mSum = 0;
+
+        @Override
+        public void onNewData(long timestamp, double data) {
+            mTransactions++;
+            mReadings++;
+            mSum += data;
+        }
+
+        @Override
+        public void onNewDataBatch(long[] timestamps, double[] values, int count) {
+            mTransactions++;
+            mReadings += count;
+            for (int i = 0; i < count; i++) {
+                mSum += values[i];
+            }
+        }
+
+        @Override
+        public void onSharedDataAvailable() {
+            // Not used here.
+        }
+    }
+
+    public static class Result {
+        private final ScalarApiThroughputBenchmark mConfig;
+        private final long mSingleReadings;
+        private final long mSingleNanos;
+        private final long mSingleTransactions;
+        private final long mBatchedReadings;
+        private final long mBatchedNanos;
+        private final long mBatchedTransactions;
+
+        Result(ScalarApiThroughputBenchmark config, long singleReadings, long singleNanos,
+                long singleTransactions, long batchedReadings, long batchedNanos,
+                long batchedTransactions) {
+            mConfig = config;
+            mSingleReadings = singleReadings;
+            mSingleNanos = singleNanos;
+            mSingleTransactions = singleTransactions;
+            mBatchedReadings = batchedReadings;
+            mBatchedNanos = batchedNanos;
+            mBatchedTransactions = batchedTransactions;
+        }
+
+        public long getSingleReadings() {
+            return mSingleReadings;
+        }
+
+        public long getBatchedReadings() {
+            return mBatchedReadings;
+        }
+
+        public long getBatchedTransactions() {
+            return mBatchedTransactions;
+        }
+
+        /**
+         * @return the fastest sample rate that one reading per call could sustain
+         */
+        public double getSingleMaxHz() {
+            return mSingleReadings * 1e9 / mSingleNanos;
+        }
+
+        /**
+         * @return the fastest sample rate that batched calls could sustain
+         */
+        public double getBatchedMaxHz() {
+            return mBatchedReadings * 1e9 / mBatchedNanos;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject config = new JSONObject();
+            config.put("readings", mConfig.mReadings);
+            config.put("binderOverheadMicros", mConfig.mBinderOverheadNanos / 1000);
+            config.put("batchSize", mConfig.mBatchSize);
+
+            JSONObject single = new JSONObject();
+            single.put("transactions", mSingleTransactions);
+            single.put("maxHz", getSingleMaxHz());
+
+            JSONObject batched = new JSONObject();
+            batched.put("transactions", mBatchedTransactions);
+            batched.put("maxHz", getBatchedMaxHz());
+
+            JSONObject json = new JSONObject();
+            json.put("config", config);
+            json.put("single", single);
+            json.put("batched", batched);
+            json.put("speedup", getBatchedMaxHz() / getSingleMaxHz());
+            return json;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.RemoteException;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Runs {@link ScalarApiThroughputBenchmark} and saves the results as JSON.  Pass e.g.
+ * {@code -Dbenchmark.readings=200000 -Dbenchmark.binderOverheadMicros=50} for a longer run.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ScalarApiThroughputBenchmarkTest {
+    private static final String OUTPUT_PATH = "build/benchmarks/scalar_api_throughput.json";
+
+    @Test
+    public void runBenchmark() throws RemoteException, JSONException, IOException {
+        int readings = Integer.getInteger("benchmark.readings", 20000);
+        int overheadMicros = Integer.getInteger("benchmark.binderOverheadMicros", 30);
+        int batchSize = Integer.getInteger("benchmark.batchSize", 64);
+        ScalarApiThroughputBenchmark.Result result =
+                new ScalarApiThroughputBenchmark(readings, overheadMicros, batchSize).run();
+
+        assertEquals(readings, result.getSingleReadings());
+        assertEquals(readings, result.getBatchedReadings());
+        assertEquals((readings + batchSize - 1) / batchSize, result.getBatchedTransactions());
+        assertTrue(result.toJson().toString(), result.getBatchedMaxHz() > result.getSingleMaxHz());
+
+        File output = new File(System.getProperty("benchmark.output", OUTPUT_PATH));
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        try (Writer writer = new FileWriter(output)) {
+            writer.write(result.toJson().toString(2));
+        }
+    }
+}
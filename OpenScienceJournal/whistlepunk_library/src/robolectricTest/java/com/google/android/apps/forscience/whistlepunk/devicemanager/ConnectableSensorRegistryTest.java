@@ -57,6 +57,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -377,6 +378,70 @@ public class ConnectableSensorRegistryTest {
         assertEquals(3, mAvailableDevices.size());
     }
 
+    @Test
+    public void cachedSensorsShownBeforeScanFindsThem() {
+        List<Runnable> pending = new ArrayList<>();
+        TestSensorDiscoverer tsd = new TestSensorDiscoverer("serviceName", pending::add);
+        tsd.addDevice("deviceId", "deviceName");
+        tsd.addSensor("deviceId",
+                new TestSensor("address1", "name1", new SensorAppearanceResources()));
+        tsd.addSensor("deviceId",
+                new TestSensor("address2", "name2", new SensorAppearanceResources()));
+
+        SettableClock clock = new SettableClock();
+        Map<String, SensorDiscoverer> discoverers = new HashMap<>();
+        discoverers.put(ScalarInputSpec.TYPE, new CachingSensorDiscoverer(
+                tsd.makeScalarInputDiscoverer("serviceId", MoreExecutors.directExecutor()),
+                clock, CachingSensorDiscoverer.DEFAULT_TIME_TO_LIVE_MILLIS));
+
+        clock.setNow(0);
+        ConnectableSensorRegistry registry = makeRegistry(discoverers, mPresenter, clock);
+        registry.startScanningInDiscoverers(false);
+        assertEquals(0, mAvailableDevices.size());
+        runAll(pending);
+        assertEquals(2, mAvailableDevices.size());
+        registry.stopScanningInDiscoverers();
+
+        // Re-opening the screen shows both sensors before the scan has found anything
+        tsd.removeSensor("deviceId", "address2");
+        MemorySensorGroup available = new MemorySensorGroup(mDeviceRegistry);
+        TestDevicesPresenter presenter = new TestDevicesPresenter(available,
+                new MemorySensorGroup(mDeviceRegistry));
+        clock.setNow(5_000);
+        registry = makeRegistry(discoverers, presenter, clock);
+        registry.startScanningInDiscoverers(false);
+        assertEquals(2, available.size());
+
+        // address2 was seen recently enough that it isn't assumed gone yet
+        runAll(pending);
+        assertEquals(2, available.size());
+        registry.stopScanningInDiscoverers();
+
+        // Once it's been gone long enough, it's still shown from the cache at first, but taken
+        // away when the scan ends without finding it.
+        clock.setNow(60_000);
+        available = new MemorySensorGroup(mDeviceRegistry);
+        presenter = new TestDevicesPresenter(available, new MemorySensorGroup(mDeviceRegistry));
+        registry = makeRegistry(discoverers, presenter, clock);
+        registry.startScanningInDiscoverers(false);
+        assertEquals(2, available.size());
+        runAll(pending);
+        assertEquals(1, available.size());
+    }
+
+    private ConnectableSensorRegistry makeRegistry(Map<String, SensorDiscoverer> discoverers,
+            TestDevicesPresenter presenter, SettableClock clock) {
+        return new ConnectableSensorRegistry(makeDataController(), discoverers, presenter,
+                mScheduler, clock, mOptionsListener, null, mAppearanceProvider,
+                UsageTracker.STUB, ConnectableSensor.Connector.fromDiscoverers(discoverers));
+    }
+
+    private static void runAll(List<Runnable> pending) {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+
     @NonNull
     private DataController makeDataController() {
         return new InMemorySensorDatabase().makeSimpleController(mMetadataManager, mProviderMap);
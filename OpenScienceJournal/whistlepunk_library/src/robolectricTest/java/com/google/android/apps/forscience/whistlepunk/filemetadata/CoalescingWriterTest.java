@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the CoalescingWriter class.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class CoalescingWriterTest {
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    private final Object mLock = new Object();
+
+    @After
+    public void shutDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testRequestsCoalesceUntilFlushed() {
+        AtomicInteger writes = new AtomicInteger();
+        // Long delay, so that only the flush writes.
+        CoalescingWriter writer = new CoalescingWriter(mExecutor, 100_000, mLock,
+                writes::incrementAndGet);
+        assertFalse(writer.isWritePending());
+
+        writer.requestWrite();
+        writer.requestWrite();
+        writer.requestWrite();
+        assertTrue(writer.isWritePending());
+        assertEquals(0, writes.get());
+
+        writer.flush();
+        assertFalse(writer.isWritePending());
+        assertEquals(1, writes.get());
+
+        writer.requestWrite();
+        writer.cancel();
+        assertFalse(writer.isWritePending());
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    public void testWritesOnExecutorThread() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        AtomicReference<Thread> writeThread = new AtomicReference<>();
+        CoalescingWriter writer = new CoalescingWriter(mExecutor, 0, mLock, () -> {
+            writeThread.set(Thread.currentThread());
+            written.countDown();
+        });
+
+        writer.requestWrite();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), writeThread.get());
+        assertFalse(writer.isWritePending());
+    }
+}
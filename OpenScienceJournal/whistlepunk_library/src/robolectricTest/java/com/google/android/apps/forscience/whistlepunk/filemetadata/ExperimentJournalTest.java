@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Tests for the ExperimentJournal class.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ExperimentJournalTest {
+    private File getFile() {
+        return new File(RuntimeEnvironment.application.getFilesDir(), "experiment.proto");
+    }
+
+    private ExperimentJournal makeJournal() {
+        return new ExperimentJournal(getFile(), ProtoFileHelper.SyncPolicy.NO_SYNC,
+                ExperimentJournal.MIN_COMPACTION_BYTES);
+    }
+
+    @After
+    public void cleanUp() {
+        getFile().delete();
+        ExperimentJournal.getJournalFile(getFile()).delete();
+    }
+
+    @Test
+    public void testChangesAreAppended() {
+        GoosciExperiment.Experiment proto = new GoosciExperiment.Experiment();
+        proto.title = "Before";
+        proto.labels = new GoosciLabel.Label[] {makeLabel("a", 1)};
+        proto.trials = new GoosciTrial.Trial[] {makeTrial("t")};
+        ExperimentJournal journal = makeJournal();
+        assertTrue(journal.write(proto));
+        long experimentFileLength = getFile().length();
+        assertFalse(ExperimentJournal.getJournalFile(getFile()).exists());
+
+        proto.title = "After";
+        proto.labels = new GoosciLabel.Label[] {makeLabel("a", 1), makeLabel("b", 2)};
+        assertTrue(journal.write(proto));
+        assertEquals(experimentFileLength, getFile().length());
+        assertTrue(ExperimentJournal.getJournalFile(getFile()).exists());
+
+        GoosciExperiment.Experiment result = makeJournal().read();
+        assertEquals("After", result.title);
+        assertEquals(2, result.labels.length);
+        assertEquals("b", result.labels[1].labelId);
+        assertEquals(1, result.trials.length);
+
+        // Removing and reordering survive as well.
+        proto.labels = new GoosciLabel.Label[] {makeLabel("c", 3), makeLabel("b", 2)};
+        assertTrue(journal.write(proto));
+        result = makeJournal().read();
+        assertEquals(2, result.labels.length);
+        assertEquals("c", result.labels[0].labelId);
+        assertEquals("b", result.labels[1].labelId);
+        assertEquals("After", result.title);
+    }
+
+    @Test
+    public void testCompactionLeavesFileCompleteWithoutJournal() throws IOException {
+        GoosciExperiment.Experiment proto = new GoosciExperiment.Experiment();
+        proto.title = "Before";
+        ExperimentJournal journal = makeJournal();
+        assertTrue(journal.write(proto));
+        assertFalse(journal.hasJournal());
+
+        proto.title = "After";
+        proto.labels = new GoosciLabel.Label[] {makeLabel("a", 1)};
+        assertTrue(journal.write(proto));
+        assertTrue(journal.hasJournal());
+
+        assertTrue(journal.compact(proto));
+        assertFalse(journal.hasJournal());
+        assertFalse(ExperimentJournal.getJournalFile(getFile()).exists());
+
+        // A reader that knows nothing of journals sees every change.
+        GoosciExperiment.Experiment result = GoosciExperiment.Experiment.parseFrom(
+                Files.readAllBytes(getFile().toPath()));
+        assertEquals("After", result.title);
+        assertEquals(1, result.labels.length);
+    }
+
+    @Test
+    public void testTrialIndexChangesAreAppended() {
+        GoosciExperiment.Experiment proto = new GoosciExperiment.Experiment();
+        proto.trialIndex = new GoosciTrial.TrialIndexEntry[] {makeIndexEntry("t1", "first"),
+                makeIndexEntry("t2", "second")};
+        ExperimentJournal journal = makeJournal();
+        assertTrue(journal.write(proto));
+
+        proto.trialIndex[1].title = "renamed";
+        assertTrue(journal.write(proto));
+        assertTrue(ExperimentJournal.getJournalFile(getFile()).exists());
+
+        GoosciExperiment.Experiment result = makeJournal().read();
+        assertEquals(2, result.trialIndex.length);
+        assertEquals("first", result.trialIndex[0].title);
+        assertEquals("renamed", result.trialIndex[1].title);
+    }
+
+    @Test
+    public void testStaleJournalIgnoredAfterCompaction() throws IOException {
+        GoosciExperiment.Experiment proto = new GoosciExperiment.Experiment();
+        proto.labels = new GoosciLabel.Label[] {makeLabel("a", 1)};
+        ExperimentJournal journal = makeJournal();
+        assertTrue(journal.write(proto));
+        proto.labels[0].timestampMs = 2;
+        assertTrue(journal.write(proto));
+        File journalFile = ExperimentJournal.getJournalFile(getFile());
+        byte[] staleJournal = Files.readAllBytes(journalFile.toPath());
+
+        // The app is killed after compacting, but before the journal is deleted.
+        proto.labels[0].timestampMs = 3;
+        assertTrue(journal.compact(proto));
+        Files.write(journalFile.toPath(), staleJournal);
+
+        GoosciExperiment.Experiment result = makeJournal().read();
+        assertEquals(3, result.labels[0].timestampMs);
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void testTornEntryDropped() throws IOException {
+        GoosciExperiment.Experiment proto = new GoosciExperiment.Experiment();
+        ExperimentJournal journal = makeJournal();
+        assertTrue(journal.write(proto));
+        proto.labels = new GoosciLabel.Label[] {makeLabel("a", 1)};
+        assertTrue(journal.write(proto));
+        File journalFile = ExperimentJournal.getJournalFile(getFile());
+        long journalLength = journalFile.length();
+
+        // The app is killed partway through appending the next entry.
+        try (FileOutputStream torn = new FileOutputStream(journalFile, true)) {
+            torn.write(new byte[] {0, 0, 0, 50, 1, 2, 3});
+        }
+
+        journal = makeJournal();
+        GoosciExperiment.Experiment result = journal.read();
+        assertEquals(1, result.labels.length);
+        assertEquals(journalLength, journalFile.length());
+
+        // Later entries are readable.
+        result.labels = new GoosciLabel.Label[] {makeLabel("a", 1), makeLabel("b", 2)};
+        assertTrue(journal.write(result));
+        assertEquals(2, makeJournal().read().labels.length);
+    }
+
+    @Test
+    public void testCompactsWhenJournalIsLarge() {
+        GoosciExperiment.Experiment proto = new GoosciExperiment.Experiment();
+        ExperimentJournal journal = new ExperimentJournal(getFile(),
+                ProtoFileHelper.SyncPolicy.NO_SYNC, 1);
+        File journalFile = ExperimentJournal.getJournalFile(getFile());
+        assertTrue(journal.write(proto));
+
+        proto.title = "First";
+        assertTrue(journal.write(proto));
+        assertTrue(journalFile.exists());
+
+        proto.title = "Second";
+        assertTrue(journal.write(proto));
+        assertFalse(journalFile.exists());
+        assertEquals("Second", makeJournal().read().title);
+    }
+
+    private static GoosciLabel.Label makeLabel(String labelId, long timestampMs) {
+        GoosciLabel.Label label = new GoosciLabel.Label();
+        label.labelId = labelId;
+        label.timestampMs = timestampMs;
+        return label;
+    }
+
+    private static GoosciTrial.TrialIndexEntry makeIndexEntry(String trialId, String title) {
+        GoosciTrial.TrialIndexEntry entry = new GoosciTrial.TrialIndexEntry();
+        entry.trialId = trialId;
+        entry.title = title;
+        return entry;
+    }
+
+    private static GoosciTrial.Trial makeTrial(String trialId) {
+        GoosciTrial.Trial trial = new GoosciTrial.Trial();
+        trial.trialId = trialId;
+        return trial;
+    }
+}
@@ -151,8 +151,9 @@ public class ExperimentTest {
 
         assertEquals(experiment1.getTrialCount(), 2);
 
-        // Getting the proto includes trial updates
-        assertEquals(experiment1.getExperimentProto().trials.length, 2);
+        // Getting the proto includes trial updates, in the trial index
+        assertEquals(experiment1.getExperimentProto().trialIndex.length, 2);
+        assertEquals(experiment1.getExperimentProto().trials.length, 0);
     }
 
     @Test
@@ -216,7 +217,7 @@ public class ExperimentTest {
         // Try to get the proto *before* converting the objects into lists.
         GoosciExperiment.Experiment result = experiment.getExperimentProto();
         assertEquals(result.labels.length, 4);
-        assertEquals(result.trials.length, 1);
+        assertEquals(result.trialIndex.length, 1);
     }
 
     @Test
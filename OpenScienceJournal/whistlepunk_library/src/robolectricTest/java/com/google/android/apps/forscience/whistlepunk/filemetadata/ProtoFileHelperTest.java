@@ -39,6 +39,7 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
@@ -58,6 +59,7 @@ public class ProtoFileHelperTest {
     @After
     public void cleanUp() {
         getFile().delete();
+        ProtoFileHelper.getTempFile(getFile()).delete();
     }
 
     @Test
@@ -105,4 +107,47 @@ public class ProtoFileHelperTest {
                 helper.readFromFile(file, GoosciUserMetadata.UserMetadata::parseFrom);
         assertEquals(42, result.version);
     }
+
+    @Test
+    public void testFailureAtEachStepKeepsPrevious() {
+        File file = getFile();
+        ProtoFileHelper<GoosciUserMetadata.UserMetadata> helper = new ProtoFileHelper<>();
+        GoosciUserMetadata.UserMetadata metadata = new GoosciUserMetadata.UserMetadata();
+        metadata.version = 42;
+        assertTrue(helper.writeToFile(file, metadata));
+
+        for (ProtoFileHelper.WriteStep step : ProtoFileHelper.WriteStep.values()) {
+            metadata.version = 64;
+            assertFalse(step.toString(), helper.writeToFile(file, metadata, step));
+
+            GoosciUserMetadata.UserMetadata result =
+                    helper.readFromFile(file, GoosciUserMetadata.UserMetadata::parseFrom);
+            assertEquals(step.toString(), 42, result.version);
+            assertFalse(step.toString(), ProtoFileHelper.getTempFile(file).exists());
+        }
+    }
+
+    @Test
+    public void testLeftoverTempFileFromCrashIsReplaced() throws IOException {
+        File file = getFile();
+        ProtoFileHelper<GoosciUserMetadata.UserMetadata> helper =
+                new ProtoFileHelper<>(ProtoFileHelper.SyncPolicy.NO_SYNC);
+        GoosciUserMetadata.UserMetadata metadata = new GoosciUserMetadata.UserMetadata();
+        metadata.version = 42;
+        assertTrue(helper.writeToFile(file, metadata));
+
+        // The app was killed partway through writing the next version.
+        try (FileOutputStream torn = new FileOutputStream(ProtoFileHelper.getTempFile(file))) {
+            torn.write(new byte[] {1, 2, 3});
+        }
+        GoosciUserMetadata.UserMetadata result =
+                helper.readFromFile(file, GoosciUserMetadata.UserMetadata::parseFrom);
+        assertEquals(42, result.version);
+
+        metadata.version = 64;
+        assertTrue(helper.writeToFile(file, metadata));
+        result = helper.readFromFile(file, GoosciUserMetadata.UserMetadata::parseFrom);
+        assertEquals(64, result.version);
+        assertFalse(ProtoFileHelper.getTempFile(file).exists());
+    }
 }
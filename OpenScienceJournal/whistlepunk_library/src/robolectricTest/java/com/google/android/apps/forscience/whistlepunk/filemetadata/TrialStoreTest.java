@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.filemetadata;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the TrialStore class.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TrialStoreTest {
+    private File getExperimentDirectory() {
+        return new File(RuntimeEnvironment.application.getFilesDir(), "experiment");
+    }
+
+    private TrialStore makeStore() {
+        return new TrialStore(getExperimentDirectory(), ProtoFileHelper.SyncPolicy.NO_SYNC);
+    }
+
+    @After
+    public void cleanUp() {
+        ExperimentCache.deleteRecursive(getExperimentDirectory());
+    }
+
+    @Test
+    public void testTrialLoadedOnlyWhenNeeded() {
+        Trial original = Trial.fromTrial(makeTrial("t", "title", 2));
+        assertTrue(writeTrials(makeStore(), Arrays.asList(original)));
+
+        TrialStore store = makeStore();
+        List<String> loaded = new ArrayList<>();
+        Trial trial = Trial.fromIndexEntry(original.getIndexEntry(), trialId -> {
+            loaded.add(trialId);
+            return store.loadTrial(trialId);
+        });
+
+        // The index is enough to list the trial.
+        assertEquals("title", trial.getRawTitle());
+        assertEquals(2, trial.getLabelCount());
+        assertEquals(1000, trial.getOriginalFirstTimestamp());
+        assertFalse(trial.isLoaded());
+        assertTrue(loaded.isEmpty());
+
+        assertEquals(2, trial.getLabels().size());
+        assertTrue(trial.isLoaded());
+        assertEquals(Arrays.asList("t"), loaded);
+    }
+
+    @Test
+    public void testSetterBeforeLoadIsKept() {
+        Trial original = Trial.fromTrial(makeTrial("t", "title", 1));
+        TrialStore store = makeStore();
+        assertTrue(writeTrials(store, Arrays.asList(original)));
+
+        Trial trial = Trial.fromIndexEntry(original.getIndexEntry(), store);
+        trial.setTitle("new title");
+        assertEquals("new title", trial.getRawTitle());
+        assertEquals(1, trial.getLabels().size());
+        assertEquals("new title", trial.getRawTitle());
+    }
+
+    @Test
+    public void testOnlyChangedTrialsWritten() {
+        Trial first = Trial.fromTrial(makeTrial("first", "first", 1));
+        Trial second = Trial.fromTrial(makeTrial("second", "second", 1));
+        assertTrue(writeTrials(makeStore(), Arrays.asList(first, second)));
+
+        TrialStore store = makeStore();
+        Trial loadedFirst = Trial.fromIndexEntry(first.getIndexEntry(), store);
+        Trial unloadedSecond = Trial.fromIndexEntry(second.getIndexEntry(), store);
+        Trial third = Trial.fromTrial(makeTrial("third", "third", 0));
+        loadedFirst.getLabels();
+
+        // Replace the second trial's file, to tell whether it is written again.
+        new ProtoFileHelper<GoosciTrial.Trial>().writeToFile(store.getTrialFile("second"),
+                makeTrial("second", "untouched", 0));
+
+        assertTrue(writeTrials(store, Arrays.asList(loadedFirst, unloadedSecond, third)));
+        assertEquals("untouched", store.loadTrial("second").title);
+        assertEquals("third", store.loadTrial("third").title);
+
+        loadedFirst.setTitle("changed");
+        assertTrue(writeTrials(store, Arrays.asList(loadedFirst, unloadedSecond, third)));
+        assertEquals("changed", store.loadTrial("first").title);
+        assertEquals("untouched", store.loadTrial("second").title);
+    }
+
+    @Test
+    public void testFailedLoadNotWritten() {
+        Trial original = Trial.fromTrial(makeTrial("t", "title", 2));
+        TrialStore store = makeStore();
+        assertTrue(writeTrials(store, Arrays.asList(original)));
+
+        // Fail the first load, as if the file could not be read just then.
+        List<String> loaded = new ArrayList<>();
+        Trial trial = Trial.fromIndexEntry(original.getIndexEntry(), trialId -> {
+            loaded.add(trialId);
+            return loaded.size() == 1 ? null : store.loadTrial(trialId);
+        });
+        assertEquals(0, trial.getLabels().size());
+        assertFalse(trial.isLoaded());
+        trial.setTitle("changed");
+        trial.getLabels();
+        assertEquals(1, loaded.size());
+
+        // Saving must leave the trial's file alone, rather than write the index fields over it.
+        assertTrue(writeTrials(store, Arrays.asList(trial)));
+        GoosciTrial.Trial written = store.loadTrial("t");
+        assertEquals("title", written.title);
+        assertEquals(2, written.labels.length);
+
+        // Loading explicitly tries again, keeping what was set in the meantime.
+        trial.load();
+        assertTrue(trial.isLoaded());
+        assertEquals(2, trial.getLabels().size());
+        assertEquals("changed", trial.getRawTitle());
+    }
+
+    @Test
+    public void testRemovedTrialsDeleted() {
+        Trial first = Trial.fromTrial(makeTrial("first", "first", 0));
+        Trial second = Trial.fromTrial(makeTrial("second", "second", 0));
+        List<Trial> trials = new ArrayList<>(Arrays.asList(first, second));
+        TrialStore store = makeStore();
+        assertTrue(writeTrials(store, trials));
+        store.deleteRemovedTrials(getTrialIds(trials));
+        assertTrue(store.getTrialFile("second").exists());
+
+        trials.remove(second);
+        assertTrue(writeTrials(store, trials));
+        store.deleteRemovedTrials(getTrialIds(trials));
+        assertTrue(store.getTrialFile("first").exists());
+        assertFalse(store.getTrialFile("second").exists());
+    }
+
+    private static boolean writeTrials(TrialStore store, List<Trial> trials) {
+        return store.writeTrials(ExperimentSnapshot.serializeLoadedTrials(trials));
+    }
+
+    private static List<String> getTrialIds(List<Trial> trials) {
+        List<String> trialIds = new ArrayList<>();
+        for (Trial trial : trials) {
+            trialIds.add(trial.getTrialId());
+        }
+        return trialIds;
+    }
+
+    private static GoosciTrial.Trial makeTrial(String trialId, String title, int labelCount) {
+        GoosciTrial.Trial trial = new GoosciTrial.Trial();
+        trial.trialId = trialId;
+        trial.title = title;
+        trial.recordingRange = new GoosciTrial.Range();
+        trial.recordingRange.startMs = 1000;
+        trial.recordingRange.endMs = 2000;
+        trial.labels = new GoosciLabel.Label[labelCount];
+        for (int i = 0; i < labelCount; i++) {
+            trial.labels[i] = new GoosciLabel.Label();
+            trial.labels[i].labelId = trialId + i;
+            trial.labels[i].timestampMs = 1000 + i;
+        }
+        return trial;
+    }
+}
@@ -35,6 +35,7 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * Tests for SharedMetadatamanager
@@ -157,6 +158,26 @@ public class UserMetadataManagerTest {
         assertEquals(smm.getExperimentOverviews(true).size(), 2);
     }
 
+    @Test
+    public void testSaveKeepsOrder() {
+        UserMetadataManager smm = new UserMetadataManager(getContext(),
+                getFailureFailsListener());
+        for (String experimentId : new String[] {"exp1", "exp2", "exp3"}) {
+            GoosciUserMetadata.ExperimentOverview overview =
+                    new GoosciUserMetadata.ExperimentOverview();
+            overview.experimentId = experimentId;
+            smm.addExperimentOverview(overview);
+        }
+        smm.deleteExperimentOverview("exp2");
+        smm.saveImmediately();
+
+        List<GoosciUserMetadata.ExperimentOverview> overviews = new UserMetadataManager(
+                getContext(), getFailureFailsListener()).getExperimentOverviews(true);
+        assertEquals(2, overviews.size());
+        assertEquals("exp1", overviews.get(0).experimentId);
+        assertEquals("exp3", overviews.get(1).experimentId);
+    }
+
     @Test
     public void testUpgrade() {
         // This test is not very interesting but more can be added as upgrades get more complex.
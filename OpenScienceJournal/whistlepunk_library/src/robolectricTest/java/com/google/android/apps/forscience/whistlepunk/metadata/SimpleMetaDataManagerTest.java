@@ -51,12 +51,19 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 
@@ -654,6 +661,122 @@ public class SimpleMetaDataManagerTest {
                 mMetaDataManager.getExperimentById(experiment.getExperimentId()).getLabelCount());
     }
 
+    private static class MigrationKilledException extends RuntimeException {
+    }
+
+    @Test
+    public void testInterruptedMigrationResumes() throws IOException {
+        File picture = new File(getContext().getFilesDir(), "picture.jpg");
+        try (FileOutputStream output = new FileOutputStream(picture)) {
+            output.write(new byte[] {1, 2, 3});
+        }
+        Set<String> experimentIds = new HashSet<>();
+        for (int i = 0; i < 25; i++) {
+            Experiment experiment = mMetaDataManager.newDatabaseExperiment();
+            experimentIds.add(experiment.getExperimentId());
+            for (int j = 0; j < 2; j++) {
+                GoosciPictureLabelValue.PictureLabelValue labelValue =
+                        new GoosciPictureLabelValue.PictureLabelValue();
+                labelValue.filePath = picture.getAbsolutePath();
+                Label label = Label.newLabelWithValue(j * 1000,
+                        GoosciLabelValue.LabelValue.PICTURE, labelValue, null);
+                mMetaDataManager.addDatabaseLabel(experiment.getExperimentId(),
+                        RecorderController.NOT_RECORDING_RUN_ID, label,
+                        PictureLabelValue.fromPicture(labelValue.filePath, ""));
+            }
+        }
+        mMetaDataManager.close();
+
+        // Kill the migration at random points until it gets to the end.
+        Random random = new Random(0);
+        int[] progress = new int[2];
+        int kills = 0;
+        boolean finished = false;
+        while (!finished) {
+            assertTrue("Migration is not making progress", kills < 100);
+            int[] stepsLeft = new int[] {1 + random.nextInt(15)};
+            progress[0] = 0;
+            progress[1] = 0;
+            SimpleMetaDataManager manager = new SimpleMetaDataManager(getContext(),
+                    "test.main.db", mTestSystemClock) {
+                @Override
+                void onMigrationStep() {
+                    if (--stepsLeft[0] == 0) {
+                        throw new MigrationKilledException();
+                    }
+                }
+            };
+            manager.setMigrationProgressListener((migratedCount, totalCount) -> {
+                progress[0] = migratedCount;
+                progress[1] = totalCount;
+            });
+            try {
+                manager.migrateExperimentsToFiles();
+                finished = true;
+            } catch (MigrationKilledException e) {
+                kills++;
+            } finally {
+                manager.close();
+            }
+        }
+        assertTrue(kills > 0);
+        assertEquals(progress[1], progress[0]);
+
+        mMetaDataManager = makeMetaDataManager();
+        List<GoosciUserMetadata.ExperimentOverview> overviews =
+                mMetaDataManager.getExperimentOverviews(true);
+        assertEquals(experimentIds.size(), overviews.size());
+        Set<String> migratedIds = new HashSet<>();
+        for (GoosciUserMetadata.ExperimentOverview overview : overviews) {
+            migratedIds.add(overview.experimentId);
+        }
+        assertEquals(experimentIds, migratedIds);
+        assertEquals(experimentIds, new HashSet<>(Arrays.asList(
+                new File(FileMetadataManager.getExperimentsRootDirectory(getContext())).list())));
+
+        for (String experimentId : experimentIds) {
+            assertNull(mMetaDataManager.getDatabaseExperimentById(experimentId));
+            Experiment experiment = mMetaDataManager.getExperimentById(experimentId);
+            assertEquals(2, experiment.getLabelCount());
+            for (Label label : experiment.getLabels()) {
+                assertTrue(FileMetadataManager.getExperimentFile(getContext(), experimentId,
+                        label.getPictureLabelValue().filePath).exists());
+            }
+        }
+    }
+
+    @Test
+    public void testMigrationInBackgroundReportsProgress() throws InterruptedException {
+        for (int i = 0; i < 12; i++) {
+            mMetaDataManager.newDatabaseExperiment();
+        }
+        mMetaDataManager.close();
+        // Record that experiments need migrating, as the database upgrade does.
+        FileMetadataManager fileMetadataManager =
+                new FileMetadataManager(getContext(), mTestSystemClock);
+        fileMetadataManager.setDatabaseMigration(new GoosciUserMetadata.DatabaseMigration());
+        fileMetadataManager.close();
+
+        mMetaDataManager = makeMetaDataManager();
+        List<String> progress = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch finished = new CountDownLatch(1);
+        mMetaDataManager.migrateExperimentsInBackground((migratedCount, totalCount) -> {
+            progress.add(migratedCount + "/" + totalCount);
+            if (migratedCount == totalCount) {
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0/12", "10/12", "12/12"), progress.subList(0, 3));
+        assertEquals(12, mMetaDataManager.getExperimentOverviews(true).size());
+
+        // Once finished, new listeners hear so right away.
+        List<String> laterProgress = new ArrayList<>();
+        mMetaDataManager.migrateExperimentsInBackground((migratedCount, totalCount) ->
+                laterProgress.add(migratedCount + "/" + totalCount));
+        assertEquals(Arrays.asList("12/12"), laterProgress);
+    }
+
     private List<String> getIds(List<GoosciSensorLayout.SensorLayout> layouts) {
         List<String> ids = new ArrayList<>();
         for (GoosciSensorLayout.SensorLayout layout : layouts) {
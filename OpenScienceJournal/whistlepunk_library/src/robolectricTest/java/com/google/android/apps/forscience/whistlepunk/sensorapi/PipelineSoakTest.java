@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BoundedQueue;
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
+import com.google.android.apps.forscience.whistlepunk.RecordingPerfTracker;
+import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MonotonicClock;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saturates the sensor pipeline with synthetic sensors feeding a slow database and a stalled UI
+ * thread, segment after segment, and checks that every queue stays bounded without losing
+ * recorded data, and that the heap does not grow from one segment to the next.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PipelineSoakTest {
+    private static final int SENSOR_COUNT = 4;
+    private static final int SEGMENT_COUNT = 8;
+    private static final int READINGS_PER_SEGMENT = 5000;
+    private static final int WRITE_QUEUE_CAPACITY = 32;
+
+    // Well below what the later segments would add if the pipeline kept each reading.
+    private static final long MAX_HEAP_GROWTH_BYTES = 4 * 1024 * 1024;
+
+    @Test
+    public void testSaturatedPipeline() throws Exception {
+        SlowSensorDatabase db = new SlowSensorDatabase();
+        ExecutorService sensorDataThread = Executors.newSingleThreadExecutor();
+        Map<String, SensorProvider> providers = new HashMap<>();
+        DataControllerImpl dc = new DataControllerImpl(db, MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), sensorDataThread, new MemoryMetadataManager(),
+                new MonotonicClock(), providers, new ConnectableSensor.Connector(providers),
+                WRITE_QUEUE_CAPACITY);
+        List<String> queueStats = new ArrayList<>();
+        dc.setPerfTracker(new RecordingPerfTracker(queueStats));
+
+        // The UI thread never gets a chance to run until each burst is over.
+        StalledExecutor uiThread = new StalledExecutor();
+
+        final List<ManualSensor> sensors = new ArrayList<>();
+        List<SegmentedRecorder> recorders = new ArrayList<>();
+        List<RecordingSensorObserver> observers = new ArrayList<>();
+        for (int i = 0; i < SENSOR_COUNT; i++) {
+            ManualSensor sensor = new ManualSensor("sensor" + i, 1000, 5, uiThread);
+            RecordingSensorObserver observer = new RecordingSensorObserver();
+            SensorRecorder recorder = sensor.createRecorder(null, dc, observer);
+            recorder.startObserving();
+            recorder.startRecording("runId0");
+            sensors.add(sensor);
+            recorders.add((SegmentedRecorder) recorder);
+            observers.add(observer);
+        }
+
+        long baselineHeapBytes = 0;
+        for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+            pushSegment(sensors, segment);
+            // The data thread is serial, so once this runs, every write offered so far is done.
+            sensorDataThread.submit(() -> {}).get(60, TimeUnit.SECONDS);
+
+            // Display keeps only the most recent readings once the UI thread catches up.
+            uiThread.runAll();
+            long segmentEnd = (segment + 1) * READINGS_PER_SEGMENT;
+            for (RecordingSensorObserver observer : observers) {
+                List<ScalarReading> readings = observer.getReadings();
+                assertEquals(ScalarSensor.DEFAULT_DISPLAY_QUEUE_CAPACITY * (segment + 1),
+                        readings.size());
+                ScalarReading last = readings.get(readings.size() - 1);
+                assertEquals(segmentEnd, last.getCollectedTimeMillis());
+            }
+
+            for (SegmentedRecorder recorder : recorders) {
+                recorder.rollOverRecording(null, "runId" + (segment + 1));
+            }
+            if (segment == 0) {
+                // Measure from the end of the first segment, once every pool and queue is full.
+                baselineHeapBytes = usedHeapBytesAfterGc();
+            }
+        }
+        long heapGrowthBytes = usedHeapBytesAfterGc() - baselineHeapBytes;
+        assertTrue("Heap grew by " + heapGrowthBytes + " bytes",
+                heapGrowthBytes < MAX_HEAP_GROWTH_BYTES);
+
+        sensorDataThread.shutdown();
+        assertTrue(sensorDataThread.awaitTermination(60, TimeUnit.SECONDS));
+
+        // Storage never drops, and never holds more than its capacity.
+        BoundedQueue<?> writeQueue = dc.getScalarWriteQueue();
+        assertEquals(0, writeQueue.getDropCount());
+        assertTrue(writeQueue.getHighWaterMark() <= WRITE_QUEUE_CAPACITY);
+        for (int i = 0; i < SENSOR_COUNT; i++) {
+            assertEquals(SEGMENT_COUNT * READINGS_PER_SEGMENT, db.countReadings("sensor" + i));
+        }
+        assertFalse(queueStats.isEmpty());
+        for (String stats : queueStats) {
+            assertTrue(stats, stats.startsWith("scalar_writes " + WRITE_QUEUE_CAPACITY + " "));
+            assertTrue(stats, stats.endsWith(" 0"));
+        }
+    }
+
+    /**
+     * Pushes one segment's readings from each sensor on its own thread, all at once.
+     */
+    private static void pushSegment(List<ManualSensor> sensors, final int segment)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (final ManualSensor sensor : sensors) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= READINGS_PER_SEGMENT; i++) {
+                        long timestamp = segment * READINGS_PER_SEGMENT + i;
+                        sensor.pushValue(timestamp, i);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static long usedHeapBytesAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        // One collection may leave garbage that only becomes unreachable after finalizers run.
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class StalledExecutor implements Executor {
+        private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        public void runAll() {
+            Runnable next;
+            while ((next = mQueue.poll()) != null) {
+                next.run();
+            }
+        }
+    }
+
+    /**
+     * Only ever written from the single sensor data thread, and read after it has finished.
+     * Counts readings instead of keeping them, so that storage does not grow the heap.
+     */
+    private static class SlowSensorDatabase extends InMemorySensorDatabase {
+        private int mWrites = 0;
+        private final Map<String, Integer> mCounts = new HashMap<>();
+
+        @Override
+        public void addScalarReading(String databaseTag, int resolutionTier,
+                long timestampMillis, double value) {
+            if (++mWrites % 500 == 0) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (resolutionTier == 0) {
+                Integer count = mCounts.get(databaseTag);
+                mCounts.put(databaseTag, count == null ? 1 : count + 1);
+            }
+        }
+
+        public int countReadings(String databaseTag) {
+            Integer count = mCounts.get(databaseTag);
+            return count == null ? 0 : count;
+        }
+    }
+}
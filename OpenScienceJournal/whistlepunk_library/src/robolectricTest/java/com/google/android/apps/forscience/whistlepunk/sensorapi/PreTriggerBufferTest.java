@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PreTriggerBufferTest {
+    @Test
+    public void testKeepsWindow() {
+        PreTriggerBuffer buffer = new PreTriggerBuffer(100, 50);
+        for (int i = 0; i <= 10; i++) {
+            buffer.add(i * 25, i);
+        }
+        // Newest is 250, so readings before 150 are gone.
+        assertEquals(150, buffer.getEarliestMillis(0));
+        assertEquals(Arrays.asList("150=6.0", "175=7.0", "200=8.0", "225=9.0", "250=10.0"),
+                drain(buffer, 0));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testKeepsCapacity() {
+        PreTriggerBuffer buffer = new PreTriggerBuffer(1000, 3);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i, i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(3 * 16, buffer.getCapacityBytes());
+        assertEquals(Arrays.asList("8=8.0", "9=9.0"), drain(buffer, 8));
+    }
+
+    @Test
+    public void testNothingSince() {
+        PreTriggerBuffer buffer = new PreTriggerBuffer(1000, 3);
+        assertEquals(PreTriggerBuffer.NONE, buffer.getEarliestMillis(0));
+        buffer.add(5, 5);
+        assertEquals(PreTriggerBuffer.NONE, buffer.getEarliestMillis(6));
+        assertEquals(new ArrayList<String>(), drain(buffer, 6));
+    }
+
+    private List<String> drain(PreTriggerBuffer buffer, long sinceMillis) {
+        final List<String> drained = new ArrayList<>();
+        buffer.drainTo(sinceMillis, new StreamConsumer() {
+            @Override
+            public boolean addData(long timestampMillis, double value) {
+                drained.add(timestampMillis + "=" + value);
+                return true;
+            }
+        });
+        return drained;
+    }
+}
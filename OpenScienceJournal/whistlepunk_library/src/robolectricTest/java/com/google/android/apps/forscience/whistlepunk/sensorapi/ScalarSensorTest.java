@@ -96,6 +96,34 @@ public class ScalarSensorTest {
         assertEquals(expectedObserved, observer.getReadings());
     }
 
+    @Test
+    public void testRecordFromPreTriggerBuffer() {
+        ManualSensor sensor = new ManualSensor("test", Long.MAX_VALUE, 2);
+        PreTriggerRecorder recorder = (PreTriggerRecorder) createRecorder(sensor);
+
+        recorder.startObserving();
+        for (int i = 0; i < 10; i++) {
+            sensor.pushValue(i * 1000, i);
+        }
+        // Only the default window before the newest reading is kept.
+        assertEquals(4000, recorder.getEarliestBufferedMillis(0));
+        assertEquals(6000, recorder.getEarliestBufferedMillis(5500));
+        assertEquals(PreTriggerBuffer.DEFAULT_CAPACITY * 16, recorder.getBufferedBytes());
+
+        recorder.startRecordingFrom("runId", 5500);
+        sensor.pushValue(10000, 10);
+        recorder.stopRecording(null);
+
+        ArrayList<InMemorySensorDatabase.Reading> expected = Lists.newArrayList(
+                new InMemorySensorDatabase.Reading("test", 6000, 6),
+                new InMemorySensorDatabase.Reading("test", 7000, 7),
+                new InMemorySensorDatabase.Reading("test", 8000, 8),
+                new InMemorySensorDatabase.Reading("test", 9000, 9),
+                new InMemorySensorDatabase.Reading("test", 10000, 10));
+        assertEquals(expected, mDb.getReadings(0));
+        assertEquals(PreTriggerBuffer.NONE, recorder.getEarliestBufferedMillis(0));
+    }
+
     private Context getContext() {
         return null;
     }
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarResampler.Interpolation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.Observable;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ScalarResamplerTest {
+    private static final String[] TAGS = {"a", "b"};
+    private final List<String> mRows = new ArrayList<>();
+
+    @Test
+    public void testAtEachTimestamp() {
+        ScalarResampler resampler = makeResampler(0, Interpolation.LAST, 0);
+        resampler.addReading("a", 1, 1);
+        resampler.addReading("b", 1, 2);
+        resampler.addReading("other", 1, 5);
+        resampler.addReading("a", 2, 3);
+        resampler.finish();
+        assertEquals(Arrays.asList("1 [1.0, 2.0]", "2 [3.0, NaN]"), mRows);
+    }
+
+    @Test
+    public void testLast() {
+        ScalarResampler resampler = makeResampler(10, Interpolation.LAST, 0);
+        resampler.addReading("a", 3, 1);
+        resampler.addReading("b", 7, 2);
+        resampler.addReading("a", 15, 3);
+        resampler.addReading("b", 26, 4);
+        resampler.finish();
+        // The empty row at 0 is skipped, and no rows come after the last reading.
+        assertEquals(Arrays.asList("10 [1.0, 2.0]", "20 [3.0, 2.0]"), mRows);
+    }
+
+    @Test
+    public void testLinear() {
+        ScalarResampler resampler = makeResampler(10, Interpolation.LINEAR, 100);
+        resampler.addReading("a", 0, 0);
+        resampler.addReading("b", 5, 10);
+        resampler.addReading("a", 10, 10);
+        resampler.addReading("b", 15, 20);
+        resampler.addReading("a", 20, 20);
+        resampler.finish();
+        // b's last reading is at 15, so it has no value at 20.
+        assertEquals(Arrays.asList("0 [0.0, NaN]", "10 [10.0, 15.0]", "20 [20.0, NaN]"),
+                mRows);
+    }
+
+    @Test
+    public void testNearest() {
+        ScalarResampler resampler = makeResampler(5, Interpolation.NEAREST, 100);
+        resampler.addReading("a", 0, 0);
+        resampler.addReading("a", 4, 4);
+        resampler.addReading("a", 10, 10);
+        resampler.addReading("b", 10, 1);
+        resampler.finish();
+        assertEquals(Arrays.asList("0 [0.0, NaN]", "5 [4.0, NaN]", "10 [10.0, 1.0]"), mRows);
+    }
+
+    @Test
+    public void testLookaheadIsBounded() {
+        ScalarResampler resampler = makeResampler(10, Interpolation.LINEAR, 50);
+        resampler.addReading("a", 0, 0);
+        resampler.addReading("b", 0, 7);
+        for (int t = 10; t <= 60; t += 10) {
+            resampler.addReading("a", t, t);
+        }
+        // Still waiting for b to pass 10
+        assertEquals(Arrays.asList("0 [0.0, 7.0]"), mRows);
+
+        resampler.addReading("a", 70, 70);
+        assertEquals(Arrays.asList("0 [0.0, 7.0]", "10 [10.0, NaN]"), mRows);
+    }
+
+    @Test
+    public void testSensorThatStopsEarlyIsNotHeld() {
+        ScalarResampler resampler = makeResampler(10, Interpolation.LINEAR, 100);
+        resampler.addReading("a", 0, 0);
+        resampler.addReading("b", 0, 5);
+        resampler.addReading("b", 10, 6);
+        for (int t = 10; t <= 40; t += 10) {
+            resampler.addReading("a", t, t);
+        }
+        resampler.finish();
+        assertEquals(Arrays.asList("0 [0.0, 5.0]", "10 [10.0, 6.0]", "20 [20.0, NaN]",
+                "30 [30.0, NaN]", "40 [40.0, NaN]"), mRows);
+    }
+
+    @Test
+    public void testOnGrid() {
+        Observable.fromArray(new ScalarReading(0, 0, "a"), new ScalarReading(0, 1, "b"),
+                new ScalarReading(10, 10, "a"), new ScalarReading(20, 3, "b"),
+                new ScalarReading(20, 20, "a"))
+                .compose(ScalarResampler.onGrid(TAGS, 0, 10, Interpolation.LINEAR, 1000))
+                .map(ScalarResampler.Row::toString)
+                .test()
+                .assertValues("0 [0.0, 1.0]", "10 [10.0, 2.0]", "20 [20.0, 3.0]")
+                .assertComplete();
+    }
+
+    private ScalarResampler makeResampler(long intervalMillis, Interpolation interpolation,
+            long lookaheadMillis) {
+        return new ScalarResampler(TAGS, 0, intervalMillis, interpolation, lookaheadMillis,
+                row -> mRows.add(row.toString()));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class AudioAnalyzerTest {
+    private static class RecordingWindowListener implements AudioAnalyzer.WindowListener {
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> peaks = new ArrayList<>();
+        List<Double> rmses = new ArrayList<>();
+        List<Double> weightedRmses = new ArrayList<>();
+
+        @Override
+        public void onWindow(long timestampMillis, double peak, double rms,
+                double aWeightedRms) {
+            timestamps.add(timestampMillis);
+            peaks.add(peak);
+            rmses.add(rms);
+            weightedRmses.add(aWeightedRms);
+        }
+    }
+
+    @Test
+    public void testWindowAndHop() {
+        RecordingWindowListener listener = new RecordingWindowListener();
+        // 1000 Hz, so each sample is one millisecond
+        AudioAnalyzer analyzer = new AudioAnalyzer(1000, 10, 5, listener);
+        short[] buffer = squareWave(23, 100);
+        analyzer.addSamples(1000, buffer, buffer.length);
+
+        // First window completes at sample 9, then one every 5 samples.
+        assertEquals(3, listener.timestamps.size());
+        assertEquals(987, (long) listener.timestamps.get(0));
+        assertEquals(992, (long) listener.timestamps.get(1));
+        assertEquals(997, (long) listener.timestamps.get(2));
+        assertEquals(100, listener.peaks.get(0), 0.0001);
+        assertEquals(100, listener.rmses.get(0), 0.0001);
+    }
+
+    @Test
+    public void testWindowsSpanBuffers() {
+        RecordingWindowListener listener = new RecordingWindowListener();
+        AudioAnalyzer analyzer = new AudioAnalyzer(1000, 10, 10, listener);
+        short[] buffer = squareWave(6, 50);
+        analyzer.addSamples(100, buffer, buffer.length);
+        assertEquals(0, listener.timestamps.size());
+        analyzer.addSamples(106, buffer, buffer.length);
+        assertEquals(1, listener.timestamps.size());
+        assertEquals(104, (long) listener.timestamps.get(0));
+    }
+
+    @Test
+    public void testOnlyCountedSamplesAreUsed() {
+        RecordingWindowListener listener = new RecordingWindowListener();
+        AudioAnalyzer analyzer = new AudioAnalyzer(1000, 4, 4, listener);
+        short[] buffer = new short[]{3, -4, 3, -4, 1000, 1000};
+        analyzer.addSamples(0, buffer, 4);
+        assertEquals(1, listener.timestamps.size());
+        assertEquals(4, listener.peaks.get(0), 0.0001);
+        assertEquals(Math.sqrt((9 + 16 + 9 + 16) / 4.0), listener.rmses.get(0), 0.0001);
+    }
+
+    @Test
+    public void testAWeightingAttenuatesLowFrequencies() {
+        int sampleRate = 44100;
+        double lowRatio = weightedToRawRatio(sampleRate, 50);
+        double midRatio = weightedToRawRatio(sampleRate, 1000);
+        assertEquals(1.0, midRatio, 0.02);
+        // A-weighting is about -30 dB at 50 Hz
+        assertTrue("Ratio was " + lowRatio, lowRatio < 0.05);
+    }
+
+    private double weightedToRawRatio(int sampleRate, double frequency) {
+        RecordingWindowListener listener = new RecordingWindowListener();
+        AudioAnalyzer analyzer = new AudioAnalyzer(sampleRate, sampleRate / 2, sampleRate / 2,
+                listener);
+        short[] buffer = new short[sampleRate * 2];
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = (short) (10000 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        analyzer.addSamples(0, buffer, buffer.length);
+        // Use the last window, after the filter has settled
+        int last = listener.rmses.size() - 1;
+        return listener.weightedRmses.get(last) / listener.rmses.get(last);
+    }
+
+    private short[] squareWave(int length, int amplitude) {
+        short[] buffer = new short[length];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (short) (i % 2 == 0 ? amplitude : -amplitude);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DerivedExpressionTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testMagnitude() {
+        DerivedExpression expression = DerivedExpression.compile("sqrt(x*x + y^2 + z*z)",
+                Arrays.asList("x", "y", "z"));
+        assertEquals(3, expression.getVariableCount());
+        assertEquals(13, expression.evaluate(new double[]{3, 4, 12}), DELTA);
+    }
+
+    @Test
+    public void testPrecedence() {
+        DerivedExpression expression = DerivedExpression.compile("1 + 2 * a - -a ^ 2 / 4",
+                Collections.singletonList("a"));
+        // -a^2 is -(a^2)
+        assertEquals(1 + 2 * 3 + 9 / 4.0, expression.evaluate(new double[]{3}), DELTA);
+        assertEquals(2.0, evaluateConstant("2 ^ 3 ^ 0"), DELTA);
+        assertEquals(-3.0, evaluateConstant("(1 - 2) * 3"), DELTA);
+    }
+
+    @Test
+    public void testPolynomialAndFunctions() {
+        DerivedExpression poly = DerivedExpression.compile("0.5 + 1.5e-1*v + 2E+0*v^2",
+                Collections.singletonList("v"));
+        assertEquals(0.5 + 0.15 * 2 + 2 * 4, poly.evaluate(new double[]{2}), DELTA);
+        assertEquals(Math.PI, evaluateConstant("max(abs(-pi), min(1, 2))"), DELTA);
+        assertEquals(8, evaluateConstant("pow(2, 3)"), DELTA);
+    }
+
+    @Test
+    public void testTwoInputs() {
+        DerivedExpression diff = DerivedExpression.compile("t1 - t2", Arrays.asList("t1", "t2"));
+        assertEquals(-1.5, diff.evaluate(new double[]{20, 21.5}), DELTA);
+    }
+
+    @Test
+    public void testErrors() {
+        assertInvalid("a +", "end of expression");
+        assertInvalid("b", "Unknown input b");
+        assertInvalid("foo(a)", "Unknown function foo");
+        assertInvalid("(a", "Expected ')'");
+        assertInvalid("a a", "Unexpected 'a'");
+        assertInvalid("min(a)", "Expected ','");
+        assertInvalid("2e", "Unexpected 'e'");
+    }
+
+    private double evaluateConstant(String source) {
+        return DerivedExpression.compile(source, Collections.<String>emptyList()).evaluate(
+                new double[0]);
+    }
+
+    private void assertInvalid(String source, String expectedMessage) {
+        try {
+            DerivedExpression.compile(source, Collections.singletonList("a"));
+            fail("Expected " + source + " to be invalid");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+}
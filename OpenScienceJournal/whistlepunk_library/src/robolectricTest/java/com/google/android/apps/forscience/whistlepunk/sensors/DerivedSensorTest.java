@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.RecorderListenerRegistry;
+import com.google.android.apps.forscience.whistlepunk.RecordingStatusListener;
+import com.google.android.apps.forscience.whistlepunk.TestData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ManualSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.MemorySensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorObserver;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamingRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DerivedSensorTest {
+    private final RecorderListenerRegistry mRegistry = new RecorderListenerRegistry();
+    private final SensorEnvironment mEnvironment = new MemorySensorEnvironment(
+            new InMemorySensorDatabase().makeSimpleRecordingController(), null, null, null);
+    private final RecordingSensorObserver mObserver = new RecordingSensorObserver();
+    private final RecordingStatusListener mListener = new RecordingStatusListener();
+
+    @Test
+    public void testDifferenceOfTwoSensors() {
+        ManualSensor a = startInput("a");
+        ManualSensor b = startInput("b");
+        SensorRecorder recorder = makeRecorder(new DerivedSensorSpec("address", "Difference",
+                "inside - outside", "C").addInput("a", "inside").addInput("b", "outside"));
+        recorder.startObserving();
+        assertEquals(SensorStatusListener.STATUS_CONNECTED,
+                (int) mListener.mostRecentStatuses.get("derived"));
+
+        b.pushValue(0, 10);
+        a.pushValue(5, 20);
+        b.pushValue(10, 12);
+        a.pushValue(10, 25);
+        b.pushValue(20, 14);
+
+        new TestData().addPoint(5, 9).addPoint(10, 13).checkObserver(mObserver);
+        mListener.assertNoErrors();
+
+        recorder.stopObserving();
+        assertEquals(0, mRegistry.countListeners("a"));
+        assertEquals(0, mRegistry.countListeners("b"));
+    }
+
+    @Test
+    public void testInputsNotSkippedWhenDisplayFallsBehind() {
+        // The input's readings are never shown, so its display queue overflows.
+        List<Runnable> neverRun = new ArrayList<>();
+        ManualSensor a = startInput("a", neverRun::add);
+        SensorRecorder recorder = makeRecorder(
+                new DerivedSensorSpec("address", "Double", "2 * x", "").addInput("a", "x"));
+        recorder.startObserving();
+
+        int count = ScalarSensor.DEFAULT_DISPLAY_QUEUE_CAPACITY * 4;
+        for (int i = 1; i <= count; i++) {
+            a.pushValue(i, i);
+        }
+        assertFalse(neverRun.isEmpty());
+        assertEquals(count, mObserver.getReadings().size());
+        assertEquals(2.0 * count,
+                mObserver.getReadings().get(count - 1).getValue(), 0.0);
+        recorder.stopObserving();
+    }
+
+    @Test
+    public void testBadExpressionReportsError() {
+        SensorRecorder recorder = makeRecorder(
+                new DerivedSensorSpec("address", "Bad", "x + y", "").addInput("a", "x"));
+        recorder.startObserving();
+        mListener.assertErrors("Unknown input y at position 5 in \"x + y\"");
+        assertEquals(0, mRegistry.countListeners("a"));
+    }
+
+    @Test
+    public void testIndirectCycleReportsError() {
+        Map<String, DerivedSensorSpec> knownSpecs = new HashMap<>();
+        knownSpecs.put("middle", new DerivedSensorSpec("middle", "Middle", "2 * x", "")
+                .addInput("derived", "x"));
+        DerivedSensor sensor = new DerivedSensor("derived",
+                new DerivedSensorSpec("address", "Loop", "x + 1", "").addInput("middle", "x"),
+                DerivedSensor.inputsFrom(mRegistry), knownSpecs, MoreExecutors.directExecutor());
+        sensor.createRecorder(null, mObserver, mListener, mEnvironment).startObserving();
+        mListener.assertErrors("Derived sensor cannot use itself as an input");
+        assertEquals(0, mRegistry.countListeners("middle"));
+    }
+
+    @Test
+    public void testDependsOn() {
+        Map<String, DerivedSensorSpec> specs = new HashMap<>();
+        specs.put("b", new DerivedSensorSpec("b", "B", "x", "").addInput("c", "x"));
+        specs.put("c", new DerivedSensorSpec("c", "C", "x + y", "").addInput("d", "x")
+                .addInput("a", "y"));
+        assertTrue(DerivedSensorSpec.dependsOn("a", Arrays.asList("a"), specs));
+        assertTrue(DerivedSensorSpec.dependsOn("a", Arrays.asList("e", "b"), specs));
+        assertFalse(DerivedSensorSpec.dependsOn("a", Arrays.asList("d", "e"), specs));
+        assertFalse(DerivedSensorSpec.dependsOn("b", Arrays.asList("d"), specs));
+    }
+
+    private ManualSensor startInput(String id) {
+        return startInput(id, MoreExecutors.directExecutor());
+    }
+
+    private ManualSensor startInput(String id, Executor uiThreadExecutor) {
+        ManualSensor sensor = new ManualSensor(id, 1000, 5, uiThreadExecutor);
+        SensorRecorder recorder = sensor.createRecorder(null,
+                mRegistry.makeObserverForRecorder(id), mRegistry, mEnvironment);
+        ((StreamingRecorder) recorder).setStreamConsumer(
+                mRegistry.makeStreamConsumerForRecorder(id));
+        recorder.startObserving();
+        return sensor;
+    }
+
+    private SensorRecorder makeRecorder(DerivedSensorSpec spec) {
+        DerivedSensor sensor = new DerivedSensor("derived", spec,
+                DerivedSensor.inputsFrom(mRegistry), MoreExecutors.directExecutor());
+        return sensor.createRecorder(null, mObserver, mListener, mEnvironment);
+    }
+}
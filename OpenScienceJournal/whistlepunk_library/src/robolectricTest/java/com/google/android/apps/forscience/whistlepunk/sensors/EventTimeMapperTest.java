@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class EventTimeMapperTest {
+    private static final long MILLIS = 1000 * 1000;
+    private static final long WALL_START = 1500000000000L;
+
+    @Test
+    public void testIgnoresCallbackJitter() {
+        EventTimeMapper mapper = new EventTimeMapper();
+        // Events every 5 ms; callbacks arrive 2 ms late, then 9 ms late, then 2 ms late.  The
+        // true latency can't be known, but the spacing between readings must be preserved.
+        assertEquals(WALL_START + 2, mapper.toClockMillis(0, WALL_START + 2));
+        assertEquals(WALL_START + 7, mapper.toClockMillis(5 * MILLIS, WALL_START + 5 + 9));
+        assertEquals(WALL_START + 12, mapper.toClockMillis(10 * MILLIS, WALL_START + 10 + 2));
+    }
+
+    @Test
+    public void testSlewsToLowerLatency() {
+        EventTimeMapper mapper = new EventTimeMapper();
+        assertEquals(WALL_START + 10, mapper.toClockMillis(0, WALL_START + 10));
+        // A faster delivery shows that the first estimate was 10 ms too late.  Jumping straight
+        // to the new offset would move this reading before the first one, so the offset comes
+        // down by half of each event interval instead.
+        assertEquals(WALL_START + 12, mapper.toClockMillis(5 * MILLIS, WALL_START + 5));
+        assertEquals(WALL_START + 15, mapper.toClockMillis(10 * MILLIS, WALL_START + 10 + 4));
+        assertEquals(WALL_START + 20, mapper.toClockMillis(20 * MILLIS, WALL_START + 20 + 3));
+        assertEquals(WALL_START * MILLIS, mapper.getOffsetNanos());
+    }
+
+    @Test
+    public void testRecalibratesAfterWallClockJump() {
+        EventTimeMapper mapper = new EventTimeMapper();
+        long interval = EventTimeMapper.RECALIBRATION_INTERVAL_NANOS;
+        long jump = 60 * 1000;
+        mapper.toClockMillis(0, WALL_START);
+
+        // The wall clock is moved forward by a minute; events keep arriving promptly.  The old
+        // offset is kept until a whole interval has passed with the new one.
+        long second = interval + MILLIS;
+        assertEquals(WALL_START + second / MILLIS,
+                mapper.toClockMillis(second, WALL_START + second / MILLIS + jump));
+        long third = 2 * interval + 2 * MILLIS;
+        assertEquals(WALL_START + third / MILLIS + jump,
+                mapper.toClockMillis(third, WALL_START + third / MILLIS + jump));
+    }
+
+    @Test
+    public void testNeverGoesBackwardsAfterWallClockMovesBack() {
+        EventTimeMapper mapper = new EventTimeMapper();
+        long jump = 60 * 1000;
+        long period = 5 * MILLIS;
+        long last = mapper.toClockMillis(0, WALL_START);
+        boolean reachedNewOffset = false;
+
+        // The wall clock is moved back by a minute just after the start.
+        for (long event = period; event < 60 * EventTimeMapper.RECALIBRATION_INTERVAL_NANOS;
+                event += period) {
+            long mapped = mapper.toClockMillis(event, WALL_START + event / MILLIS - jump);
+            assertTrue("Went from " + last + " to " + mapped, mapped > last);
+            last = mapped;
+            if (mapped == WALL_START + event / MILLIS - jump) {
+                reachedNewOffset = true;
+            }
+        }
+        assertTrue(reachedNewOffset);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.ReadableTransportableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.MemorySensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorObserver;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StubStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class HardwareScalarSensorTest {
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+    private static final long WALL_START = 1500000000000L;
+
+    private static class SettableClock implements Clock {
+        long now = WALL_START;
+
+        @Override
+        public long getNow() {
+            return now;
+        }
+    }
+
+    private static class FakeRegistrar implements HardwareSensorHub.Registrar {
+        int registeredPeriod = -1;
+
+        @Override
+        public void register(SensorEventListener listener, int samplingPeriodMicros) {
+            registeredPeriod = samplingPeriodMicros;
+        }
+
+        @Override
+        public void unregister(SensorEventListener listener) {
+            registeredPeriod = -1;
+        }
+    }
+
+    private static class TestSensor extends HardwareScalarSensor {
+        private final HardwareSensorHub mHub;
+
+        TestSensor(HardwareSensorHub hub) {
+            super("test", Sensor.TYPE_ACCELEROMETER, SamplingRate.PERIOD_UI_MICROS,
+                    MoreExecutors.directExecutor());
+            mHub = hub;
+        }
+
+        @Override
+        HardwareSensorHub getHub(Context context) {
+            return mHub;
+        }
+
+        @Override
+        protected double computeValue(float[] values, double magnitude) {
+            return values[0];
+        }
+    }
+
+    @Test
+    public void testHighRateReadingsKeepHardwareSpacing() {
+        FakeRegistrar registrar = new FakeRegistrar();
+        HardwareSensorHub hub = new HardwareSensorHub(registrar);
+        TestSensor sensor = new TestSensor(hub);
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController rc = db.makeSimpleRecordingController(
+                new MemoryMetadataManager());
+        SettableClock clock = new SettableClock();
+        SensorRecorder recorder = sensor.createRecorder(null, new RecordingSensorObserver(),
+                new StubStatusListener(), new MemorySensorEnvironment(rc, null, null, clock));
+
+        recorder.startObserving();
+        assertEquals(SamplingRate.PERIOD_UI_MICROS, registrar.registeredPeriod);
+
+        // 200 Hz is well above the UI rate
+        int periodMillis = 5;
+        recorder.applyOptions(optionsWithPeriod(periodMillis * 1000));
+        assertEquals(periodMillis * 1000, registrar.registeredPeriod);
+
+        recorder.startRecording("runId");
+        int seconds = 60;
+        int events = seconds * 1000 / periodMillis;
+        Random random = new Random(42);
+        float[] values = new float[3];
+        long bootNanos = 123456 * NANOS_PER_MILLI;
+        for (int i = 0; i < events; i++) {
+            long eventMillis = (long) i * periodMillis;
+            // Callbacks are delivered 1 to 9 ms after the hardware sampled.  The first one
+            // arrives with the minimum latency, so the calibrated offset never moves.
+            long latency = 1 + (i == 0 ? 0 : random.nextInt(9));
+            clock.now = WALL_START + eventMillis + latency;
+            values[0] = i;
+            hub.dispatch(bootNanos + eventMillis * NANOS_PER_MILLI, values);
+        }
+        recorder.stopRecording(null);
+        recorder.stopObserving();
+        assertEquals(-1, registrar.registeredPeriod);
+
+        List<InMemorySensorDatabase.Reading> readings = db.getReadings(0);
+        assertEquals(events, readings.size());
+        for (int i = 0; i < readings.size(); i++) {
+            InMemorySensorDatabase.Reading reading = readings.get(i);
+            assertEquals(WALL_START + 1 + (long) i * periodMillis, reading.getTimestampMillis());
+            assertEquals(i, reading.getValue(), 0.001);
+        }
+    }
+
+    private ReadableSensorOptions optionsWithPeriod(long periodMicros) {
+        Map<String, String> values = new HashMap<>();
+        values.put(SamplingRate.PREFS_KEY_SAMPLING_PERIOD_MICROS, String.valueOf(periodMicros));
+        return new ReadableTransportableSensorOptions(values);
+    }
+}
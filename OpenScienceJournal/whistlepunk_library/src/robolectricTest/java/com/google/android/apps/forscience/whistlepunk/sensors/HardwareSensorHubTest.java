@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import android.hardware.SensorEventListener;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class HardwareSensorHubTest {
+    private static final int UI = SamplingRate.PERIOD_UI_MICROS;
+    private static final int GAME = SamplingRate.PERIOD_GAME_MICROS;
+
+    private static class CountingRegistrar implements HardwareSensorHub.Registrar {
+        int registered = 0;
+        int unregistered = 0;
+        int lastPeriod = -1;
+
+        @Override
+        public void register(SensorEventListener listener, int samplingPeriodMicros) {
+            registered++;
+            lastPeriod = samplingPeriodMicros;
+        }
+
+        @Override
+        public void unregister(SensorEventListener listener) {
+            unregistered++;
+        }
+    }
+
+    private static class RecordingSubscriber implements HardwareSensorHub.Subscriber {
+        List<Float> xs = new ArrayList<>();
+        List<Double> magnitudes = new ArrayList<>();
+
+        @Override
+        public void onSensorValues(long eventTimestampNanos, float[] values, double magnitude) {
+            xs.add(values[0]);
+            magnitudes.add(magnitude);
+        }
+    }
+
+    @Test
+    public void testRegistersOnceForManySubscribers() {
+        CountingRegistrar registrar = new CountingRegistrar();
+        HardwareSensorHub hub = new HardwareSensorHub(registrar);
+        RecordingSubscriber x = new RecordingSubscriber();
+        RecordingSubscriber y = new RecordingSubscriber();
+        RecordingSubscriber z = new RecordingSubscriber();
+
+        hub.subscribe(x, UI);
+        hub.subscribe(y, UI);
+        hub.subscribe(z, UI);
+        assertEquals(1, registrar.registered);
+        assertEquals(3, hub.getSubscriberCount());
+
+        hub.unsubscribe(y);
+        hub.unsubscribe(x);
+        assertEquals(0, registrar.unregistered);
+
+        hub.unsubscribe(z);
+        assertEquals(1, registrar.unregistered);
+        assertEquals(0, hub.getSubscriberCount());
+
+        hub.subscribe(x, UI);
+        assertEquals(2, registrar.registered);
+    }
+
+    @Test
+    public void testDuplicateSubscribeAndUnknownUnsubscribeAreIgnored() {
+        CountingRegistrar registrar = new CountingRegistrar();
+        HardwareSensorHub hub = new HardwareSensorHub(registrar);
+        RecordingSubscriber x = new RecordingSubscriber();
+
+        hub.subscribe(x, UI);
+        hub.subscribe(x, UI);
+        assertEquals(1, hub.getSubscriberCount());
+
+        hub.unsubscribe(new RecordingSubscriber());
+        assertEquals(1, hub.getSubscriberCount());
+        assertEquals(0, registrar.unregistered);
+    }
+
+    @Test
+    public void testDispatchesEachEventToAllSubscribers() {
+        HardwareSensorHub hub = new HardwareSensorHub(new CountingRegistrar());
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        hub.subscribe(first, UI);
+        hub.subscribe(second, UI);
+
+        hub.dispatch(1000, new float[]{3, 4, 12});
+
+        assertEquals(1, first.xs.size());
+        assertEquals(3, first.xs.get(0), 0.001);
+        assertEquals(13, first.magnitudes.get(0), 0.001);
+        assertEquals(13, second.magnitudes.get(0), 0.001);
+    }
+
+    @Test
+    public void testUnsubscribeDuringDispatch() {
+        final HardwareSensorHub hub = new HardwareSensorHub(new CountingRegistrar());
+        final RecordingSubscriber other = new RecordingSubscriber();
+        HardwareSensorHub.Subscriber selfRemoving = new HardwareSensorHub.Subscriber() {
+            @Override
+            public void onSensorValues(long eventTimestampNanos, float[] values,
+                    double magnitude) {
+                hub.unsubscribe(this);
+            }
+        };
+        hub.subscribe(selfRemoving, UI);
+        hub.subscribe(other, UI);
+
+        hub.dispatch(1000, new float[]{1, 0, 0});
+        hub.dispatch(2000, new float[]{2, 0, 0});
+
+        assertEquals(2, other.xs.size());
+        assertEquals(1, hub.getSubscriberCount());
+    }
+
+    @Test
+    public void testRegistersAtFastestRequestedRate() {
+        CountingRegistrar registrar = new CountingRegistrar();
+        HardwareSensorHub hub = new HardwareSensorHub(registrar);
+        RecordingSubscriber slow = new RecordingSubscriber();
+        RecordingSubscriber fast = new RecordingSubscriber();
+
+        hub.subscribe(slow, UI);
+        assertEquals(UI, registrar.lastPeriod);
+
+        hub.subscribe(fast, GAME);
+        assertEquals(GAME, registrar.lastPeriod);
+        assertEquals(2, registrar.registered);
+        assertEquals(1, registrar.unregistered);
+
+        hub.unsubscribe(fast);
+        assertEquals(UI, registrar.lastPeriod);
+        assertEquals(UI, hub.getRegisteredSamplingPeriod());
+
+        // Same rate again: no re-registration
+        hub.setSamplingPeriod(slow, UI);
+        assertEquals(3, registrar.registered);
+
+        hub.setSamplingPeriod(slow, 5000);
+        assertEquals(5000, registrar.lastPeriod);
+        assertEquals(4, registrar.registered);
+
+        hub.unsubscribe(slow);
+        assertEquals(-1, hub.getRegisteredSamplingPeriod());
+    }
+}
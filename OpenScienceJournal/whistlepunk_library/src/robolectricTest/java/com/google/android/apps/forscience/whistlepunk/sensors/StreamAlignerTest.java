@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class StreamAlignerTest {
+    private final List<String> mAligned = new ArrayList<>();
+    private final StreamAligner.AlignedListener mListener = new StreamAligner.AlignedListener() {
+        @Override
+        public void onAligned(long timestampMillis, double[] values) {
+            mAligned.add(timestampMillis + " " + Arrays.toString(values));
+        }
+    };
+
+    @Test
+    public void testSingleInputPassesThrough() {
+        StreamAligner aligner = new StreamAligner(1, 100, mListener);
+        aligner.addSample(0, 10, 1);
+        aligner.addSample(0, 20, 2);
+        aligner.addSample(0, 20, 3);
+        assertEquals(Arrays.asList("10 [1.0]", "20 [2.0]"), mAligned);
+    }
+
+    @Test
+    public void testInterpolatesOntoReferenceTimestamps() {
+        StreamAligner aligner = new StreamAligner(2, 100, mListener);
+        aligner.addSample(1, 0, 0);
+        aligner.addSample(0, 5, 50);
+
+        // Waits until input 1 has passed the reference sample
+        assertEquals(0, mAligned.size());
+        aligner.addSample(1, 10, 100);
+        assertEquals(Arrays.asList("5 [50.0, 50.0]"), mAligned);
+
+        aligner.addSample(0, 10, 60);
+        assertEquals("10 [60.0, 100.0]", mAligned.get(1));
+    }
+
+    @Test
+    public void testSameTimestampAcrossInputs() {
+        // As when x, y, and z axes are delivered one after another from the same event.
+        StreamAligner aligner = new StreamAligner(3, 100, mListener);
+        for (int t = 1; t <= 3; t++) {
+            aligner.addSample(0, t, t);
+            aligner.addSample(1, t, 10 * t);
+            aligner.addSample(2, t, 100 * t);
+        }
+        assertEquals(Arrays.asList("1 [1.0, 10.0, 100.0]", "2 [2.0, 20.0, 200.0]",
+                "3 [3.0, 30.0, 300.0]"), mAligned);
+    }
+
+    @Test
+    public void testHoldsStalledInput() {
+        StreamAligner aligner = new StreamAligner(2, 100, mListener);
+        aligner.addSample(1, 0, 7);
+        aligner.addSample(0, 10, 1);
+        aligner.addSample(0, 50, 2);
+        assertEquals(0, mAligned.size());
+
+        // Input 1 is now more than 100ms behind sample 10, but not sample 50
+        aligner.addSample(0, 120, 3);
+        assertEquals(Arrays.asList("10 [1.0, 7.0]"), mAligned);
+    }
+
+    @Test
+    public void testNoOutputUntilEveryInputHasReported() {
+        StreamAligner aligner = new StreamAligner(2, 10, mListener);
+        aligner.addSample(0, 0, 1);
+        aligner.addSample(0, 100, 2);
+        assertEquals(0, mAligned.size());
+        aligner.addSample(1, 101, 5);
+        assertEquals(Arrays.asList("100 [2.0, 5.0]"), mAligned);
+    }
+
+    @Test
+    public void testBoundedPending() {
+        StreamAligner aligner = new StreamAligner(2, Long.MAX_VALUE, mListener);
+        aligner.addSample(1, 0, 0);
+        for (int t = 1; t <= StreamAligner.MAX_PENDING + 1; t++) {
+            aligner.addSample(0, t, t);
+        }
+        assertEquals(Arrays.asList("1 [1.0, 0.0]"), mAligned);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.performance.PerfTrackerProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records queue stats as "name capacity highWaterMark dropCount" strings, and times to first
+ * sample as "sensorId millis" strings; ignores everything else.
+ */
+public class RecordingPerfTracker implements PerfTrackerProvider {
+    private final List<String> mQueueStats;
+    private final List<String> mFirstSamples;
+
+    public RecordingPerfTracker(List<String> queueStats) {
+        this(queueStats, new ArrayList<String>());
+    }
+
+    public RecordingPerfTracker(List<String> queueStats, List<String> firstSamples) {
+        mQueueStats = queueStats;
+        mFirstSamples = firstSamples;
+    }
+
+    @Override
+    public TimerToken startTimer() {
+        return null;
+    }
+
+    @Override
+    public void stopTimer(TimerToken token, String eventName) {
+
+    }
+
+    @Override
+    public void startGlobalTimer(String eventName) {
+
+    }
+
+    @Override
+    public void stopGlobalTimer(String eventName) {
+
+    }
+
+    @Override
+    public void stopGlobalTimer(String eventName, String newEventName) {
+
+    }
+
+    @Override
+    public boolean startPerfTrackerEventDebugActivity(Context context) {
+        return false;
+    }
+
+    @Override
+    public void startJankRecorder(String eventName) {
+
+    }
+
+    @Override
+    public void stopJankRecorder(String eventName) {
+
+    }
+
+    @Override
+    public void watchForMemoryLeak(Object object) {
+
+    }
+
+    @Override
+    public void recordQueueStats(String queueName, int capacity, int highWaterMark,
+            long dropCount) {
+        synchronized (mQueueStats) {
+            mQueueStats.add(queueName + " " + capacity + " " + highWaterMark + " " + dropCount);
+        }
+    }
+
+    @Override
+    public void recordTimeToFirstSample(String sensorId, long millis) {
+        synchronized (mFirstSamples) {
+            mFirstSamples.add(sensorId + " " + millis);
+        }
+    }
+
+    @Override
+    public void recordAudioCaptureStats(double samplesPerSecond, long droppedBufferCount) {
+
+    }
+
+    @Override
+    public void recordPreTriggerBufferBytes(long bytes) {
+
+    }
+
+    @Override
+    public void recordBleConnectionStats(long connectMillis, int connectAttempts,
+            double notificationsPerSecond) {
+
+    }
+
+    @Override
+    public void recordExperimentCacheStats(int capacity, int hitCount, int missCount,
+            int evictionCount) {
+
+    }
+}
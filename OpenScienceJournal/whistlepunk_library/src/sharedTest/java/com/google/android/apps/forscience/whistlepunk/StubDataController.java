@@ -85,6 +85,22 @@ public class StubDataController implements DataController {
 
     }
 
+    @Override
+    public void compactExperimentFiles(MaybeConsumer<Success> onSuccess) {
+
+    }
+
+    @Override
+    public void loadTrials(List<Trial> trials, MaybeConsumer<Success> onSuccess) {
+
+    }
+
+    @Override
+    public void migrateExperimentsInBackground(
+            MetaDataManager.MigrationProgressListener listener) {
+
+    }
+
     @Override
     public String generateNewLabelId() {
         return null;
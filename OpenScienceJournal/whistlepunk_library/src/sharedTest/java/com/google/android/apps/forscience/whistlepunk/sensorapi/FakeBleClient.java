@@ -22,15 +22,26 @@ import android.bluetooth.BluetoothGattService;
 import android.content.Context;
 
 import com.google.android.apps.forscience.ble.BleClient;
+import com.google.android.apps.forscience.ble.BleConnectionManager;
 import com.google.android.apps.forscience.ble.BleFlow;
+import com.google.android.apps.forscience.whistlepunk.MockScheduler;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public class FakeBleClient implements BleClient {
     public String expectedAddress = null;
     public String mostRecentAddress = null;
+    // Besides expectedAddress
+    public final Set<String> connectableAddresses = new HashSet<>();
+    // Calls that talk to a device, in order, as "<method> <address>"
+    public final List<String> operations = new ArrayList<>();
 
     private Context mContext;
+    private BleConnectionManager mConnectionManager;
 
     public FakeBleClient(Context context) {
         this.mContext = context;
@@ -54,12 +65,13 @@ public class FakeBleClient implements BleClient {
     @Override
     public boolean connectToAddress(String address) {
         mostRecentAddress = address;
-        return address.equals(expectedAddress);
+        operations.add("connect " + address);
+        return address.equals(expectedAddress) || connectableAddresses.contains(address);
     }
 
     @Override
     public void findServices(String address) {
-
+        operations.add("findServices " + address);
     }
 
     @Override
@@ -80,7 +92,7 @@ public class FakeBleClient implements BleClient {
 
     @Override
     public void disconnectDevice(String address) {
-
+        operations.add("disconnect " + address);
     }
 
     @Override
@@ -125,4 +137,14 @@ public class FakeBleClient implements BleClient {
     public void setMaxNoDevices(int maxNoDevices) {
 
     }
+
+    @Override
+    public BleConnectionManager getConnectionManager() {
+        if (mConnectionManager == null) {
+            MockScheduler scheduler = new MockScheduler();
+            mConnectionManager = new BleConnectionManager(mContext, this, scheduler,
+                    scheduler.getClock());
+        }
+        return mConnectionManager;
+    }
 }
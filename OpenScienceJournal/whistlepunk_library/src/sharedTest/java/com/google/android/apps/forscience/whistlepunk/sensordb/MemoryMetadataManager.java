@@ -24,6 +24,7 @@ import com.google.android.apps.forscience.whistlepunk.api.scalarinput.InputDevic
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentSnapshot;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
@@ -82,6 +83,17 @@ public class MemoryMetadataManager implements MetaDataManager {
         mLayouts.put(experiment.getExperimentId(), experiment.getSensorLayouts());
     }
 
+    @Override
+    public void updateExperiment(Experiment experiment, ExperimentSnapshot snapshot) {
+        updateExperiment(experiment);
+    }
+
+    @Override
+    public void migrateExperimentsInBackground(MigrationProgressListener listener) {
+        // There is no database to migrate from.
+        listener.onMigrationProgress(0, 0);
+    }
+
     @Override
     public List<GoosciUserMetadata.ExperimentOverview> getExperimentOverviews(
             boolean includeArchived) {
@@ -223,4 +235,9 @@ public class MemoryMetadataManager implements MetaDataManager {
     public void saveImmediately() {
 
     }
+
+    @Override
+    public void compactExperimentFiles() {
+
+    }
 }
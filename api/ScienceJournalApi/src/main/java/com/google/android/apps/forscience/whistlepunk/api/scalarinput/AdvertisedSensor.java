@@ -16,9 +16,16 @@
 package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
 
 import android.os.DeadObjectException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * Sensor that is advertised through the API and connectable.
  *
@@ -27,9 +34,14 @@ import android.util.Log;
  */
 public abstract class AdvertisedSensor {
     private static final String TAG = "AdvertisedSensor";
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 50;
     private final String mAddress;
     private final String mName;
     private ISensorStatusListener mListener = null;
+    private BatchingObserver mBatcher = null;
+    private SampleRing.Writer mPendingRing = null;
+    private SampleRing.Writer mRing = null;
 
     protected AdvertisedSensor(String address, String name) {
         mAddress = address;
@@ -50,6 +62,35 @@ public abstract class AdvertisedSensor {
         return new SensorAppearanceResources();
     }
 
+    /**
+     * Override to change how many readings are sent to Science Journal at once.  Batching only
+     * happens when Science Journal supports it, and only matters for sensors sending many
+     * readings per second.
+     */
+    protected int getMaxBatchSize() {
+        return DEFAULT_MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Override to change how long a reading may wait for the rest of its batch.
+     */
+    protected long getMaxBatchDelayMillis() {
+        return DEFAULT_MAX_BATCH_DELAY_MILLIS;
+    }
+
+    /**
+     * Override to send readings through memory shared with Science Journal, rather than binder
+     * calls, for sensors that produce thousands of readings per second.  Readings that arrive
+     * while the buffer is full are dropped, so it should hold at least a second's worth.  When
+     * this is used, {@link DataConsumer#onNewData} must not be called from more than one thread
+     * at once.
+     *
+     * @return how many readings the shared buffer holds (a power of two), or 0 to not use one
+     */
+    protected int getSharedBufferCapacity() {
+        return 0;
+    }
+
     /**
      * Connect to the sensor (for example, establish a BLE connection).  Do _not_ start streaming
      * data yet.
@@ -87,8 +128,31 @@ public abstract class AdvertisedSensor {
      */
     protected abstract void disconnect();
 
+    /**
+     * Sets up a shared buffer for the next {@link #startObserving}, if this sensor uses one.
+     *
+     * @param dir          where to create the buffer's backing file
+     * @param readerRegion the region that Science Journal writes; this takes ownership of it
+     * @return the region for Science Journal to read, or null
+     */
+    final ParcelFileDescriptor openSharedBuffer(File dir, ParcelFileDescriptor readerRegion)
+            throws IOException {
+        int capacity = getSharedBufferCapacity();
+        if (capacity <= 0) {
+            readerRegion.close();
+            return null;
+        }
+        ByteBuffer reader = SharedRegion.mapReadOnly(readerRegion);
+        SharedRegion writer = SharedRegion.create(dir, SampleRing.writerRegionSize(capacity));
+        mPendingRing = new SampleRing.Writer(writer.getBuffer(), reader, capacity);
+        return writer.getReadOnlyDescriptor();
+    }
+
+    /**
+     * @param clientApiVersion the scalar API version of the connecting app
+     */
     final void startObserving(final ISensorObserver observer,
-            final ISensorStatusListener listener) throws RemoteException {
+            final ISensorStatusListener listener, int clientApiVersion) throws RemoteException {
         listener.onSensorConnecting();
         try {
             if (!connect()) {
@@ -105,6 +169,25 @@ public abstract class AdvertisedSensor {
         listener.onSensorConnected();
         mListener = listener;
 
+        final SampleRing.Writer ring = mPendingRing;
+        mPendingRing = null;
+        mRing = ring;
+
+        final BatchingObserver batcher;
+        if (ring == null && Versions.acceptsBatchedData(clientApiVersion)
+                && getMaxBatchSize() > 1) {
+            batcher = new BatchingObserver(observer, getMaxBatchSize(), getMaxBatchDelayMillis(),
+                    new Handler(Looper.getMainLooper()), new BatchingObserver.FailureListener() {
+                        @Override
+                        public void onFailure(RemoteException e) {
+                            handleFailure(e);
+                        }
+                    });
+        } else {
+            batcher = null;
+        }
+        mBatcher = batcher;
+
         streamData(new DataConsumer() {
             @Override
             public boolean isReceiving() {
@@ -114,21 +197,52 @@ public abstract class AdvertisedSensor {
             @Override
             public void onNewData(long timestamp, double value) {
                 try {
-                    try {
+                    if (ring != null) {
+                        ring.offer(timestamp, value);
+                        if (ring.publish()) {
+                            observer.onSharedDataAvailable();
+                        }
+                    } else if (batcher != null) {
+                        batcher.onNewData(timestamp, value);
+                    } else {
                         observer.onNewData(timestamp, value);
-                    } catch (DeadObjectException e) {
-                        reportError(e);
-                        stopObserving();
                     }
                 } catch (RemoteException e) {
-                    reportError(e);
+                    handleFailure(e);
                 }
             }
         });
     }
 
+    private void handleFailure(RemoteException e) {
+        try {
+            reportError(e);
+            if (e instanceof DeadObjectException) {
+                stopObserving();
+            }
+        } catch (RemoteException e2) {
+            reportError(e2);
+        }
+    }
+
     final void stopObserving() throws RemoteException {
         disconnect();
+        if (mRing != null) {
+            if (mRing.getDroppedCount() > 0 && Log.isLoggable(TAG, Log.WARN)) {
+                Log.w(TAG, "Shared buffer full, dropped " + mRing.getDroppedCount() + " readings");
+            }
+            mRing = null;
+        }
+        if (mBatcher != null) {
+            BatchingObserver batcher = mBatcher;
+            mBatcher = null;
+            try {
+                batcher.flush();
+            } catch (RemoteException e) {
+                // Still tell the listener we're done, if it can hear us.
+                reportError(e);
+            }
+        }
         if (mListener != null) {
             mListener.onSensorDisconnected();
             mListener = null;
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
+
+import android.os.Handler;
+import android.os.RemoteException;
+
+/**
+ * Collects readings for an {@link ISensorObserver}, and delivers them together through
+ * {@link ISensorObserver#onNewDataBatch}, so that a fast sensor costs one binder transaction per
+ * batch rather than one per reading.
+ *
+ * A batch is sent as soon as it is full, or once its first reading has waited
+ * {@code maxDelayMillis}.  Only use this if the connected app accepts batches (see
+ * {@link Versions#acceptsBatchedData(int)}).
+ */
+public class BatchingObserver {
+    public interface FailureListener {
+        /**
+         * A batch sent because of the time limit could not be delivered.
+         */
+        void onFailure(RemoteException e);
+    }
+
+    private final ISensorObserver mObserver;
+    private final Handler mHandler;
+    private final long mMaxDelayMillis;
+    private final FailureListener mFailureListener;
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    private int mCount = 0;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (RemoteException e) {
+                mFailureListener.onFailure(e);
+            }
+        }
+    };
+
+    /**
+     * @param handler where to send batches that reach {@code maxDelayMillis} before filling up
+     */
+    public BatchingObserver(ISensorObserver observer, int maxCount, long maxDelayMillis,
+            Handler handler, FailureListener failureListener) {
+        mObserver = observer;
+        mHandler = handler;
+        mMaxDelayMillis = maxDelayMillis;
+        mFailureListener = failureListener;
+        mTimestamps = new long[maxCount];
+        mValues = new double[maxCount];
+    }
+
+    public synchronized void onNewData(long timestamp, double value) throws RemoteException {
+        mTimestamps[mCount] = timestamp;
+        mValues[mCount] = value;
+        mCount++;
+        if (mCount == mTimestamps.length) {
+            flush();
+        } else if (mCount == 1) {
+            mHandler.postDelayed(mFlushRunnable, mMaxDelayMillis);
+        }
+    }
+
+    /**
+     * Sends any readings not yet sent.
+     */
+    public synchronized void flush() throws RemoteException {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mCount == 0) {
+            return;
+        }
+        int count = mCount;
+        mCount = 0;
+        // Across processes the arrays are copied into the transaction; in the same process,
+        // observers must copy what they need before returning.  Either way, they can be reused.
+        mObserver.onNewDataBatch(mTimestamps, mValues, count);
+    }
+}
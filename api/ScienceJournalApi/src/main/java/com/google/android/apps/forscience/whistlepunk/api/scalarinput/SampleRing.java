@@ -0,0 +1,265 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A single-producer, single-consumer ring of (timestamp, value) readings in memory shared between
+ * a sensor service and Science Journal, so that fast sensors need no binder call per batch.
+ *
+ * The ring lives in two regions, each written by only one side: the writer region (header and
+ * readings, written by the service) and the reader region (written by Science Journal).  Neither
+ * side takes a lock.  Binder is only used to wake the reader: once it has drained the ring, the
+ * reader says it is waiting, and the next {@link Writer#publish()} tells the writer to wake it.
+ *
+ * This class only depends on {@link ByteBuffer}, so it can be tested without shared memory.
+ */
+public class SampleRing {
+    private static final int MAGIC = 0x53524e47;
+
+    // Writer region.  Fields that change are kept on separate cache lines.
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_INDEX_OFFSET = 64;
+    private static final int WOKEN_EPOCH_OFFSET = 128;
+    private static final int DROPPED_OFFSET = 132;
+    private static final int RECORDS_OFFSET = 192;
+    private static final int RECORD_SIZE = 16;
+
+    // Reader region.
+    private static final int READ_INDEX_OFFSET = 0;
+    private static final int WAITING_EPOCH_OFFSET = 64;
+
+    /**
+     * How large the reader region must be.
+     */
+    public static final int READER_REGION_SIZE = 128;
+
+    // See fence().
+    private static volatile int sFence;
+
+    /**
+     * @param capacity how many readings the ring holds; a power of two
+     * @return how large the writer region must be
+     */
+    public static int writerRegionSize(int capacity) {
+        checkCapacity(capacity);
+        return RECORDS_OFFSET + capacity * RECORD_SIZE;
+    }
+
+    public interface Sink {
+        void onSample(long timestamp, double value);
+    }
+
+    /**
+     * The service's end.  Only one thread may use a Writer.
+     */
+    public static class Writer {
+        private final ByteBuffer mWriterRegion;
+        private final ByteBuffer mReaderRegion;
+        private final int mMask;
+        private int mWriteIndex = 0;
+        private int mPublishedIndex = 0;
+        // The reader is at least this far along.
+        private int mKnownReadIndex = 0;
+        private int mWokenEpoch = 0;
+        private int mDropped = 0;
+
+        /**
+         * Formats {@code writerRegion}, which must be at least
+         * {@link #writerRegionSize(int)} bytes.
+         */
+        public Writer(ByteBuffer writerRegion, ByteBuffer readerRegion, int capacity) {
+            checkCapacity(capacity);
+            mWriterRegion = writerRegion.order(ByteOrder.nativeOrder());
+            mReaderRegion = readerRegion.order(ByteOrder.nativeOrder());
+            mMask = capacity - 1;
+            mWriterRegion.putInt(CAPACITY_OFFSET, capacity);
+            mWriterRegion.putInt(WRITE_INDEX_OFFSET, 0);
+            mWriterRegion.putInt(WOKEN_EPOCH_OFFSET, 0);
+            mWriterRegion.putInt(DROPPED_OFFSET, 0);
+            fence();
+            mWriterRegion.putInt(MAGIC_OFFSET, MAGIC);
+        }
+
+        /**
+         * Adds a reading, which the reader can't see until {@link #publish()}.
+         *
+         * @return false if the ring is full, in which case the reading is dropped
+         */
+        public boolean offer(long timestamp, double value) {
+            // Indices wrap around; the difference is right as long as capacity < 2^31.
+            if (mWriteIndex - mKnownReadIndex > mMask) {
+                mKnownReadIndex = mReaderRegion.getInt(READ_INDEX_OFFSET);
+                // Don't overwrite a slot before seeing that the reader is done with it.
+                fence();
+                if (mWriteIndex - mKnownReadIndex > mMask) {
+                    mDropped++;
+                    mWriterRegion.putInt(DROPPED_OFFSET, mDropped);
+                    return false;
+                }
+            }
+            int offset = RECORDS_OFFSET + (mWriteIndex & mMask) * RECORD_SIZE;
+            mWriterRegion.putLong(offset, timestamp);
+            mWriterRegion.putDouble(offset + 8, value);
+            mWriteIndex++;
+            return true;
+        }
+
+        /**
+         * Makes offered readings visible to the reader.
+         *
+         * @return true if the reader is waiting, and must be woken up over binder
+         */
+        public boolean publish() {
+            if (mWriteIndex != mPublishedIndex) {
+                fence();
+                mWriterRegion.putInt(WRITE_INDEX_OFFSET, mWriteIndex);
+                mPublishedIndex = mWriteIndex;
+            }
+            fence();
+            int waitingEpoch = mReaderRegion.getInt(WAITING_EPOCH_OFFSET);
+            if ((waitingEpoch & 1) == 0 || waitingEpoch == mWokenEpoch) {
+                // Awake, or already woken from this wait.
+                return false;
+            }
+            if (mReaderRegion.getInt(READ_INDEX_OFFSET) == mPublishedIndex) {
+                // Nothing for the reader yet.
+                return false;
+            }
+            mWokenEpoch = waitingEpoch;
+            mWriterRegion.putInt(WOKEN_EPOCH_OFFSET, mWokenEpoch);
+            return true;
+        }
+
+        public int getDroppedCount() {
+            return mDropped;
+        }
+    }
+
+    /**
+     * Science Journal's end.  Methods may be called from any thread, one at a time.
+     */
+    public static class Reader {
+        private final ByteBuffer mWriterRegion;
+        private final ByteBuffer mReaderRegion;
+        private final int mMask;
+        private final int mCapacity;
+        private int mReadIndex;
+        private int mWaitingEpoch;
+
+        /**
+         * @param readerRegion at least {@link #READER_REGION_SIZE} bytes, all zero
+         * @throws IllegalArgumentException if {@code writerRegion} wasn't formatted by a
+         *                                  {@link Writer}
+         */
+        public Reader(ByteBuffer writerRegion, ByteBuffer readerRegion) {
+            mWriterRegion = writerRegion.order(ByteOrder.nativeOrder());
+            mReaderRegion = readerRegion.order(ByteOrder.nativeOrder());
+            if (mWriterRegion.getInt(MAGIC_OFFSET) != MAGIC) {
+                throw new IllegalArgumentException("Not a sample ring");
+            }
+            fence();
+            int capacity = mWriterRegion.getInt(CAPACITY_OFFSET);
+            checkCapacity(capacity);
+            if (mWriterRegion.capacity() < writerRegionSize(capacity)) {
+                throw new IllegalArgumentException("Writer region too small: " + capacity);
+            }
+            mMask = capacity - 1;
+            mCapacity = capacity;
+            mReadIndex = mReaderRegion.getInt(READ_INDEX_OFFSET);
+            mWaitingEpoch = mReaderRegion.getInt(WAITING_EPOCH_OFFSET);
+        }
+
+        /**
+         * Hands every published reading to {@code sink}, then marks the reader as waiting.  Call
+         * once after connecting, and again each time the service wakes the reader.
+         *
+         * @return how many readings were delivered
+         * @throws IllegalStateException if the writer region holds an impossible write index, in
+         *                               which case the ring can't be trusted any more and the
+         *                               readings should come another way
+         */
+        public synchronized int drainUntilIdle(Sink sink) {
+            if ((mWaitingEpoch & 1) != 0) {
+                setWaitingEpoch(mWaitingEpoch + 1);
+            }
+            int delivered = 0;
+            while (true) {
+                delivered += drain(sink);
+                setWaitingEpoch(mWaitingEpoch + 1);
+                fence();
+                if (mWriterRegion.getInt(WRITE_INDEX_OFFSET) == mReadIndex) {
+                    // Anything published from now on will come with a wakeup.
+                    return delivered;
+                }
+                setWaitingEpoch(mWaitingEpoch + 1);
+            }
+        }
+
+        /**
+         * @return how many readings the writer has dropped because the ring was full
+         */
+        public int getDroppedCount() {
+            return mWriterRegion.getInt(DROPPED_OFFSET);
+        }
+
+        private int drain(Sink sink) {
+            fence();
+            int writeIndex = mWriterRegion.getInt(WRITE_INDEX_OFFSET);
+            fence();
+            int count = writeIndex - mReadIndex;
+            if (count < 0 || count > mCapacity) {
+                // The writer never gets more than a ring ahead, so this isn't a reading we missed.
+                throw new IllegalStateException(
+                        "Corrupt sample ring: write index " + writeIndex + ", read index "
+                                + mReadIndex + ", capacity " + mCapacity);
+            }
+            for (int i = 0; i < count; i++) {
+                int offset = RECORDS_OFFSET + ((mReadIndex + i) & mMask) * RECORD_SIZE;
+                sink.onSample(mWriterRegion.getLong(offset), mWriterRegion.getDouble(offset + 8));
+            }
+            mReadIndex = writeIndex;
+            // The writer may reuse the slots once it sees the new index.
+            fence();
+            mReaderRegion.putInt(READ_INDEX_OFFSET, mReadIndex);
+            return count;
+        }
+
+        private void setWaitingEpoch(int epoch) {
+            mWaitingEpoch = epoch;
+            mReaderRegion.putInt(WAITING_EPOCH_OFFSET, epoch);
+        }
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+    }
+
+    /**
+     * Orders the surrounding reads and writes of the shared regions.  A volatile write followed
+     * by a volatile read is a full barrier in practice, on ART as on other JVMs; the fence
+     * methods that would say so directly need a newer API level than this library supports.
+     */
+    private static void fence() {
+        sFence = 0;
+        int ignored = sFence;
+    }
+}
@@ -22,12 +22,14 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
 import android.os.Binder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.ArrayMap;
 import android.util.Log;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -227,13 +229,14 @@ public abstract class ScalarSensorService extends Service {
                         final ISensorObserver observer, final ISensorStatusListener listener,
                         String settingsKey) throws RemoteException {
                     if (clientAllowed()) {
+                        int clientApiVersion = getCallingApiVersion();
                         AdvertisedSensor sensor = mSensors.get(sensorId);
                         // TODO: write tests for this
                         if (sensor != null) {
-                            sensor.startObserving(observer, listener);
+                            sensor.startObserving(observer, listener, clientApiVersion);
                         } else {
                             // TODO: create scanner class?
-                            findAndStartObserving(sensorId, observer, listener);
+                            findAndStartObserving(sensorId, observer, listener, clientApiVersion);
                         }
                     }
                 }
@@ -245,9 +248,28 @@ public abstract class ScalarSensorService extends Service {
                     }
                 }
 
+                @Override
+                public ParcelFileDescriptor openSharedBuffer(String sensorId,
+                        ParcelFileDescriptor readerRegion) throws RemoteException {
+                    AdvertisedSensor sensor = clientAllowed() ? mSensors.get(sensorId) : null;
+                    try {
+                        if (sensor == null) {
+                            readerRegion.close();
+                            return null;
+                        }
+                        return sensor.openSharedBuffer(getCacheDir(), readerRegion);
+                    } catch (IOException e) {
+                        if (Log.isLoggable(TAG, Log.ERROR)) {
+                            Log.e(TAG, "Can't share memory with client", e);
+                        }
+                        // Readings will go through the observer instead.
+                        return null;
+                    }
+                }
+
                 private void findAndStartObserving(final String sensorId,
-                        final ISensorObserver observer, final ISensorStatusListener listener)
-                        throws RemoteException {
+                        final ISensorObserver observer, final ISensorStatusListener listener,
+                        final int clientApiVersion) throws RemoteException {
                     scanDevices(new IDeviceConsumer.Stub() {
                         @Override
                         public void onDeviceFound(String deviceId, String name,
@@ -259,7 +281,8 @@ public abstract class ScalarSensorService extends Service {
                                         SensorAppearanceResources appearance)
                                         throws RemoteException {
                                     if (sensorAddress.equals(sensorId)) {
-                                        mSensors.get(sensorId).startObserving(observer, listener);
+                                        mSensors.get(sensorId).startObserving(observer, listener,
+                                                clientApiVersion);
                                     }
                                 }
 
@@ -280,6 +303,26 @@ public abstract class ScalarSensorService extends Service {
             };
         }
 
+        /**
+         * Must be called while handling an incoming binder call.
+         */
+        private int getCallingApiVersion() {
+            PackageManager pm = getPackageManager();
+            String packageName = pm.getNameForUid(Binder.getCallingUid());
+            if (packageName == null) {
+                return Versions.FIRST_RELEASE_SCALAR_API_VERSION;
+            }
+            try {
+                return Versions.getScalarApiVersion(packageName,
+                        pm.getResourcesForApplication(packageName));
+            } catch (PackageManager.NameNotFoundException e) {
+                if (Log.isLoggable(TAG, Log.ERROR)) {
+                    Log.e(TAG, "Can't resolve calling package " + packageName, e);
+                }
+                return Versions.FIRST_RELEASE_SCALAR_API_VERSION;
+            }
+        }
+
         private boolean clientAllowed() {
             if (!mSignatureHasBeenChecked) {
                 mSignatureCheckPassed =
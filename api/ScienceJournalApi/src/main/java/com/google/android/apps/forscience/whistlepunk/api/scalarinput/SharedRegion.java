@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.android.apps.forscience.whistlepunk.api.scalarinput;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory that one app writes and another app reads, for {@link SampleRing}.
+ *
+ * The memory is a file mapped by both apps.  The file is deleted as soon as it is mapped, so it
+ * only lives as long as the mappings and the descriptor handed to the other app.
+ */
+public class SharedRegion {
+    private final MappedByteBuffer mBuffer;
+    private ParcelFileDescriptor mReadOnlyDescriptor;
+
+    private SharedRegion(MappedByteBuffer buffer, ParcelFileDescriptor readOnlyDescriptor) {
+        mBuffer = buffer;
+        mReadOnlyDescriptor = readOnlyDescriptor;
+    }
+
+    /**
+     * @param dir  where to create the backing file, such as the app's cache directory
+     * @param size in bytes
+     * @return a new region, filled with zeros
+     */
+    public static SharedRegion create(File dir, int size) throws IOException {
+        File file = File.createTempFile("ring", null, dir);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                        size);
+                return new SharedRegion(buffer,
+                        ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+            } finally {
+                // The mapping stays valid.
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Maps a region that another app created.  Takes ownership of {@code descriptor}.
+     */
+    public static ByteBuffer mapReadOnly(ParcelFileDescriptor descriptor) throws IOException {
+        ParcelFileDescriptor.AutoCloseInputStream in =
+                new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return a descriptor to send to the other app, which can pass it to
+     * {@link #mapReadOnly(ParcelFileDescriptor)}
+     */
+    public ParcelFileDescriptor getReadOnlyDescriptor() {
+        return mReadOnlyDescriptor;
+    }
+
+    /**
+     * Closes our copy of the read-only descriptor, once it has been sent.  The mapping stays
+     * valid.
+     */
+    public void closeDescriptor() {
+        if (mReadOnlyDescriptor == null) {
+            return;
+        }
+        try {
+            mReadOnlyDescriptor.close();
+        } catch (IOException e) {
+            // Nothing else to do with it.
+        }
+        mReadOnlyDescriptor = null;
+    }
+}
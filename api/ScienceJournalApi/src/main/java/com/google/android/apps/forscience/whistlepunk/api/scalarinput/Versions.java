@@ -22,6 +22,21 @@ import android.util.Log;
 public class Versions {
     public static int FIRST_RELEASE_SCALAR_API_VERSION = 1;
 
+    /**
+     * Apps at this version or later accept {@link ISensorObserver#onNewDataBatch}.
+     */
+    public static int BATCHED_DATA_SCALAR_API_VERSION = 2;
+
+    public static int LATEST_SCALAR_API_VERSION = BATCHED_DATA_SCALAR_API_VERSION;
+
+    public static boolean isKnownVersion(int version) {
+        return version >= FIRST_RELEASE_SCALAR_API_VERSION && version <= LATEST_SCALAR_API_VERSION;
+    }
+
+    public static boolean acceptsBatchedData(int version) {
+        return version >= BATCHED_DATA_SCALAR_API_VERSION;
+    }
+
     public static int getScalarApiVersion(String packageName, Resources resources) {
         try {
             int identifier = resources.getIdentifier("scalar_api_version", "integer",